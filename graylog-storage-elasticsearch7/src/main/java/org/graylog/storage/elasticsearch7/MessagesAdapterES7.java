@@ -18,7 +18,6 @@ package org.graylog.storage.elasticsearch7;
 
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.Iterables;
 import org.graylog.shaded.elasticsearch7.org.elasticsearch.ElasticsearchException;
@@ -32,6 +31,7 @@ import org.graylog.shaded.elasticsearch7.org.elasticsearch.client.indices.Analyz
 import org.graylog.shaded.elasticsearch7.org.elasticsearch.client.indices.AnalyzeResponse;
 import org.graylog.shaded.elasticsearch7.org.elasticsearch.common.xcontent.XContentType;
 import org.graylog.shaded.elasticsearch7.org.elasticsearch.rest.RestStatus;
+import org.graylog2.indexer.messages.BulkDocumentEncoder;
 import org.graylog2.indexer.messages.ChunkedBulkIndexer;
 import org.graylog2.indexer.messages.DocumentNotFoundException;
 import org.graylog2.indexer.messages.Indexable;
@@ -70,14 +70,14 @@ public class MessagesAdapterES7 implements MessagesAdapter {
     private final ElasticsearchClient client;
     private final Meter invalidTimestampMeter;
     private final ChunkedBulkIndexer chunkedBulkIndexer;
-    private final ObjectMapper objectMapper;
+    private final ThreadLocal<BulkDocumentEncoder> documentEncoder;
 
     @Inject
     public MessagesAdapterES7(ElasticsearchClient elasticsearchClient, MetricRegistry metricRegistry, ChunkedBulkIndexer chunkedBulkIndexer, ObjectMapper objectMapper) {
         this.client = elasticsearchClient;
         this.invalidTimestampMeter = metricRegistry.meter(name(Messages.class, "invalid-timestamps"));
         this.chunkedBulkIndexer = chunkedBulkIndexer;
-        this.objectMapper = objectMapper;
+        this.documentEncoder = ThreadLocal.withInitial(() -> new BulkDocumentEncoder(objectMapper, invalidTimestampMeter));
     }
 
     @Override
@@ -167,27 +167,39 @@ public class MessagesAdapterES7 implements MessagesAdapter {
     }
 
     private BulkResponse runBulkRequest(int indexedSuccessfully, List<IndexingRequest> chunk) throws ChunkedBulkIndexer.EntityTooLargeException {
-        final BulkRequest bulkRequest = createBulkRequest(chunk);
-
-        final BulkResponse result;
+        // The documents of the bulk request are slices of the encoder buffer, it can only be reused after the request.
+        final BulkDocumentEncoder encoder = documentEncoder.get();
         try {
-            result = this.client.execute((c, requestOptions) -> c.bulk(bulkRequest, requestOptions));
-        } catch (ElasticsearchException e) {
-            for (ElasticsearchException cause : e.guessRootCauses()) {
-                if (cause.status().equals(RestStatus.REQUEST_ENTITY_TOO_LARGE)) {
-                    throw new ChunkedBulkIndexer.EntityTooLargeException(indexedSuccessfully, indexingErrorsFrom(chunk));
+            final BulkRequest bulkRequest = createBulkRequest(chunk, encoder);
+
+            final BulkResponse result;
+            try {
+                result = this.client.execute((c, requestOptions) -> c.bulk(bulkRequest, requestOptions));
+            } catch (ElasticsearchException e) {
+                for (ElasticsearchException cause : e.guessRootCauses()) {
+                    if (cause.status().equals(RestStatus.REQUEST_ENTITY_TOO_LARGE)) {
+                        throw new ChunkedBulkIndexer.EntityTooLargeException(indexedSuccessfully, indexingErrorsFrom(chunk));
+                    }
                 }
+                throw new org.graylog2.indexer.ElasticsearchException(e);
             }
-            throw new org.graylog2.indexer.ElasticsearchException(e);
+            return result;
+        } finally {
+            encoder.release();
         }
-        return result;
     }
 
-    private BulkRequest createBulkRequest(List<IndexingRequest> chunk) {
+    private BulkRequest createBulkRequest(List<IndexingRequest> chunk, BulkDocumentEncoder encoder) {
         final BulkRequest bulkRequest = new BulkRequest();
-        chunk.forEach(request -> bulkRequest.add(
-                indexRequestFrom(request)
-        ));
+        try {
+            encoder.encode(chunk, (request, buffer, offset, length) -> bulkRequest.add(
+                    new IndexRequest(request.indexSet().getWriteIndexAlias())
+                            .id(request.message().getId())
+                            .source(buffer, offset, length, XContentType.JSON)
+            ));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
         return bulkRequest;
     }
 
@@ -240,16 +252,4 @@ public class MessagesAdapterES7 implements MessagesAdapter {
             default: return Messages.IndexingError.ErrorType.Unknown;
         }
     }
-
-    private IndexRequest indexRequestFrom(IndexingRequest request) {
-        final byte[] body;
-        try {
-            body = this.objectMapper.writeValueAsBytes(request.message().toElasticSearchObject(objectMapper, this.invalidTimestampMeter));
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException(e);
-        }
-        return new IndexRequest(request.indexSet().getWriteIndexAlias())
-                .id(request.message().getId())
-                .source(body, XContentType.JSON);
-    }
 }
@@ -16,6 +16,8 @@
  */
 package org.graylog.plugins.beats;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -51,15 +53,18 @@ public class Beats2Codec extends AbstractCodec {
     private static final String MAP_KEY_SEPARATOR = "_";
     private static final String BEATS_UNKNOWN = "unknown";
     private static final String CK_NO_BEATS_PREFIX = "no_beats_prefix";
+    private static final String CK_STREAMING_DECODE = "streaming_decode";
 
     private final ObjectMapper objectMapper;
     private final boolean noBeatsPrefix;
+    private final boolean streamingDecode;
 
     @Inject
     public Beats2Codec(@Assisted Configuration configuration, ObjectMapper objectMapper) {
         super(configuration);
 
         this.noBeatsPrefix = configuration.getBoolean(CK_NO_BEATS_PREFIX, false);
+        this.streamingDecode = configuration.getBoolean(CK_STREAMING_DECODE, false);
         this.objectMapper = requireNonNull(objectMapper);
     }
 
@@ -67,6 +72,19 @@ public class Beats2Codec extends AbstractCodec {
     @Override
     public Message decode(@Nonnull RawMessage rawMessage) {
         final byte[] payload = rawMessage.getPayload();
+        if (streamingDecode) {
+            try {
+                final Message message = parseStreaming(payload);
+                if (message != null) {
+                    return message;
+                }
+                // events which can't be flattened while streaming are parsed into a tree below
+            } catch (IOException e) {
+                LOG.error("Couldn't decode raw message {}", rawMessage);
+                return null;
+            }
+        }
+
         final JsonNode event;
         try {
             event = objectMapper.readTree(payload);
@@ -81,6 +99,17 @@ public class Beats2Codec extends AbstractCodec {
         return parseEvent(event);
     }
 
+    @Nullable
+    private Message parseStreaming(byte[] payload) throws IOException {
+        try (final JsonParser parser = objectMapper.getFactory().createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            final StreamingEvent event = new StreamingEvent(noBeatsPrefix);
+            return event.parse(parser) ? event.toMessage() : null;
+        }
+    }
+
     private Message parseEvent(JsonNode event) {
         final String beatsType = event.path("@metadata").path("beat").asText("beat");
         final String rootPath = noBeatsPrefix ? "" : beatsType;
@@ -158,6 +187,222 @@ public class Beats2Codec extends AbstractCodec {
         }
     }
 
+    /**
+     * Flattens a Beats event while reading its tokens, without materializing a {@link JsonNode} tree. Field names
+     * follow the same rules as {@link #addFlattened(Message, String, JsonNode)}.
+     *
+     * Events which can't be handled this way (e.g. a "message" which isn't a string) are rejected and left to the
+     * tree based parser. Duplicate keys are not detected, their fields are merged instead of the last one winning.
+     */
+    private static class StreamingEvent {
+        // Stands in for the Beats type in field names until "@metadata.beat" has been read
+        private static final char UNKNOWN_ROOT = '\u0000';
+
+        private final boolean noBeatsPrefix;
+        private final StringBuilder path = new StringBuilder(64);
+        private final List<String> keys = new ArrayList<>();
+        private final List<Object> values = new ArrayList<>();
+        // Keys before this index have been built with UNKNOWN_ROOT
+        private int resolvedFrom = 0;
+        private boolean rootResolved;
+
+        private String beatsType;
+        private String message;
+        private String timestamp;
+        private String sourceCollector;
+        private boolean hasAgent;
+        private String agentHostname;
+        private String beatHostname;
+
+        private StreamingEvent(boolean noBeatsPrefix) {
+            this.noBeatsPrefix = noBeatsPrefix;
+            this.rootResolved = noBeatsPrefix;
+            if (!noBeatsPrefix) {
+                path.append(UNKNOWN_ROOT);
+            }
+        }
+
+        private boolean parse(JsonParser parser) throws IOException {
+            JsonToken token;
+            while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+                final String key = parser.getCurrentName();
+                final JsonToken valueToken = parser.nextToken();
+                resolveRoot();
+
+                switch (key) {
+                    case "message":
+                        if (valueToken != JsonToken.VALUE_STRING) {
+                            return false;
+                        }
+                        message = parser.getText();
+                        continue;
+                    case Message.FIELD_GL2_SOURCE_COLLECTOR:
+                        if (valueToken != JsonToken.VALUE_STRING) {
+                            return false;
+                        }
+                        sourceCollector = parser.getText();
+                        continue;
+                    case "@timestamp":
+                        if (valueToken != JsonToken.VALUE_STRING) {
+                            return false;
+                        }
+                        timestamp = parser.getText();
+                        break;
+                    case "agent":
+                        hasAgent = true;
+                        break;
+                    default:
+                        break;
+                }
+
+                final int rootLength = path.length();
+                appendKey(key);
+                if (!addValue(parser, valueToken, key, 1)) {
+                    return false;
+                }
+                path.setLength(rootLength);
+            }
+            return token == JsonToken.END_OBJECT;
+        }
+
+        private void resolveRoot() {
+            if (!rootResolved && beatsType != null && !beatsType.isEmpty()) {
+                path.setLength(0);
+                path.append(beatsType);
+                resolvedFrom = keys.size();
+                rootResolved = true;
+            }
+        }
+
+        private void appendKey(String key) {
+            if (path.length() > 0) {
+                path.append(MAP_KEY_SEPARATOR);
+            }
+            path.append(key);
+        }
+
+        private boolean addValue(JsonParser parser, JsonToken token, String rootKey, int depth) throws IOException {
+            final int length = path.length();
+            switch (token) {
+                case START_OBJECT:
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        final String key = parser.getCurrentName();
+                        final JsonToken valueToken = parser.nextToken();
+                        if (depth == 1 && !capture(parser, rootKey, key, valueToken)) {
+                            return false;
+                        }
+                        appendKey(key);
+                        if (!addValue(parser, valueToken, rootKey, depth + 1)) {
+                            return false;
+                        }
+                        path.setLength(length);
+                    }
+                    return true;
+                case START_ARRAY:
+                    final List<Object> elements = new ArrayList<>();
+                    int index = 0;
+                    JsonToken elementToken;
+                    while ((elementToken = parser.nextToken()) != JsonToken.END_ARRAY) {
+                        if (elementToken == JsonToken.START_OBJECT) {
+                            if (length > 0) {
+                                path.append(MAP_KEY_SEPARATOR).append(index);
+                            }
+                            if (!addValue(parser, elementToken, rootKey, depth + 1)) {
+                                return false;
+                            }
+                            path.setLength(length);
+                        } else if (elementToken == JsonToken.START_ARRAY) {
+                            // nested arrays are skipped, just like by the tree based parser
+                            parser.skipChildren();
+                        } else {
+                            elements.add(scalarValue(parser, elementToken));
+                        }
+                        index++;
+                    }
+                    add(elements);
+                    return true;
+                default:
+                    add(scalarValue(parser, token));
+                    return true;
+            }
+        }
+
+        private boolean capture(JsonParser parser, String rootKey, String key, JsonToken valueToken) throws IOException {
+            final boolean hostname = "hostname".equals(key) && ("agent".equals(rootKey) || "beat".equals(rootKey));
+            final boolean type = "beat".equals(key) && "@metadata".equals(rootKey);
+            if (!hostname && !type) {
+                return true;
+            }
+            if (valueToken != JsonToken.VALUE_STRING) {
+                return false;
+            }
+
+            if (type) {
+                beatsType = parser.getText();
+            } else if ("agent".equals(rootKey)) {
+                agentHostname = parser.getText();
+            } else {
+                beatHostname = parser.getText();
+            }
+            return true;
+        }
+
+        @Nullable
+        private Object scalarValue(JsonParser parser, JsonToken token) throws IOException {
+            switch (token) {
+                case VALUE_NUMBER_INT:
+                    switch (parser.getNumberType()) {
+                        case INT:
+                            return parser.getIntValue();
+                        case LONG:
+                            return parser.getLongValue();
+                        default:
+                            return parser.getBigIntegerValue().longValue();
+                    }
+                case VALUE_NUMBER_FLOAT:
+                    return parser.getDoubleValue();
+                case VALUE_TRUE:
+                    return true;
+                case VALUE_FALSE:
+                    return false;
+                case VALUE_NULL:
+                    return null;
+                default:
+                    return parser.getText();
+            }
+        }
+
+        private void add(@Nullable Object value) {
+            keys.add(path.toString());
+            values.add(value);
+        }
+
+        @Nullable
+        private Message toMessage() {
+            final String type = beatsType == null ? "beat" : beatsType;
+            final String rootPath = noBeatsPrefix ? "" : type;
+            final int unresolved = rootResolved ? resolvedFrom : keys.size();
+            if (unresolved > 0 && rootPath.isEmpty()) {
+                // an empty Beats type changes the separators of the field names
+                return null;
+            }
+
+            final String hostname = hasAgent ? agentHostname : beatHostname;
+            final Message gelfMessage = new Message(message == null ? "-" : message,
+                    hostname == null ? BEATS_UNKNOWN : hostname,
+                    Tools.dateTimeFromString(timestamp == null ? "" : timestamp));
+            gelfMessage.addField("beats_type", type);
+            if (sourceCollector != null && !sourceCollector.isEmpty()) {
+                gelfMessage.addField(Message.FIELD_GL2_SOURCE_COLLECTOR, sourceCollector);
+            }
+
+            for (int i = 0; i < keys.size(); i++) {
+                final String key = keys.get(i);
+                gelfMessage.addField(i < unresolved ? rootPath + key.substring(1) : key, values.get(i));
+            }
+            return gelfMessage;
+        }
+    }
 
     @FactoryClass
     public interface Factory extends AbstractCodec.Factory<Beats2Codec> {
@@ -183,6 +428,12 @@ public class Beats2Codec extends AbstractCodec {
                     false,
                     "Do not prefix each field with the Beats type, e. g. \"source\" -> \"filebeat_source\"."
             ));
+            configurationRequest.addField(new BooleanField(
+                    CK_STREAMING_DECODE,
+                    "Streaming decode",
+                    false,
+                    "Flatten events while parsing them with a streaming JSON parser to reduce memory allocations."
+            ));
 
             return configurationRequest;
         }
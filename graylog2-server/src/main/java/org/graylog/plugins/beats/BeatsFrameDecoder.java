@@ -19,26 +19,26 @@ package org.graylog.plugins.beats;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.io.ByteStreams;
 import com.google.common.primitives.Ints;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
+import io.netty.buffer.ByteBufOutputStream;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ReplayingDecoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
-import java.util.zip.InflaterInputStream;
+import java.util.function.Supplier;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 /**
  * FrameDecoder for the Beats/Lumberjack protocol.
@@ -55,6 +55,8 @@ public class BeatsFrameDecoder extends ReplayingDecoder<BeatsFrameDecoder.Decodi
     private static final byte FRAME_JSON = 'J';
     private static final byte FRAME_WINDOW_SIZE = 'W';
 
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
     enum DecodingState {
         PROTOCOL_VERSION,
         FRAME_TYPE,
@@ -64,11 +66,29 @@ public class BeatsFrameDecoder extends ReplayingDecoder<BeatsFrameDecoder.Decodi
         FRAME_WINDOW_SIZE
     }
 
+    private final Supplier<Inflater> inflaterSupplier;
     private long windowSize;
     private long sequenceNum;
+    // Created on the first compressed frame and reused for the lifetime of the connection
+    private Inflater inflater;
 
     public BeatsFrameDecoder() {
+        this(Inflater::new);
+    }
+
+    @VisibleForTesting
+    BeatsFrameDecoder(Supplier<Inflater> inflaterSupplier) {
         super(DecodingState.PROTOCOL_VERSION);
+        this.inflaterSupplier = inflaterSupplier;
+    }
+
+    @Override
+    protected void handlerRemoved0(ChannelHandlerContext ctx) throws Exception {
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+        super.handlerRemoved0(ctx);
     }
 
     @Override
@@ -166,8 +186,9 @@ public class BeatsFrameDecoder extends ReplayingDecoder<BeatsFrameDecoder.Decodi
 
         final int jsonLength = Ints.saturatedCast(channelBuffer.readUnsignedInt());
 
-        final ByteBuf buffer = channelBuffer.readBytes(jsonLength);
-        sendACK(channel);
+        // The event is handed on as a slice of the received data instead of a copy
+        final ByteBuf buffer = channelBuffer.readRetainedSlice(jsonLength);
+        sendACKOrRelease(channel, buffer);
 
         return Collections.singleton(buffer);
     }
@@ -177,20 +198,61 @@ public class BeatsFrameDecoder extends ReplayingDecoder<BeatsFrameDecoder.Decodi
      */
     private Collection<ByteBuf> processCompressedFrame(Channel channel, ByteBuf channelBuffer) throws Exception {
         final long payloadLength = channelBuffer.readUnsignedInt();
-        final byte[] data = new byte[(int) payloadLength];
-        channelBuffer.readBytes(data);
-        try (final ByteArrayInputStream dataStream = new ByteArrayInputStream(data);
-             final InputStream in = new InflaterInputStream(dataStream)) {
-            final ByteBuf buffer = Unpooled.wrappedBuffer(ByteStreams.toByteArray(in));
+        final ByteBuf data = channelBuffer.readSlice((int) payloadLength);
+        final ByteBuf buffer = inflate(channel, data);
+        try {
+            // The events are retained slices of the inflated buffer
             return processCompressedDataFrames(channel, buffer);
+        } finally {
+            buffer.release();
+        }
+    }
+
+    private ByteBuf inflate(Channel channel, ByteBuf data) throws IOException, DataFormatException {
+        if (inflater == null) {
+            inflater = inflaterSupplier.get();
+        } else {
+            inflater.reset();
+        }
+
+        final int length = data.readableBytes();
+        if (data.hasArray()) {
+            inflater.setInput(data.array(), data.arrayOffset() + data.readerIndex(), length);
+        } else {
+            final byte[] input = new byte[length];
+            data.getBytes(data.readerIndex(), input);
+            inflater.setInput(input);
+        }
+
+        final ByteBuf buffer = channel.alloc().heapBuffer(Math.max(length * 2, 256));
+        try {
+            while (!inflater.finished()) {
+                if (!buffer.isWritable()) {
+                    buffer.ensureWritable(buffer.capacity());
+                }
+                final int inflated = inflater.inflate(buffer.array(), buffer.arrayOffset() + buffer.writerIndex(), buffer.writableBytes());
+                buffer.writerIndex(buffer.writerIndex() + inflated);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new EOFException("Unexpected end of ZLIB input stream");
+                }
+            }
+            return buffer;
+        } catch (IOException | DataFormatException | RuntimeException e) {
+            buffer.release();
+            throw e;
         }
     }
 
     private Collection<ByteBuf> processCompressedDataFrames(Channel channel, ByteBuf channelBuffer) throws Exception {
         final List<ByteBuf> events = new ArrayList<>();
-        while (channelBuffer.isReadable()) {
-            final Collection<ByteBuf> buffers = processUncompressedBuffer(channel, channelBuffer);
-            events.addAll(buffers);
+        try {
+            while (channelBuffer.isReadable()) {
+                final Collection<ByteBuf> buffers = processUncompressedBuffer(channel, channelBuffer);
+                events.addAll(buffers);
+            }
+        } catch (Exception e) {
+            events.forEach(ByteBuf::release);
+            throw e;
         }
         return events;
     }
@@ -211,9 +273,11 @@ public class BeatsFrameDecoder extends ReplayingDecoder<BeatsFrameDecoder.Decodi
         LOG.trace("Received sequence number {}", sequenceNum);
 
         final int pairs = Ints.saturatedCast(channelBuffer.readUnsignedInt());
-        final JsonFactory jsonFactory = new JsonFactory();
-        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        try (final JsonGenerator jg = jsonFactory.createGenerator(outputStream)) {
+        final ByteBuf buffer = channel.alloc().buffer();
+        // Also released if the frame is incomplete and will be replayed
+        boolean written = false;
+        try (final OutputStream outputStream = new ByteBufOutputStream(buffer);
+             final JsonGenerator jg = JSON_FACTORY.createGenerator(outputStream)) {
             jg.writeStartObject();
             for (int i = 0; i < pairs; i++) {
                 final String key = parseDataItem(channelBuffer);
@@ -221,14 +285,28 @@ public class BeatsFrameDecoder extends ReplayingDecoder<BeatsFrameDecoder.Decodi
                 jg.writeStringField(key, value);
             }
             jg.writeEndObject();
+            written = true;
+        } finally {
+            if (!written) {
+                buffer.release();
+            }
         }
 
-        final ByteBuf buffer = Unpooled.wrappedBuffer(outputStream.toByteArray());
-        sendACK(channel);
+        sendACKOrRelease(channel, buffer);
 
         return Collections.singleton(buffer);
     }
 
+    // The decoded event isn't handed on if the ACK can't be sent, so it has to be released here
+    private void sendACKOrRelease(Channel channel, ByteBuf event) throws IOException {
+        try {
+            sendACK(channel);
+        } catch (IOException | RuntimeException e) {
+            event.release();
+            throw e;
+        }
+    }
+
     private String parseDataItem(ByteBuf buf) {
         int length = Ints.saturatedCast(buf.readUnsignedInt());
         final ByteBuf item = buf.readSlice(length);
@@ -16,8 +16,11 @@
  */
 package org.graylog.plugins.map.geoip;
 
+import com.codahale.metrics.Counter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.net.InetAddresses;
@@ -30,6 +33,7 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import java.net.InetAddress;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -40,6 +44,12 @@ import static com.codahale.metrics.MetricRegistry.name;
 public class GeoIpResolverEngine {
     private static final Logger LOG = LoggerFactory.getLogger(GeoIpResolverEngine.class);
 
+    // The same addresses repeat a lot (e.g. in firewall logs), so resolved addresses are cached. The engine is
+    // recreated on every configuration change, which also drops the cache when the databases change.
+    private static final long MAX_CACHED_ADDRESSES = 100_000;
+    // Longest textual IPv6 address, e.g. "ffff:ffff:ffff:ffff:ffff:ffff:255.255.255.255", plus room for a scope ID
+    private static final int MAX_IP_ADDRESS_LENGTH = 64;
+
     /**
      * A mapping of fields (per the Graylog Schema) that to search that contain IP addresses.  When the user opts to
      * enforce the Graylog Schema ONLY these fields will be checked; otherwise, all message fields will be checked.
@@ -61,10 +71,16 @@ public class GeoIpResolverEngine {
     private final GeoIpResolver<GeoAsnInformation> ipAsnResolver;
     private final boolean enabled;
     private final boolean enforceGraylogSchema;
+    private final Cache<InetAddress, ResolvedAddress> resolvedAddresses;
+    private final Counter cacheHits;
+    private final Counter cacheMisses;
 
 
     public GeoIpResolverEngine(GeoIpVendorResolverService resolverService, GeoIpResolverConfig config, MetricRegistry metricRegistry) {
         Timer resolveTime = metricRegistry.timer(name(GeoIpResolverEngine.class, "resolveTime"));
+        this.cacheHits = metricRegistry.counter(name(GeoIpResolverEngine.class, "cache", "hits"));
+        this.cacheMisses = metricRegistry.counter(name(GeoIpResolverEngine.class, "cache", "misses"));
+        this.resolvedAddresses = Caffeine.newBuilder().maximumSize(MAX_CACHED_ADDRESSES).build();
 
         enforceGraylogSchema = config.enforceGraylogSchema();
         ipLocationResolver = resolverService.createCityResolver(config, resolveTime);
@@ -96,10 +112,11 @@ public class GeoIpResolverEngine {
             //be in the field map--in such cases use the key (full field name) as the prefix
             final String prefix = ipAddressFields.getOrDefault(key, key);
 
-            if (ReservedIpChecker.getInstance().isReservedIpAddress(address.getHostAddress())) {
+            final ResolvedAddress resolvedAddress = resolve(address);
+            if (resolvedAddress.reserved) {
                 message.addField(prefix + "_reserved_ip", true);
             } else {
-                addGeoIpDataIfPresent(message, address, prefix);
+                addGeoIpDataIfPresent(message, resolvedAddress, prefix);
             }
 
         }
@@ -107,8 +124,29 @@ public class GeoIpResolverEngine {
         return true;
     }
 
-    private void addGeoIpDataIfPresent(Message message, InetAddress address, String newFieldPrefix) {
-        ipLocationResolver.getGeoIpData(address).ifPresent(locationInformation -> {
+    private ResolvedAddress resolve(InetAddress address) {
+        final ResolvedAddress cached = resolvedAddresses.getIfPresent(address);
+        if (cached != null) {
+            cacheHits.inc();
+            return cached;
+        }
+        cacheMisses.inc();
+
+        final ResolvedAddress resolved;
+        if (ReservedIpChecker.getInstance().isReservedIpAddress(address.getHostAddress())) {
+            resolved = ResolvedAddress.RESERVED;
+        } else {
+            resolved = new ResolvedAddress(false,
+                    ipLocationResolver.getGeoIpData(address).orElse(null),
+                    ipAsnResolver.getGeoIpData(address).orElse(null));
+        }
+        resolvedAddresses.put(address, resolved);
+        return resolved;
+    }
+
+    private void addGeoIpDataIfPresent(Message message, ResolvedAddress address, String newFieldPrefix) {
+        final GeoLocationInformation locationInformation = address.location;
+        if (locationInformation != null) {
             message.addField(newFieldPrefix + "_geo_coordinates", locationInformation.latitude() + "," + locationInformation.longitude());
             message.addField(newFieldPrefix + "_geo_country_iso", locationInformation.countryIsoCode());
             message.addField(newFieldPrefix + "_geo_city", locationInformation.cityName());
@@ -123,13 +161,14 @@ public class GeoIpResolverEngine {
                 String name = String.format(Locale.ENGLISH, "%s, %s", locationInformation.cityName(), locationInformation.countryIsoCode());
                 message.addField(newFieldPrefix + "_geo_name", name);
             }
-        });
+        }
 
-        ipAsnResolver.getGeoIpData(address).ifPresent(info -> {
+        final GeoAsnInformation info = address.asn;
+        if (info != null) {
 
             message.addField(newFieldPrefix + "_as_organization", info.organization());
             message.addField(newFieldPrefix + "_as_number", info.asn());
-        });
+        }
     }
 
     /**
@@ -145,6 +184,15 @@ public class GeoIpResolverEngine {
      */
     @VisibleForTesting
     List<String> getIpAddressFields(Message message) {
+        if (enforceGraylogSchema) {
+            final List<String> fields = new ArrayList<>(ipAddressFields.size());
+            for (String field : ipAddressFields.keySet()) {
+                if (message.hasField(field)) {
+                    fields.add(field);
+                }
+            }
+            return fields;
+        }
         return message.getFieldNames()
                 .stream()
                 .filter(e -> (!enforceGraylogSchema || ipAddressFields.containsKey(e))
@@ -178,12 +226,58 @@ public class GeoIpResolverEngine {
     @Nullable
     @VisibleForTesting
     InetAddress getIpFromFieldValue(String fieldValue) {
+        final String trimmedValue = fieldValue.trim();
+        // Parsing fails with an exception for most field values, so skip values which can't be an IP address
+        if (!mayBeIpAddress(trimmedValue)) {
+            return null;
+        }
         try {
-            return InetAddresses.forString(fieldValue.trim());
+            return InetAddresses.forString(trimmedValue);
         } catch (IllegalArgumentException e) {
             // Do nothing, field is not an IP
         }
 
         return null;
     }
+
+    /**
+     * Cheap check whether the given value might be a textual IPv4 or IPv6 address. Values which pass the check still
+     * have to be parsed.
+     */
+    @VisibleForTesting
+    static boolean mayBeIpAddress(String value) {
+        final int length = value.length();
+        if (length < 2 || length > MAX_IP_ADDRESS_LENGTH) {
+            return false;
+        }
+        boolean hasSeparator = false;
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c == '.' || c == ':') {
+                hasSeparator = true;
+            } else if (c == '%') {
+                // The IPv6 scope ID may contain any characters
+                break;
+            } else if (Character.digit(c, 16) < 0) {
+                return false;
+            }
+        }
+        return hasSeparator;
+    }
+
+    private static class ResolvedAddress {
+        private static final ResolvedAddress RESERVED = new ResolvedAddress(true, null, null);
+
+        private final boolean reserved;
+        @Nullable
+        private final GeoLocationInformation location;
+        @Nullable
+        private final GeoAsnInformation asn;
+
+        private ResolvedAddress(boolean reserved, @Nullable GeoLocationInformation location, @Nullable GeoAsnInformation asn) {
+            this.reserved = reserved;
+            this.location = location;
+            this.asn = asn;
+        }
+    }
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.netflow.codecs;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.auto.value.AutoValue;
+import org.joda.time.DateTime;
+
+/**
+ * A NetFlow v9 template as it is stored in MongoDB and published to the other nodes of the cluster.
+ */
+@AutoValue
+@JsonIgnoreProperties(ignoreUnknown = true)
+public abstract class NetFlowV9SharedTemplate {
+    static final String FIELD_NODE_ID = "node_id";
+    static final String FIELD_EXPORTER_ADDRESS = "exporter_address";
+    static final String FIELD_EXPORTER_PORT = "exporter_port";
+    static final String FIELD_SOURCE_ID = "source_id";
+    static final String FIELD_TEMPLATE_ID = "template_id";
+    static final String FIELD_OPTION_TEMPLATE = "option_template";
+    static final String FIELD_BYTES = "bytes";
+    static final String FIELD_UPDATED_AT = "updated_at";
+
+    @JsonProperty(FIELD_NODE_ID)
+    public abstract String nodeId();
+
+    @JsonProperty(FIELD_EXPORTER_ADDRESS)
+    public abstract String exporterAddress();
+
+    @JsonProperty(FIELD_EXPORTER_PORT)
+    public abstract int exporterPort();
+
+    @JsonProperty(FIELD_SOURCE_ID)
+    public abstract long sourceId();
+
+    @JsonProperty(FIELD_TEMPLATE_ID)
+    public abstract int templateId();
+
+    @JsonProperty(FIELD_OPTION_TEMPLATE)
+    public abstract boolean optionTemplate();
+
+    @SuppressWarnings("mutable")
+    @JsonProperty(FIELD_BYTES)
+    public abstract byte[] bytes();
+
+    @JsonProperty(FIELD_UPDATED_AT)
+    public abstract DateTime updatedAt();
+
+    @JsonCreator
+    public static NetFlowV9SharedTemplate create(@JsonProperty(FIELD_NODE_ID) String nodeId,
+                                                 @JsonProperty(FIELD_EXPORTER_ADDRESS) String exporterAddress,
+                                                 @JsonProperty(FIELD_EXPORTER_PORT) int exporterPort,
+                                                 @JsonProperty(FIELD_SOURCE_ID) long sourceId,
+                                                 @JsonProperty(FIELD_TEMPLATE_ID) int templateId,
+                                                 @JsonProperty(FIELD_OPTION_TEMPLATE) boolean optionTemplate,
+                                                 @JsonProperty(FIELD_BYTES) byte[] bytes,
+                                                 @JsonProperty(FIELD_UPDATED_AT) DateTime updatedAt) {
+        return new AutoValue_NetFlowV9SharedTemplate(nodeId, exporterAddress, exporterPort, sourceId, templateId,
+                optionTemplate, bytes, updatedAt);
+    }
+}
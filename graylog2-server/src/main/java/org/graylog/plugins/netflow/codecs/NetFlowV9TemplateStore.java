@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.netflow.codecs;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import com.mongodb.BasicDBObject;
+import com.mongodb.MongoException;
+import org.bson.types.ObjectId;
+import org.graylog2.bindings.providers.MongoJackObjectMapperProvider;
+import org.graylog2.database.MongoConnection;
+import org.graylog2.events.ClusterEventBus;
+import org.graylog2.plugin.system.NodeId;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.mongojack.DBCursor;
+import org.mongojack.DBQuery;
+import org.mongojack.JacksonDBCollection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Shares NetFlow v9 templates between the nodes of the cluster.
+ *
+ * New and changed templates are published as cluster events and stored in MongoDB by the publishing node, so that
+ * nodes behind a load balancer don't have to wait until an exporter sent its templates to each of them. The store
+ * is seeded from MongoDB when it is created. Templates are republished once an hour to keep them from expiring.
+ */
+@Singleton
+public class NetFlowV9TemplateStore {
+    private static final Logger LOG = LoggerFactory.getLogger(NetFlowV9TemplateStore.class);
+
+    public static final String COLLECTION_NAME = "netflow_v9_templates";
+
+    private static final long REPUBLISH_INTERVAL_MS = TimeUnit.HOURS.toMillis(1);
+    private static final long EXPIRE_AFTER_SECONDS = TimeUnit.DAYS.toSeconds(1);
+
+    private final JacksonDBCollection<NetFlowV9SharedTemplate, ObjectId> collection;
+    private final ClusterEventBus clusterEventBus;
+    private final String nodeId;
+    private final Cache<TemplateKey, StoredTemplate> templates;
+    private final AtomicLong version = new AtomicLong(0);
+    private final Meter publishedTemplates;
+    private final Meter receivedTemplates;
+
+    @Inject
+    public NetFlowV9TemplateStore(MongoConnection mongoConnection,
+                                  MongoJackObjectMapperProvider objectMapperProvider,
+                                  ClusterEventBus clusterEventBus,
+                                  EventBus serverEventBus,
+                                  NodeId nodeId,
+                                  MetricRegistry metricRegistry) {
+        this.collection = JacksonDBCollection.wrap(mongoConnection.getDatabase().getCollection(COLLECTION_NAME),
+                NetFlowV9SharedTemplate.class,
+                ObjectId.class,
+                objectMapperProvider.get());
+        this.clusterEventBus = clusterEventBus;
+        this.nodeId = nodeId.toString();
+        this.templates = CacheBuilder.newBuilder()
+                .maximumSize(50000)
+                .build();
+        this.publishedTemplates = metricRegistry.meter(name(NetFlowV9TemplateStore.class, "published-templates"));
+        this.receivedTemplates = metricRegistry.meter(name(NetFlowV9TemplateStore.class, "received-templates"));
+
+        collection.createIndex(new BasicDBObject(NetFlowV9SharedTemplate.FIELD_EXPORTER_ADDRESS, 1)
+                        .append(NetFlowV9SharedTemplate.FIELD_EXPORTER_PORT, 1)
+                        .append(NetFlowV9SharedTemplate.FIELD_SOURCE_ID, 1)
+                        .append(NetFlowV9SharedTemplate.FIELD_TEMPLATE_ID, 1),
+                new BasicDBObject("unique", true));
+        collection.createIndex(new BasicDBObject(NetFlowV9SharedTemplate.FIELD_UPDATED_AT, 1),
+                new BasicDBObject("expireAfterSeconds", EXPIRE_AFTER_SECONDS));
+
+        seed();
+        serverEventBus.register(this);
+    }
+
+    private void seed() {
+        try (DBCursor<NetFlowV9SharedTemplate> cursor = collection.find()) {
+            for (NetFlowV9SharedTemplate template : cursor) {
+                add(template);
+            }
+            LOG.debug("Loaded {} NetFlow v9 templates", templates.size());
+        } catch (MongoException e) {
+            LOG.warn("Couldn't load NetFlow v9 templates, waiting for exporters to send them.", e);
+        }
+    }
+
+    /**
+     * Returns the shared template for the given key.
+     *
+     * @param templateKey the key of the template
+     * @return the template or {@code null} if it is unknown
+     */
+    @Nullable
+    public StoredTemplate get(TemplateKey templateKey) {
+        return templates.getIfPresent(templateKey);
+    }
+
+    /**
+     * Returns a counter which changes whenever a template from another node has been added.
+     */
+    public long version() {
+        return version.get();
+    }
+
+    /**
+     * Publishes the given template to the cluster unless it is already known with the same content.
+     *
+     * @param templateKey    the key of the template
+     * @param bytes          the template flow
+     * @param optionTemplate whether the template is an option template
+     */
+    public void publish(TemplateKey templateKey, byte[] bytes, boolean optionTemplate) {
+        if (!(templateKey.getRemoteAddress() instanceof InetSocketAddress)) {
+            return;
+        }
+        final InetSocketAddress remoteAddress = (InetSocketAddress) templateKey.getRemoteAddress();
+        if (remoteAddress.getAddress() == null) {
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        final StoredTemplate existing = templates.getIfPresent(templateKey);
+        if (existing != null && Arrays.equals(existing.getBytes(), bytes) && now - existing.publishedAt < REPUBLISH_INTERVAL_MS) {
+            return;
+        }
+
+        templates.put(templateKey, new StoredTemplate(bytes, optionTemplate, now));
+        publishedTemplates.mark();
+        clusterEventBus.post(NetFlowV9SharedTemplate.create(nodeId,
+                remoteAddress.getAddress().getHostAddress(),
+                remoteAddress.getPort(),
+                templateKey.getSourceId(),
+                templateKey.getTemplateId(),
+                optionTemplate,
+                bytes,
+                new DateTime(now, DateTimeZone.UTC)));
+    }
+
+    @Subscribe
+    public void handleSharedTemplate(NetFlowV9SharedTemplate template) {
+        if (nodeId.equals(template.nodeId())) {
+            // The publishing node stores the template, so nodes which start later can be seeded with it
+            try {
+                collection.update(DBQuery.is(NetFlowV9SharedTemplate.FIELD_EXPORTER_ADDRESS, template.exporterAddress())
+                                .is(NetFlowV9SharedTemplate.FIELD_EXPORTER_PORT, template.exporterPort())
+                                .is(NetFlowV9SharedTemplate.FIELD_SOURCE_ID, template.sourceId())
+                                .is(NetFlowV9SharedTemplate.FIELD_TEMPLATE_ID, template.templateId()),
+                        template, true, false);
+            } catch (MongoException e) {
+                LOG.warn("Couldn't store NetFlow v9 template {} of exporter {}", template.templateId(), template.exporterAddress(), e);
+            }
+            return;
+        }
+
+        if (add(template)) {
+            receivedTemplates.mark();
+            version.incrementAndGet();
+        }
+    }
+
+    private boolean add(NetFlowV9SharedTemplate template) {
+        final InetAddress address;
+        try {
+            // the address is always an IP literal, this doesn't resolve anything
+            address = InetAddress.getByName(template.exporterAddress());
+        } catch (UnknownHostException e) {
+            LOG.debug("Ignoring NetFlow v9 template with invalid exporter address {}", template.exporterAddress());
+            return false;
+        }
+
+        final TemplateKey templateKey = new TemplateKey(new InetSocketAddress(address, template.exporterPort()),
+                template.sourceId(), template.templateId());
+        // Received templates count as recently published, the exporter keeps sending them to their original node
+        templates.put(templateKey, new StoredTemplate(template.bytes(), template.optionTemplate(), System.currentTimeMillis()));
+        return true;
+    }
+
+    public static class StoredTemplate {
+        private final byte[] bytes;
+        private final boolean optionTemplate;
+        private final long publishedAt;
+
+        StoredTemplate(byte[] bytes, boolean optionTemplate, long publishedAt) {
+            this.bytes = bytes;
+            this.optionTemplate = optionTemplate;
+            this.publishedAt = publishedAt;
+        }
+
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        public boolean isOptionTemplate() {
+            return optionTemplate;
+        }
+    }
+}
@@ -16,9 +16,15 @@
  */
 package org.graylog.plugins.netflow.codecs;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.github.joschi.jadconfig.util.Size;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
 import com.google.common.cache.RemovalListener;
 import com.google.protobuf.ByteString;
 import io.netty.buffer.ByteBuf;
@@ -32,7 +38,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
 import java.net.SocketAddress;
 import java.util.ArrayList;
 import java.util.HashSet;
@@ -43,11 +52,14 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.codahale.metrics.MetricRegistry.name;
 
 /**
  * For Netflow v9 packets we want to prepend the corresponding flow template.
  * If we don't have that template yet, we consider the flow packet to be incomplete and continue to wait for the template.
- * TODO consider sharing seen templates between nodes in the cluster to minimize wait time
+ * Templates are shared between the nodes of the cluster with the {@link NetFlowV9TemplateStore} to minimize wait time.
  */
 public class NetflowV9CodecAggregator implements RemoteAddressCodecAggregator {
     private static final Logger LOG = LoggerFactory.getLogger(NetflowV9CodecAggregator.class);
@@ -55,25 +67,139 @@ public class NetflowV9CodecAggregator implements RemoteAddressCodecAggregator {
     private static final ByteBuf PASSTHROUGH_MARKER = Unpooled.wrappedBuffer(new byte[]{NetFlowCodec.PASSTHROUGH_MARKER});
 
     private final Cache<TemplateKey, TemplateBytes> templateCache;
-    private final Cache<TemplateKey, Queue<PacketBytes>> packetCache;
+    private final Cache<TemplateKey, BufferedPackets> packetCache;
+    @Nullable
+    private final NetFlowV9TemplateStore templateStore;
+    private final long maxBufferedBytes;
+    private final AtomicLong bufferedBytes = new AtomicLong(0);
+
+    private final Counter bufferedBytesCounter;
+    private final Meter droppedPackets;
+    private final Meter sharedTemplates;
+    private final Timer templateWaitTime;
 
     @Inject
+    public NetflowV9CodecAggregator(@Named("netflow_v9_share_templates") boolean shareTemplates,
+                                    @Named("netflow_v9_packet_buffer_size") Size packetBufferSize,
+                                    Provider<NetFlowV9TemplateStore> templateStoreProvider,
+                                    MetricRegistry metricRegistry) {
+        this(shareTemplates ? templateStoreProvider.get() : null, packetBufferSize.toBytes(), metricRegistry);
+    }
+
+    @VisibleForTesting
     public NetflowV9CodecAggregator() {
-        // TODO customize
+        this(null, Size.megabytes(1).toBytes(), new MetricRegistry());
+    }
+
+    @VisibleForTesting
+    NetflowV9CodecAggregator(@Nullable NetFlowV9TemplateStore templateStore, long maxBufferedBytes, MetricRegistry metricRegistry) {
+        this.templateStore = templateStore;
+        this.maxBufferedBytes = maxBufferedBytes;
+        this.bufferedBytesCounter = metricRegistry.counter(name(NetflowV9CodecAggregator.class, "buffered-bytes"));
+        this.droppedPackets = metricRegistry.meter(name(NetflowV9CodecAggregator.class, "dropped-packets"));
+        this.sharedTemplates = metricRegistry.meter(name(NetflowV9CodecAggregator.class, "shared-templates"));
+        this.templateWaitTime = metricRegistry.timer(name(NetflowV9CodecAggregator.class, "template-wait-time"));
+
         this.templateCache = CacheBuilder.newBuilder()
                 .maximumSize(5000)
                 .removalListener(notification -> LOG.debug("Removed {} from template cache for reason {}", notification.getKey(), notification.getCause()))
                 .recordStats()
                 .build();
+        // The buffered bytes are limited separately, the weight of a queue would only be computed when it is created.
         this.packetCache = CacheBuilder.newBuilder()
                 .expireAfterWrite(1, TimeUnit.MINUTES)
-                .maximumWeight(Size.megabytes(1).toBytes())
-                .removalListener((RemovalListener<TemplateKey, Queue<PacketBytes>>) notification -> LOG.debug("Removed {} from packet cache for reason {}", notification.getKey(), notification.getCause()))
-                .weigher((key, value) -> value.stream().map(PacketBytes::readableBytes).reduce(0, Integer::sum))
+                .removalListener((RemovalListener<TemplateKey, BufferedPackets>) notification -> {
+                    LOG.debug("Removed {} from packet cache for reason {}", notification.getKey(), notification.getCause());
+                    if (notification.getCause() != RemovalCause.REPLACED && notification.getValue() != null) {
+                        discard(notification.getValue());
+                    }
+                })
                 .recordStats()
                 .build();
     }
 
+    /**
+     * Returns the template for the given key, falling back to the templates shared by other nodes.
+     */
+    @Nullable
+    private TemplateBytes getTemplate(TemplateKey templateKey) {
+        final TemplateBytes templateBytes = templateCache.getIfPresent(templateKey);
+        if (templateBytes != null || templateStore == null) {
+            return templateBytes;
+        }
+
+        final NetFlowV9TemplateStore.StoredTemplate sharedTemplate = templateStore.get(templateKey);
+        if (sharedTemplate == null) {
+            return null;
+        }
+        final TemplateBytes seededTemplate = new TemplateBytes(sharedTemplate.getBytes(), sharedTemplate.isOptionTemplate());
+        templateCache.put(templateKey, seededTemplate);
+        sharedTemplates.mark();
+        return seededTemplate;
+    }
+
+    private void putTemplate(TemplateKey templateKey, TemplateBytes templateBytes) {
+        templateCache.put(templateKey, templateBytes);
+        if (templateStore != null) {
+            templateStore.publish(templateKey, templateBytes.getBytes(), templateBytes.isOptionTemplate());
+        }
+    }
+
+    private boolean hasTemplates(SocketAddress remoteAddress, long sourceId, Set<Integer> templateIds) {
+        for (int templateId : templateIds) {
+            if (getTemplate(new TemplateKey(remoteAddress, sourceId, templateId)) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean buffer(SocketAddress remoteAddress, long sourceId, PacketBytes packet) throws ExecutionException {
+        final int size = packet.readableBytes();
+        if (bufferedBytes.addAndGet(size) > maxBufferedBytes) {
+            bufferedBytes.addAndGet(-size);
+            droppedPackets.mark();
+            LOG.debug("NetFlow v9 packet buffer is full, discarding packet of exporter {} without templates", remoteAddress);
+            return false;
+        }
+        bufferedBytesCounter.inc(size);
+
+        // the queue might be discarded by an expiry concurrently, in that case a new queue is created for the packet
+        final TemplateKey exporterKey = TemplateKey.idForExporter(remoteAddress, sourceId);
+        BufferedPackets bufferedPackets;
+        while (!(bufferedPackets = packetCache.get(exporterKey, BufferedPackets::new)).add(packet)) {
+            packetCache.asMap().remove(exporterKey, bufferedPackets);
+        }
+        return true;
+    }
+
+    private void released(PacketBytes packet) {
+        bufferedBytes.addAndGet(-packet.readableBytes());
+        bufferedBytesCounter.dec(packet.readableBytes());
+        templateWaitTime.update(System.nanoTime() - packet.getReceivedAt(), TimeUnit.NANOSECONDS);
+    }
+
+    private void discard(BufferedPackets bufferedPackets) {
+        bufferedPackets.close().forEach(this::dropped);
+    }
+
+    private void dropped(PacketBytes packet) {
+        bufferedBytes.addAndGet(-packet.readableBytes());
+        bufferedBytesCounter.dec(packet.readableBytes());
+        droppedPackets.mark();
+    }
+
+    @VisibleForTesting
+    void expireBufferedPackets() {
+        packetCache.invalidateAll();
+        packetCache.cleanUp();
+    }
+
+    @VisibleForTesting
+    long getBufferedBytes() {
+        return bufferedBytes.get();
+    }
+
     @Nonnull
     @Override
     public Result addChunk(ByteBuf buf, SocketAddress remoteAddress) {
@@ -118,7 +244,7 @@ public class NetflowV9CodecAggregator implements RemoteAddressCodecAggregator {
 
                 final TemplateKey templateKey = new TemplateKey(remoteAddress, sourceId, templateId);
                 final TemplateBytes templateBytes = new TemplateBytes(bytes, false);
-                templateCache.put(templateKey, templateBytes);
+                putTemplate(templateKey, templateBytes);
             }
 
             final Map.Entry<Integer, byte[]> optionTemplate = rawNetFlowV9Packet.optionTemplate();
@@ -129,7 +255,7 @@ public class NetflowV9CodecAggregator implements RemoteAddressCodecAggregator {
                 final TemplateKey templateKey = new TemplateKey(remoteAddress, sourceId, templateId);
                 final TemplateBytes templateBytes = new TemplateBytes(bytes, true);
 
-                templateCache.put(templateKey, templateBytes);
+                putTemplate(templateKey, templateBytes);
             }
 
             // this list of flows to return in the result
@@ -137,36 +263,30 @@ public class NetflowV9CodecAggregator implements RemoteAddressCodecAggregator {
             final Set<ByteBuf> packetsToSend = new HashSet<>();
             final Set<Integer> bufferedTemplateIds = new HashSet<>();
 
-            // if we have new templates, figure out which buffered packets template requirements are now satisfied
-            if (!rawNetFlowV9Packet.templates().isEmpty() || rawNetFlowV9Packet.optionTemplate() != null) {
-                final Set<Integer> knownTemplateIds = new HashSet<>();
-                for (TemplateKey templateKey : templateCache.asMap().keySet()) {
-                    if (templateKey.getRemoteAddress() == remoteAddress && templateKey.getSourceId() == sourceId) {
-                        final Integer templateId = templateKey.getTemplateId();
-                        knownTemplateIds.add(templateId);
+            // if we have new templates (from this packet or from another node), figure out which buffered packets
+            // template requirements are now satisfied
+            final BufferedPackets bufferedPackets = packetCache.getIfPresent(TemplateKey.idForExporter(remoteAddress, sourceId));
+            final boolean hasNewTemplates = !rawNetFlowV9Packet.templates().isEmpty() || rawNetFlowV9Packet.optionTemplate() != null;
+            if (bufferedPackets != null && (hasNewTemplates || bufferedPackets.hasNewSharedTemplates())) {
+                final List<PacketBytes> tempQueue = new ArrayList<>(bufferedPackets.packets.size());
+                PacketBytes previousPacket;
+                int addedPackets = 0;
+                while (null != (previousPacket = bufferedPackets.packets.poll())) {
+                    // are all templates the packet references there?
+                    if (hasTemplates(remoteAddress, sourceId, previousPacket.getUsedTemplates())) {
+                        packetsToSend.add(Unpooled.wrappedBuffer(previousPacket.getBytes()));
+                        bufferedTemplateIds.addAll(previousPacket.getUsedTemplates());
+                        released(previousPacket);
+                        addedPackets++;
+                    } else {
+                        tempQueue.add(previousPacket);
                     }
                 }
-
-                final Queue<PacketBytes> bufferedPackets = packetCache.getIfPresent(TemplateKey.idForExporter(remoteAddress, sourceId));
-                if (bufferedPackets != null) {
-                    final List<PacketBytes> tempQueue = new ArrayList<>(bufferedPackets.size());
-                    PacketBytes previousPacket;
-                    int addedPackets = 0;
-                    while (null != (previousPacket = bufferedPackets.poll())) {
-                        // are all templates the packet references there?
-                        if (knownTemplateIds.containsAll(previousPacket.getUsedTemplates())) {
-                            packetsToSend.add(Unpooled.wrappedBuffer(previousPacket.getBytes()));
-                            bufferedTemplateIds.addAll(previousPacket.getUsedTemplates());
-                            addedPackets++;
-                        } else {
-                            tempQueue.add(previousPacket);
-                        }
-                    }
-                    LOG.debug("Processing {} previously buffered packets, {} packets require more templates.", addedPackets, tempQueue.size());
-                    // if we couldn't process some of the buffered packets, add them back to the queue to wait for more templates to come in
-                    if (!tempQueue.isEmpty()) {
-                        bufferedPackets.addAll(tempQueue);
-                    }
+                LOG.debug("Processing {} previously buffered packets, {} packets require more templates.", addedPackets, tempQueue.size());
+                // if we couldn't process some of the buffered packets, add them back to the queue to wait for more templates to come in
+                // the queue might have expired in the meantime, the packets are dropped like the rest of the queue then
+                if (!tempQueue.isEmpty() && !bufferedPackets.addAll(tempQueue)) {
+                    tempQueue.forEach(this::dropped);
                 }
             }
 
@@ -179,19 +299,19 @@ public class NetflowV9CodecAggregator implements RemoteAddressCodecAggregator {
             bufferedTemplateIds.addAll(rawNetFlowV9Packet.usedTemplates());
             for (int templateId : bufferedTemplateIds) {
                 final TemplateKey templateKey = new TemplateKey(remoteAddress, sourceId, templateId);
-                final TemplateBytes template = templateCache.getIfPresent(templateKey);
+                final TemplateBytes template = getTemplate(templateKey);
 
                 if (template == null) {
                     // we don't have the template, this packet needs to be buffered until we receive the templates
-                    try {
-                        final TemplateKey newTemplateKey = TemplateKey.idForExporter(remoteAddress, sourceId);
-                        final Queue<PacketBytes> bufferedPackets = packetCache.get(newTemplateKey, ConcurrentLinkedQueue::new);
-                        final byte[] bytes = ByteBufUtil.getBytes(buf);
-                        bufferedPackets.add(new PacketBytes(bytes, rawNetFlowV9Packet.usedTemplates()));
-                        packetBuffered = true;
-                    } catch (ExecutionException ignored) {
-                        // the loader cannot fail, it only creates a new queue
+                    if (!packetBuffered) {
+                        try {
+                            final byte[] bytes = ByteBufUtil.getBytes(buf);
+                            buffer(remoteAddress, sourceId, new PacketBytes(bytes, rawNetFlowV9Packet.usedTemplates()));
+                        } catch (ExecutionException ignored) {
+                            // the loader cannot fail, it only creates a new queue
+                        }
                     }
+                    packetBuffered = true;
                 } else {
                     // include the template in our result
                     templates.add(templateKey);
@@ -203,9 +323,10 @@ public class NetflowV9CodecAggregator implements RemoteAddressCodecAggregator {
                 }
             }
 
-            // if we have buffered this packet, don't try to process it now. we still need all the templates for it
+            // if we have buffered (or, with a full buffer, dropped) this packet, don't try to process it now. we still
+            // need all the templates for it, but previously buffered packets might be complete now
             if (packetBuffered) {
-                return new Result(null, true);
+                packetsToSend.remove(buf.slice());
             }
 
             // if we didn't buffer anything but also didn't have anything queued that can be processed, don't proceed.
@@ -216,7 +337,7 @@ public class NetflowV9CodecAggregator implements RemoteAddressCodecAggregator {
             // add the used templates and option template to the journal message builder
             final NetFlowV9Journal.RawNetflowV9.Builder builder = NetFlowV9Journal.RawNetflowV9.newBuilder();
             for (TemplateKey templateKey : templates) {
-                final TemplateBytes templateBytes = templateCache.getIfPresent(templateKey);
+                final TemplateBytes templateBytes = getTemplate(templateKey);
                 if (templateBytes == null) {
                     LOG.warn("Template {} expired while processing, discarding netflow packet", templateKey);
                 } else if (templateBytes.isOptionTemplate()) {
@@ -267,13 +388,69 @@ public class NetflowV9CodecAggregator implements RemoteAddressCodecAggregator {
         }
     }
 
+    private class BufferedPackets {
+        private final Queue<PacketBytes> packets = new ConcurrentLinkedQueue<>();
+        private volatile long checkedStoreVersion = templateStore == null ? 0 : templateStore.version();
+        private boolean closed = false;
+
+        /**
+         * Adds the packet unless the queue has already been discarded.
+         *
+         * @return {@code false} if the queue has been discarded and the packet wasn't added
+         */
+        private synchronized boolean add(PacketBytes packet) {
+            return !closed && packets.add(packet);
+        }
+
+        /**
+         * Adds the packets unless the queue has already been discarded.
+         *
+         * @return {@code false} if the queue has been discarded and the packets weren't added
+         */
+        private synchronized boolean addAll(List<PacketBytes> packetsToAdd) {
+            return !closed && packets.addAll(packetsToAdd);
+        }
+
+        /**
+         * Discards the queue, packets can't be added anymore afterwards.
+         *
+         * @return the packets which were still queued
+         */
+        private synchronized List<PacketBytes> close() {
+            closed = true;
+            final List<PacketBytes> remaining = new ArrayList<>();
+            PacketBytes packet;
+            while (null != (packet = packets.poll())) {
+                remaining.add(packet);
+            }
+            return remaining;
+        }
+
+        /**
+         * Whether other nodes have shared templates since the last call.
+         */
+        private boolean hasNewSharedTemplates() {
+            if (templateStore == null) {
+                return false;
+            }
+            final long storeVersion = templateStore.version();
+            if (storeVersion == checkedStoreVersion) {
+                return false;
+            }
+            checkedStoreVersion = storeVersion;
+            return true;
+        }
+    }
+
     public static class PacketBytes {
         private final byte[] bytes;
         private final Set<Integer> usedTemplates;
+        private final long receivedAt;
 
         public PacketBytes(byte[] bytes, Set<Integer> usedTemplates) {
             this.bytes = bytes;
             this.usedTemplates = usedTemplates;
+            this.receivedAt = System.nanoTime();
         }
 
         public byte[] getBytes() {
@@ -287,5 +464,9 @@ public class NetflowV9CodecAggregator implements RemoteAddressCodecAggregator {
         public int readableBytes() {
             return bytes.length;
         }
+
+        public long getReceivedAt() {
+            return receivedAt;
+        }
     }
 }
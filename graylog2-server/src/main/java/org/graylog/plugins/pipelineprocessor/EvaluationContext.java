@@ -21,6 +21,7 @@ import com.google.common.collect.Maps;
 import org.graylog.plugins.pipelineprocessor.ast.exceptions.FunctionEvaluationException;
 import org.graylog.plugins.pipelineprocessor.ast.expressions.Expression;
 import org.graylog.plugins.pipelineprocessor.ast.functions.FunctionDescriptor;
+import org.graylog.plugins.pipelineprocessor.processors.listeners.InterpreterListener;
 import org.graylog2.plugin.EmptyMessages;
 import org.graylog2.plugin.Message;
 import org.graylog2.plugin.MessageCollection;
@@ -29,6 +30,7 @@ import org.joda.time.DateTime;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -57,6 +59,10 @@ public class EvaluationContext {
     private List<Message> createdMessages;
     @Nullable
     private List<EvalError> evalErrors;
+    @Nullable
+    private SharedValues sharedValues;
+    @Nullable
+    private InterpreterListener interpreterListener;
 
     private EvaluationContext() {
         this(new Message("__dummy", "__dummy", DateTime.parse("2010-07-30T16:03:25Z"))); // first Graylog release
@@ -139,6 +145,34 @@ public class EvaluationContext {
         return evalErrors == null ? Collections.emptyList() : Collections.unmodifiableList(evalErrors);
     }
 
+    /**
+     * Sets the values of the expressions shared between the rule conditions of a stage slice.
+     *
+     * @param sharedValues the shared values, or {@code null} if this context doesn't share any expressions
+     */
+    public void setSharedValues(@Nullable SharedValues sharedValues) {
+        this.sharedValues = sharedValues;
+    }
+
+    @Nullable
+    public SharedValues sharedValues() {
+        return sharedValues;
+    }
+
+    /**
+     * Sets the listener to notify about function calls.
+     *
+     * @param interpreterListener the listener, or {@code null} to not report function calls
+     */
+    public void setInterpreterListener(@Nullable InterpreterListener interpreterListener) {
+        this.interpreterListener = interpreterListener;
+    }
+
+    @Nullable
+    public InterpreterListener interpreterListener() {
+        return interpreterListener;
+    }
+
     @Nullable
     public EvalError lastEvaluationError() {
         return evalErrors == null || evalErrors.isEmpty() ? null
@@ -163,6 +197,57 @@ public class EvaluationContext {
         }
     }
 
+    /**
+     * Results of the pure expressions which are shared between the rule conditions of a stage slice, indexed by slot.
+     *
+     * Instances are not thread-safe, they belong to the processing of a single message.
+     */
+    public static class SharedValues {
+        private static final Object NULL_VALUE = new Object();
+
+        private final Object[] values;
+        private long hits = 0;
+        private long misses = 0;
+
+        public SharedValues(int size) {
+            this.values = new Object[size];
+        }
+
+        public boolean contains(int slot) {
+            return values[slot] != null;
+        }
+
+        @Nullable
+        public Object get(int slot) {
+            hits++;
+            final Object value = values[slot];
+            return value == NULL_VALUE ? null : value;
+        }
+
+        public void put(int slot, @Nullable Object value) {
+            values[slot] = value == null ? NULL_VALUE : value;
+        }
+
+        public void recordMiss() {
+            misses++;
+        }
+
+        /**
+         * Forgets all values, e.g. because the message has been modified.
+         */
+        public void clear() {
+            Arrays.fill(values, null);
+        }
+
+        public long hits() {
+            return hits;
+        }
+
+        public long misses() {
+            return misses;
+        }
+    }
+
     public static class EvalError {
         private final int line;
         private final int charPositionInLine;
@@ -23,4 +23,10 @@ public class PipelineConfig implements PluginConfigBean {
 
     @Parameter("cached_stageiterators")
     private boolean cachedStageIterators = true;
+
+    @Parameter("compiled_pipeline_rules")
+    private boolean compiledPipelineRules = false;
+
+    @Parameter("rule_profiling_sample_rate")
+    private int ruleProfilingSampleRate = 0;
 }
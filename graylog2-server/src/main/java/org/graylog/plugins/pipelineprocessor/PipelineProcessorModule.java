@@ -21,7 +21,9 @@ import org.graylog.plugins.pipelineprocessor.audit.PipelineProcessorAuditEventTy
 import org.graylog.plugins.pipelineprocessor.functions.ProcessorFunctionsModule;
 import org.graylog.plugins.pipelineprocessor.periodical.LegacyDefaultStreamMigration;
 import org.graylog.plugins.pipelineprocessor.processors.PipelineInterpreter;
+import org.graylog.plugins.pipelineprocessor.rest.ClusterPipelineProfileResource;
 import org.graylog.plugins.pipelineprocessor.rest.PipelineConnectionsResource;
+import org.graylog.plugins.pipelineprocessor.rest.PipelineProfileResource;
 import org.graylog.plugins.pipelineprocessor.rest.PipelineResource;
 import org.graylog.plugins.pipelineprocessor.rest.PipelineRestPermissions;
 import org.graylog.plugins.pipelineprocessor.rest.RuleResource;
@@ -36,7 +38,9 @@ public class PipelineProcessorModule extends PluginModule {
         addMessageProcessor(PipelineInterpreter.class, PipelineInterpreter.Descriptor.class);
         addPermissions(PipelineRestPermissions.class);
 
+        addSystemRestResource(ClusterPipelineProfileResource.class);
         addSystemRestResource(PipelineConnectionsResource.class);
+        addSystemRestResource(PipelineProfileResource.class);
         addSystemRestResource(PipelineResource.class);
         addSystemRestResource(RuleResource.class);
         addSystemRestResource(SimulatorResource.class);
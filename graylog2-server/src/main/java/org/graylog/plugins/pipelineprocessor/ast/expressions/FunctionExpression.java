@@ -25,6 +25,7 @@ import org.graylog.plugins.pipelineprocessor.ast.exceptions.LocationAwareEvalExc
 import org.graylog.plugins.pipelineprocessor.ast.functions.Function;
 import org.graylog.plugins.pipelineprocessor.ast.functions.FunctionArgs;
 import org.graylog.plugins.pipelineprocessor.ast.functions.FunctionDescriptor;
+import org.graylog.plugins.pipelineprocessor.processors.listeners.InterpreterListener;
 
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -59,6 +60,10 @@ public class FunctionExpression extends BaseExpression {
 
     @Override
     public Object evaluateUnsafe(EvaluationContext context) {
+        final InterpreterListener listener = context.interpreterListener();
+        if (listener != null) {
+            listener.evaluateFunction(descriptor);
+        }
         try {
             return descriptor.returnType().cast(function.evaluate(args, context));
         } catch (LocationAwareEvalException laee) {
@@ -67,6 +72,10 @@ public class FunctionExpression extends BaseExpression {
         } catch (Exception e) {
             // we need to wrap the original exception to retain the position in the tree where the exception originated
             throw new FunctionEvaluationException(this, e);
+        } finally {
+            if (listener != null) {
+                listener.finishEvaluateFunction(descriptor);
+            }
         }
     }
 
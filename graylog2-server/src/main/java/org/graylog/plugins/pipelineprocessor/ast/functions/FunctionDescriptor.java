@@ -33,6 +33,10 @@ public abstract class FunctionDescriptor<T> {
     @JsonProperty
     public abstract String name();
 
+    /**
+     * A pure function has no side effects and returns equal results for equal arguments and an unchanged message,
+     * so its result may be shared between the rule conditions of a stage slice.
+     */
     @JsonProperty
     public abstract boolean pure();
 
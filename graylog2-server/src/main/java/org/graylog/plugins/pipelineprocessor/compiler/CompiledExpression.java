@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.pipelineprocessor.compiler;
+
+import org.graylog.plugins.pipelineprocessor.EvaluationContext;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.BaseExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.Expression;
+
+import javax.annotation.Nullable;
+
+/**
+ * Stands in for an expression of a parsed rule and evaluates it through a {@link RuleCompiler.Evaluator}.
+ *
+ * Type, constness, children and location information are taken from the original expression, so error reporting
+ * and functions inspecting their arguments behave as for the interpreted expression.
+ */
+public class CompiledExpression extends BaseExpression {
+    private final Expression original;
+    private final RuleCompiler.Evaluator evaluator;
+
+    CompiledExpression(Expression original, RuleCompiler.Evaluator evaluator) {
+        super(original.getStartToken());
+        this.original = original;
+        this.evaluator = evaluator;
+    }
+
+    public Expression original() {
+        return original;
+    }
+
+    @Override
+    public boolean isConstant() {
+        return original.isConstant();
+    }
+
+    @Nullable
+    @Override
+    public Object evaluateUnsafe(EvaluationContext context) {
+        return evaluator.evaluate(context);
+    }
+
+    @Override
+    public Class getType() {
+        return original.getType();
+    }
+
+    @Override
+    public Iterable<Expression> children() {
+        return original.children();
+    }
+
+    @Override
+    public String toString() {
+        return original.toString();
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.pipelineprocessor.compiler;
+
+import com.google.common.collect.ImmutableList;
+import org.graylog.plugins.pipelineprocessor.EvaluationContext;
+import org.graylog.plugins.pipelineprocessor.ast.Rule;
+import org.graylog.plugins.pipelineprocessor.ast.exceptions.FunctionEvaluationException;
+import org.graylog.plugins.pipelineprocessor.ast.exceptions.LocationAwareEvalException;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.AndExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.BooleanExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.BooleanValuedFunctionWrapper;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.ComparisonExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.ConstantExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.EqualityExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.Expression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.FieldRefExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.FunctionExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.LogicalExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.MessageRefExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.NotExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.OrExpression;
+import org.graylog.plugins.pipelineprocessor.ast.functions.Function;
+import org.graylog.plugins.pipelineprocessor.ast.functions.FunctionArgs;
+import org.graylog.plugins.pipelineprocessor.ast.functions.FunctionDescriptor;
+import org.graylog.plugins.pipelineprocessor.ast.statements.FunctionStatement;
+import org.graylog.plugins.pipelineprocessor.ast.statements.Statement;
+import org.graylog.plugins.pipelineprocessor.ast.statements.VarAssignStatement;
+import org.graylog.plugins.pipelineprocessor.processors.listeners.InterpreterListener;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compiles the condition and statements of a parsed {@link Rule} into a tree of specialized closures.
+ *
+ * Constant expressions are evaluated once, message field names and comparison operators are resolved at compile
+ * time, boolean operators evaluate to primitive booleans and function calls invoke the function directly with
+ * compiled, pre-bound arguments. Expressions without a compiled form are evaluated by the interpreter, and a rule
+ * which can't be compiled at all is returned unchanged.
+ *
+ * The compiled rule has the same semantics as the parsed one, including the reported evaluation errors.
+ */
+public class RuleCompiler {
+    private static final Logger LOG = LoggerFactory.getLogger(RuleCompiler.class);
+
+    @FunctionalInterface
+    interface Evaluator {
+        @Nullable
+        Object evaluate(EvaluationContext context);
+    }
+
+    @FunctionalInterface
+    interface Condition {
+        boolean test(EvaluationContext context);
+    }
+
+    /**
+     * Compiles the given rule.
+     *
+     * @param rule the parsed rule
+     * @return the compiled rule or the given rule if it couldn't be compiled
+     */
+    public Rule compile(Rule rule) {
+        try {
+            final ImmutableList.Builder<Statement> statements = ImmutableList.builder();
+            for (Statement statement : rule.then()) {
+                statements.add(compileStatement(statement));
+            }
+            return rule.toBuilder()
+                    .when(compileCondition(rule.when()))
+                    .then(statements.build())
+                    .build();
+        } catch (Exception e) {
+            LOG.warn("Unable to compile rule <{}/{}>, falling back to interpreting it", rule.name(), rule.id(), e);
+            return rule;
+        }
+    }
+
+    /**
+     * Compiles a single expression, e.g. a rule condition which has been rewritten after compiling the rule.
+     * Sub-expressions which are unknown to the compiler are evaluated by themselves.
+     *
+     * @param expression the expression to compile
+     * @return the compiled expression or the given expression if it couldn't be compiled
+     */
+    public Expression compile(Expression expression) {
+        try {
+            return compileExpression(expression);
+        } catch (Exception e) {
+            LOG.warn("Unable to compile expression <{}>, falling back to interpreting it", expression, e);
+            return expression;
+        }
+    }
+
+    private Statement compileStatement(Statement statement) {
+        if (statement instanceof FunctionStatement) {
+            final Expression expression = ((FunctionStatement) statement).getFunctionExpression();
+            return new FunctionStatement(compileExpression(expression));
+        } else if (statement instanceof VarAssignStatement) {
+            final VarAssignStatement assignment = (VarAssignStatement) statement;
+            return new VarAssignStatement(assignment.getName(), compileExpression(assignment.getValueExpression()));
+        }
+        return statement;
+    }
+
+    private LogicalExpression compileCondition(LogicalExpression expression) {
+        return new CompiledLogicalExpression(expression, condition(expression));
+    }
+
+    private Expression compileExpression(Expression expression) {
+        if (!hasCompiledForm(expression)) {
+            return expression;
+        }
+        if (expression instanceof LogicalExpression) {
+            return compileCondition((LogicalExpression) expression);
+        }
+        return new CompiledExpression(expression, evaluator(expression));
+    }
+
+    private static boolean hasCompiledForm(Expression expression) {
+        return expression instanceof FunctionExpression
+                || expression instanceof MessageRefExpression
+                || (expression instanceof LogicalExpression && !(expression instanceof BooleanExpression));
+    }
+
+    private Evaluator evaluator(Expression expression) {
+        if (expression instanceof ConstantExpression || expression instanceof FieldRefExpression) {
+            final Object value = expression.evaluateUnsafe();
+            return context -> value;
+        } else if (expression instanceof LogicalExpression) {
+            final Condition condition = condition((LogicalExpression) expression);
+            return condition::test;
+        } else if (expression instanceof MessageRefExpression) {
+            return messageRef((MessageRefExpression) expression);
+        } else if (expression instanceof FunctionExpression) {
+            return function((FunctionExpression) expression);
+        }
+        return expression::evaluateUnsafe;
+    }
+
+    private Evaluator messageRef(MessageRefExpression expression) {
+        final Expression fieldExpr = expression.getFieldExpr();
+        if (fieldExpr.isConstant()) {
+            final Object fieldName = fieldExpr.evaluateUnsafe();
+            if (fieldName == null) {
+                return context -> null;
+            }
+            final String name = fieldName.toString();
+            return context -> context.currentMessage().getField(name);
+        }
+
+        final Evaluator field = evaluator(fieldExpr);
+        return context -> {
+            final Object fieldName = field.evaluate(context);
+            return fieldName == null ? null : context.currentMessage().getField(fieldName.toString());
+        };
+    }
+
+    private Evaluator function(FunctionExpression expression) {
+        final Function<?> function = expression.getFunction();
+        final FunctionDescriptor<?> descriptor = function.descriptor();
+        final Class<?> returnType = descriptor.returnType();
+
+        // Constant arguments stay as they are, so the function pre-computes the same values as for the parsed rule.
+        final Map<String, Expression> compiledArgs = new LinkedHashMap<>();
+        for (Map.Entry<String, Expression> arg : expression.getArgs().getArgs().entrySet()) {
+            final Expression value = arg.getValue();
+            compiledArgs.put(arg.getKey(), value == null || value.isConstant() ? value : compileExpression(value));
+        }
+        final FunctionArgs args = new FunctionArgs(function, compiledArgs);
+        function.preprocessArgs(args);
+
+        return context -> {
+            final InterpreterListener listener = context.interpreterListener();
+            if (listener != null) {
+                listener.evaluateFunction(descriptor);
+            }
+            try {
+                return returnType.cast(function.evaluate(args, context));
+            } catch (LocationAwareEvalException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new FunctionEvaluationException(expression, e);
+            } finally {
+                if (listener != null) {
+                    listener.finishEvaluateFunction(descriptor);
+                }
+            }
+        };
+    }
+
+    private Condition condition(LogicalExpression expression) {
+        if (expression instanceof BooleanExpression) {
+            final boolean value = expression.evaluateBool(EvaluationContext.emptyContext());
+            return context -> value;
+        } else if (expression instanceof AndExpression) {
+            final AndExpression and = (AndExpression) expression;
+            final Condition left = condition((LogicalExpression) and.left());
+            final Condition right = condition((LogicalExpression) and.right());
+            return context -> left.test(context) && right.test(context);
+        } else if (expression instanceof OrExpression) {
+            final OrExpression or = (OrExpression) expression;
+            final Condition left = condition((LogicalExpression) or.left());
+            final Condition right = condition((LogicalExpression) or.right());
+            return context -> left.test(context) || right.test(context);
+        } else if (expression instanceof NotExpression) {
+            final Condition right = condition((LogicalExpression) ((NotExpression) expression).right());
+            return context -> !right.test(context);
+        } else if (expression instanceof BooleanValuedFunctionWrapper) {
+            final Evaluator value = evaluator(((BooleanValuedFunctionWrapper) expression).expression());
+            return context -> {
+                final Object result = value.evaluate(context);
+                return result != null && (Boolean) result;
+            };
+        } else if (expression instanceof EqualityExpression) {
+            return equality((EqualityExpression) expression);
+        } else if (expression instanceof ComparisonExpression) {
+            return comparison((ComparisonExpression) expression);
+        }
+        return expression::evaluateBool;
+    }
+
+    private Condition equality(EqualityExpression expression) {
+        final Evaluator leftValue = evaluator(expression.left());
+        final Evaluator rightValue = evaluator(expression.right());
+        final boolean checkEquality = expression.isCheckEquality();
+
+        return context -> {
+            final Object left = leftValue.evaluate(context);
+            final Object right = rightValue.evaluate(context);
+            if (left == null) {
+                LOG.warn("left expression evaluated to null, returning false: {}", expression.left());
+                return false;
+            }
+            final boolean equals;
+            // DateTime::equals takes the chronology into account, compare the instants instead
+            if (left instanceof DateTime && right instanceof DateTime) {
+                equals = ((DateTime) left).isEqual((DateTime) right);
+            } else {
+                equals = left.equals(right);
+            }
+            return checkEquality == equals;
+        };
+    }
+
+    private Condition comparison(ComparisonExpression expression) {
+        final Evaluator leftValue = evaluator(expression.left());
+        final Evaluator rightValue = evaluator(expression.right());
+        final Operator operator = Operator.fromSymbol(expression.getOperator());
+
+        return context -> {
+            final Object left = leftValue.evaluate(context);
+            final Object right = rightValue.evaluate(context);
+            if (left instanceof DateTime && right instanceof DateTime) {
+                return operator.compare((DateTime) left, (DateTime) right);
+            }
+            // same conversions as the interpreter, mismatched types fail the same way
+            if (left instanceof Double || right instanceof Double) {
+                return operator.compare((double) left, (double) right);
+            }
+            return operator.compare((long) left, (long) right);
+        };
+    }
+
+    private enum Operator {
+        GREATER, GREATER_OR_EQUAL, LESS, LESS_OR_EQUAL, UNKNOWN;
+
+        static Operator fromSymbol(String symbol) {
+            switch (symbol) {
+                case ">":
+                    return GREATER;
+                case ">=":
+                    return GREATER_OR_EQUAL;
+                case "<":
+                    return LESS;
+                case "<=":
+                    return LESS_OR_EQUAL;
+                default:
+                    return UNKNOWN;
+            }
+        }
+
+        boolean compare(long left, long right) {
+            switch (this) {
+                case GREATER:
+                    return left > right;
+                case GREATER_OR_EQUAL:
+                    return left >= right;
+                case LESS:
+                    return left < right;
+                case LESS_OR_EQUAL:
+                    return left <= right;
+                default:
+                    return false;
+            }
+        }
+
+        boolean compare(double left, double right) {
+            switch (this) {
+                case GREATER:
+                    return left > right;
+                case GREATER_OR_EQUAL:
+                    return left >= right;
+                case LESS:
+                    return left < right;
+                case LESS_OR_EQUAL:
+                    return left <= right;
+                default:
+                    return false;
+            }
+        }
+
+        boolean compare(DateTime left, DateTime right) {
+            switch (this) {
+                case GREATER:
+                    return left.isAfter(right);
+                case GREATER_OR_EQUAL:
+                    return !left.isBefore(right);
+                case LESS:
+                    return left.isBefore(right);
+                case LESS_OR_EQUAL:
+                    return !left.isAfter(right);
+                default:
+                    return false;
+            }
+        }
+    }
+}
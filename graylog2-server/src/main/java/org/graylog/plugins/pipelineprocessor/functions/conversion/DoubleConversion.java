@@ -61,6 +61,7 @@ public class DoubleConversion extends AbstractFunction<Double> {
     public FunctionDescriptor<Double> descriptor() {
         return FunctionDescriptor.<Double>builder()
                 .name(NAME)
+                .pure(true)
                 .returnType(Double.class)
                 .params(of(
                         valueParam,
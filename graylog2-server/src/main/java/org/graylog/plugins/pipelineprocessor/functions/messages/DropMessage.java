@@ -47,7 +47,6 @@ public class DropMessage extends AbstractFunction<Void> {
     public FunctionDescriptor<Void> descriptor() {
         return FunctionDescriptor.<Void>builder()
                 .name(NAME)
-                .pure(true)
                 .returnType(Void.class)
                 .params(ImmutableList.of(
                         messageParam
@@ -25,6 +25,7 @@ import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
 import org.graylog.plugins.pipelineprocessor.ast.Pipeline;
 import org.graylog.plugins.pipelineprocessor.ast.Rule;
+import org.graylog.plugins.pipelineprocessor.compiler.RuleCompiler;
 import org.graylog.plugins.pipelineprocessor.db.PipelineService;
 import org.graylog.plugins.pipelineprocessor.db.PipelineStreamConnectionsService;
 import org.graylog.plugins.pipelineprocessor.db.RuleMetricsConfigDto;
@@ -41,6 +42,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
@@ -67,6 +69,8 @@ public class ConfigurationStateUpdater {
     private final ScheduledExecutorService scheduler;
     private final EventBus serverEventBus;
     private final PipelineInterpreter.State.Factory stateFactory;
+    @Nullable
+    private final RuleCompiler ruleCompiler;
     /**
      * non-null if the update has successfully loaded a state
      */
@@ -81,7 +85,8 @@ public class ConfigurationStateUpdater {
                                      MetricRegistry metricRegistry,
                                      @Named("daemonScheduler") ScheduledExecutorService scheduler,
                                      EventBus serverEventBus,
-                                     PipelineInterpreter.State.Factory stateFactory) {
+                                     PipelineInterpreter.State.Factory stateFactory,
+                                     @Named("compiled_pipeline_rules") boolean compileRules) {
         this.ruleService = ruleService;
         this.pipelineService = pipelineService;
         this.pipelineStreamConnectionsService = pipelineStreamConnectionsService;
@@ -91,6 +96,7 @@ public class ConfigurationStateUpdater {
         this.scheduler = scheduler;
         this.serverEventBus = serverEventBus;
         this.stateFactory = stateFactory;
+        this.ruleCompiler = compileRules ? new RuleCompiler() : null;
 
         // listens to cluster wide Rule, Pipeline and pipeline stream connection changes
         serverEventBus.register(this);
@@ -111,6 +117,9 @@ public class ConfigurationStateUpdater {
                 log.warn("Ignoring non parseable rule <{}/{}> with errors <{}>", ruleDao.title(), ruleDao.id(), e.getErrors());
                 rule = Rule.alwaysFalse("Failed to parse rule: " + ruleDao.id());
             }
+            if (ruleCompiler != null) {
+                rule = ruleCompiler.compile(rule);
+            }
             ruleNameMap.put(rule.name(), rule);
         });
 
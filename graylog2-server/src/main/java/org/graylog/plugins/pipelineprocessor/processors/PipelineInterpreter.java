@@ -16,12 +16,14 @@
  */
 package org.graylog.plugins.pipelineprocessor.processors;
 
+import com.codahale.metrics.Counter;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
@@ -41,6 +43,8 @@ import org.graylog.plugins.pipelineprocessor.db.RuleMetricsConfigDto;
 import org.graylog.plugins.pipelineprocessor.processors.listeners.InterpreterListener;
 import org.graylog.plugins.pipelineprocessor.processors.listeners.NoopInterpreterListener;
 import org.graylog.plugins.pipelineprocessor.processors.listeners.RuleMetricsListener;
+import org.graylog.plugins.pipelineprocessor.processors.listeners.RuleProfiler;
+import org.graylog.plugins.pipelineprocessor.processors.listeners.RuleProfilingListener;
 import org.graylog2.metrics.CacheStatsSet;
 import org.graylog2.plugin.Message;
 import org.graylog2.plugin.MessageCollection;
@@ -51,24 +55,23 @@ import org.graylog2.shared.buffers.processors.ProcessBufferProcessor;
 import org.graylog2.shared.messageq.MessageQueueAcknowledger;
 import org.graylog2.shared.metrics.MetricUtils;
 import org.graylog2.shared.utilities.ExceptionUtils;
-import org.jooq.lambda.tuple.Tuple2;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Named;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
-import java.util.stream.Collectors;
 
 import static com.codahale.metrics.MetricRegistry.name;
-import static org.jooq.lambda.tuple.Tuple.tuple;
 
 public class PipelineInterpreter implements MessageProcessor {
     private static final Logger log = LoggerFactory.getLogger(PipelineInterpreter.class);
@@ -76,19 +79,26 @@ public class PipelineInterpreter implements MessageProcessor {
     private final MessageQueueAcknowledger messageQueueAcknowledger;
     private final Meter filteredOutMessages;
     private final Timer executionTime;
+    private final Counter sharedExpressionHits;
+    private final Counter sharedExpressionMisses;
     private final MetricRegistry metricRegistry;
     private final ConfigurationStateUpdater stateUpdater;
+    private final RuleProfiler ruleProfiler;
 
     @Inject
     public PipelineInterpreter(MessageQueueAcknowledger messageQueueAcknowledger,
                                MetricRegistry metricRegistry,
-                               ConfigurationStateUpdater stateUpdater) {
+                               ConfigurationStateUpdater stateUpdater,
+                               RuleProfiler ruleProfiler) {
 
         this.messageQueueAcknowledger = messageQueueAcknowledger;
         this.filteredOutMessages = metricRegistry.meter(name(ProcessBufferProcessor.class, "filteredOutMessages"));
         this.executionTime = metricRegistry.timer(name(PipelineInterpreter.class, "executionTime"));
+        this.sharedExpressionHits = metricRegistry.counter(name(PipelineInterpreter.class, "shared-expressions", "hits"));
+        this.sharedExpressionMisses = metricRegistry.counter(name(PipelineInterpreter.class, "shared-expressions", "misses"));
         this.metricRegistry = metricRegistry;
         this.stateUpdater = stateUpdater;
+        this.ruleProfiler = ruleProfiler;
     }
 
     /**
@@ -99,10 +109,13 @@ public class PipelineInterpreter implements MessageProcessor {
     public Messages process(Messages messages) {
         try (Timer.Context ignored = executionTime.time()) {
             final State latestState = stateUpdater.getLatestState();
-            if (latestState.enableRuleMetrics()) {
-                return process(messages, new RuleMetricsListener(metricRegistry), latestState);
+            final InterpreterListener listener = latestState.enableRuleMetrics()
+                    ? new RuleMetricsListener(metricRegistry)
+                    : new NoopInterpreterListener();
+            if (ruleProfiler.isEnabled()) {
+                return process(messages, new RuleProfilingListener(ruleProfiler, listener), latestState);
             }
-            return process(messages, new NoopInterpreterListener(), latestState);
+            return process(messages, listener, latestState);
         }
     }
 
@@ -122,8 +135,8 @@ public class PipelineInterpreter implements MessageProcessor {
      */
     public Messages process(Messages messages, InterpreterListener interpreterListener, State state) {
         interpreterListener.startProcessing();
-        // message id + stream id
-        final Set<Tuple2<String, String>> processingBlacklist = Sets.newHashSet();
+        // message id -> ids of the streams the message has already been processed for
+        final Map<String, Set<String>> processingBlacklist = new HashMap<>();
 
         final List<Message> toProcess = Lists.newArrayList(messages);
         final List<Message> fullyProcessed = Lists.newArrayListWithExpectedSize(toProcess.size());
@@ -136,17 +149,20 @@ public class PipelineInterpreter implements MessageProcessor {
             for (Message message : currentSet) {
                 final String msgId = message.getId();
 
-                // this makes a copy of the list, which is mutated later in updateStreamBlacklist
-                // it serves as a worklist, to keep track of which <msg, stream> tuples need to be re-run again
-                final Set<String> initialStreamIds = message.getStreams().stream().map(Stream::getId).collect(Collectors.toSet());
+                // the streams before processing, to keep track of which <msg, stream> combinations need to be re-run again
+                final ImmutableSet<String> initialStreamIds = streamIds(message);
 
-                final ImmutableSet<Pipeline> pipelinesToRun = selectPipelines(interpreterListener,
+                final PipelineSelection selection = selectPipelines(interpreterListener,
                         processingBlacklist,
                         message,
                         initialStreamIds,
-                        state.getStreamPipelineConnections());
+                        state);
 
-                toProcess.addAll(processForResolvedPipelines(message, msgId, pipelinesToRun, interpreterListener, state));
+                toProcess.addAll(processForResolvedPipelines(message,
+                        msgId,
+                        selection.pipelines(),
+                        selection.stageIterator(),
+                        interpreterListener));
 
                 // add each processed message-stream combination to the blacklist set and figure out if the processing
                 // has added a stream to the message, in which case we need to cycle and determine whether to process
@@ -182,44 +198,60 @@ public class PipelineInterpreter implements MessageProcessor {
         }
     }
 
+    private static ImmutableSet<String> streamIds(Message message) {
+        final ImmutableSet.Builder<String> streamIds = ImmutableSet.builder();
+        for (Stream stream : message.getStreams()) {
+            streamIds.add(stream.getId());
+        }
+        return streamIds.build();
+    }
+
     // given the initial streams the message was on before the processing and its current state, update the set of
     // <msgid, stream> that should not be run again (which prevents re-running pipelines over and over again)
-    private boolean updateStreamBlacklist(Set<Tuple2<String, String>> processingBlacklist,
+    private boolean updateStreamBlacklist(Map<String, Set<String>> processingBlacklist,
                                           Message message,
                                           Set<String> initialStreamIds) {
+        final Set<Stream> streams = message.getStreams();
         boolean addedStreams = false;
-        for (Stream stream : message.getStreams()) {
-            if (!initialStreamIds.remove(stream.getId())) {
+        for (Stream stream : streams) {
+            if (!initialStreamIds.contains(stream.getId())) {
                 addedStreams = true;
-            } else {
-                // only add pre-existing streams to blacklist, this has the effect of only adding already processed streams,
-                // not newly added ones.
-                processingBlacklist.add(tuple(message.getId(), stream.getId()));
+                break;
             }
         }
-        return addedStreams;
+        // the blacklist is only consulted if the message is run again, which only happens for added streams
+        if (!addedStreams) {
+            return false;
+        }
+        final Set<String> processedStreamIds = processingBlacklist.computeIfAbsent(message.getId(), id -> Sets.newHashSet());
+        for (Stream stream : streams) {
+            // only add pre-existing streams to blacklist, this has the effect of only adding already processed streams,
+            // not newly added ones.
+            if (initialStreamIds.contains(stream.getId())) {
+                processedStreamIds.add(stream.getId());
+            }
+        }
+        return true;
     }
 
     // determine which pipelines should be executed give the stream-pipeline connections and the current message
     // the initialStreamIds are not mutated, but are being passed for efficiency, as they are used later in #process()
-    private ImmutableSet<Pipeline> selectPipelines(InterpreterListener interpreterListener,
-                                                   Set<Tuple2<String, String>> processingBlacklist,
-                                                   Message message,
-                                                   Set<String> initialStreamIds,
-                                                   ImmutableSetMultimap<String, Pipeline> streamConnection) {
+    private PipelineSelection selectPipelines(InterpreterListener interpreterListener,
+                                              Map<String, Set<String>> processingBlacklist,
+                                              Message message,
+                                              ImmutableSet<String> initialStreamIds,
+                                              State state) {
         final String msgId = message.getId();
 
-        // if a message-stream combination has already been processed (is in the set), skip that execution
-        final Set<String> streamsIds = initialStreamIds.stream()
-                .filter(streamId -> !processingBlacklist.contains(tuple(msgId, streamId)))
-                .filter(streamConnection::containsKey)
-                .collect(Collectors.toSet());
-        final ImmutableSet<Pipeline> pipelinesToRun = streamsIds.stream()
-                .flatMap(streamId -> streamConnection.get(streamId).stream())
-                .collect(ImmutableSet.toImmutableSet());
-        interpreterListener.processStreams(message, pipelinesToRun, streamsIds);
-        log.debug("[{}] running pipelines {} for streams {}", msgId, pipelinesToRun, streamsIds);
-        return pipelinesToRun;
+        // if a message-stream combination has already been processed (is in the blacklist), skip that execution
+        final Set<String> processedStreamIds = processingBlacklist.get(msgId);
+        final ImmutableSet<String> streamIds = processedStreamIds == null
+                ? initialStreamIds
+                : ImmutableSet.copyOf(Sets.difference(initialStreamIds, processedStreamIds));
+        final PipelineSelection selection = state.selectPipelines(streamIds);
+        interpreterListener.processStreams(message, selection.pipelines(), selection.streamIds());
+        log.debug("[{}] running pipelines {} for streams {}", msgId, selection.pipelines(), selection.streamIds());
+        return selection;
     }
 
     /**
@@ -256,11 +288,18 @@ public class PipelineInterpreter implements MessageProcessor {
                                                      Set<Pipeline> pipelines,
                                                      InterpreterListener interpreterListener,
                                                      State state) {
+        return processForResolvedPipelines(message, msgId, pipelines, state.getStageIterator(pipelines), interpreterListener);
+    }
+
+    private List<Message> processForResolvedPipelines(Message message,
+                                                      String msgId,
+                                                      Set<Pipeline> pipelines,
+                                                      StageIterator stages,
+                                                      InterpreterListener interpreterListener) {
         final List<Message> result = new ArrayList<>();
         // record execution of pipeline in metrics
         pipelines.forEach(Pipeline::markExecution);
 
-        final StageIterator stages = state.getStageIterator(pipelines);
         final Set<Pipeline> pipelinesToSkip = Sets.newHashSet();
 
         // iterate through all stages for all matching pipelines, per "stage slice" instead of per pipeline.
@@ -273,8 +312,15 @@ public class PipelineInterpreter implements MessageProcessor {
             }
 
             final List<Stage> stageSet = stages.next();
+            // identical pure sub-expressions of the rule conditions in this slice are only evaluated once
+            final StageSlicePlan plan = stages.plan(stageSet.get(0).stage());
+            final EvaluationContext.SharedValues sharedValues = plan.newSharedValues();
             for (final Stage stage : stageSet) {
-                evaluateStage(stage, message, msgId, result, pipelinesToSkip, interpreterListener);
+                evaluateStage(stage, plan, sharedValues, message, msgId, result, pipelinesToSkip, interpreterListener);
+            }
+            if (sharedValues != null) {
+                sharedExpressionHits.inc(sharedValues.hits());
+                sharedExpressionMisses.inc(sharedValues.misses());
             }
         }
 
@@ -283,6 +329,8 @@ public class PipelineInterpreter implements MessageProcessor {
     }
 
     private void evaluateStage(Stage stage,
+                               StageSlicePlan plan,
+                               @Nullable EvaluationContext.SharedValues sharedValues,
                                Message message,
                                String msgId,
                                List<Message> result,
@@ -304,6 +352,8 @@ public class PipelineInterpreter implements MessageProcessor {
 
         // TODO the message should be decorated to allow layering changes and isolate stages
         final EvaluationContext context = new EvaluationContext(message);
+        context.setSharedValues(sharedValues);
+        context.setInterpreterListener(interpreterListener);
 
         // 3. iterate over all the stages in these pipelines and execute them in order
         final List<Rule> stageRules = stage.getRules();
@@ -312,7 +362,7 @@ public class PipelineInterpreter implements MessageProcessor {
         boolean allRulesMatched = true;
         for (Rule rule : stageRules) {
             try {
-                final boolean ruleCondition = evaluateRuleCondition(rule, message, msgId, pipeline, context, rulesToRun, interpreterListener);
+                final boolean ruleCondition = evaluateRuleCondition(rule, plan.condition(rule), message, msgId, pipeline, context, rulesToRun, interpreterListener);
                 anyRulesMatched |= ruleCondition;
                 allRulesMatched &= ruleCondition;
 
@@ -337,6 +387,10 @@ public class PipelineInterpreter implements MessageProcessor {
                 break;
             }
         }
+        // the actions might have modified the message, the following stages of the slice have to re-evaluate
+        if (sharedValues != null && !rulesToRun.isEmpty()) {
+            sharedValues.clear();
+        }
         // stage needed to match all rule conditions to enable the next stage,
         // record that it is ok to proceed with this pipeline
         // OR
@@ -413,6 +467,7 @@ public class PipelineInterpreter implements MessageProcessor {
     }
 
     private boolean evaluateRuleCondition(Rule rule,
+                                          LogicalExpression logicalExpression,
                                           Message message,
                                           String msgId,
                                           Pipeline pipeline,
@@ -420,7 +475,6 @@ public class PipelineInterpreter implements MessageProcessor {
                                           List<Rule> rulesToRun, InterpreterListener interpreterListener) {
         interpreterListener.evaluateRule(rule, pipeline);
         final boolean matched;
-        final LogicalExpression logicalExpression = rule.when();
         try {
             matched = logicalExpression.evaluateBool(context);
         } catch (Exception e) {
@@ -469,10 +523,14 @@ public class PipelineInterpreter implements MessageProcessor {
     public static class State {
         private final Logger LOG = LoggerFactory.getLogger(getClass());
         protected static final String STAGE_CACHE_METRIC_SUFFIX = "stage-cache";
+        protected static final String SELECTION_CACHE_METRIC_SUFFIX = "selection-cache";
+        // most messages share a handful of stream combinations, the bound only protects against pathological setups
+        private static final long SELECTION_CACHE_SIZE = 10_000;
 
         private final ImmutableMap<String, Pipeline> currentPipelines;
         private final ImmutableSetMultimap<String, Pipeline> streamPipelineConnections;
         private final LoadingCache<Set<Pipeline>, StageIterator.Configuration> cache;
+        private final LoadingCache<Set<String>, PipelineSelection> selectionCache;
         private final boolean cachedIterators;
         private final RuleMetricsConfigDto ruleMetricsConfig;
 
@@ -494,13 +552,30 @@ public class PipelineInterpreter implements MessageProcessor {
                     .build(new CacheLoader<Set<Pipeline>, StageIterator.Configuration>() {
                         @Override
                         public StageIterator.Configuration load(@Nonnull Set<Pipeline> pipelines) {
-                            return new StageIterator.Configuration(pipelines);
+                            return new StageIterator.Configuration(pipelines, true);
+                        }
+                    });
+
+            selectionCache = CacheBuilder.newBuilder()
+                    .concurrencyLevel(processorCount)
+                    .maximumSize(SELECTION_CACHE_SIZE)
+                    .recordStats()
+                    .build(new CacheLoader<Set<String>, PipelineSelection>() {
+                        @Override
+                        public PipelineSelection load(@Nonnull Set<String> streamIds) {
+                            return newSelection(streamIds, cachedIterators);
                         }
                     });
 
             // we have to remove the metrics, because otherwise we leak references to the cache (and the register call with throw)
             metricRegistry.removeMatching((name, metric) -> name.startsWith(getStageCacheMetricName()));
             MetricUtils.safelyRegisterAll(metricRegistry, new CacheStatsSet(getStageCacheMetricName(), cache));
+            metricRegistry.removeMatching((name, metric) -> name.startsWith(getSelectionCacheMetricName()));
+            MetricUtils.safelyRegisterAll(metricRegistry, new CacheStatsSet(getSelectionCacheMetricName(), selectionCache));
+        }
+
+        protected String getSelectionCacheMetricName() {
+            return name(PipelineInterpreter.class, SELECTION_CACHE_METRIC_SUFFIX);
         }
 
         protected String getStageCacheMetricName() {
@@ -532,6 +607,32 @@ public class PipelineInterpreter implements MessageProcessor {
             }
         }
 
+        /**
+         * Resolves the pipelines connected to the given streams. The result is cached per set of stream ids for the
+         * lifetime of this state, which is replaced whenever the pipeline configuration changes.
+         *
+         * @param streamIds the stream ids of a message, must not be modified afterwards
+         * @return the connected streams and their pipelines
+         */
+        public PipelineSelection selectPipelines(Set<String> streamIds) {
+            try {
+                return selectionCache.get(streamIds);
+            } catch (ExecutionException | UncheckedExecutionException e) {
+                LOG.error("Unable to get pipeline selection from cache, this should not happen.", ExceptionUtils.getRootCause(e));
+                return newSelection(streamIds, false);
+            }
+        }
+
+        private PipelineSelection newSelection(Set<String> streamIds, boolean cacheStages) {
+            final ImmutableSet<String> connectedStreamIds = streamIds.stream()
+                    .filter(streamPipelineConnections::containsKey)
+                    .collect(ImmutableSet.toImmutableSet());
+            final ImmutableSet<Pipeline> pipelines = connectedStreamIds.stream()
+                    .flatMap(streamId -> streamPipelineConnections.get(streamId).stream())
+                    .collect(ImmutableSet.toImmutableSet());
+            return new PipelineSelection(connectedStreamIds, pipelines, cacheStages ? cache.getUnchecked(pipelines) : null);
+        }
+
 
         public interface Factory {
             State newState(ImmutableMap<String, Pipeline> currentPipelines,
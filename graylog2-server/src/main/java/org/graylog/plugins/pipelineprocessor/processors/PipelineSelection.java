@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.pipelineprocessor.processors;
+
+import com.google.common.collect.ImmutableSet;
+import org.graylog.plugins.pipelineprocessor.ast.Pipeline;
+
+import javax.annotation.Nullable;
+
+/**
+ * The pipelines to run for a set of message streams, as resolved by {@link PipelineInterpreter.State#selectPipelines(java.util.Set)}.
+ *
+ * Instances are immutable and can be shared between threads.
+ */
+public class PipelineSelection {
+    private final ImmutableSet<String> streamIds;
+    private final ImmutableSet<Pipeline> pipelines;
+    @Nullable
+    private final StageIterator.Configuration stageConfiguration;
+
+    PipelineSelection(ImmutableSet<String> streamIds,
+                      ImmutableSet<Pipeline> pipelines,
+                      @Nullable StageIterator.Configuration stageConfiguration) {
+        this.streamIds = streamIds;
+        this.pipelines = pipelines;
+        this.stageConfiguration = stageConfiguration;
+    }
+
+    /**
+     * @return the ids of the streams which have pipeline connections
+     */
+    public ImmutableSet<String> streamIds() {
+        return streamIds;
+    }
+
+    public ImmutableSet<Pipeline> pipelines() {
+        return pipelines;
+    }
+
+    /**
+     * @return a new iterator over the stage slices of the pipelines, reusing the precomputed configuration if there is one
+     */
+    public StageIterator stageIterator() {
+        return stageConfiguration == null ? new StageIterator(pipelines) : new StageIterator(stageConfiguration);
+    }
+}
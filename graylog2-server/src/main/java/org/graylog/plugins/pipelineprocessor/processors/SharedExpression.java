@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.pipelineprocessor.processors;
+
+import org.graylog.plugins.pipelineprocessor.EvaluationContext;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.BaseExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.Expression;
+
+import javax.annotation.Nullable;
+import java.util.Collections;
+
+/**
+ * Evaluates an expression which occurs in several rule conditions of a stage slice at most once per message, see
+ * {@link StageSlicePlan}.
+ *
+ * Results are only shared if the evaluation didn't raise any evaluation errors, so errors are reported for every rule.
+ */
+class SharedExpression extends BaseExpression {
+    private final Expression expression;
+    private final int slot;
+
+    SharedExpression(Expression expression, int slot) {
+        super(expression.getStartToken());
+        this.expression = expression;
+        this.slot = slot;
+    }
+
+    @Override
+    public boolean isConstant() {
+        return false;
+    }
+
+    @Nullable
+    @Override
+    public Object evaluateUnsafe(EvaluationContext context) {
+        final EvaluationContext.SharedValues values = context.sharedValues();
+        if (values == null) {
+            return evaluateExpression(context);
+        }
+        if (values.contains(slot)) {
+            return values.get(slot);
+        }
+        values.recordMiss();
+
+        final int errorCount = context.evaluationErrors().size();
+        final Object value = evaluateExpression(context);
+        if (context.evaluationErrors().size() == errorCount) {
+            values.put(slot, value);
+        }
+        return value;
+    }
+
+    @Nullable
+    protected Object evaluateExpression(EvaluationContext context) {
+        return expression.evaluateUnsafe(context);
+    }
+
+    protected Expression expression() {
+        return expression;
+    }
+
+    @Override
+    public Class getType() {
+        return expression.getType();
+    }
+
+    @Override
+    public Iterable<Expression> children() {
+        return Collections.singleton(expression);
+    }
+
+    @Override
+    public String toString() {
+        return expression.toString();
+    }
+}
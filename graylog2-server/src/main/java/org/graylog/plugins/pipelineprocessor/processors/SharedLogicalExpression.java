@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.pipelineprocessor.processors;
+
+import org.graylog.plugins.pipelineprocessor.EvaluationContext;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.LogicalExpression;
+
+/**
+ * Shared form of a logical expression, see {@link SharedExpression}.
+ */
+class SharedLogicalExpression extends SharedExpression implements LogicalExpression {
+    SharedLogicalExpression(LogicalExpression expression, int slot) {
+        super(expression, slot);
+    }
+
+    @Override
+    protected Object evaluateExpression(EvaluationContext context) {
+        return ((LogicalExpression) expression()).evaluateBool(context);
+    }
+
+    @Override
+    public boolean evaluateBool(EvaluationContext context) {
+        return (Boolean) evaluateUnsafe(context);
+    }
+}
@@ -22,7 +22,9 @@ import com.google.common.collect.ArrayListMultimap;
 import org.graylog.plugins.pipelineprocessor.ast.Pipeline;
 import org.graylog.plugins.pipelineprocessor.ast.Stage;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 
@@ -58,15 +60,36 @@ public class StageIterator extends AbstractIterator<List<Stage>> {
         return config.getStages(currentStage);
     }
 
+    /**
+     * Returns the shared condition plan of the given stage slice.
+     *
+     * @param stage the stage number of the slice
+     * @return the plan, never {@code null}
+     */
+    public StageSlicePlan plan(int stage) {
+        return config.getPlan(stage);
+    }
+
     public static class Configuration {
         // first and last stage for the given pipelines
         private final int[] extent = new int[]{Integer.MAX_VALUE, Integer.MIN_VALUE};
 
         private final ArrayListMultimap<Integer, Stage> stageMultimap = ArrayListMultimap.create();
 
+        private final Map<Integer, StageSlicePlan> plans = new HashMap<>();
+
         private final int initialStage;
 
         public Configuration(Set<Pipeline> pipelines) {
+            this(pipelines, false);
+        }
+
+        /**
+         * @param pipelines           the pipelines to iterate over
+         * @param shareSubexpressions whether to plan the sharing of rule condition sub-expressions for every stage
+         *                            slice, only worthwhile if the configuration is reused
+         */
+        public Configuration(Set<Pipeline> pipelines, boolean shareSubexpressions) {
             if (pipelines.isEmpty()) {
                 initialStage = extent[0] = extent[1] = 0;
                 return;
@@ -87,6 +110,12 @@ public class StageIterator extends AbstractIterator<List<Stage>> {
             }
             // the stage before the first stage.
             initialStage = extent[0] - 1;
+
+            if (shareSubexpressions) {
+                for (Integer stage : stageMultimap.keySet()) {
+                    plans.put(stage, StageSlicePlan.create(stageMultimap.get(stage)));
+                }
+            }
         }
 
         public int initialStage() {
@@ -104,5 +133,9 @@ public class StageIterator extends AbstractIterator<List<Stage>> {
         public List<Stage> getStages(int stage) {
             return stageMultimap.get(stage);
         }
+
+        public StageSlicePlan getPlan(int stage) {
+            return plans.getOrDefault(stage, StageSlicePlan.EMPTY);
+        }
     }
 }
@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.pipelineprocessor.processors;
+
+import com.google.common.collect.ImmutableMap;
+import org.graylog.plugins.pipelineprocessor.EvaluationContext;
+import org.graylog.plugins.pipelineprocessor.ast.Rule;
+import org.graylog.plugins.pipelineprocessor.ast.Stage;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.AdditionExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.AndExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.BinaryExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.BooleanValuedFunctionWrapper;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.ComparisonExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.ConstantExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.EqualityExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.Expression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.FieldAccessExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.FieldRefExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.FunctionExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.IndexedAccessExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.LogicalExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.MessageRefExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.MultiplicationExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.NotExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.OrExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.SignedExpression;
+import org.graylog.plugins.pipelineprocessor.ast.functions.FunctionDescriptor;
+import org.graylog.plugins.pipelineprocessor.compiler.CompiledExpression;
+import org.graylog.plugins.pipelineprocessor.compiler.RuleCompiler;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rule conditions of a stage slice, rewritten so that identical pure sub-expressions are evaluated only once per
+ * message.
+ *
+ * Sub-expressions are considered identical if they are structurally equal. They are pure if they only consist of
+ * constants, message field references, operators and calls to {@link FunctionDescriptor#pure() pure} functions.
+ * Every such sub-expression occurring more than once in the slice gets a slot in the
+ * {@link EvaluationContext.SharedValues} of the slice and is evaluated lazily on first use, so short-circuiting
+ * behaves as before.
+ *
+ * The shared values are only valid as long as the message isn't modified, the interpreter clears them whenever rule
+ * actions have been executed.
+ *
+ * Conditions of {@link RuleCompiler compiled} rules are rewritten from the parsed expressions and compiled again, so
+ * the rewritten conditions and the shared sub-expressions are evaluated in their compiled form as well.
+ *
+ * Instances are immutable and can be shared between threads.
+ */
+public class StageSlicePlan {
+    static final StageSlicePlan EMPTY = new StageSlicePlan(Collections.emptyMap(), 0);
+
+    private final Map<Rule, LogicalExpression> conditions;
+    private final int slotCount;
+
+    private StageSlicePlan(Map<Rule, LogicalExpression> conditions, int slotCount) {
+        this.conditions = conditions;
+        this.slotCount = slotCount;
+    }
+
+    static StageSlicePlan create(List<Stage> stages) {
+        final Planner planner = new Planner();
+        for (Stage stage : stages) {
+            if (stage.getRules() != null) {
+                stage.getRules().forEach(rule -> planner.count(rule.when()));
+            }
+        }
+
+        final Map<Rule, LogicalExpression> conditions = new IdentityHashMap<>();
+        for (Stage stage : stages) {
+            if (stage.getRules() != null) {
+                for (Rule rule : stage.getRules()) {
+                    if (conditions.containsKey(rule)) {
+                        continue;
+                    }
+                    planner.compile = rule.when() instanceof CompiledExpression;
+                    final Expression condition = planner.rewrite(rule.when(), 1);
+                    if (condition != rule.when()) {
+                        conditions.put(rule, (LogicalExpression) planner.compiled(condition));
+                    }
+                }
+            }
+        }
+
+        if (planner.slots.isEmpty()) {
+            return EMPTY;
+        }
+        return new StageSlicePlan(conditions, planner.slots.size());
+    }
+
+    /**
+     * Returns the condition to evaluate for the given rule.
+     *
+     * @param rule a rule of one of the stages in this slice
+     * @return the rewritten condition, or the original one if it doesn't contain any shared sub-expressions
+     */
+    public LogicalExpression condition(Rule rule) {
+        final LogicalExpression condition = conditions.get(rule);
+        return condition == null ? rule.when() : condition;
+    }
+
+    /**
+     * Creates the storage for the shared values of a single message.
+     *
+     * @return the shared values, or {@code null} if this slice doesn't have any shared sub-expressions
+     */
+    @Nullable
+    public EvaluationContext.SharedValues newSharedValues() {
+        return slotCount == 0 ? null : new EvaluationContext.SharedValues(slotCount);
+    }
+
+    int slotCount() {
+        return slotCount;
+    }
+
+    private static class Planner {
+        private static final RuleCompiler COMPILER = new RuleCompiler();
+
+        private final Map<Expression, Object> keys = new IdentityHashMap<>();
+        private final Map<Object, Integer> occurrences = new HashMap<>();
+        private final Map<Object, Integer> slots = new HashMap<>();
+        // whether the rule which is currently rewritten has been compiled
+        private boolean compile = false;
+
+        private void count(Expression expression) {
+            final Expression node = unwrap(expression);
+            final Object key = key(node);
+            if (key != null && isWorthSharing(node)) {
+                occurrences.merge(key, 1, Integer::sum);
+            }
+            if (isRewritable(node)) {
+                node.children().forEach(this::count);
+            }
+        }
+
+        /**
+         * @param expression           the expression to rewrite
+         * @param enclosingOccurrences how often the closest shared expression enclosing this one occurs, expressions
+         *                             which don't occur more often are always evaluated as part of it
+         */
+        private Expression rewrite(Expression expression, int enclosingOccurrences) {
+            final Expression node = unwrap(expression);
+            final Object key = key(node);
+            final int count = key == null ? 0 : occurrences.getOrDefault(key, 0);
+            final boolean shared = count > enclosingOccurrences;
+
+            final Expression rebuilt = isRewritable(node) ? rebuild(node, shared ? count : enclosingOccurrences) : node;
+            // keep compiled expressions if nothing below them is shared
+            final Expression rewritten = rebuilt == node ? expression : rebuilt;
+
+            if (shared) {
+                final int slot = slots.computeIfAbsent(key, k -> slots.size());
+                final Expression evaluated = compiled(rewritten);
+                return evaluated instanceof LogicalExpression
+                        ? new SharedLogicalExpression((LogicalExpression) evaluated, slot)
+                        : new SharedExpression(evaluated, slot);
+            }
+            return rewritten;
+        }
+
+        // shared expressions already evaluate the compiled form of their expression
+        private Expression compiled(Expression expression) {
+            if (!compile || expression instanceof CompiledExpression || expression instanceof SharedExpression) {
+                return expression;
+            }
+            return COMPILER.compile(expression);
+        }
+
+        private Expression rebuild(Expression node, int enclosingOccurrences) {
+            if (node instanceof AndExpression) {
+                final AndExpression and = (AndExpression) node;
+                final Expression left = rewrite(and.left(), enclosingOccurrences);
+                final Expression right = rewrite(and.right(), enclosingOccurrences);
+                return left == and.left() && right == and.right() ? node : new AndExpression(node.getStartToken(), left, right);
+            } else if (node instanceof OrExpression) {
+                final OrExpression or = (OrExpression) node;
+                final Expression left = rewrite(or.left(), enclosingOccurrences);
+                final Expression right = rewrite(or.right(), enclosingOccurrences);
+                return left == or.left() && right == or.right() ? node : new OrExpression(node.getStartToken(), left, right);
+            } else if (node instanceof NotExpression) {
+                final NotExpression not = (NotExpression) node;
+                final Expression right = rewrite(not.right(), enclosingOccurrences);
+                return right == not.right() ? node : new NotExpression(node.getStartToken(), right);
+            } else if (node instanceof EqualityExpression) {
+                final EqualityExpression equality = (EqualityExpression) node;
+                final Expression left = rewrite(equality.left(), enclosingOccurrences);
+                final Expression right = rewrite(equality.right(), enclosingOccurrences);
+                return left == equality.left() && right == equality.right() ? node
+                        : new EqualityExpression(node.getStartToken(), left, right, equality.isCheckEquality());
+            } else if (node instanceof ComparisonExpression) {
+                final ComparisonExpression comparison = (ComparisonExpression) node;
+                final Expression left = rewrite(comparison.left(), enclosingOccurrences);
+                final Expression right = rewrite(comparison.right(), enclosingOccurrences);
+                return left == comparison.left() && right == comparison.right() ? node
+                        : new ComparisonExpression(node.getStartToken(), left, right, comparison.getOperator());
+            } else if (node instanceof BooleanValuedFunctionWrapper) {
+                final BooleanValuedFunctionWrapper wrapper = (BooleanValuedFunctionWrapper) node;
+                final Expression expression = rewrite(wrapper.expression(), enclosingOccurrences);
+                return expression == wrapper.expression() ? node : new BooleanValuedFunctionWrapper(node.getStartToken(), expression);
+            }
+            return node;
+        }
+
+        private static Expression unwrap(Expression expression) {
+            return expression instanceof CompiledExpression ? ((CompiledExpression) expression).original() : expression;
+        }
+
+        // only the logical structure of a condition is rewritten, everything else is shared or evaluated as a whole
+        private static boolean isRewritable(Expression node) {
+            return node instanceof AndExpression || node instanceof OrExpression || node instanceof NotExpression
+                    || node instanceof EqualityExpression || node instanceof ComparisonExpression
+                    || node instanceof BooleanValuedFunctionWrapper;
+        }
+
+        // constants and plain message field lookups are cheaper to evaluate than to share
+        private static boolean isWorthSharing(Expression node) {
+            if (node.isConstant()) {
+                return false;
+            }
+            return !(node instanceof MessageRefExpression && ((MessageRefExpression) node).getFieldExpr().isConstant());
+        }
+
+        /**
+         * Returns a key which is equal for structurally equal pure expressions, or {@code null} if the expression
+         * isn't pure.
+         */
+        @Nullable
+        private Object key(Expression expression) {
+            final Expression node = unwrap(expression);
+            if (keys.containsKey(node)) {
+                return keys.get(node);
+            }
+            final Object key = computeKey(node);
+            keys.put(node, key);
+            return key;
+        }
+
+        @Nullable
+        private Object computeKey(Expression node) {
+            if (node instanceof ConstantExpression) {
+                return Arrays.asList(node.getClass(), node.evaluateUnsafe(EvaluationContext.emptyContext()));
+            } else if (node instanceof FieldRefExpression) {
+                return Arrays.asList(node.getClass(), ((FieldRefExpression) node).fieldName());
+            } else if (node instanceof FunctionExpression) {
+                final FunctionExpression function = (FunctionExpression) node;
+                if (!function.getFunction().descriptor().pure()) {
+                    return null;
+                }
+                final ImmutableMap.Builder<String, Object> args = ImmutableMap.builder();
+                for (Map.Entry<String, Expression> arg : function.getArgs().getArgs().entrySet()) {
+                    final Object argKey = key(arg.getValue());
+                    if (argKey == null) {
+                        return null;
+                    }
+                    args.put(arg.getKey(), argKey);
+                }
+                return Arrays.asList(node.getClass(), function.getFunction().descriptor().name(), args.build());
+            } else if (node instanceof MessageRefExpression) {
+                return compositeKey(node, null, ((MessageRefExpression) node).getFieldExpr());
+            } else if (node instanceof FieldAccessExpression) {
+                final FieldAccessExpression fieldAccess = (FieldAccessExpression) node;
+                return compositeKey(node, null, fieldAccess.object(), fieldAccess.field());
+            } else if (node instanceof IndexedAccessExpression) {
+                final IndexedAccessExpression indexedAccess = (IndexedAccessExpression) node;
+                return compositeKey(node, null, indexedAccess.getIndexableObject(), indexedAccess.getIndex());
+            } else if (node instanceof BooleanValuedFunctionWrapper) {
+                return compositeKey(node, null, ((BooleanValuedFunctionWrapper) node).expression());
+            } else if (node instanceof AndExpression || node instanceof OrExpression) {
+                final BinaryExpression binary = (BinaryExpression) node;
+                return compositeKey(node, null, binary.left(), binary.right());
+            } else if (node instanceof NotExpression) {
+                return compositeKey(node, null, ((NotExpression) node).right());
+            } else if (node instanceof SignedExpression) {
+                final SignedExpression signed = (SignedExpression) node;
+                return compositeKey(node, signed.isPlus(), signed.right());
+            } else if (node instanceof EqualityExpression) {
+                final EqualityExpression equality = (EqualityExpression) node;
+                return compositeKey(node, equality.isCheckEquality(), equality.left(), equality.right());
+            } else if (node instanceof ComparisonExpression) {
+                final ComparisonExpression comparison = (ComparisonExpression) node;
+                return compositeKey(node, comparison.getOperator(), comparison.left(), comparison.right());
+            } else if (node instanceof AdditionExpression) {
+                final AdditionExpression addition = (AdditionExpression) node;
+                return compositeKey(node, addition.isPlus(), addition.left(), addition.right());
+            } else if (node instanceof MultiplicationExpression) {
+                final MultiplicationExpression multiplication = (MultiplicationExpression) node;
+                return compositeKey(node, multiplication.getOperator(), multiplication.left(), multiplication.right());
+            }
+            // variables, literals and everything else are not shared
+            return null;
+        }
+
+        @Nullable
+        private Object compositeKey(Expression node, @Nullable Object operator, Expression... children) {
+            final Object[] key = new Object[children.length + 2];
+            key[0] = node.getClass();
+            key[1] = operator;
+            for (int i = 0; i < children.length; i++) {
+                key[i + 2] = key(children[i]);
+                if (key[i + 2] == null) {
+                    return null;
+                }
+            }
+            return Arrays.asList(key);
+        }
+    }
+}
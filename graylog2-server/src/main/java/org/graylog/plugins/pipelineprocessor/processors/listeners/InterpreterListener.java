@@ -19,6 +19,7 @@ package org.graylog.plugins.pipelineprocessor.processors.listeners;
 import org.graylog.plugins.pipelineprocessor.ast.Pipeline;
 import org.graylog.plugins.pipelineprocessor.ast.Rule;
 import org.graylog.plugins.pipelineprocessor.ast.Stage;
+import org.graylog.plugins.pipelineprocessor.ast.functions.FunctionDescriptor;
 import org.graylog2.plugin.Message;
 
 import java.util.Set;
@@ -38,4 +39,17 @@ public interface InterpreterListener {
     void failExecuteRule(Rule rule, Pipeline pipeline);
     void continuePipelineExecution(Pipeline pipeline, Stage stage);
     void stopPipelineExecution(Pipeline pipeline, Stage stage);
+
+    /**
+     * Called before a function of a rule condition or action is evaluated. Only called if the listener has been set
+     * on the {@link org.graylog.plugins.pipelineprocessor.EvaluationContext}.
+     */
+    default void evaluateFunction(FunctionDescriptor<?> descriptor) {
+    }
+
+    /**
+     * Called after a function has been evaluated, even if the evaluation failed.
+     */
+    default void finishEvaluateFunction(FunctionDescriptor<?> descriptor) {
+    }
 }
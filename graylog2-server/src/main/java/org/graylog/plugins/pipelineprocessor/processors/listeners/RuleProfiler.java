@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.pipelineprocessor.processors.listeners;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import org.graylog.plugins.pipelineprocessor.ast.Pipeline;
+import org.graylog.plugins.pipelineprocessor.ast.Rule;
+import org.graylog.plugins.pipelineprocessor.ast.functions.Function;
+import org.graylog.plugins.pipelineprocessor.events.PipelinesChangedEvent;
+import org.graylog.plugins.pipelineprocessor.events.RulesChangedEvent;
+import org.graylog2.shared.metrics.HdrHistogram;
+import org.graylog2.shared.metrics.HdrTimer;
+import org.graylog2.shared.metrics.MetricUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Collects sampled wall-clock and CPU times of pipeline rule conditions, rule actions and function calls, see
+ * {@link RuleProfilingListener}.
+ *
+ * The times are recorded in HDR histograms which are registered in the metric registry. Additionally the total
+ * sampled times are kept to rank the most expensive rules and functions.
+ */
+@Singleton
+public class RuleProfiler {
+    private static final Logger LOG = LoggerFactory.getLogger(RuleProfiler.class);
+
+    // durations above one minute are not recorded in the histograms, but still counted in the totals
+    private static final long HIGHEST_TRACKABLE_MINUTES = 1;
+    // one significant digit keeps the histograms small, there are several of them for every profiled rule
+    private static final int SIGNIFICANT_VALUE_DIGITS = 1;
+
+    private final MetricRegistry metricRegistry;
+    private final int sampleRate;
+    private final ThreadMXBean threadMXBean;
+    private final boolean cpuTimeSupported;
+
+    private final ConcurrentMap<List<String>, RuleTimings> ruleTimings = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Timings> functionTimings = new ConcurrentHashMap<>();
+
+    @Inject
+    public RuleProfiler(MetricRegistry metricRegistry,
+                        EventBus serverEventBus,
+                        @Named("rule_profiling_sample_rate") int sampleRate) {
+        this.metricRegistry = metricRegistry;
+        this.sampleRate = Math.max(0, sampleRate);
+        this.threadMXBean = ManagementFactory.getThreadMXBean();
+        this.cpuTimeSupported = threadMXBean.isCurrentThreadCpuTimeSupported() && threadMXBean.isThreadCpuTimeEnabled();
+        if (this.sampleRate > 0 && !cpuTimeSupported) {
+            LOG.info("Thread CPU time measurement is not available, only wall-clock time of pipeline rules will be profiled.");
+        }
+
+        serverEventBus.register(this);
+    }
+
+    public boolean isEnabled() {
+        return sampleRate > 0;
+    }
+
+    public int sampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @return {@code true} if the current evaluation should be profiled
+     */
+    boolean sample() {
+        return sampleRate == 1 || (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) == 0);
+    }
+
+    /**
+     * @return the CPU time of the current thread in nanoseconds, or {@code -1} if it isn't available
+     */
+    long currentThreadCpuTime() {
+        return cpuTimeSupported ? threadMXBean.getCurrentThreadCpuTime() : -1L;
+    }
+
+    RuleTimings ruleTimings(Rule rule, Pipeline pipeline) {
+        return ruleTimings.computeIfAbsent(Arrays.asList(rule.id(), pipeline.id()),
+                key -> new RuleTimings(rule, pipeline));
+    }
+
+    Timings functionTimings(String functionName) {
+        return functionTimings.computeIfAbsent(functionName,
+                key -> new Timings(functionName, name(Function.class, functionName, "profile")));
+    }
+
+    public Collection<RuleTimings> ruleTimings() {
+        return Collections.unmodifiableCollection(ruleTimings.values());
+    }
+
+    public Collection<Timings> functionTimings() {
+        return Collections.unmodifiableCollection(functionTimings.values());
+    }
+
+    @Subscribe
+    public void handleRuleChanges(RulesChangedEvent event) {
+        if (!event.deletedRuleIds().isEmpty()) {
+            ruleTimings.values().removeIf(timings -> {
+                if (event.deletedRuleIds().contains(timings.ruleId())) {
+                    timings.removeMetrics();
+                    return true;
+                }
+                return false;
+            });
+        }
+    }
+
+    @Subscribe
+    public void handlePipelineChanges(PipelinesChangedEvent event) {
+        if (!event.deletedPipelineIds().isEmpty()) {
+            ruleTimings.values().removeIf(timings -> {
+                if (event.deletedPipelineIds().contains(timings.pipelineId())) {
+                    timings.removeMetrics();
+                    return true;
+                }
+                return false;
+            });
+        }
+    }
+
+    /**
+     * Wall-clock and CPU time histograms of a profiled piece of work.
+     */
+    public class Timings {
+        private final String label;
+        private final String wallTimeName;
+        private final String cpuTimeName;
+        private final HdrTimer wallTime;
+        private final HdrHistogram cpuTime;
+        private final LongAdder wallTimeTotal = new LongAdder();
+        private final LongAdder cpuTimeTotal = new LongAdder();
+
+        private Timings(String label, String metricPrefix) {
+            this.label = label;
+            this.wallTimeName = name(metricPrefix, "wall-time");
+            this.cpuTimeName = name(metricPrefix, "cpu-time");
+            this.wallTime = MetricUtils.getOrRegister(metricRegistry, wallTimeName,
+                    new HdrTimer(HIGHEST_TRACKABLE_MINUTES, TimeUnit.MINUTES, SIGNIFICANT_VALUE_DIGITS));
+            this.cpuTime = MetricUtils.getOrRegister(metricRegistry, cpuTimeName,
+                    new HdrHistogram(TimeUnit.MINUTES.toNanos(HIGHEST_TRACKABLE_MINUTES), SIGNIFICANT_VALUE_DIGITS));
+        }
+
+        void record(long wallTimeNanos, long cpuTimeNanos) {
+            wallTime.update(wallTimeNanos, TimeUnit.NANOSECONDS);
+            wallTimeTotal.add(wallTimeNanos);
+            if (cpuTimeNanos >= 0) {
+                cpuTime.update(cpuTimeNanos);
+                cpuTimeTotal.add(cpuTimeNanos);
+            }
+        }
+
+        /**
+         * @return the function name, or the profiled part of a rule
+         */
+        public String label() {
+            return label;
+        }
+
+        public long samples() {
+            return wallTime.getCount();
+        }
+
+        public long wallTimeTotal() {
+            return wallTimeTotal.sum();
+        }
+
+        public long cpuTimeTotal() {
+            return cpuTimeTotal.sum();
+        }
+
+        public long wallTime99thPercentile() {
+            return (long) wallTime.getSnapshot().get99thPercentile();
+        }
+
+        private void removeMetrics() {
+            metricRegistry.remove(wallTimeName);
+            metricRegistry.remove(cpuTimeName);
+        }
+    }
+
+    /**
+     * Timings of the condition and the actions of a rule in a pipeline.
+     */
+    public class RuleTimings {
+        private final String ruleId;
+        private final String ruleName;
+        private final String pipelineId;
+        private final String pipelineName;
+        private final Timings condition;
+        private final Timings actions;
+
+        private RuleTimings(Rule rule, Pipeline pipeline) {
+            this.ruleId = rule.id();
+            this.ruleName = rule.name();
+            this.pipelineId = pipeline.id();
+            this.pipelineName = pipeline.name();
+            this.condition = new Timings("evaluate", name(Rule.class, ruleId, "profile", pipelineId, "evaluate"));
+            this.actions = new Timings("execute", name(Rule.class, ruleId, "profile", pipelineId, "execute"));
+        }
+
+        public String ruleId() {
+            return ruleId;
+        }
+
+        public String ruleName() {
+            return ruleName;
+        }
+
+        public String pipelineId() {
+            return pipelineId;
+        }
+
+        public String pipelineName() {
+            return pipelineName;
+        }
+
+        public Timings condition() {
+            return condition;
+        }
+
+        public Timings actions() {
+            return actions;
+        }
+
+        private void removeMetrics() {
+            condition.removeMetrics();
+            actions.removeMetrics();
+        }
+    }
+}
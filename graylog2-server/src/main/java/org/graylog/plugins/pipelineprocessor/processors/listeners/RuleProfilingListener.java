@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.pipelineprocessor.processors.listeners;
+
+import org.graylog.plugins.pipelineprocessor.ast.Pipeline;
+import org.graylog.plugins.pipelineprocessor.ast.Rule;
+import org.graylog.plugins.pipelineprocessor.ast.Stage;
+import org.graylog.plugins.pipelineprocessor.ast.functions.FunctionDescriptor;
+import org.graylog2.plugin.Message;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * This interpreter listener measures the wall-clock and CPU time of a sample of rule condition evaluations, rule
+ * action executions and the function calls made by them, and records them in the {@link RuleProfiler}.
+ *
+ * Whether a rule condition or its actions are profiled is decided by the sample rate of the profiler, all function
+ * calls of a profiled condition or action are measured. Function times include the time of nested function calls.
+ *
+ * All other calls are passed on to the given delegate. Like all listeners, instances are confined to one thread.
+ */
+public class RuleProfilingListener implements InterpreterListener {
+    private final RuleProfiler profiler;
+    private final InterpreterListener delegate;
+
+    @Nullable
+    private RuleProfiler.Timings ruleTimings;
+    private long ruleWallTimeStart;
+    private long ruleCpuTimeStart;
+
+    // start times of the currently running function calls, one entry per nesting level
+    private long[] functionWallTimeStarts = new long[8];
+    private long[] functionCpuTimeStarts = new long[8];
+    private int functionDepth = 0;
+
+    public RuleProfilingListener(RuleProfiler profiler, InterpreterListener delegate) {
+        this.profiler = profiler;
+        this.delegate = delegate;
+    }
+
+    private void startRule(Rule rule, Pipeline pipeline, boolean condition) {
+        if (rule.id() == null || pipeline.id() == null || !profiler.sample()) {
+            ruleTimings = null;
+            return;
+        }
+        final RuleProfiler.RuleTimings timings = profiler.ruleTimings(rule, pipeline);
+        ruleTimings = condition ? timings.condition() : timings.actions();
+        functionDepth = 0;
+        ruleCpuTimeStart = profiler.currentThreadCpuTime();
+        ruleWallTimeStart = System.nanoTime();
+    }
+
+    private void stopRule() {
+        if (ruleTimings == null) {
+            return;
+        }
+        final long wallTime = System.nanoTime() - ruleWallTimeStart;
+        ruleTimings.record(wallTime, cpuTimeSince(ruleCpuTimeStart));
+        ruleTimings = null;
+    }
+
+    private long cpuTimeSince(long start) {
+        return start < 0 ? -1L : profiler.currentThreadCpuTime() - start;
+    }
+
+    @Override
+    public void evaluateFunction(FunctionDescriptor<?> descriptor) {
+        delegate.evaluateFunction(descriptor);
+        if (ruleTimings == null) {
+            return;
+        }
+        if (functionDepth == functionWallTimeStarts.length) {
+            functionWallTimeStarts = Arrays.copyOf(functionWallTimeStarts, functionDepth * 2);
+            functionCpuTimeStarts = Arrays.copyOf(functionCpuTimeStarts, functionDepth * 2);
+        }
+        functionCpuTimeStarts[functionDepth] = profiler.currentThreadCpuTime();
+        functionWallTimeStarts[functionDepth] = System.nanoTime();
+        functionDepth++;
+    }
+
+    @Override
+    public void finishEvaluateFunction(FunctionDescriptor<?> descriptor) {
+        if (ruleTimings != null && functionDepth > 0) {
+            functionDepth--;
+            final long wallTime = System.nanoTime() - functionWallTimeStarts[functionDepth];
+            profiler.functionTimings(descriptor.name()).record(wallTime, cpuTimeSince(functionCpuTimeStarts[functionDepth]));
+        }
+        delegate.finishEvaluateFunction(descriptor);
+    }
+
+    @Override
+    public void startProcessing() {
+        delegate.startProcessing();
+    }
+
+    @Override
+    public void finishProcessing() {
+        delegate.finishProcessing();
+    }
+
+    @Override
+    public void processStreams(Message message, Set<Pipeline> pipelines, Set<String> streams) {
+        delegate.processStreams(message, pipelines, streams);
+    }
+
+    @Override
+    public void enterStage(Stage stage) {
+        delegate.enterStage(stage);
+    }
+
+    @Override
+    public void exitStage(Stage stage) {
+        delegate.exitStage(stage);
+    }
+
+    @Override
+    public void evaluateRule(Rule rule, Pipeline pipeline) {
+        delegate.evaluateRule(rule, pipeline);
+        startRule(rule, pipeline, true);
+    }
+
+    @Override
+    public void failEvaluateRule(Rule rule, Pipeline pipeline) {
+        stopRule();
+        delegate.failEvaluateRule(rule, pipeline);
+    }
+
+    @Override
+    public void satisfyRule(Rule rule, Pipeline pipeline) {
+        stopRule();
+        delegate.satisfyRule(rule, pipeline);
+    }
+
+    @Override
+    public void dissatisfyRule(Rule rule, Pipeline pipeline) {
+        stopRule();
+        delegate.dissatisfyRule(rule, pipeline);
+    }
+
+    @Override
+    public void executeRule(Rule rule, Pipeline pipeline) {
+        delegate.executeRule(rule, pipeline);
+        startRule(rule, pipeline, false);
+    }
+
+    @Override
+    public void finishExecuteRule(Rule rule, Pipeline pipeline) {
+        stopRule();
+        delegate.finishExecuteRule(rule, pipeline);
+    }
+
+    @Override
+    public void failExecuteRule(Rule rule, Pipeline pipeline) {
+        stopRule();
+        delegate.failExecuteRule(rule, pipeline);
+    }
+
+    @Override
+    public void continuePipelineExecution(Pipeline pipeline, Stage stage) {
+        delegate.continuePipelineExecution(pipeline, stage);
+    }
+
+    @Override
+    public void stopPipelineExecution(Pipeline pipeline, Stage stage) {
+        delegate.stopPipelineExecution(pipeline, stage);
+    }
+}
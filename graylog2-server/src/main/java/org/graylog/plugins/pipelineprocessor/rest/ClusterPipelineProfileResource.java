@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.pipelineprocessor.rest;
+
+import com.codahale.metrics.annotation.Timed;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiParam;
+import org.apache.shiro.authz.annotation.RequiresAuthentication;
+import org.apache.shiro.authz.annotation.RequiresPermissions;
+import org.graylog2.cluster.NodeService;
+import org.graylog2.plugin.rest.PluginRestResource;
+import org.graylog2.rest.RemoteInterfaceProvider;
+import org.graylog2.shared.rest.resources.ProxiedResource;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+
+@Api(value = "Cluster/Pipelines/Profile", description = "Cluster-wide rule and function profiles of the pipeline message processor")
+@Path("/cluster/system/pipelines/profile")
+@Produces(MediaType.APPLICATION_JSON)
+@RequiresAuthentication
+public class ClusterPipelineProfileResource extends ProxiedResource implements PluginRestResource {
+    @Inject
+    public ClusterPipelineProfileResource(NodeService nodeService,
+                                          RemoteInterfaceProvider remoteInterfaceProvider,
+                                          @Context HttpHeaders httpHeaders,
+                                          @Named("proxiedRequestsExecutorService") ExecutorService executorService) {
+        super(httpHeaders, nodeService, remoteInterfaceProvider, executorService);
+    }
+
+    @ApiOperation(value = "Get the most expensive rules and functions of all nodes",
+            notes = "Totals are added up across nodes, the 99th percentile is the highest of all nodes. Times are in nanoseconds.")
+    @GET
+    @Timed
+    @RequiresPermissions(PipelineRestPermissions.PIPELINE_RULE_READ)
+    public PipelineProfile profile(@ApiParam(name = "limit", value = "Maximum number of rules and functions, 0 for all")
+                                   @QueryParam("limit") @DefaultValue("20") int limit) {
+        final Map<String, Optional<PipelineProfile>> nodeProfiles = getForAllNodes(
+                client -> client.profile(0), createRemoteInterfaceProvider(RemotePipelineProfileResource.class));
+
+        final Map<String, RuleProfile> rules = new LinkedHashMap<>();
+        final Map<String, FunctionProfile> functions = new LinkedHashMap<>();
+        nodeProfiles.values().forEach(nodeProfile -> nodeProfile.ifPresent(profile -> {
+            profile.rules().forEach(rule ->
+                    rules.merge(rule.ruleId() + "/" + rule.pipelineId(), rule, RuleProfile::merge));
+            profile.functions().forEach(function ->
+                    functions.merge(function.name(), function, FunctionProfile::merge));
+        }));
+
+        return PipelineProfile.top(rules.values(), functions.values(), limit);
+    }
+}
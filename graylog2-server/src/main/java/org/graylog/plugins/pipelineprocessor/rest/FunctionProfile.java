@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.pipelineprocessor.rest;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.auto.value.AutoValue;
+import org.graylog.plugins.pipelineprocessor.processors.listeners.RuleProfiler;
+
+@AutoValue
+@JsonAutoDetect
+public abstract class FunctionProfile {
+    @JsonProperty
+    public abstract String name();
+
+    @JsonProperty
+    public abstract ProfileTimings timings();
+
+    @JsonCreator
+    public static FunctionProfile create(@JsonProperty("name") String name,
+                                         @JsonProperty("timings") ProfileTimings timings) {
+        return new AutoValue_FunctionProfile(name, timings);
+    }
+
+    public static FunctionProfile of(RuleProfiler.Timings timings, int sampleRate) {
+        return create(timings.label(), ProfileTimings.of(timings, sampleRate));
+    }
+
+    public FunctionProfile merge(FunctionProfile other) {
+        return create(name(), timings().merge(other.timings()));
+    }
+}
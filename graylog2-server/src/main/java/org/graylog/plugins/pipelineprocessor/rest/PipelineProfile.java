@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.pipelineprocessor.rest;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.auto.value.AutoValue;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+@AutoValue
+@JsonAutoDetect
+public abstract class PipelineProfile {
+    @JsonProperty
+    public abstract List<RuleProfile> rules();
+
+    @JsonProperty
+    public abstract List<FunctionProfile> functions();
+
+    @JsonCreator
+    public static PipelineProfile create(@JsonProperty("rules") List<RuleProfile> rules,
+                                         @JsonProperty("functions") List<FunctionProfile> functions) {
+        return new AutoValue_PipelineProfile(rules, functions);
+    }
+
+    /**
+     * Creates a profile of the rules and functions with the highest total wall time.
+     *
+     * @param limit the maximum number of rules and functions, or {@code 0} for all of them
+     */
+    public static PipelineProfile top(Collection<RuleProfile> rules, Collection<FunctionProfile> functions, int limit) {
+        final long maxSize = limit > 0 ? limit : Long.MAX_VALUE;
+        return create(
+                rules.stream()
+                        .sorted(Comparator.comparingLong(RuleProfile::wallTimeTotal).reversed())
+                        .limit(maxSize)
+                        .collect(Collectors.toList()),
+                functions.stream()
+                        .sorted(Comparator.comparingLong((FunctionProfile function) -> function.timings().wallTimeTotal()).reversed())
+                        .limit(maxSize)
+                        .collect(Collectors.toList()));
+    }
+}
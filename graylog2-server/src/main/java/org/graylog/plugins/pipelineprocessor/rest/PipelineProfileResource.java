@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.pipelineprocessor.rest;
+
+import com.codahale.metrics.annotation.Timed;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiParam;
+import org.apache.shiro.authz.annotation.RequiresAuthentication;
+import org.apache.shiro.authz.annotation.RequiresPermissions;
+import org.graylog.plugins.pipelineprocessor.processors.listeners.RuleProfiler;
+import org.graylog2.plugin.rest.PluginRestResource;
+import org.graylog2.shared.rest.resources.RestResource;
+
+import javax.inject.Inject;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import java.util.List;
+import java.util.stream.Collectors;
+
+@Api(value = "Pipelines/Profile", description = "Rule and function profiles of the pipeline message processor")
+@Path("/system/pipelines/profile")
+@Produces(MediaType.APPLICATION_JSON)
+@RequiresAuthentication
+public class PipelineProfileResource extends RestResource implements PluginRestResource {
+    private final RuleProfiler ruleProfiler;
+
+    @Inject
+    public PipelineProfileResource(RuleProfiler ruleProfiler) {
+        this.ruleProfiler = ruleProfiler;
+    }
+
+    @ApiOperation(value = "Get the most expensive rules and functions of this node",
+            notes = "Profiling is only active if rule_profiling_sample_rate is set. Times are in nanoseconds.")
+    @GET
+    @Timed
+    @RequiresPermissions(PipelineRestPermissions.PIPELINE_RULE_READ)
+    public PipelineProfile profile(@ApiParam(name = "limit", value = "Maximum number of rules and functions, 0 for all")
+                                   @QueryParam("limit") @DefaultValue("20") int limit) {
+        final int sampleRate = ruleProfiler.sampleRate();
+        final List<RuleProfile> rules = ruleProfiler.ruleTimings().stream()
+                .filter(timings -> isPermitted(PipelineRestPermissions.PIPELINE_RULE_READ, timings.ruleId()))
+                .map(timings -> RuleProfile.of(timings, sampleRate))
+                .collect(Collectors.toList());
+        final List<FunctionProfile> functions = ruleProfiler.functionTimings().stream()
+                .map(timings -> FunctionProfile.of(timings, sampleRate))
+                .collect(Collectors.toList());
+        return PipelineProfile.top(rules, functions, limit);
+    }
+}
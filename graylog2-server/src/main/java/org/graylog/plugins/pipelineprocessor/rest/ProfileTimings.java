@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.pipelineprocessor.rest;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.auto.value.AutoValue;
+import org.graylog.plugins.pipelineprocessor.processors.listeners.RuleProfiler;
+
+/**
+ * Profiled times of a rule condition, rule actions or function calls, in nanoseconds.
+ *
+ * The totals are estimated from the samples and the sample rate, so they can be added up across nodes.
+ */
+@AutoValue
+@JsonAutoDetect
+public abstract class ProfileTimings {
+    @JsonProperty
+    public abstract long samples();
+
+    @JsonProperty
+    public abstract long wallTimeTotal();
+
+    @JsonProperty
+    public abstract long cpuTimeTotal();
+
+    @JsonProperty("wall_time_99th_percentile")
+    public abstract long wallTime99thPercentile();
+
+    @JsonCreator
+    public static ProfileTimings create(@JsonProperty("samples") long samples,
+                                        @JsonProperty("wall_time_total") long wallTimeTotal,
+                                        @JsonProperty("cpu_time_total") long cpuTimeTotal,
+                                        @JsonProperty("wall_time_99th_percentile") long wallTime99thPercentile) {
+        return new AutoValue_ProfileTimings(samples, wallTimeTotal, cpuTimeTotal, wallTime99thPercentile);
+    }
+
+    public static ProfileTimings of(RuleProfiler.Timings timings, int sampleRate) {
+        return create(timings.samples(),
+                timings.wallTimeTotal() * sampleRate,
+                timings.cpuTimeTotal() * sampleRate,
+                timings.wallTime99thPercentile());
+    }
+
+    /**
+     * Combines the timings of different nodes. The percentile is approximated by the maximum of both.
+     */
+    public ProfileTimings merge(ProfileTimings other) {
+        return create(samples() + other.samples(),
+                wallTimeTotal() + other.wallTimeTotal(),
+                cpuTimeTotal() + other.cpuTimeTotal(),
+                Math.max(wallTime99thPercentile(), other.wallTime99thPercentile()));
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.pipelineprocessor.rest;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.auto.value.AutoValue;
+import org.graylog.plugins.pipelineprocessor.processors.listeners.RuleProfiler;
+
+@AutoValue
+@JsonAutoDetect
+public abstract class RuleProfile {
+    @JsonProperty
+    public abstract String ruleId();
+
+    @JsonProperty
+    public abstract String ruleName();
+
+    @JsonProperty
+    public abstract String pipelineId();
+
+    @JsonProperty
+    public abstract String pipelineName();
+
+    @JsonProperty
+    public abstract ProfileTimings condition();
+
+    @JsonProperty
+    public abstract ProfileTimings actions();
+
+    @JsonIgnore
+    public long wallTimeTotal() {
+        return condition().wallTimeTotal() + actions().wallTimeTotal();
+    }
+
+    @JsonCreator
+    public static RuleProfile create(@JsonProperty("rule_id") String ruleId,
+                                     @JsonProperty("rule_name") String ruleName,
+                                     @JsonProperty("pipeline_id") String pipelineId,
+                                     @JsonProperty("pipeline_name") String pipelineName,
+                                     @JsonProperty("condition") ProfileTimings condition,
+                                     @JsonProperty("actions") ProfileTimings actions) {
+        return new AutoValue_RuleProfile(ruleId, ruleName, pipelineId, pipelineName, condition, actions);
+    }
+
+    public static RuleProfile of(RuleProfiler.RuleTimings timings, int sampleRate) {
+        return create(timings.ruleId(),
+                timings.ruleName(),
+                timings.pipelineId(),
+                timings.pipelineName(),
+                ProfileTimings.of(timings.condition(), sampleRate),
+                ProfileTimings.of(timings.actions(), sampleRate));
+    }
+
+    public RuleProfile merge(RuleProfile other) {
+        return create(ruleId(), ruleName(), pipelineId(), pipelineName(),
+                condition().merge(other.condition()),
+                actions().merge(other.actions()));
+    }
+}
@@ -23,6 +23,8 @@ import com.mongodb.BasicDBObject;
 import one.util.streamex.StreamEx;
 import org.bson.types.ObjectId;
 import org.graylog.scheduler.clock.JobSchedulerClock;
+import org.graylog.scheduler.eventbus.JobSchedulerEventBus;
+import org.graylog.scheduler.eventbus.JobTriggerUpdatedEvent;
 import org.graylog.scheduler.schedule.OnceJobSchedule;
 import org.graylog2.bindings.providers.MongoJackObjectMapperProvider;
 import org.graylog2.database.MongoConnection;
@@ -34,6 +36,7 @@ import org.mongojack.DBSort;
 import org.mongojack.DBUpdate;
 import org.mongojack.JacksonDBCollection;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Named;
 import java.util.Collection;
@@ -71,16 +74,28 @@ public class DBJobTriggerService {
     private final JacksonDBCollection<JobTriggerDto, ObjectId> db;
     private final JobSchedulerClock clock;
     private final Duration lockExpirationDuration;
+    @Nullable
+    private final JobSchedulerEventBus schedulerEventBus;
+
+    public DBJobTriggerService(MongoConnection mongoConnection,
+                               MongoJackObjectMapperProvider mapper,
+                               NodeId nodeId,
+                               JobSchedulerClock clock,
+                               Duration lockExpirationDuration) {
+        this(mongoConnection, mapper, nodeId, clock, lockExpirationDuration, null);
+    }
 
     @Inject
     public DBJobTriggerService(MongoConnection mongoConnection,
                                MongoJackObjectMapperProvider mapper,
                                NodeId nodeId,
                                JobSchedulerClock clock,
-                               @Named(LOCK_EXPIRATION_DURATION) Duration lockExpirationDuration) {
+                               @Named(LOCK_EXPIRATION_DURATION) Duration lockExpirationDuration,
+                               @Nullable JobSchedulerEventBus schedulerEventBus) {
         this.nodeId = nodeId.toString();
         this.clock = clock;
         this.lockExpirationDuration = lockExpirationDuration;
+        this.schedulerEventBus = schedulerEventBus;
         this.db = JacksonDBCollection.wrap(mongoConnection.getDatabase().getCollection(COLLECTION_NAME),
                 JobTriggerDto.class,
                 ObjectId.class,
@@ -197,7 +212,9 @@ public class DBJobTriggerService {
             throw new IllegalArgumentException("New trigger must not have an ID");
         }
 
-        return db.insert(trigger).getSavedObject();
+        final JobTriggerDto savedTrigger = db.insert(trigger).getSavedObject();
+        notifyIfDue(savedTrigger);
+        return savedTrigger;
     }
 
     /**
@@ -255,7 +272,18 @@ public class DBJobTriggerService {
             scheduleUpdate.get().forEach(update::set);
         }
 
-        return db.update(DBQuery.is(FIELD_ID, getId(trigger)), update).getN() > 0;
+        final boolean updated = db.update(DBQuery.is(FIELD_ID, getId(trigger)), update).getN() > 0;
+        if (updated) {
+            notifyIfDue(trigger);
+        }
+        return updated;
+    }
+
+    private void notifyIfDue(JobTriggerDto trigger) {
+        // Wake up the scheduler loop on this node so it doesn't have to wait for its next poll to run the trigger
+        if (schedulerEventBus != null && !trigger.nextTime().isAfter(clock.nowUTC())) {
+            schedulerEventBus.post(JobTriggerUpdatedEvent.INSTANCE);
+        }
     }
 
     /**
@@ -296,7 +324,72 @@ public class DBJobTriggerService {
     public Optional<JobTriggerDto> nextRunnableTrigger() {
         final DateTime now = clock.nowUTC();
 
-        final DBQuery.Query query = DBQuery.or(DBQuery.and(
+        // Atomically update, lock and return the next runnable trigger
+        final JobTriggerDto trigger = db.findAndModify(
+                runnableTriggersQuery(now),
+                null,
+                runnableTriggersSort(),
+                false,
+                lockUpdate(now),
+                true, // We need the modified object so we have access to the lock information
+                false
+        );
+
+        return Optional.ofNullable(trigger);
+    }
+
+    /**
+     * Locks and returns up to {@code limit} runnable triggers, ordered by their next time. The caller needs to take
+     * care of releasing the trigger locks.
+     * <p></p>
+     * MongoDB cannot modify and return multiple documents atomically, so the candidates are selected first and then
+     * locked with a single update that re-checks the runnable conditions. Candidates which have been locked by
+     * another node in the meantime are not part of the result.
+     *
+     * @param limit the maximum number of triggers to lock
+     * @return the locked triggers, might be empty
+     */
+    public List<JobTriggerDto> nextRunnableTriggers(int limit) {
+        if (limit < 1) {
+            return ImmutableList.of();
+        }
+        if (limit == 1) {
+            return nextRunnableTrigger().map(ImmutableList::of).orElse(ImmutableList.of());
+        }
+
+        final DateTime now = clock.nowUTC();
+        final DBQuery.Query query = runnableTriggersQuery(now);
+
+        final List<ObjectId> candidateIds;
+        try (final DBCursor<JobTriggerDto> cursor = db.find(query).sort(runnableTriggersSort()).limit(limit)) {
+            candidateIds = StreamEx.of(cursor.iterator())
+                    .map(trigger -> new ObjectId(trigger.id()))
+                    .toList();
+        }
+        if (candidateIds.isEmpty()) {
+            return ImmutableList.of();
+        }
+
+        // The runnable conditions are part of the update query so we only lock candidates which are still runnable
+        final DBQuery.Query lockQuery = DBQuery.and(DBQuery.in(FIELD_ID, candidateIds), query);
+        if (db.updateMulti(lockQuery, lockUpdate(now)).getN() < 1) {
+            return ImmutableList.of();
+        }
+
+        // Triggers which are locked by this node are never runnable candidates, so every candidate that is owned by
+        // this node now has been locked by the update above.
+        final DBQuery.Query lockedQuery = DBQuery.and(
+                DBQuery.in(FIELD_ID, candidateIds),
+                DBQuery.is(FIELD_LOCK_OWNER, nodeId),
+                DBQuery.is(FIELD_STATUS, JobTriggerStatus.RUNNING)
+        );
+        try (final DBCursor<JobTriggerDto> cursor = db.find(lockedQuery).sort(runnableTriggersSort())) {
+            return ImmutableList.copyOf(cursor.iterator());
+        }
+    }
+
+    private DBQuery.Query runnableTriggersQuery(DateTime now) {
+        return DBQuery.or(DBQuery.and(
                         // We cannot lock a trigger that is already locked by another node
                         DBQuery.is(FIELD_LOCK_OWNER, null),
                         DBQuery.is(FIELD_STATUS, JobTriggerStatus.RUNNABLE),
@@ -315,26 +408,18 @@ public class DBJobTriggerService {
                 DBQuery.is(FIELD_STATUS, JobTriggerStatus.RUNNING),
                 DBQuery.lessThan(FIELD_LAST_LOCK_TIME, now.minus(lockExpirationDuration.toMilliseconds())))
         );
-        // We want to lock the trigger with the oldest next time
-        final DBSort.SortBuilder sort = DBSort.asc(FIELD_NEXT_TIME);
+    }
+
+    private DBSort.SortBuilder runnableTriggersSort() {
+        // We want to lock the triggers with the oldest next time first
+        return DBSort.asc(FIELD_NEXT_TIME);
+    }
 
-        final DBUpdate.Builder lockUpdate = DBUpdate.set(FIELD_LOCK_OWNER, nodeId)
+    private DBUpdate.Builder lockUpdate(DateTime now) {
+        return DBUpdate.set(FIELD_LOCK_OWNER, nodeId)
                 .set(FIELD_STATUS, JobTriggerStatus.RUNNING)
                 .set(FIELD_TRIGGERED_AT, Optional.of(now))
                 .set(FIELD_LAST_LOCK_TIME, now);
-
-        // Atomically update, lock and return the next runnable trigger
-        final JobTriggerDto trigger = db.findAndModify(
-                query,
-                null,
-                sort,
-                false,
-                lockUpdate,
-                true, // We need the modified object so we have access to the lock information
-                false
-        );
-
-        return Optional.ofNullable(trigger);
     }
 
     /**
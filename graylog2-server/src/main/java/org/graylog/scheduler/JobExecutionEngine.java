@@ -29,8 +29,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
+import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -97,10 +97,10 @@ public class JobExecutionEngine {
     }
 
     /**
-     * Execute the engine. This will try to lock a trigger and execute the job if there are free slots in the
-     * worker pool and the engine is not shutting down.
+     * Execute the engine. This will try to lock as many triggers as there are free slots in the worker pool and
+     * execute the related jobs if the engine is not shutting down.
      *
-     * @return true if a job trigger has been locked and the related job has been triggered, false otherwise
+     * @return true if at least one job trigger has been locked and the related job has been triggered, false otherwise
      */
     public boolean execute() {
         // Cleanup stale scheduler state *before* processing any triggers for the first time.
@@ -110,20 +110,21 @@ public class JobExecutionEngine {
         }
 
         // We want to avoid a call to the database if there are no free slots in the pool or the engine is shutting down
-        if (isRunning.get() && workerPool.hasFreeSlots()) {
-            final Optional<JobTriggerDto> triggerOptional = jobTriggerService.nextRunnableTrigger();
-
-            if (triggerOptional.isPresent()) {
-                final JobTriggerDto trigger = triggerOptional.get();
-
-                if (!workerPool.execute(() -> handleTrigger(trigger))) {
+        final int freeSlots = workerPool.freeSlots();
+        if (isRunning.get() && freeSlots > 0) {
+            final List<JobTriggerDto> triggers = jobTriggerService.nextRunnableTriggers(freeSlots);
+
+            boolean executed = false;
+            for (final JobTriggerDto trigger : triggers) {
+                if (isRunning.get() && workerPool.execute(() -> handleTrigger(trigger))) {
+                    executed = true;
+                } else {
                     // The job couldn't be executed so we have to release the trigger again with the same nextTime
                     jobTriggerService.releaseTrigger(trigger, JobTriggerUpdate.withNextTime(trigger.nextTime()));
-                    return false;
                 }
-
-                return true;
             }
+
+            return executed;
         }
 
         return false;
@@ -24,6 +24,7 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.graylog.scheduler.clock.JobSchedulerClock;
 import org.graylog.scheduler.eventbus.JobCompletedEvent;
 import org.graylog.scheduler.eventbus.JobSchedulerEventBus;
+import org.graylog.scheduler.eventbus.JobTriggerUpdatedEvent;
 import org.graylog.scheduler.worker.JobWorkerPool;
 import org.graylog2.plugin.ServerStatus;
 import org.graylog2.plugin.Tools;
@@ -119,7 +120,7 @@ public class JobSchedulerService extends AbstractExecutionThreadService {
                 if (!jobExecutionEngine.execute() && isRunning()) {
                     // When the execution engine returned false, there are either no free worker threads or no
                     // runnable triggers. To avoid busy spinning we sleep for the configured duration or until
-                    // we receive a job completion event via the scheduler event bus.
+                    // we receive a job completion or trigger update event via the scheduler event bus.
                     if (sleeper.sleep(loopSleepDuration.getQuantity(), loopSleepDuration.getUnit())) {
                         LOG.debug("Waited for {} {} because there are either no free worker threads or no runnable triggers",
                                     loopSleepDuration.getQuantity(), loopSleepDuration.getUnit());
@@ -140,6 +141,12 @@ public class JobSchedulerService extends AbstractExecutionThreadService {
         sleeper.interrupt();
     }
 
+    @Subscribe
+    public void handleJobTriggerUpdated(JobTriggerUpdatedEvent triggerUpdatedEvent) {
+        // A due trigger has been created or updated on this node so we want to check for runnable triggers immediately.
+        sleeper.interrupt();
+    }
+
     @Override
     protected void triggerShutdown() {
         // We don't want to process events when shutting down, so do this first
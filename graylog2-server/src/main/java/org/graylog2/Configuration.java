@@ -23,6 +23,7 @@ import com.github.joschi.jadconfig.ValidatorMethod;
 import com.github.joschi.jadconfig.converters.StringSetConverter;
 import com.github.joschi.jadconfig.converters.TrimmedStringSetConverter;
 import com.github.joschi.jadconfig.util.Duration;
+import com.github.joschi.jadconfig.util.Size;
 import com.github.joschi.jadconfig.validators.PositiveDurationValidator;
 import com.github.joschi.jadconfig.validators.PositiveIntegerValidator;
 import com.github.joschi.jadconfig.validators.PositiveLongValidator;
@@ -32,6 +33,7 @@ import org.graylog2.cluster.leader.LeaderElectionMode;
 import org.graylog2.cluster.leader.LeaderElectionService;
 import org.graylog2.cluster.lock.MongoLockService;
 import org.graylog2.configuration.converters.JavaDurationConverter;
+import org.graylog2.outputs.BatchSizeConfig;
 import org.graylog2.plugin.BaseConfiguration;
 import org.graylog2.security.realm.RootAccountRealm;
 import org.graylog2.utilities.IPSubnetConverter;
@@ -66,12 +68,27 @@ public class Configuration extends BaseConfiguration {
     @Parameter(value = "password_secret", required = true, validators = StringNotBlankValidator.class)
     private String passwordSecret;
 
-    @Parameter(value = "output_batch_size", required = true, validators = PositiveIntegerValidator.class)
-    private int outputBatchSize = 500;
+    @Parameter(value = "output_batch_size", required = true, converter = BatchSizeConfig.Converter.class)
+    private BatchSizeConfig outputBatchSize = BatchSizeConfig.forCount(500);
 
     @Parameter(value = "output_flush_interval", required = true, validators = PositiveIntegerValidator.class)
     private int outputFlushInterval = 1;
 
+    @Parameter(value = "output_flush_threads", validators = PositiveIntegerValidator.class)
+    private Integer outputFlushThreads;
+
+    @Parameter(value = "output_bulk_adaptive")
+    private boolean outputBulkAdaptive = false;
+
+    @Parameter(value = "output_bulk_max_in_flight", validators = PositiveIntegerValidator.class)
+    private int outputBulkMaxInFlight = 2;
+
+    @Parameter(value = "output_bulk_max_chunk_size")
+    private Size outputBulkMaxChunkSize = Size.megabytes(50L);
+
+    @Parameter(value = "output_bulk_target_latency", validators = PositiveDurationValidator.class)
+    private Duration outputBulkTargetLatency = Duration.seconds(2L);
+
     @Parameter(value = "outputbuffer_processors", required = true, validators = PositiveIntegerValidator.class)
     private int outputBufferProcessors = 3;
 
@@ -118,6 +135,9 @@ public class Configuration extends BaseConfiguration {
     @Parameter(value = "stream_processing_max_faults", validators = PositiveIntegerValidator.class)
     private int streamProcessingMaxFaults = 3;
 
+    @Parameter(value = "stream_processing_compiled_rules")
+    private boolean streamProcessingCompiledRules = false;
+
     @Parameter(value = "output_module_timeout", validators = PositiveLongValidator.class)
     private long outputModuleTimeout = 10000;
 
@@ -174,6 +194,21 @@ public class Configuration extends BaseConfiguration {
     @Parameter(value = "content_packs_auto_install", converter = TrimmedStringSetConverter.class)
     private Set<String> contentPacksAutoInstall = Collections.emptySet();
 
+    @Parameter(value = "lookup_shared_cache_enabled")
+    private boolean lookupSharedCacheEnabled = false;
+
+    @Parameter(value = "lookup_shared_cache_max_size")
+    private Size lookupSharedCacheMaxSize = Size.megabytes(128L);
+
+    @Parameter(value = "lookup_shared_cache_dir")
+    private Path lookupSharedCacheDir = DEFAULT_DATA_DIR.resolve("lookup-cache");
+
+    @Parameter(value = "netflow_v9_share_templates")
+    private boolean netflowV9ShareTemplates = true;
+
+    @Parameter(value = "netflow_v9_packet_buffer_size", required = true)
+    private Size netflowV9PacketBufferSize = Size.megabytes(1L);
+
     @Parameter(value = "index_ranges_cleanup_interval", validators = PositiveDurationValidator.class)
     private Duration indexRangesCleanupInterval = Duration.hours(1L);
 
@@ -263,7 +298,7 @@ public class Configuration extends BaseConfiguration {
         return passwordSecret.trim();
     }
 
-    public int getOutputBatchSize() {
+    public BatchSizeConfig getOutputBatchSize() {
         return outputBatchSize;
     }
 
@@ -271,6 +306,29 @@ public class Configuration extends BaseConfiguration {
         return outputFlushInterval;
     }
 
+    /**
+     * @return the number of dedicated output flush threads or 0 if the output buffer processors flush batches themselves
+     */
+    public int getOutputFlushThreads() {
+        return outputFlushThreads != null ? outputFlushThreads : 0;
+    }
+
+    public boolean isOutputBulkAdaptive() {
+        return outputBulkAdaptive;
+    }
+
+    public int getOutputBulkMaxInFlight() {
+        return outputBulkMaxInFlight;
+    }
+
+    public Size getOutputBulkMaxChunkSize() {
+        return outputBulkMaxChunkSize;
+    }
+
+    public Duration getOutputBulkTargetLatency() {
+        return outputBulkTargetLatency;
+    }
+
     public int getOutputBufferProcessors() {
         return outputBufferProcessors;
     }
@@ -340,6 +398,10 @@ public class Configuration extends BaseConfiguration {
         return streamProcessingMaxFaults;
     }
 
+    public boolean isStreamProcessingCompiledRules() {
+        return streamProcessingCompiledRules;
+    }
+
     public long getOutputModuleTimeout() {
         return outputModuleTimeout;
     }
@@ -406,6 +468,26 @@ public class Configuration extends BaseConfiguration {
         return contentPacksDir;
     }
 
+    public boolean isLookupSharedCacheEnabled() {
+        return lookupSharedCacheEnabled;
+    }
+
+    public Size getLookupSharedCacheMaxSize() {
+        return lookupSharedCacheMaxSize;
+    }
+
+    public Path getLookupSharedCacheDir() {
+        return lookupSharedCacheDir;
+    }
+
+    public boolean isNetflowV9ShareTemplates() {
+        return netflowV9ShareTemplates;
+    }
+
+    public Size getNetflowV9PacketBufferSize() {
+        return netflowV9PacketBufferSize;
+    }
+
     public Set<String> getContentPacksAutoInstall() {
         return contentPacksAutoInstall;
     }
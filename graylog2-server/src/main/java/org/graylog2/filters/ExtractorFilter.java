@@ -16,7 +16,6 @@
  */
 package org.graylog2.filters;
 
-import com.google.common.collect.ImmutableList;
 import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
 import org.graylog.failure.ProcessingFailureCause;
@@ -27,6 +26,7 @@ import org.graylog2.inputs.extractors.events.ExtractorCreated;
 import org.graylog2.inputs.extractors.events.ExtractorDeleted;
 import org.graylog2.inputs.extractors.events.ExtractorUpdated;
 import org.graylog2.plugin.Message;
+import org.graylog2.plugin.Messages;
 import org.graylog2.plugin.filters.MessageFilter;
 import org.graylog2.plugin.inputs.Extractor;
 import org.graylog2.rest.models.system.inputs.responses.InputCreated;
@@ -38,9 +38,11 @@ import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import javax.inject.Named;
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ScheduledExecutorService;
@@ -50,7 +52,7 @@ public class ExtractorFilter implements MessageFilter {
     private static final Logger LOG = LoggerFactory.getLogger(ExtractorFilter.class);
     private static final String NAME = "Extractor";
 
-    private final ConcurrentMap<String, List<Extractor>> extractors = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ExtractorPlan> extractorPlans = new ConcurrentHashMap<>();
 
     private final InputService inputService;
     private final ScheduledExecutorService scheduler;
@@ -74,25 +76,39 @@ public class ExtractorFilter implements MessageFilter {
             return false;
         }
 
-        for (final Extractor extractor : extractors.getOrDefault(msg.getSourceInputId(), Collections.emptyList())) {
-            try {
-                extractor.runExtractor(msg);
-            } catch (Exception e) {
-                extractor.incrementExceptions();
-                final String error = "Could not apply extractor <" + extractor.getTitle() + "(" + extractor.getId() + ")>";
-                if (LOG.isDebugEnabled()) {
-                    LOG.error(error + " to message " + msg.getId(), e);
-                } else {
-                    LOG.error("{} to message {}:\n{}", error, msg.getId(), ExceptionUtils.getShortenedStackTrace(e));
-                }
-                msg.addProcessingError(new Message.ProcessingError(ProcessingFailureCause.ExtractorException,
-                        error, ExceptionUtils.getRootCauseMessage(e)));
-            }
+        final ExtractorPlan plan = extractorPlans.get(msg.getSourceInputId());
+        if (plan != null) {
+            plan.apply(msg);
         }
 
         return false;
     }
 
+    @Override
+    public void prepareBatch(Messages messages) {
+        final Map<ExtractorPlan, List<Message>> plans = new IdentityHashMap<>();
+        for (Message msg : messages) {
+            final String inputId = msg.getSourceInputId();
+            final ExtractorPlan plan = inputId == null ? null : extractorPlans.get(inputId);
+            if (plan != null && plan.hasPrefetchedLookups()) {
+                plans.computeIfAbsent(plan, p -> new ArrayList<>()).add(msg);
+            }
+        }
+        plans.forEach(ExtractorPlan::prefetchLookups);
+    }
+
+    static void handleExtractorFailure(Extractor extractor, Message msg, Exception e) {
+        extractor.incrementExceptions();
+        final String error = "Could not apply extractor <" + extractor.getTitle() + "(" + extractor.getId() + ")>";
+        if (LOG.isDebugEnabled()) {
+            LOG.error(error + " to message " + msg.getId(), e);
+        } else {
+            LOG.error("{} to message {}:\n{}", error, msg.getId(), ExceptionUtils.getShortenedStackTrace(e));
+        }
+        msg.addProcessingError(new Message.ProcessingError(ProcessingFailureCause.ExtractorException,
+                error, ExceptionUtils.getRootCauseMessage(e)));
+    }
+
     @Subscribe
     @SuppressWarnings("unused")
     public void handleInputCreate(final InputCreated event) {
@@ -104,7 +120,7 @@ public class ExtractorFilter implements MessageFilter {
     @SuppressWarnings("unused")
     public void handleInputDelete(final InputDeleted event) {
         LOG.debug("Removing input from extractors cache <{}>", event.id());
-        extractors.remove(event.id());
+        extractorPlans.remove(event.id());
     }
 
     @Subscribe
@@ -143,7 +159,8 @@ public class ExtractorFilter implements MessageFilter {
         }
     }
 
-    private void loadExtractors(final String inputId) {
+    // Synchronized so concurrent reloads of the same input can't replace a newer plan with an older one.
+    private synchronized void loadExtractors(final String inputId) {
         LOG.debug("Re-loading extractors for input <{}>", inputId);
 
         try {
@@ -152,7 +169,7 @@ public class ExtractorFilter implements MessageFilter {
                     .sorted(Comparator.comparingLong(Extractor::getOrder))
                     .collect(Collectors.toList());
 
-            extractors.put(inputId, ImmutableList.copyOf(sortedExtractors));
+            extractorPlans.put(inputId, new ExtractorPlan(sortedExtractors));
         } catch (NotFoundException e) {
             LOG.warn("Unable to load input <{}>: {}", inputId, e.getMessage());
         }
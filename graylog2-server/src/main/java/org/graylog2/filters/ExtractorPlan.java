@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.filters;
+
+import com.google.common.collect.ImmutableList;
+import org.graylog2.inputs.extractors.LookupTableExtractor;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.inputs.Extractor;
+import org.graylog2.streams.ContainsAutomaton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+
+/**
+ * Execution plan for the extractors of a single input, used by the {@link ExtractorFilter}.
+ *
+ * Consecutive extractors which read the same source field are grouped, so the field is only read once per group
+ * and the STRING conditions of a group are evaluated with a single {@link ContainsAutomaton} pass. REGEX conditions
+ * are evaluated lazily and only once per distinct pattern. As long as no extractor of a group modifies the source
+ * field, the condition results are shared by all extractors of the group.
+ *
+ * Only one in {@link #TIMER_SAMPLE_RATE} messages runs through {@link Extractor#runExtractor(Message)} and records
+ * the extractor timers. The condition hit and miss counters are updated for every message.
+ *
+ * Instances are immutable and can be shared between threads.
+ */
+class ExtractorPlan {
+    private static final Logger LOG = LoggerFactory.getLogger(ExtractorPlan.class);
+    static final int TIMER_SAMPLE_RATE = 16;
+
+    private final List<Extractor> extractors;
+    private final List<FieldGroup> groups;
+    private final List<LookupTableExtractor> prefetchedLookups;
+
+    ExtractorPlan(List<Extractor> sortedExtractors) {
+        this.extractors = ImmutableList.copyOf(sortedExtractors);
+
+        final ImmutableList.Builder<FieldGroup> groupsBuilder = ImmutableList.builder();
+        int start = 0;
+        for (int i = 1; i <= extractors.size(); i++) {
+            if (i == extractors.size() || !Objects.equals(extractors.get(i).getSourceField(), extractors.get(start).getSourceField())) {
+                groupsBuilder.add(new FieldGroup(extractors.subList(start, i)));
+                start = i;
+            }
+        }
+        this.groups = groupsBuilder.build();
+
+        // only unconditional lookups, prefetching keys which fail a condition would cause needless data adapter calls
+        final ImmutableList.Builder<LookupTableExtractor> lookupsBuilder = ImmutableList.builder();
+        for (Extractor extractor : extractors) {
+            if (extractor instanceof LookupTableExtractor && extractor.getConditionType() == Extractor.ConditionType.NONE) {
+                lookupsBuilder.add((LookupTableExtractor) extractor);
+            }
+        }
+        this.prefetchedLookups = lookupsBuilder.build();
+    }
+
+    boolean hasPrefetchedLookups() {
+        return !prefetchedLookups.isEmpty();
+    }
+
+    /**
+     * Prefetches the results of the unconditional lookup table extractors for a batch of messages of this input.
+     * Keys which are changed by an earlier extractor are simply looked up again when the extractor runs.
+     *
+     * @param messages the messages of the batch which belong to this input
+     */
+    void prefetchLookups(List<Message> messages) {
+        for (LookupTableExtractor extractor : prefetchedLookups) {
+            final Set<Object> keys = new HashSet<>();
+            for (Message msg : messages) {
+                final Object value = msg.getField(extractor.getSourceField());
+                if (value instanceof String) {
+                    keys.add(value);
+                }
+            }
+            try {
+                extractor.prefetch(keys);
+            } catch (Exception e) {
+                LOG.warn("Couldn't prefetch lookup results of extractor <{}>", extractor.getId(), e);
+            }
+        }
+    }
+
+    void apply(Message msg) {
+        if (ThreadLocalRandom.current().nextInt(TIMER_SAMPLE_RATE) == 0) {
+            for (final Extractor extractor : extractors) {
+                try {
+                    extractor.runExtractor(msg);
+                } catch (Exception e) {
+                    ExtractorFilter.handleExtractorFailure(extractor, msg, e);
+                }
+            }
+            return;
+        }
+
+        for (final FieldGroup group : groups) {
+            group.apply(msg);
+        }
+    }
+
+    private static class FieldGroup {
+        private static final byte UNKNOWN = 0;
+        private static final byte MATCH = 1;
+        private static final byte NO_MATCH = 2;
+
+        private final String sourceField;
+        private final Extractor[] extractors;
+        private final Extractor.ConditionType[] conditionTypes;
+        private final ContainsAutomaton stringConditions;
+        private final Pattern[] regexConditions;
+        private final int[] regexSlots;
+
+        private FieldGroup(List<Extractor> extractors) {
+            this.sourceField = extractors.get(0).getSourceField();
+            this.extractors = extractors.toArray(new Extractor[0]);
+            this.conditionTypes = new Extractor.ConditionType[this.extractors.length];
+            this.regexSlots = new int[this.extractors.length];
+
+            final ContainsAutomaton.Builder stringBuilder = ContainsAutomaton.builder();
+            boolean hasStringConditions = false;
+            final Map<String, Integer> regexIndexes = new HashMap<>();
+            final List<Pattern> patterns = new ArrayList<>();
+
+            for (int i = 0; i < this.extractors.length; i++) {
+                final Extractor.ConditionType conditionType = this.extractors[i].getConditionType();
+                final String conditionValue = this.extractors[i].getConditionValue();
+                regexSlots[i] = -1;
+
+                // Conditions which can't be compiled (type null) are evaluated by the extractor itself.
+                if (conditionType == Extractor.ConditionType.NONE) {
+                    conditionTypes[i] = conditionType;
+                } else if (conditionValue == null) {
+                    conditionTypes[i] = null;
+                } else if (conditionType == Extractor.ConditionType.STRING) {
+                    conditionTypes[i] = conditionType;
+                    stringBuilder.add(conditionValue, i);
+                    hasStringConditions = true;
+                } else if (conditionType == Extractor.ConditionType.REGEX) {
+                    conditionTypes[i] = conditionType;
+                    regexSlots[i] = regexIndexes.computeIfAbsent(conditionValue, value -> {
+                        patterns.add(Pattern.compile(value, Pattern.DOTALL));
+                        return patterns.size() - 1;
+                    });
+                }
+            }
+
+            this.stringConditions = hasStringConditions ? stringBuilder.build() : null;
+            this.regexConditions = patterns.toArray(new Pattern[0]);
+        }
+
+        private void apply(Message msg) {
+            Object value = msg.getField(sourceField);
+            ConditionState state = new ConditionState(value);
+
+            for (int i = 0; i < extractors.length; i++) {
+                final Extractor extractor = extractors[i];
+                try {
+                    extractor.runExtractor(msg, state.field, state.field != null && conditionMatches(i, state));
+                } catch (Exception e) {
+                    ExtractorFilter.handleExtractorFailure(extractor, msg, e);
+                }
+
+                // Cut extractors or extractors writing into their source field invalidate the evaluated conditions.
+                final Object current = msg.getField(sourceField);
+                if (current != value && i + 1 < extractors.length) {
+                    value = current;
+                    state = new ConditionState(value);
+                }
+            }
+        }
+
+        private boolean conditionMatches(int index, ConditionState state) {
+            final Extractor.ConditionType conditionType = conditionTypes[index];
+            if (conditionType == Extractor.ConditionType.NONE) {
+                return true;
+            } else if (conditionType == Extractor.ConditionType.STRING) {
+                if (state.stringMatches == null) {
+                    final boolean[] matches = new boolean[extractors.length];
+                    stringConditions.search(state.field, id -> matches[id] = true);
+                    state.stringMatches = matches;
+                }
+                return state.stringMatches[index];
+            } else if (conditionType == Extractor.ConditionType.REGEX) {
+                final int slot = regexSlots[index];
+                if (state.regexMatches == null) {
+                    state.regexMatches = new byte[regexConditions.length];
+                }
+                if (state.regexMatches[slot] == UNKNOWN) {
+                    state.regexMatches[slot] = regexConditions[slot].matcher(state.field).find() ? MATCH : NO_MATCH;
+                }
+                return state.regexMatches[slot] == MATCH;
+            }
+            return extractors[index].conditionMatches(state.field);
+        }
+    }
+
+    /**
+     * Condition results for one value of a source field, computed on demand.
+     */
+    private static class ConditionState {
+        private final String field;
+        private boolean[] stringMatches;
+        private byte[] regexMatches;
+
+        private ConditionState(Object value) {
+            this.field = value instanceof String ? (String) value : null;
+        }
+    }
+}
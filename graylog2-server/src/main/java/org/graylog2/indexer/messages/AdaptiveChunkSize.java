@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.indexer.messages;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Additive-increase/multiplicative-decrease controller for the size (in bytes) of bulk index chunks.
+ *
+ * The size grows by a fixed step after every fast and fully accepted bulk request and is halved when a request was
+ * slow, partially rejected by Elasticsearch (HTTP 429 / rejected execution), too large or failed. The learned size is
+ * kept across batches.
+ */
+class AdaptiveChunkSize {
+    static final long MIN_CHUNK_BYTES = 512 * 1024;
+
+    private final long maxChunkBytes;
+    private final long increaseStep;
+    private final long targetLatencyNanos;
+    private final AtomicLong chunkBytes;
+    // Upper bound learned from "Request Entity Too Large" responses
+    private final AtomicLong ceilingBytes;
+
+    AdaptiveChunkSize(long maxChunkBytes, long targetLatencyNanos) {
+        this.maxChunkBytes = Math.max(MIN_CHUNK_BYTES, maxChunkBytes);
+        this.increaseStep = MIN_CHUNK_BYTES;
+        this.targetLatencyNanos = targetLatencyNanos;
+        this.chunkBytes = new AtomicLong(Math.min(this.maxChunkBytes, 10 * MIN_CHUNK_BYTES));
+        this.ceilingBytes = new AtomicLong(this.maxChunkBytes);
+    }
+
+    long get() {
+        return chunkBytes.get();
+    }
+
+    void onResponse(long latencyNanos, int rejectedItems) {
+        if (rejectedItems > 0 || latencyNanos > targetLatencyNanos) {
+            decrease();
+        } else {
+            final long ceiling = ceilingBytes.get();
+            chunkBytes.updateAndGet(current -> Math.min(ceiling, current + increaseStep));
+        }
+    }
+
+    void onEntityTooLarge(long requestBytes) {
+        ceilingBytes.updateAndGet(ceiling -> Math.max(MIN_CHUNK_BYTES, Math.min(ceiling, requestBytes - increaseStep)));
+        decrease();
+    }
+
+    void onFailure() {
+        decrease();
+    }
+
+    private void decrease() {
+        chunkBytes.updateAndGet(current -> Math.max(MIN_CHUNK_BYTES, current / 2));
+    }
+}
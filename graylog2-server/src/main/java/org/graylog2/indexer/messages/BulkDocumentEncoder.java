@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.indexer.messages;
+
+import com.codahale.metrics.Meter;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Serializes the documents of a bulk request chunk into a single, reusable buffer.
+ *
+ * Every document is streamed into the buffer with {@link Indexable#writeElasticSearchObject} and handed to the
+ * {@link DocumentConsumer} as a slice of that buffer. The slices stay valid until {@link #release()} is called, so
+ * a caller must only release the encoder once the bulk request using them has been completed.
+ *
+ * This class is NOT thread-safe! Use one instance per thread.
+ */
+public class BulkDocumentEncoder {
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    // Don't keep huge buffers of exceptionally large chunks around forever.
+    private static final int MAX_RETAINED_BUFFER_SIZE = 16 * 1024 * 1024;
+
+    private final ObjectMapper objectMapper;
+    private final JsonFactory jsonFactory;
+    private final Meter invalidTimestampMeter;
+    private Buffer buffer = new Buffer(INITIAL_BUFFER_SIZE);
+
+    public BulkDocumentEncoder(ObjectMapper objectMapper, Meter invalidTimestampMeter) {
+        this.objectMapper = objectMapper;
+        this.jsonFactory = objectMapper.getFactory();
+        this.invalidTimestampMeter = invalidTimestampMeter;
+    }
+
+    public interface DocumentConsumer {
+        void accept(IndexingRequest request, byte[] buffer, int offset, int length);
+    }
+
+    /**
+     * Serializes the given requests and passes each document to the consumer.
+     *
+     * @param requests the requests to serialize
+     * @param consumer the consumer for the serialized documents
+     * @throws IOException if a document couldn't be serialized
+     */
+    public void encode(List<IndexingRequest> requests, DocumentConsumer consumer) throws IOException {
+        buffer.reset();
+        for (IndexingRequest request : requests) {
+            final int offset = buffer.size();
+            try (final JsonGenerator generator = jsonFactory.createGenerator(buffer)) {
+                request.message().writeElasticSearchObject(generator, objectMapper, invalidTimestampMeter);
+            }
+            // Growing the buffer copies it into a new array, so slices of the current array stay untouched.
+            consumer.accept(request, buffer.array(), offset, buffer.size() - offset);
+        }
+    }
+
+    /**
+     * Makes the buffer available for the next {@link #encode(List, DocumentConsumer)} call.
+     */
+    public void release() {
+        if (buffer.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+            buffer = new Buffer(INITIAL_BUFFER_SIZE);
+        } else {
+            buffer.reset();
+        }
+    }
+
+    private static class Buffer extends ByteArrayOutputStream {
+        private Buffer(int size) {
+            super(size);
+        }
+
+        private byte[] array() {
+            return buf;
+        }
+
+        private int capacity() {
+            return buf.length;
+        }
+    }
+}
@@ -16,26 +16,173 @@
  */
 package org.graylog2.indexer.messages;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.github.joschi.jadconfig.util.Duration;
+import com.github.joschi.jadconfig.util.Size;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.graylog2.indexer.ElasticsearchException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.graylog2.shared.metrics.MetricUtils.safelyRegister;
+
+/**
+ * Splits bulk index requests into chunks which are small enough for Elasticsearch.
+ *
+ * By default a batch is sent as a single bulk request which is split in half whenever Elasticsearch responds with
+ * "Request Entity Too Large". In adaptive mode ({@code output_bulk_adaptive}) a batch is split into chunks of a
+ * learned size in bytes (see {@link AdaptiveChunkSize}) and up to {@code output_bulk_max_in_flight} chunks are
+ * indexed concurrently.
+ */
+@Singleton
 public class ChunkedBulkIndexer {
     private static final Logger LOG = LoggerFactory.getLogger(ChunkedBulkIndexer.class);
 
+    @Nullable
+    private final AdaptiveChunkSize adaptiveChunkSize;
+    @Nullable
+    private final ExecutorService executor;
+    @Nullable
+    private final Semaphore inFlightPermits;
+    private final AtomicInteger inFlight = new AtomicInteger(0);
+    @Nullable
+    private final Timer requestLatency;
+
     public interface BulkIndex {
         List<Messages.IndexingError> apply(Chunk chunk) throws ChunkedBulkIndexer.EntityTooLargeException, IOException;
     }
 
+    public ChunkedBulkIndexer() {
+        this.adaptiveChunkSize = null;
+        this.executor = null;
+        this.inFlightPermits = null;
+        this.requestLatency = null;
+    }
+
+    @Inject
+    public ChunkedBulkIndexer(@Named("output_bulk_adaptive") boolean adaptive,
+                              @Named("output_bulk_max_in_flight") int maxInFlight,
+                              @Named("output_bulk_max_chunk_size") Size maxChunkSize,
+                              @Named("output_bulk_target_latency") Duration targetLatency,
+                              MetricRegistry metricRegistry) {
+        if (!adaptive) {
+            this.adaptiveChunkSize = null;
+            this.executor = null;
+            this.inFlightPermits = null;
+            this.requestLatency = null;
+            return;
+        }
+
+        this.adaptiveChunkSize = new AdaptiveChunkSize(maxChunkSize.toBytes(), targetLatency.toNanoseconds());
+        this.inFlightPermits = new Semaphore(maxInFlight);
+        this.executor = Executors.newFixedThreadPool(maxInFlight, new ThreadFactoryBuilder()
+                .setNameFormat("bulk-indexer-%d")
+                .setDaemon(true)
+                .build());
+        this.requestLatency = metricRegistry.timer(name(ChunkedBulkIndexer.class, "requestLatency"));
+        final AdaptiveChunkSize chunkSize = this.adaptiveChunkSize;
+        safelyRegister(metricRegistry, name(ChunkedBulkIndexer.class, "chunkSizeBytes"), (Gauge<Long>) chunkSize::get);
+        safelyRegister(metricRegistry, name(ChunkedBulkIndexer.class, "inFlightRequests"), (Gauge<Integer>) inFlight::get);
+    }
+
     public List<Messages.IndexingError> index(List<IndexingRequest> messageList, BulkIndex bulkIndex) throws IOException {
         if (messageList.isEmpty()) {
             return Collections.emptyList();
         }
 
+        if (adaptiveChunkSize == null) {
+            return indexSplittingOnEntityTooLarge(messageList, bulkIndex, null);
+        }
+
+        final List<List<IndexingRequest>> chunks = partition(messageList, adaptiveChunkSize.get());
+        if (chunks.size() == 1) {
+            return indexAdaptiveChunk(chunks.get(0), bulkIndex);
+        }
+
+        return indexConcurrently(chunks, bulkIndex);
+    }
+
+    private List<Messages.IndexingError> indexConcurrently(List<List<IndexingRequest>> chunks, BulkIndex bulkIndex) throws IOException {
+        final List<Future<List<Messages.IndexingError>>> futures = new ArrayList<>(chunks.size());
+        try {
+            for (List<IndexingRequest> chunk : chunks) {
+                // Blocks while the maximum number of bulk requests is in flight.
+                inFlightPermits.acquire();
+                try {
+                    futures.add(executor.submit(() -> {
+                        try {
+                            return indexAdaptiveChunk(chunk, bulkIndex);
+                        } finally {
+                            inFlightPermits.release();
+                        }
+                    }));
+                } catch (RuntimeException e) {
+                    inFlightPermits.release();
+                    throw e;
+                }
+            }
+
+            final List<Messages.IndexingError> errors = new ArrayList<>();
+            for (Future<List<Messages.IndexingError>> future : futures) {
+                errors.addAll(future.get());
+            }
+            return errors;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            futures.forEach(future -> future.cancel(true));
+            throw new ElasticsearchException("Interrupted while waiting for bulk requests.", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new ElasticsearchException("Bulk request failed.", cause);
+        }
+    }
+
+    private List<Messages.IndexingError> indexAdaptiveChunk(List<IndexingRequest> chunk, BulkIndex bulkIndex) throws IOException {
+        inFlight.incrementAndGet();
+        final long start = System.nanoTime();
+        try {
+            final List<Messages.IndexingError> errors = indexSplittingOnEntityTooLarge(chunk, bulkIndex, adaptiveChunkSize);
+            final long latency = System.nanoTime() - start;
+            adaptiveChunkSize.onResponse(latency, countRejected(errors));
+            return errors;
+        } catch (IOException | RuntimeException e) {
+            adaptiveChunkSize.onFailure();
+            throw e;
+        } finally {
+            requestLatency.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private List<Messages.IndexingError> indexSplittingOnEntityTooLarge(List<IndexingRequest> messageList,
+                                                                        BulkIndex bulkIndex,
+                                                                        @Nullable AdaptiveChunkSize adaptiveChunkSize) throws IOException {
         int chunkSize = messageList.size();
         int offset = 0;
         for (;;) {
@@ -43,7 +190,9 @@ public class ChunkedBulkIndexer {
                 return bulkIndex.apply(new Chunk(messageList, offset, chunkSize));
             } catch (ChunkedBulkIndexer.EntityTooLargeException e) {
                 LOG.warn("Bulk index failed with 'Request Entity Too Large' error. Retrying by splitting up batch size <{}>.", chunkSize);
-                if (chunkSize == messageList.size()) {
+                if (adaptiveChunkSize != null) {
+                    adaptiveChunkSize.onEntityTooLarge(sizeOf(messageList.subList(offset, Math.min(messageList.size(), offset + chunkSize))));
+                } else if (chunkSize == messageList.size()) {
                     LOG.warn("Consider lowering the \"output_batch_size\" setting.");
                 }
                 offset += e.indexedSuccessfully;
@@ -55,6 +204,43 @@ public class ChunkedBulkIndexer {
         }
     }
 
+    private static List<List<IndexingRequest>> partition(List<IndexingRequest> messageList, long chunkBytes) {
+        final List<List<IndexingRequest>> chunks = new ArrayList<>();
+        int chunkStart = 0;
+        long currentBytes = 0;
+        for (int i = 0; i < messageList.size(); i++) {
+            currentBytes += messageList.get(i).message().getSize();
+            if (currentBytes >= chunkBytes) {
+                chunks.add(messageList.subList(chunkStart, i + 1));
+                chunkStart = i + 1;
+                currentBytes = 0;
+            }
+        }
+        if (chunkStart < messageList.size()) {
+            chunks.add(messageList.subList(chunkStart, messageList.size()));
+        }
+        return chunks;
+    }
+
+    private static long sizeOf(List<IndexingRequest> requests) {
+        long size = 0;
+        for (IndexingRequest request : requests) {
+            size += request.message().getSize();
+        }
+        return size;
+    }
+
+    private static int countRejected(List<Messages.IndexingError> errors) {
+        int rejected = 0;
+        for (Messages.IndexingError error : errors) {
+            final String errorMessage = error.errorMessage().toLowerCase(Locale.ROOT);
+            if (errorMessage.contains("rejected_execution") || errorMessage.contains("too_many_requests")) {
+                rejected++;
+            }
+        }
+        return rejected;
+    }
+
     public static class Chunk {
         public final List<IndexingRequest> requests;
         public final int offset;
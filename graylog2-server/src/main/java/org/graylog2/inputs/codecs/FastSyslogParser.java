@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.inputs.codecs;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Classifies syslog messages by looking at their first bytes and parses classic BSD (RFC3164) messages of the form
+ * {@code <PRI>Mmm dd hh:mm:ss HOST MSG} directly from the raw bytes.
+ *
+ * The fast path only accepts messages in a strict form for which it produces exactly the same result as the
+ * syslog4j event classes. Everything else is left to them.
+ */
+final class FastSyslogParser {
+    enum Dialect {
+        /**
+         * RFC5424, a version follows the PRI. Was: {@code <\d{1,3}>[0-9]\d{0,2}\s.*}
+         */
+        STRUCTURED,
+        /**
+         * Cisco with sequence numbers. Was: {@code <\d{1,3}>\d*:\s.*}
+         */
+        CISCO,
+        /**
+         * FortiGate key/value messages. Was: {@code <\d{1,3}>date=.*}
+         */
+        FORTIGATE,
+        /**
+         * Everything else, including classic BSD (RFC3164) messages.
+         */
+        UNSTRUCTURED
+    }
+
+    static final class ParsedMessage {
+        final int facility;
+        final int level;
+        final DateTime timestamp;
+        final String host;
+        final String message;
+
+        private ParsedMessage(int facility, int level, DateTime timestamp, String host, String message) {
+            this.facility = facility;
+            this.level = level;
+            this.timestamp = timestamp;
+            this.host = host;
+            this.message = message;
+        }
+    }
+
+    private static final byte[][] MONTHS = {
+            bytes("Jan"), bytes("Feb"), bytes("Mar"), bytes("Apr"), bytes("May"), bytes("Jun"),
+            bytes("Jul"), bytes("Aug"), bytes("Sep"), bytes("Oct"), bytes("Nov"), bytes("Dec")
+    };
+    // "Mmm dd hh:mm:ss "
+    private static final int BSD_TIMESTAMP_LENGTH = 16;
+    private static final int MAX_PRIORITY = 191;
+
+    private static volatile CurrentYear currentYear = CurrentYear.now();
+
+    private FastSyslogParser() {
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Returns the dialect of the given message. The result is the same as matching the message against the
+     * previously used full-message regular expressions, but only the first bytes are looked at.
+     */
+    static Dialect classify(byte[] payload) {
+        final int priorityEnd = priorityEnd(payload);
+        if (priorityEnd < 0) {
+            return Dialect.UNSTRUCTURED;
+        }
+
+        int i = priorityEnd + 1;
+        final int digitsStart = i;
+        while (i < payload.length && isDigit(payload[i])) {
+            i++;
+        }
+        final int digits = i - digitsStart;
+
+        if (i < payload.length) {
+            if (digits >= 1 && digits <= 3 && isRegexWhitespace(payload[i])) {
+                return Dialect.STRUCTURED;
+            }
+            if (payload[i] == ':' && i + 1 < payload.length && isRegexWhitespace(payload[i + 1])) {
+                return Dialect.CISCO;
+            }
+        }
+        if (digits == 0 && startsWith(payload, priorityEnd + 1, "date=")) {
+            return Dialect.FORTIGATE;
+        }
+        return Dialect.UNSTRUCTURED;
+    }
+
+    /**
+     * Parses a classic BSD syslog message.
+     *
+     * @param payload the raw message
+     * @return the parsed message or {@code null} if the message is not in the strict form supported by this parser
+     */
+    @Nullable
+    static ParsedMessage parseUnstructured(byte[] payload) {
+        final int priorityEnd = priorityEnd(payload);
+        if (priorityEnd < 0 || (payload[1] == '0' && priorityEnd > 2)) {
+            return null;
+        }
+        final int priority = parseNumber(payload, 1, priorityEnd);
+        if (priority > MAX_PRIORITY) {
+            return null;
+        }
+
+        final int start = priorityEnd + 1;
+        // The timestamp must be followed by a host and a message
+        if (payload.length - start < BSD_TIMESTAMP_LENGTH + 3) {
+            return null;
+        }
+        final DateTime timestamp = parseTimestamp(payload, start);
+        if (timestamp == null) {
+            return null;
+        }
+
+        final int hostStart = start + BSD_TIMESTAMP_LENGTH;
+        int hostEnd = hostStart;
+        while (hostEnd < payload.length && payload[hostEnd] != ' ') {
+            hostEnd++;
+        }
+        if (hostEnd == hostStart || hostEnd >= payload.length - 1 || !isPlainHost(payload, hostStart, hostEnd)) {
+            return null;
+        }
+        // Control characters and surrounding whitespace are handled differently by the syslog4j event classes
+        for (int i = hostStart; i < payload.length; i++) {
+            if (isControl(payload[i])) {
+                return null;
+            }
+        }
+        if (payload[payload.length - 1] == ' ') {
+            return null;
+        }
+
+        final String host = new String(payload, hostStart, hostEnd - hostStart, StandardCharsets.UTF_8);
+        // The message keeps the host, just like the syslog4j event classes do
+        final String message = new String(payload, hostStart, payload.length - hostStart, StandardCharsets.UTF_8);
+
+        return new ParsedMessage(priority >> 3, priority & 7, timestamp, host, message);
+    }
+
+    /**
+     * Parses "Mmm dd hh:mm:ss " in the current year and the default time zone.
+     */
+    @Nullable
+    private static DateTime parseTimestamp(byte[] payload, int offset) {
+        final int month = parseMonth(payload, offset);
+        if (month < 0 || payload[offset + 3] != ' ') {
+            return null;
+        }
+
+        final int day;
+        if (payload[offset + 4] == ' ' && isDigit(payload[offset + 5]) && payload[offset + 5] != '0') {
+            day = payload[offset + 5] - '0';
+        } else if (isDigit(payload[offset + 4]) && isDigit(payload[offset + 5])) {
+            day = parseNumber(payload, offset + 4, offset + 6);
+        } else {
+            return null;
+        }
+
+        if (payload[offset + 6] != ' ' || payload[offset + 9] != ':' || payload[offset + 12] != ':'
+                || payload[offset + 15] != ' ' || !isDigits(payload, offset + 7, offset + 9)
+                || !isDigits(payload, offset + 10, offset + 12) || !isDigits(payload, offset + 13, offset + 15)) {
+            return null;
+        }
+        final int hour = parseNumber(payload, offset + 7, offset + 9);
+        final int minute = parseNumber(payload, offset + 10, offset + 12);
+        final int second = parseNumber(payload, offset + 13, offset + 15);
+
+        final DateTime timestamp;
+        try {
+            // Out of range values and local times in a DST gap are rejected instead of being rolled over like a
+            // lenient date format would do
+            timestamp = new DateTime(currentYear(), month, day, hour, minute, second, 0, DateTimeZone.getDefault());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        // Ambiguous local times in a DST overlap might be resolved differently
+        if (timestamp.withEarlierOffsetAtOverlap() != timestamp || timestamp.withLaterOffsetAtOverlap() != timestamp) {
+            return null;
+        }
+        return timestamp;
+    }
+
+    private static int currentYear() {
+        CurrentYear year = currentYear;
+        if (System.currentTimeMillis() >= year.validUntil) {
+            year = CurrentYear.now();
+            currentYear = year;
+        }
+        return year.year;
+    }
+
+    private static int parseMonth(byte[] payload, int offset) {
+        for (int month = 0; month < MONTHS.length; month++) {
+            final byte[] name = MONTHS[month];
+            if (payload[offset] == name[0] && payload[offset + 1] == name[1] && payload[offset + 2] == name[2]) {
+                return month + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the closing bracket of a {@code <\d{1,3}>} priority at the start of the message or -1.
+     */
+    private static int priorityEnd(byte[] payload) {
+        if (payload.length < 3 || payload[0] != '<') {
+            return -1;
+        }
+        int i = 1;
+        while (i < payload.length && i <= 4 && isDigit(payload[i])) {
+            i++;
+        }
+        return i > 1 && i <= 4 && i < payload.length && payload[i] == '>' ? i : -1;
+    }
+
+    /**
+     * Only accepts host names and addresses, no tags like "su:" or "app[123]".
+     */
+    private static boolean isPlainHost(byte[] payload, int from, int to) {
+        for (int i = from; i < to; i++) {
+            final byte b = payload[i];
+            if (!(isDigit(b) || (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || b == '.' || b == '-' || b == '_' || b == ':')) {
+                return false;
+            }
+        }
+        return payload[to - 1] != ':';
+    }
+
+    private static boolean startsWith(byte[] payload, int offset, String prefix) {
+        if (payload.length - offset < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (payload[offset + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int parseNumber(byte[] payload, int from, int to) {
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            value = value * 10 + (payload[i] - '0');
+        }
+        return value;
+    }
+
+    private static boolean isDigits(byte[] payload, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (!isDigit(payload[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    /**
+     * Same characters as {@code \s} in a {@link java.util.regex.Pattern} without UNICODE_CHARACTER_CLASS.
+     */
+    private static boolean isRegexWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r';
+    }
+
+    private static boolean isControl(byte b) {
+        return (b >= 0 && b < ' ') || b == 0x7F;
+    }
+
+    private static final class CurrentYear {
+        private final int year;
+        private final long validUntil;
+
+        private CurrentYear(int year, long validUntil) {
+            this.year = year;
+            this.validUntil = validUntil;
+        }
+
+        private static CurrentYear now() {
+            final DateTime now = DateTime.now(DateTimeZone.getDefault());
+            // Check again every minute so changes of the default time zone are picked up as well
+            final long nextYear = now.plusYears(1).withDayOfYear(1).withTimeAtStartOfDay().getMillis();
+            return new CurrentYear(now.getYear(), Math.min(nextYear, now.getMillis() + 60_000L));
+        }
+    }
+}
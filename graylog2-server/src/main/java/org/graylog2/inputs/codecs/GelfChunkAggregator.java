@@ -17,11 +17,15 @@
 package org.graylog2.inputs.codecs;
 
 import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Size;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.buffer.Unpooled;
 import org.graylog2.inputs.codecs.gelf.GELFMessage;
 import org.graylog2.inputs.codecs.gelf.GELFMessageChunk;
@@ -34,18 +38,29 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Named;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import static com.codahale.metrics.MetricRegistry.name;
 import static java.util.Objects.requireNonNull;
 
+/**
+ * Reassembles chunked GELF messages.
+ *
+ * The chunks of incomplete messages are kept in pooled direct buffers, in one slot per sequence number. The total
+ * size of all held chunks is limited by {@code gelf_chunk_aggregator_max_size}; if a new chunk doesn't fit, the oldest
+ * incomplete messages are dropped. Incomplete messages expire after {@link #VALIDITY_PERIOD} milliseconds and are
+ * tracked in a timing wheel with one bucket per {@link #CHECK_PERIOD}, so expiring them only touches the due buckets.
+ */
 public class GelfChunkAggregator implements CodecAggregator {
     private static final Logger log = LoggerFactory.getLogger(GelfChunkAggregator.class);
 
@@ -54,6 +69,9 @@ public class GelfChunkAggregator implements CodecAggregator {
     public static final Result INVALID_RESULT = new Result(null, false);
     public static final int VALIDITY_PERIOD = 5000; // millis
     private static final long CHECK_PERIOD = 1000;
+    // enough buckets to hold every tick which can still contain non-expired entries
+    private static final int WHEEL_SIZE = (int) (VALIDITY_PERIOD / CHECK_PERIOD) + 3;
+    private static final Size DEFAULT_MAX_SIZE = Size.megabytes(128L);
 
     public static final String CHUNK_COUNTER = name(GelfChunkAggregator.class, "total-chunks");
     public static final String WAITING_MESSAGES = name(GelfChunkAggregator.class, "waiting-messages");
@@ -61,26 +79,47 @@ public class GelfChunkAggregator implements CodecAggregator {
     public static final String EXPIRED_MESSAGES = name(GelfChunkAggregator.class, "expired-messages");
     public static final String EXPIRED_CHUNKS = name(GelfChunkAggregator.class, "expired-chunks");
     public static final String DUPLICATE_CHUNKS = name(GelfChunkAggregator.class, "duplicate-chunks");
+    public static final String EVICTED_MESSAGES = name(GelfChunkAggregator.class, "evicted-messages");
+    public static final String HELD_BYTES = name(GelfChunkAggregator.class, "held-bytes");
 
     private final ConcurrentMap<String, ChunkEntry> chunks = Maps.newConcurrentMap();
-    private final ConcurrentSkipListSet<ChunkEntry> sortedEvictionSet = new ConcurrentSkipListSet<>();
+    private final List<Set<ChunkEntry>> expiryWheel;
+    private final long maxBytes;
+    private final AtomicLong heldBytes = new AtomicLong(0);
+    private final Object evictionLock = new Object();
     private final Counter chunkCounter;
     private final Counter waitingMessages;
     private final Counter expiredMessages;
     private final Counter expiredChunks;
     private final Counter duplicateChunks;
     private final Counter completeMessages;
+    private final Counter evictedMessages;
+
+    public GelfChunkAggregator(ScheduledExecutorService scheduler, MetricRegistry metricRegistry) {
+        this(scheduler, metricRegistry, DEFAULT_MAX_SIZE);
+    }
 
     @Inject
-    public GelfChunkAggregator(@Named("daemonScheduler") ScheduledExecutorService scheduler, MetricRegistry metricRegistry) {
+    public GelfChunkAggregator(@Named("daemonScheduler") ScheduledExecutorService scheduler,
+                               MetricRegistry metricRegistry,
+                               @Named("gelf_chunk_aggregator_max_size") Size maxSize) {
+        final ImmutableList.Builder<Set<ChunkEntry>> wheelBuilder = ImmutableList.builder();
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheelBuilder.add(ConcurrentHashMap.newKeySet());
+        }
+        this.expiryWheel = wheelBuilder.build();
+        this.maxBytes = maxSize.toBytes();
+
         scheduler.scheduleAtFixedRate(new ChunkEvictionTask(), VALIDITY_PERIOD, CHECK_PERIOD, TimeUnit.MILLISECONDS);
         chunkCounter = metricRegistry.counter(CHUNK_COUNTER);
-        // this is a counter instead of a Gauge, because calling sortedEvictionSet.size() is expensive
+        // this is a counter instead of a Gauge, because calling chunks.size() is expensive
         waitingMessages = metricRegistry.counter(WAITING_MESSAGES);
         completeMessages = metricRegistry.counter(COMPLETE_MESSAGES);
         expiredMessages = metricRegistry.counter(EXPIRED_MESSAGES);
         expiredChunks = metricRegistry.counter(EXPIRED_CHUNKS);
         duplicateChunks = metricRegistry.counter(DUPLICATE_CHUNKS);
+        evictedMessages = metricRegistry.counter(EVICTED_MESSAGES);
+        metricRegistry.register(HELD_BYTES, (Gauge<Long>) heldBytes::get);
     }
 
     @Nonnull
@@ -140,16 +179,17 @@ public class GelfChunkAggregator implements CodecAggregator {
 
         final ChunkEntry existing = chunks.putIfAbsent(messageId, entry);
         if (existing == null) {
-            // add this chunk entry to the eviction set
+            // add this chunk entry to the expiry wheel
             waitingMessages.inc();
-            sortedEvictionSet.add(entry);
+            bucketFor(entry).add(entry);
         } else {
-            // the entry is already in the eviction set and chunk map
+            // the entry is already in the expiry wheel and chunk map
             entry = existing;
         }
 
         final int sequenceNumber = chunk.getSequenceNumber();
-        if (!entry.payloadArray.compareAndSet(sequenceNumber, null, chunk)) {
+        // also rejects sequence numbers outside of the slot array before anything is allocated
+        if (entry.payloadArray.get(sequenceNumber) != null || !storeChunk(entry, sequenceNumber, chunk.getData())) {
             log.error("Received duplicate chunk {} for message {} from {}", sequenceNumber, messageId, gelfMessage.getSourceAddress());
             duplicateChunks.inc();
             return null;
@@ -158,54 +198,183 @@ public class GelfChunkAggregator implements CodecAggregator {
         final int chunkWatermark = entry.chunkSlotsWritten.incrementAndGet();
 
         if (chunkWatermark > MAX_CHUNKS) {
-            getAndCleanupEntry(messageId);
+            if (removeEntry(entry)) {
+                releaseChunks(entry);
+            }
             throw new IllegalStateException("Maximum number of chunks reached, discarding message");
         }
 
         if (chunkWatermark == sequenceCount) {
             // message is complete by chunk count, assemble and return it.
             // it might still be corrupt etc, but we've seen enough chunks
-            // remove before operating on it, to avoid racing too much with the clean up job, some race is inevitable, though.
-            entry = getAndCleanupEntry(messageId);
-
-            final byte[] allChunks[] = new byte[sequenceCount][];
-            for (int i = 0; i < entry.payloadArray.length(); i++) {
-                final GELFMessageChunk messageChunk = entry.payloadArray.get(i);
-                if (messageChunk == null) {
-                    log.debug("Couldn't read chunk {} of message {}, skipping this chunk.", i, messageId);
-                } else {
-                    allChunks[i] = messageChunk.getData();
-                }
+            // remove before operating on it, to avoid racing with the clean up job.
+            if (!removeEntry(entry)) {
+                log.debug("Chunks of message <{}> were dropped while completing it.", messageId);
+                return null;
             }
             completeMessages.inc();
-            return Unpooled.wrappedBuffer(allChunks);
+            return assembleChunks(entry);
         }
 
         // message isn't complete yet, check if we should remove the other parts as well
         if (isOutdated(entry)) {
             // chunks are outdated, the oldest came in over 5 seconds ago, clean them all up
             log.debug("Not all chunks of <{}> arrived within {}ms. Dropping chunks.", messageId, VALIDITY_PERIOD);
-            expireEntry(messageId);
+            expireEntry(entry);
         }
 
         return null;
     }
 
-    private void expireEntry(String messageId) {
-        final ChunkEntry cleanupEntry = getAndCleanupEntry(messageId);
-        expiredMessages.inc();
-        expiredChunks.inc(cleanupEntry.chunkSlotsWritten.get());
+    /**
+     * Copies the chunk data into a direct buffer and puts it into its slot.
+     *
+     * @return {@code false} if the slot was already taken, {@code true} otherwise
+     */
+    private boolean storeChunk(ChunkEntry entry, int sequenceNumber, byte[] data) {
+        if (!reserveBytes(entry, data.length)) {
+            if (removeEntry(entry)) {
+                evictedMessages.inc();
+                releaseChunks(entry);
+            }
+            throw new IllegalStateException("GELF chunk aggregator size limit reached, discarding message");
+        }
+
+        final ByteBuf buffer = PooledByteBufAllocator.DEFAULT.directBuffer(data.length, data.length).writeBytes(data);
+        if (!entry.payloadArray.compareAndSet(sequenceNumber, null, buffer)) {
+            releaseBuffer(buffer);
+            return false;
+        }
+
+        // The entry might have been dropped concurrently, make sure the chunk doesn't leak in that case.
+        if (entry.released && entry.payloadArray.compareAndSet(sequenceNumber, buffer, null)) {
+            releaseBuffer(buffer);
+        }
+        return true;
+    }
+
+    private boolean reserveBytes(ChunkEntry entry, int bytes) {
+        if (bytes > maxBytes) {
+            return false;
+        }
+        while (true) {
+            final long held = heldBytes.get();
+            if (held + bytes <= maxBytes) {
+                if (heldBytes.compareAndSet(held, held + bytes)) {
+                    return true;
+                }
+            } else if (!evictOldestEntry(entry, bytes)) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Drops the oldest incomplete message, except for the given one, unless enough space became available meanwhile.
+     *
+     * @return {@code false} if there was no message left to drop, {@code true} otherwise
+     */
+    private boolean evictOldestEntry(ChunkEntry keep, int bytes) {
+        synchronized (evictionLock) {
+            if (heldBytes.get() + bytes <= maxBytes) {
+                return true;
+            }
+            // walk the wheel from the oldest bucket to the current one
+            final long currentTick = tick(Tools.nowUTC().getMillis());
+            for (long tick = currentTick - WHEEL_SIZE + 1; tick <= currentTick; tick++) {
+                for (final ChunkEntry entry : bucketFor(tick)) {
+                    if (entry != keep && removeEntry(entry)) {
+                        log.debug("GELF chunk aggregator size limit reached, dropping chunks of <{}>.", entry.id);
+                        evictedMessages.inc();
+                        releaseChunks(entry);
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    private ByteBuf assembleChunks(ChunkEntry entry) {
+        entry.released = true;
+
+        final ByteBuf[] buffers = new ByteBuf[entry.payloadArray.length()];
+        int length = 0;
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = entry.payloadArray.getAndSet(i, null);
+            if (buffers[i] == null) {
+                log.debug("Couldn't read chunk {} of message {}, skipping this chunk.", i, entry.id);
+            } else {
+                length += buffers[i].readableBytes();
+            }
+        }
+
+        // The complete message goes to the heap, so nothing downstream has to care about releasing pooled buffers.
+        final byte[] message = new byte[length];
+        int offset = 0;
+        for (final ByteBuf buffer : buffers) {
+            if (buffer != null) {
+                final int readable = buffer.readableBytes();
+                buffer.getBytes(buffer.readerIndex(), message, offset, readable);
+                offset += readable;
+                releaseBuffer(buffer);
+            }
+        }
+        return Unpooled.wrappedBuffer(message);
+    }
+
+    private void releaseChunks(ChunkEntry entry) {
+        entry.released = true;
+        for (int i = 0; i < entry.payloadArray.length(); i++) {
+            final ByteBuf buffer = entry.payloadArray.getAndSet(i, null);
+            if (buffer != null) {
+                releaseBuffer(buffer);
+            }
+        }
+    }
+
+    private void releaseBuffer(ByteBuf buffer) {
+        heldBytes.addAndGet(-buffer.readableBytes());
+        buffer.release();
+    }
+
+    private void expireEntry(ChunkEntry entry) {
+        if (removeEntry(entry)) {
+            expiredMessages.inc();
+            expiredChunks.inc(entry.chunkSlotsWritten.get());
+            releaseChunks(entry);
+        }
     }
 
     private boolean isOutdated(ChunkEntry entry) {
         return (Tools.nowUTC().getMillis() - entry.firstTimestamp) > VALIDITY_PERIOD;
     }
 
-    private ChunkEntry getAndCleanupEntry(String id) {
-        final ChunkEntry entry = chunks.remove(id);
-        sortedEvictionSet.remove(entry);
+    /**
+     * Removes the entry from the chunk map and the expiry wheel. Only one caller wins if an entry is completed,
+     * expired or evicted concurrently.
+     *
+     * @return {@code true} if the caller removed the entry and is responsible for its chunks
+     */
+    private boolean removeEntry(ChunkEntry entry) {
+        if (!chunks.remove(entry.id, entry)) {
+            return false;
+        }
+        bucketFor(entry).remove(entry);
         waitingMessages.dec();
-        return entry;
+        return true;
+    }
+
+    private static long tick(long millis) {
+        return millis / CHECK_PERIOD;
+    }
+
+    private Set<ChunkEntry> bucketFor(ChunkEntry entry) {
+        return bucketFor(tick(entry.firstTimestamp));
+    }
+
+    private Set<ChunkEntry> bucketFor(long tick) {
+        return expiryWheel.get((int) Math.floorMod(tick, (long) WHEEL_SIZE));
     }
 
     private String humanReadableChunkMap() {
@@ -215,8 +384,8 @@ public class GelfChunkAggregator implements CodecAggregator {
             sb.append("Message <").append(entry.getKey()).append("> ");
             sb.append("\tChunks:\n");
             for (int i = 0; i < entry.getValue().payloadArray.length(); i++) {
-                final GELFMessageChunk chunk = entry.getValue().payloadArray.get(i);
-                sb.append("\t\t").append(chunk == null ? "<not arrived yet>" : chunk).append("\n");
+                final ByteBuf chunk = entry.getValue().payloadArray.get(i);
+                sb.append("\t\t").append(chunk == null ? "<not arrived yet>" : chunk.readableBytes() + " bytes").append("\n");
             }
         }
 
@@ -227,8 +396,9 @@ public class GelfChunkAggregator implements CodecAggregator {
     static class ChunkEntry implements Comparable<ChunkEntry> {
         protected final AtomicInteger chunkSlotsWritten = new AtomicInteger(0);
         protected final long firstTimestamp;
-        protected final AtomicReferenceArray<GELFMessageChunk> payloadArray;
+        protected final AtomicReferenceArray<ByteBuf> payloadArray;
         protected final String id;
+        protected volatile boolean released = false;
 
         public ChunkEntry(int chunkCount, long firstTimestamp, String id) {
             this.payloadArray = new AtomicReferenceArray<>(chunkCount);
@@ -260,8 +430,7 @@ public class GelfChunkAggregator implements CodecAggregator {
             if (equals(o)) {
                 return 0;
             }
-            // If two chunk entries have the same timestamp, we have to compare the IDs. Otherwise the removal from
-            // the eviction set might not work and leak memory.
+            // If two chunk entries have the same timestamp, we have to compare the IDs.
             // See: https://github.com/Graylog2/graylog2-server/issues/1462
             if (firstTimestamp == o.firstTimestamp) {
                 return id.compareTo(o.id);
@@ -281,24 +450,23 @@ public class GelfChunkAggregator implements CodecAggregator {
 
     @VisibleForTesting
     class ChunkEvictionTask implements Runnable {
+        private long nextTick = Long.MIN_VALUE;
+
         @Override
         public void run() {
             try {
-                // loop until we've either evicted all outdated chunk entries, or the set is completely empty.
+                // expire all buckets whose entries are all outdated, at most one full turn of the wheel.
                 // this task will run every second by default (see constant in constructor)
-                while (true) {
-                    // Check if eviction set is empty to avoid a NoElementException when calling first().
-                    if (sortedEvictionSet.isEmpty()) {
-                        break;
-                    }
-                    final ChunkEntry oldestChunkEntry = sortedEvictionSet.first();
-                    if (isOutdated(oldestChunkEntry)) {
-                        expireEntry(oldestChunkEntry.id);
-                    } else {
-                        log.debug("No more outdated chunk entries found to evict, leaving cleanup loop.");
-                        break;
+                final long expiredTick = tick(Tools.nowUTC().getMillis() - VALIDITY_PERIOD);
+                for (long tick = Math.max(nextTick, expiredTick - WHEEL_SIZE); tick < expiredTick; tick++) {
+                    for (final ChunkEntry entry : bucketFor(tick)) {
+                        // entries from a different turn of the wheel (e.g. after clock changes) stay in place
+                        if (isOutdated(entry)) {
+                            expireEntry(entry);
+                        }
                     }
                 }
+                nextTick = expiredTick;
             } catch (Exception e) {
                 // Make sure to never throw an exception out of this runnable, it's being run in an executor.
                 log.warn("Error while expiring GELF chunk entries", e);
@@ -17,18 +17,31 @@
 package org.graylog2.inputs.codecs;
 
 import com.eaio.uuid.UUID;
+import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.BigIntegerNode;
+import com.fasterxml.jackson.databind.node.BooleanNode;
+import com.fasterxml.jackson.databind.node.DoubleNode;
+import com.fasterxml.jackson.databind.node.IntNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.LongNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
 import com.google.inject.assistedinject.Assisted;
 import org.apache.commons.lang3.StringUtils;
 import org.graylog2.inputs.codecs.gelf.GELFMessage;
+import org.graylog2.inputs.codecs.gelf.GELFPayloadInflater;
 import org.graylog2.inputs.transports.TcpTransport;
 import org.graylog2.plugin.Message;
 import org.graylog2.plugin.ResolvableInetSocketAddress;
 import org.graylog2.plugin.Tools;
 import org.graylog2.plugin.configuration.Configuration;
 import org.graylog2.plugin.configuration.ConfigurationRequest;
+import org.graylog2.plugin.configuration.fields.BooleanField;
 import org.graylog2.plugin.configuration.fields.ConfigurationField;
 import org.graylog2.plugin.configuration.fields.NumberField;
 import org.graylog2.plugin.inputs.annotations.Codec;
@@ -45,7 +58,11 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
 import java.util.Map;
 
@@ -54,10 +71,13 @@ public class GelfCodec extends AbstractCodec {
     private static final Logger log = LoggerFactory.getLogger(GelfCodec.class);
     private static final String CK_DECOMPRESS_SIZE_LIMIT = "decompress_size_limit";
     private static final int DEFAULT_DECOMPRESS_SIZE_LIMIT = 8388608;
+    private static final String CK_STREAMING_DECODE = "streaming_decode";
+    private static final int LOGGED_PAYLOAD_CHARS = 400;
 
     private final GelfChunkAggregator aggregator;
     private final ObjectMapper objectMapper;
     private final long decompressSizeLimit;
+    private final boolean streamingDecode;
 
     @Inject
     public GelfCodec(@Assisted Configuration configuration, GelfChunkAggregator aggregator) {
@@ -67,6 +87,7 @@ public class GelfCodec extends AbstractCodec {
             JsonParser.Feature.ALLOW_UNQUOTED_CONTROL_CHARS,
             JsonParser.Feature.ALLOW_TRAILING_COMMA);
         this.decompressSizeLimit = configuration.getInt(CK_DECOMPRESS_SIZE_LIMIT, DEFAULT_DECOMPRESS_SIZE_LIMIT);
+        this.streamingDecode = configuration.getBoolean(CK_STREAMING_DECODE, false);
     }
 
     private static String stringValue(final JsonNode json, final String fieldName) {
@@ -122,20 +143,7 @@ public class GelfCodec extends AbstractCodec {
     @Override
     public Message decode(@Nonnull final RawMessage rawMessage) {
         final GELFMessage gelfMessage = new GELFMessage(rawMessage.getPayload(), rawMessage.getRemoteAddress());
-        final String json = gelfMessage.getJSON(decompressSizeLimit);
-
-        final JsonNode node;
-
-        try {
-            node = objectMapper.readTree(json);
-            if (node == null) {
-                throw new IOException("null result");
-            }
-        } catch (final Exception e) {
-            log.error("Could not parse JSON, first 400 characters: " +
-                    StringUtils.abbreviate(json, 403), e);
-            throw new IllegalStateException("JSON is null/could not be parsed (invalid JSON)", e);
-        }
+        final JsonNode node = streamingDecode ? parseStreaming(gelfMessage) : parseTree(gelfMessage);
 
         try {
             validateGELFMessage(node, rawMessage.getId(), rawMessage.getRemoteAddress());
@@ -238,6 +246,106 @@ public class GelfCodec extends AbstractCodec {
         return message;
     }
 
+    private JsonNode parseTree(GELFMessage gelfMessage) {
+        final String json = gelfMessage.getJSON(decompressSizeLimit);
+
+        try {
+            final JsonNode node = objectMapper.readTree(json);
+            if (node == null) {
+                throw new IOException("null result");
+            }
+            return node;
+        } catch (final Exception e) {
+            log.error("Could not parse JSON, first 400 characters: " +
+                    StringUtils.abbreviate(json, LOGGED_PAYLOAD_CHARS + 3), e);
+            throw new IllegalStateException("JSON is null/could not be parsed (invalid JSON)", e);
+        }
+    }
+
+    /**
+     * Parses the (decompressed) payload with a token stream instead of creating a string and a full tree.
+     *
+     * The top-level values are collected into a flat object of value nodes because the mandatory and standard fields
+     * have to be validated and set before the additional fields, no matter in which order they appear. Only nested
+     * objects and arrays are read as trees, because they are stored as JSON strings anyway.
+     */
+    private JsonNode parseStreaming(GELFMessage gelfMessage) {
+        try {
+            return GELFPayloadInflater.inflate(gelfMessage, decompressSizeLimit, (buffer, offset, length) -> {
+                try {
+                    return parseFields(buffer, offset, length);
+                } catch (final Exception e) {
+                    final String json = new String(buffer, offset, Math.min(length, (LOGGED_PAYLOAD_CHARS + 3) * 4), StandardCharsets.UTF_8);
+                    log.error("Could not parse JSON, first 400 characters: " +
+                            StringUtils.abbreviate(json, LOGGED_PAYLOAD_CHARS + 3), e);
+                    throw new IllegalStateException("JSON is null/could not be parsed (invalid JSON)", e);
+                }
+            });
+        } catch (final IOException e) {
+            throw new IllegalStateException("Failed to decompress the GELF message payload", e);
+        }
+    }
+
+    private JsonNode parseFields(byte[] buffer, int offset, int length) throws IOException {
+        try (final JsonParser parser = objectMapper.getFactory().createParser(buffer, offset, length)) {
+            return parseFields(parser);
+        } catch (final JsonParseException e) {
+            // The byte parser rejects invalid UTF-8 sequences. Parse the payload again with a reader which replaces
+            // them like the string decoding of the tree mode does, invalid JSON fails again.
+            final Reader reader = new InputStreamReader(new ByteArrayInputStream(buffer, offset, length), StandardCharsets.UTF_8);
+            try (final JsonParser parser = objectMapper.getFactory().createParser(reader)) {
+                return parseFields(parser);
+            }
+        }
+    }
+
+    private JsonNode parseFields(JsonParser parser) throws IOException {
+        final JsonToken start = parser.nextToken();
+        if (start == null) {
+            throw new IOException("null result");
+        }
+
+        final ObjectNode node = JsonNodeFactory.instance.objectNode();
+        if (start != JsonToken.START_OBJECT) {
+            // Not a GELF message, the validation will reject it because of the missing mandatory fields
+            parser.skipChildren();
+            return node;
+        }
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String key = parser.getCurrentName();
+            node.set(key, valueNode(parser, parser.nextToken()));
+        }
+        return node;
+    }
+
+    private JsonNode valueNode(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+            case VALUE_STRING:
+                return TextNode.valueOf(parser.getText());
+            case VALUE_NUMBER_INT:
+                switch (parser.getNumberType()) {
+                    case INT:
+                        return IntNode.valueOf(parser.getIntValue());
+                    case LONG:
+                        return LongNode.valueOf(parser.getLongValue());
+                    default:
+                        return BigIntegerNode.valueOf(parser.getBigIntegerValue());
+                }
+            case VALUE_NUMBER_FLOAT:
+                return DoubleNode.valueOf(parser.getDoubleValue());
+            case VALUE_TRUE:
+                return BooleanNode.TRUE;
+            case VALUE_FALSE:
+                return BooleanNode.FALSE;
+            case VALUE_NULL:
+                return NullNode.getInstance();
+            default:
+                // Objects and arrays
+                return objectMapper.readTree(parser);
+        }
+    }
+
     private void validateGELFMessage(JsonNode jsonNode, UUID id, ResolvableInetSocketAddress remoteAddress) {
         final String prefix = "GELF message <" + id + "> " + (remoteAddress == null ? "" : "(received from <" + remoteAddress + ">) ");
 
@@ -308,6 +416,11 @@ public class GelfCodec extends AbstractCodec {
                 DEFAULT_DECOMPRESS_SIZE_LIMIT,
                 "The maximum number of bytes after decompression.",
                 ConfigurationField.Optional.OPTIONAL));
+            requestedConfiguration.addField(new BooleanField(
+                CK_STREAMING_DECODE,
+                "Streaming decode",
+                false,
+                "Decompress and parse messages with reusable buffers and a streaming JSON parser to reduce memory allocations."));
 
             return requestedConfiguration;
         }
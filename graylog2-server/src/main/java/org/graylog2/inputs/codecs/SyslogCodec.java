@@ -54,7 +54,6 @@ import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.regex.Pattern;
 
 import static com.codahale.metrics.MetricRegistry.name;
 import static com.google.common.base.Strings.isNullOrEmpty;
@@ -62,10 +61,6 @@ import static com.google.common.base.Strings.isNullOrEmpty;
 @Codec(name = "syslog", displayName = "Syslog")
 public class SyslogCodec extends AbstractCodec {
     private static final Logger LOG = LoggerFactory.getLogger(SyslogCodec.class);
-    private static final Pattern STRUCTURED_SYSLOG_PATTERN = Pattern.compile("<\\d{1,3}>[0-9]\\d{0,2}\\s.*", Pattern.DOTALL);
-    private static final Pattern CISCO_WITH_SEQUENCE_NUMBERS_PATTERN = Pattern.compile("<\\d{1,3}>\\d*:\\s.*", Pattern.DOTALL);
-    private static final Pattern FORTIGATE_PATTERN = Pattern.compile("<\\d{1,3}>date=.*", Pattern.DOTALL);
-
     static final String CK_FORCE_RDNS = "force_rdns";
     static final String CK_ALLOW_OVERRIDE_DATE = "allow_override_date";
     static final String CK_EXPAND_STRUCTURED_DATA = "expand_structured_data";
@@ -84,7 +79,6 @@ public class SyslogCodec extends AbstractCodec {
     @Nullable
     @Override
     public Message decode(@Nonnull RawMessage rawMessage) {
-        final String msg = new String(rawMessage.getPayload(), StandardCharsets.UTF_8);
         try (Timer.Context ignored = this.decodeTime.time()) {
             final ResolvableInetSocketAddress address = rawMessage.getRemoteAddress();
             final InetSocketAddress remoteAddress;
@@ -93,11 +87,32 @@ public class SyslogCodec extends AbstractCodec {
             } else {
                 remoteAddress = address.getInetSocketAddress();
             }
-            return parse(msg, remoteAddress == null ? null : remoteAddress.getAddress(), rawMessage.getTimestamp());
+            return parse(rawMessage.getPayload(), remoteAddress == null ? null : remoteAddress.getAddress(), rawMessage.getTimestamp());
+        }
+    }
+
+    private Message parse(byte[] payload, InetAddress remoteAddress, DateTime receivedTimestamp) {
+        final FastSyslogParser.Dialect dialect = FastSyslogParser.classify(payload);
+        if (dialect == FastSyslogParser.Dialect.UNSTRUCTURED) {
+            final FastSyslogParser.ParsedMessage parsed = FastSyslogParser.parseUnstructured(payload);
+            if (parsed != null) {
+                final Message m = new Message(parsed.message, parseHost(parsed.host, remoteAddress), parsed.timestamp);
+                m.addField("facility", Tools.syslogFacilityToReadable(parsed.facility));
+                m.addField("level", parsed.level);
+                m.addField("facility_num", parsed.facility);
+
+                // Store full message if configured.
+                if (configuration.getBoolean(CK_STORE_FULL_MESSAGE)) {
+                    m.addField("full_message", new String(payload, StandardCharsets.UTF_8));
+                }
+                return m;
+            }
         }
+
+        return parse(new String(payload, StandardCharsets.UTF_8), dialect, remoteAddress, receivedTimestamp);
     }
 
-    private Message parse(String msg, InetAddress remoteAddress, DateTime receivedTimestamp) {
+    private Message parse(String msg, FastSyslogParser.Dialect dialect, InetAddress remoteAddress, DateTime receivedTimestamp) {
         /*
          * ZOMG funny 80s neckbeard protocols. We are now deciding if to parse
          * structured (RFC5424) or unstructured (classic BSD, RFC3164) syslog
@@ -122,14 +137,18 @@ public class SyslogCodec extends AbstractCodec {
          */
 
         final SyslogServerEventIF e;
-        if (STRUCTURED_SYSLOG_PATTERN.matcher(msg).matches()) {
-            e = new StructuredSyslogServerEvent(msg, remoteAddress);
-        } else if (CISCO_WITH_SEQUENCE_NUMBERS_PATTERN.matcher(msg).matches()) {
-            e = new CiscoSyslogServerEvent(msg, remoteAddress);
-        } else if (FORTIGATE_PATTERN.matcher(msg).matches()) {
-            e = new FortiGateSyslogEvent(msg);
-        } else {
-            e = new SyslogServerEvent(msg, remoteAddress);
+        switch (dialect) {
+            case STRUCTURED:
+                e = new StructuredSyslogServerEvent(msg, remoteAddress);
+                break;
+            case CISCO:
+                e = new CiscoSyslogServerEvent(msg, remoteAddress);
+                break;
+            case FORTIGATE:
+                e = new FortiGateSyslogEvent(msg);
+                break;
+            default:
+                e = new SyslogServerEvent(msg, remoteAddress);
         }
 
         // If the message is a structured one, we do not want the message ID and the structured data in the
@@ -142,7 +161,7 @@ public class SyslogCodec extends AbstractCodec {
             syslogMessage = e.getMessage();
         }
 
-        final Message m = new Message(syslogMessage, parseHost(e, remoteAddress), parseDate(e, receivedTimestamp));
+        final Message m = new Message(syslogMessage, parseHost(e.getHost(), remoteAddress), parseDate(e, receivedTimestamp));
         m.addField("facility", Tools.syslogFacilityToReadable(e.getFacility()));
         m.addField("level", e.getLevel());
         m.addField("facility_num", e.getFacility());
@@ -191,7 +210,7 @@ public class SyslogCodec extends AbstractCodec {
         }
     }
 
-    private String parseHost(SyslogServerEventIF msg, InetAddress remoteAddress) {
+    private String parseHost(String host, InetAddress remoteAddress) {
         if (remoteAddress != null && configuration.getBoolean(CK_FORCE_RDNS)) {
             try (Timer.Context ignored = this.resolveTime.time()) {
                 return Tools.rdnsLookup(remoteAddress);
@@ -200,7 +219,6 @@ public class SyslogCodec extends AbstractCodec {
             }
         }
 
-        final String host = msg.getHost();
         return isNullOrEmpty(host) && remoteAddress != null ? InetAddresses.toAddrString(remoteAddress) : host;
     }
 
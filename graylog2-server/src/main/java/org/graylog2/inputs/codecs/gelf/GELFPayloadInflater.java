@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.inputs.codecs.gelf;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Decompresses GELF payloads into a per-thread buffer which is reused for subsequent messages, using per-thread
+ * {@link Inflater} instances instead of creating new streams and arrays for every message.
+ *
+ * The decompressed bytes are only valid while the {@link PayloadConsumer} is running.
+ */
+public final class GELFPayloadInflater {
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+    // Larger buffers are not kept for the next message to avoid pinning memory after a single huge message
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+    private static final int MAX_BUFFER_SIZE = Integer.MAX_VALUE - 8;
+
+    private static final int GZIP_HEADER_SIZE = 10;
+    private static final int GZIP_TRAILER_SIZE = 8;
+    private static final int GZIP_DEFLATE = 8;
+    private static final int GZIP_FHCRC = 2;
+    private static final int GZIP_FEXTRA = 4;
+    private static final int GZIP_FNAME = 8;
+    private static final int GZIP_FCOMMENT = 16;
+
+    private static final ThreadLocal<State> STATE = ThreadLocal.withInitial(State::new);
+
+    @FunctionalInterface
+    public interface PayloadConsumer<T> {
+        T accept(byte[] buffer, int offset, int length) throws IOException;
+    }
+
+    private GELFPayloadInflater() {
+    }
+
+    /**
+     * Passes the uncompressed payload of the given GELF message to the consumer.
+     *
+     * @param message  the GELF message
+     * @param maxBytes the maximum number of bytes to read from a compressed GELF payload, the remaining bytes are
+     *                 silently dropped. A negative value means unlimited.
+     * @param consumer the consumer for the uncompressed payload
+     * @return the result of the consumer
+     * @throws IOException           if the payload couldn't be decompressed or the consumer failed
+     * @throws IllegalStateException if the GELF type of the message is not supported
+     * @see GELFMessage#getJSON(long)
+     */
+    public static <T> T inflate(GELFMessage message, long maxBytes, PayloadConsumer<T> consumer) throws IOException {
+        final byte[] payload = message.getPayload();
+        final int limit = (int) Math.min(maxBytes < 0 ? Long.MAX_VALUE : maxBytes, MAX_BUFFER_SIZE);
+
+        switch (message.getGELFType()) {
+            case ZLIB:
+            case GZIP:
+                final State state = STATE.get();
+                try {
+                    final int length = message.getGELFType() == GELFMessage.Type.ZLIB
+                            ? state.inflateZlib(payload, limit)
+                            : state.inflateGzip(payload, limit);
+                    return consumer.accept(state.buffer, 0, length);
+                } catch (DataFormatException e) {
+                    throw new ZipException(e.getMessage());
+                } finally {
+                    state.release();
+                }
+            case UNCOMPRESSED:
+                return consumer.accept(payload, 0, payload.length);
+            case CHUNKED:
+            case UNSUPPORTED:
+            default:
+                throw new IllegalStateException("Unknown GELF type. Not supported.");
+        }
+    }
+
+    private static class State {
+        private final Inflater zlibInflater = new Inflater();
+        private final Inflater gzipInflater = new Inflater(true);
+        private final CRC32 crc = new CRC32();
+        private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+
+        private int inflateZlib(byte[] payload, int limit) throws IOException, DataFormatException {
+            zlibInflater.reset();
+            zlibInflater.setInput(payload);
+            return inflate(zlibInflater, 0, limit, "ZLIB");
+        }
+
+        private int inflateGzip(byte[] payload, int limit) throws IOException, DataFormatException {
+            int position = 0;
+            int length = 0;
+
+            // A GZIP payload might consist of multiple concatenated members, just like GZIPInputStream we read
+            // all of them.
+            do {
+                position = skipGzipHeader(payload, position);
+
+                gzipInflater.reset();
+                gzipInflater.setInput(payload, position, payload.length - position);
+                final int memberStart = length;
+                length = inflate(gzipInflater, length, limit, "GZIP");
+                if (!gzipInflater.finished()) {
+                    // Reached the size limit
+                    return length;
+                }
+
+                position = payload.length - gzipInflater.getRemaining();
+                if (payload.length - position < GZIP_TRAILER_SIZE) {
+                    throw new EOFException("Unexpected end of GZIP input stream");
+                }
+                crc.reset();
+                crc.update(buffer, memberStart, length - memberStart);
+                if (readIntLE(payload, position) != (int) crc.getValue()
+                        || readIntLE(payload, position + 4) != length - memberStart) {
+                    throw new ZipException("Corrupt GZIP trailer");
+                }
+                position += GZIP_TRAILER_SIZE;
+            } while (length < limit && isGzipMember(payload, position));
+
+            return length;
+        }
+
+        private int inflate(Inflater inflater, int offset, int limit, String type) throws IOException, DataFormatException {
+            int length = offset;
+            while (length < limit) {
+                if (length == buffer.length) {
+                    grow(limit);
+                }
+                final int count = inflater.inflate(buffer, length, Math.min(buffer.length, limit) - length);
+                length += count;
+                if (count == 0) {
+                    if (inflater.finished()) {
+                        break;
+                    }
+                    if (inflater.needsDictionary()) {
+                        throw new ZipException(type + " dictionary not supported");
+                    }
+                    if (inflater.needsInput()) {
+                        throw new EOFException("Unexpected end of " + type + " input stream");
+                    }
+                }
+            }
+            return length;
+        }
+
+        private void grow(int limit) {
+            final long newSize = Math.min((long) buffer.length * 2, limit);
+            final byte[] newBuffer = new byte[(int) newSize];
+            System.arraycopy(buffer, 0, newBuffer, 0, buffer.length);
+            buffer = newBuffer;
+        }
+
+        private void release() {
+            if (buffer.length > MAX_RETAINED_BUFFER_SIZE) {
+                buffer = new byte[INITIAL_BUFFER_SIZE];
+            }
+        }
+    }
+
+    private static boolean isGzipMember(byte[] payload, int position) {
+        return payload.length - position >= GZIP_HEADER_SIZE
+                && payload[position] == GELFMessage.Type.GZIP.first()
+                && payload[position + 1] == GELFMessage.Type.GZIP.second();
+    }
+
+    private static int skipGzipHeader(byte[] payload, int offset) throws IOException {
+        if (!isGzipMember(payload, offset)) {
+            throw new ZipException("Not in GZIP format");
+        }
+        if (payload[offset + 2] != GZIP_DEFLATE) {
+            throw new ZipException("Unsupported compression method");
+        }
+        final int flags = payload[offset + 3] & 0xff;
+        int position = offset + GZIP_HEADER_SIZE;
+
+        if ((flags & GZIP_FEXTRA) != 0) {
+            checkAvailable(payload, position, 2);
+            position += 2 + ((payload[position] & 0xff) | (payload[position + 1] & 0xff) << 8);
+        }
+        if ((flags & GZIP_FNAME) != 0) {
+            position = skipZeroTerminated(payload, position);
+        }
+        if ((flags & GZIP_FCOMMENT) != 0) {
+            position = skipZeroTerminated(payload, position);
+        }
+        if ((flags & GZIP_FHCRC) != 0) {
+            position += 2;
+        }
+        checkAvailable(payload, position, 0);
+        return position;
+    }
+
+    private static int skipZeroTerminated(byte[] payload, int position) throws EOFException {
+        int i = position;
+        while (i < payload.length && payload[i] != 0) {
+            i++;
+        }
+        checkAvailable(payload, i, 1);
+        return i + 1;
+    }
+
+    private static void checkAvailable(byte[] payload, int position, int count) throws EOFException {
+        if (position + count > payload.length) {
+            throw new EOFException("Unexpected end of GZIP input stream");
+        }
+    }
+
+    private static int readIntLE(byte[] payload, int position) {
+        return (payload[position] & 0xff)
+                | (payload[position + 1] & 0xff) << 8
+                | (payload[position + 2] & 0xff) << 16
+                | (payload[position + 3] & 0xff) << 24;
+    }
+}
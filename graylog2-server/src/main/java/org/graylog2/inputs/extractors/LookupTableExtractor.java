@@ -24,6 +24,8 @@ import org.graylog2.plugin.inputs.Extractor;
 import org.graylog2.plugin.lookup.LookupResult;
 
 import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -33,6 +35,9 @@ public class LookupTableExtractor extends Extractor {
     private final LookupTableService.Function lookupTable;
     public static final String CONFIG_LUT_NAME = "lookup_table_name";
 
+    // results of the batch currently processed by this thread, see prefetch(Collection)
+    private final ThreadLocal<Map<Object, LookupResult>> prefetchedResults = ThreadLocal.withInitial(Collections::emptyMap);
+
     public LookupTableExtractor(final MetricRegistry metricRegistry,
                                 final LookupTableService lookupTableService,
                                 final String id,
@@ -60,10 +65,27 @@ public class LookupTableExtractor extends Extractor {
         this.lookupTable = lookupTableService.newBuilder().lookupTable(lookupTableName).build();
     }
 
+    /**
+     * Looks up the source field values of a batch of messages with a single multi-get, if the data adapter supports
+     * it. The results are used by the following {@link #run(String)} calls of the current thread and replace the
+     * results of the previous batch.
+     *
+     * @param keys the source field values of the batch
+     */
+    public void prefetch(Collection<Object> keys) {
+        prefetchedResults.set(Collections.emptyMap());
+        if (!keys.isEmpty() && lookupTable.supportsMultiGet()) {
+            prefetchedResults.set(lookupTable.lookupAll(keys));
+        }
+    }
+
     @Override
     @Nullable
     protected Result[] run(String sourceFieldValue) {
-        final LookupResult result = lookupTable.lookup(sourceFieldValue);
+        LookupResult result = prefetchedResults.get().get(sourceFieldValue);
+        if (result == null) {
+            result = lookupTable.lookup(sourceFieldValue);
+        }
 
         if (result == null || result.isEmpty()) {
             return null;
@@ -28,11 +28,16 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.inject.assistedinject.Assisted;
 import com.google.inject.assistedinject.AssistedInject;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.InvalidOffsetException;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.errors.AuthorizationException;
 import org.apache.kafka.common.errors.WakeupException;
 import org.apache.kafka.common.serialization.ByteArrayDeserializer;
@@ -71,20 +76,31 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 import java.util.stream.IntStream;
 
 import static com.codahale.metrics.MetricRegistry.name;
+import static org.graylog2.shared.metrics.MetricUtils.safelyRegister;
 
 public class KafkaTransport extends ThrottleableTransport {
     public static final String CK_LEGACY = "legacy_mode";
@@ -97,6 +113,7 @@ public class KafkaTransport extends ThrottleableTransport {
     public static final String CK_OFFSET_RESET = "offset_reset";
     public static final String CK_GROUP_ID = "group_id";
     public static final String CK_CUSTOM_PROPERTIES = "custom_properties";
+    public static final String CK_BATCH_MODE = "batch_mode";
 
     // See https://kafka.apache.org/090/documentation.html for available values for "auto.offset.reset".
     private static final ImmutableMap<String, String> OFFSET_RESET_VALUES = ImmutableMap.of(
@@ -107,6 +124,13 @@ public class KafkaTransport extends ThrottleableTransport {
     private static final String DEFAULT_OFFSET_RESET = "largest";
     private static final String DEFAULT_GROUP_ID = "graylog2";
 
+    // Minimum time between two scaling steps of the batch mode consumers, gives the group time to rebalance
+    private static final long SCALING_COOLDOWN_MS = TimeUnit.SECONDS.toMillis(30);
+    // Time a batch mode consumer without any assigned partitions keeps running
+    private static final long IDLE_CONSUMER_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(1);
+    private static final long LAG_UPDATE_INTERVAL_MS = TimeUnit.SECONDS.toMillis(1);
+    private static final long SHUTDOWN_WRITE_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(2);
+
     private static final Logger LOG = LoggerFactory.getLogger(KafkaTransport.class);
 
     private final Configuration configuration;
@@ -120,6 +144,10 @@ public class KafkaTransport extends ThrottleableTransport {
     private final AtomicLong lastSecBytesRead = new AtomicLong(0);
     private final AtomicLong lastSecBytesReadTmp = new AtomicLong(0);
     private final ExecutorService executor;
+    private final AtomicInteger activeConsumers = new AtomicInteger(0);
+    private final AtomicInteger consumerIds = new AtomicInteger(0);
+    private final AtomicLong lastScalingStep = new AtomicLong(0);
+    private final Map<TopicPartition, Long> partitionLags = new ConcurrentHashMap<>();
 
     private volatile boolean stopped = false;
     private volatile boolean paused = true;
@@ -239,6 +267,15 @@ public class KafkaTransport extends ThrottleableTransport {
 
         insertCustomProperties(props);
 
+        if (configuration.getBoolean(CK_BATCH_MODE, false)) {
+            // Offsets are committed by the consumer threads after their batches have been written to the journal
+            props.put("enable.auto.commit", "false");
+            // Batch mode consumers are started on demand, the latch is released when the last one has stopped
+            stopLatch = new CountDownLatch(1);
+            startBatchConsumer(props, input);
+            return;
+        }
+
         final int numThreads = configuration.getInt(CK_THREADS);
         // this is being used during shutdown to first stop all submitted jobs before committing the offsets back to zookeeper
         // and then shutting down the connection.
@@ -337,6 +374,311 @@ public class KafkaTransport extends ThrottleableTransport {
         }
     }
 
+    private void startBatchConsumer(Properties props, MessageInput input) {
+        final BatchConsumerRunnable consumerRunnable = new BatchConsumerRunnable(props, input, consumerIds.getAndIncrement());
+        activeConsumers.incrementAndGet();
+        try {
+            executor.submit(consumerRunnable);
+        } catch (RejectedExecutionException e) {
+            activeConsumers.decrementAndGet();
+            consumerRunnable.consumer.close(Duration.ZERO);
+            throw e;
+        }
+    }
+
+    private boolean claimScalingStep() {
+        final long now = System.currentTimeMillis();
+        final long last = lastScalingStep.get();
+        return now - last >= SCALING_COOLDOWN_MS && lastScalingStep.compareAndSet(last, now);
+    }
+
+    private boolean tryRetireConsumer() {
+        // The last consumer keeps running, otherwise nobody would pick up new partitions
+        int active;
+        do {
+            active = activeConsumers.get();
+            if (active <= 1) {
+                return false;
+            }
+        } while (!activeConsumers.compareAndSet(active, active - 1));
+        return true;
+    }
+
+    private static String lagMetricName(TopicPartition partition) {
+        return name("records_lag", partition.topic(), String.valueOf(partition.partition()));
+    }
+
+    /**
+     * Consumer for the batch mode. Every poll is handed to the input buffer as one batch and the offsets of a batch
+     * are only committed after all of its messages have been written to the journal.
+     *
+     * The number of consumers follows the partitions: a consumer with more than one assigned partition starts another
+     * one (up to the configured number of threads), and a consumer without partitions stops after a while.
+     */
+    private class BatchConsumerRunnable implements Runnable {
+        private final MessageInput input;
+        private final Properties props;
+        private final KafkaConsumer<byte[], byte[]> consumer;
+        private final CountDownLatch consumerStopLatch;
+        // Only accessed by the consumer thread, the journal only counts down the batches
+        private final Deque<PendingBatch> pendingBatches = new ArrayDeque<>();
+        private long idleSince = 0;
+        private long lastLagUpdate = 0;
+
+        public BatchConsumerRunnable(Properties props, MessageInput input, int consumerId) {
+            this.input = input;
+            this.props = props;
+            this.consumerStopLatch = stopLatch;
+            final Properties nprops = (Properties) props.clone();
+            nprops.put("client.id", "gl2-" + nodeId.getShortNodeId() + "-" + input.getId() + "-" + consumerId);
+            consumer = new KafkaConsumer<>(nprops);
+            //noinspection ConstantConditions
+            consumer.subscribe(Pattern.compile(configuration.getString(CK_TOPIC_FILTER)), new RebalanceListener());
+        }
+
+        private void consumeRecords(ConsumerRecords<byte[], byte[]> consumerRecords) {
+            if (paused) {
+                // we try not to spin here, so we wait until the lifecycle goes back to running.
+                LOG.debug("Message processing is paused, blocking until message processing is turned back on.");
+                Uninterruptibles.awaitUninterruptibly(pausedLatch);
+            }
+            // the offsets of a batch which hasn't been handed over are not committed, it will be consumed again
+            if (stopped) {
+                return;
+            }
+            if (isThrottled()) {
+                blockUntilUnthrottled();
+            }
+
+            final Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+            final List<RawMessage> rawMessages = new ArrayList<>(consumerRecords.count());
+            for (final TopicPartition partition : consumerRecords.partitions()) {
+                final List<ConsumerRecord<byte[], byte[]>> records = consumerRecords.records(partition);
+                for (final ConsumerRecord<byte[], byte[]> record : records) {
+                    final byte[] bytes = record.value();
+
+                    // it is possible that the message is null
+                    if (bytes == null) {
+                        continue;
+                    }
+                    totalBytesRead.addAndGet(bytes.length);
+                    lastSecBytesReadTmp.addAndGet(bytes.length);
+
+                    rawMessages.add(new RawMessage(bytes));
+                }
+                offsets.put(partition, new OffsetAndMetadata(records.get(records.size() - 1).offset() + 1));
+            }
+
+            final PendingBatch batch = new PendingBatch(offsets, rawMessages.size());
+            for (final RawMessage rawMessage : rawMessages) {
+                rawMessage.setWriteCallback(batch::messageWritten);
+            }
+            pendingBatches.add(batch);
+            input.processRawMessages(rawMessages);
+        }
+
+        private void commitWrittenBatches(boolean sync) {
+            // Without the journal batches can be completed out of order, so only the written head of the queue counts
+            final Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+            while (!pendingBatches.isEmpty() && pendingBatches.peek().isWritten()) {
+                offsets.putAll(pendingBatches.poll().offsets);
+            }
+            offsets.keySet().retainAll(consumer.assignment());
+            if (offsets.isEmpty()) {
+                return;
+            }
+
+            if (sync) {
+                consumer.commitSync(offsets, Duration.ofSeconds(2));
+            } else {
+                consumer.commitAsync(offsets, (committed, e) -> {
+                    if (e != null) {
+                        LOG.warn("Couldn't commit offsets {}, messages might be consumed again.", committed, e);
+                    }
+                });
+            }
+        }
+
+        private void updatePartitionLags() {
+            final long now = System.currentTimeMillis();
+            if (now - lastLagUpdate < LAG_UPDATE_INTERVAL_MS) {
+                return;
+            }
+            lastLagUpdate = now;
+
+            // The consumer metrics replace dots in topic names with underscores
+            final Map<String, TopicPartition> assigned = new HashMap<>();
+            for (final TopicPartition partition : consumer.assignment()) {
+                assigned.put(partition.topic().replace('.', '_') + "-" + partition.partition(), partition);
+            }
+            for (final Map.Entry<MetricName, ? extends Metric> entry : consumer.metrics().entrySet()) {
+                final MetricName metricName = entry.getKey();
+                if (!"records-lag".equals(metricName.name()) || !"consumer-fetch-manager-metrics".equals(metricName.group())) {
+                    continue;
+                }
+                final TopicPartition partition = assigned.get(metricName.tags().get("topic") + "-" + metricName.tags().get("partition"));
+                final Object value = entry.getValue().metricValue();
+                if (partition != null && value instanceof Number && !Double.isNaN(((Number) value).doubleValue())) {
+                    partitionLags.put(partition, ((Number) value).longValue());
+                }
+            }
+        }
+
+        private boolean scaleConsumers() {
+            final Set<TopicPartition> assignment = consumer.assignment();
+            if (assignment.isEmpty()) {
+                final long now = System.currentTimeMillis();
+                if (idleSince == 0) {
+                    idleSince = now;
+                } else if (now - idleSince >= IDLE_CONSUMER_TIMEOUT_MS && activeConsumers.get() > 1
+                        && claimScalingStep() && tryRetireConsumer()) {
+                    LOG.debug("Stopping idle Kafka consumer, {} consumers left.", activeConsumers.get());
+                    return true;
+                }
+                return false;
+            }
+
+            idleSince = 0;
+            if (!stopped && assignment.size() > 1 && activeConsumers.get() < configuration.getInt(CK_THREADS) && claimScalingStep()) {
+                try {
+                    startBatchConsumer(props, input);
+                    LOG.debug("Started additional Kafka consumer for {} assigned partitions.", assignment.size());
+                } catch (KafkaException | RejectedExecutionException e) {
+                    LOG.warn("Couldn't start additional Kafka consumer.", e);
+                }
+            }
+            return false;
+        }
+
+        private Optional<ConsumerRecords<byte[], byte[]>> tryPoll() {
+            try {
+                final ConsumerRecords<byte[], byte[]> consumerRecords = consumer.poll(Duration.ofSeconds(1));
+
+                return Optional.of(consumerRecords);
+            } catch (WakeupException e) {
+                LOG.error("WakeupException in poll.");
+            } catch (InvalidOffsetException | AuthorizationException e) {
+                LOG.error("Exception in poll.", e);
+            }
+            return Optional.empty();
+        }
+
+        @Override
+        public void run() {
+            boolean retired = false;
+            try {
+                while (!stopped) {
+                    final Optional<ConsumerRecords<byte[], byte[]>> consumerRecords;
+                    try {
+                        commitWrittenBatches(false);
+                        consumerRecords = tryPoll();
+                        if (!consumerRecords.isPresent()) {
+                            LOG.error("Caught recoverable exception. Retrying");
+                            Thread.sleep(2000);
+                            continue;
+                        }
+                    } catch (KafkaException | InterruptedException e) {
+                        LOG.error("Caught unrecoverable exception in poll. Stopping input", e);
+                        stopped = true;
+                        break;
+                    }
+                    try {
+                        updatePartitionLags();
+                        if (!consumerRecords.get().isEmpty()) {
+                            consumeRecords(consumerRecords.get());
+                        }
+                        if (scaleConsumers()) {
+                            retired = true;
+                            break;
+                        }
+                    } catch (Exception e) {
+                        LOG.error("Exception in consumer thread. Stopping input", e);
+                        stopped = true;
+                        break;
+                    }
+                }
+                close();
+            } finally {
+                if (!retired && activeConsumers.decrementAndGet() == 0 && consumerStopLatch != null) {
+                    consumerStopLatch.countDown();
+                }
+            }
+        }
+
+        private void close() {
+            // give the journal a moment to write the batches in flight, everything else will be consumed again
+            final long deadline = System.currentTimeMillis() + SHUTDOWN_WRITE_TIMEOUT_MS;
+            while (!pendingBatches.isEmpty() && !pendingBatches.getLast().isWritten() && System.currentTimeMillis() < deadline) {
+                Uninterruptibles.sleepUninterruptibly(50, TimeUnit.MILLISECONDS);
+            }
+            try {
+                commitWrittenBatches(true);
+            } catch (KafkaException e) {
+                LOG.warn("Couldn't commit offsets when stopping consumer, messages might be consumed again.", e);
+            }
+            removePartitionLags(consumer.assignment());
+            consumer.close(Duration.ofSeconds(5));
+        }
+
+        private void removePartitionLags(Collection<TopicPartition> partitions) {
+            for (final TopicPartition partition : partitions) {
+                partitionLags.remove(partition);
+                localRegistry.remove(lagMetricName(partition));
+            }
+        }
+
+        private void forgetPartitions(Collection<TopicPartition> partitions) {
+            for (final PendingBatch batch : pendingBatches) {
+                batch.offsets.keySet().removeAll(partitions);
+            }
+            removePartitionLags(partitions);
+        }
+
+        private class RebalanceListener implements ConsumerRebalanceListener {
+            @Override
+            public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+                try {
+                    commitWrittenBatches(true);
+                } catch (KafkaException e) {
+                    LOG.warn("Couldn't commit offsets of revoked partitions, messages might be consumed again.", e);
+                }
+                // batches in flight are consumed again by the new owner of the partition
+                forgetPartitions(partitions);
+            }
+
+            @Override
+            public void onPartitionsLost(Collection<TopicPartition> partitions) {
+                // the partitions might already be owned by another consumer, so we must not commit them
+                forgetPartitions(partitions);
+            }
+
+            @Override
+            public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+                for (final TopicPartition partition : partitions) {
+                    safelyRegister(localRegistry, lagMetricName(partition), (Gauge<Long>) () -> partitionLags.getOrDefault(partition, 0L));
+                }
+            }
+        }
+    }
+
+    private static class PendingBatch {
+        private final Map<TopicPartition, OffsetAndMetadata> offsets;
+        private final AtomicInteger remaining;
+
+        private PendingBatch(Map<TopicPartition, OffsetAndMetadata> offsets, int size) {
+            this.offsets = offsets;
+            this.remaining = new AtomicInteger(size);
+        }
+
+        private void messageWritten() {
+            remaining.decrementAndGet();
+        }
+
+        private boolean isWritten() {
+            return remaining.get() <= 0;
+        }
+    }
+
     private void doLaunchLegacy(final MessageInput input) {
         final Properties props = new Properties();
 
@@ -525,6 +867,14 @@ public class KafkaTransport extends ThrottleableTransport {
                     "Host and port of the ZooKeeper that is managing your Kafka cluster. Not used in consumer API (non-legacy) mode.",
                     ConfigurationField.Optional.OPTIONAL,
                     12));
+            cr.addField(new BooleanField(CK_BATCH_MODE,
+                    "Batch mode",
+                    false,
+                    "Hand every poll to the input buffer as a batch and commit offsets only after the batch has been written " +
+                            "to the journal. The number of consumers scales with the assigned partitions, up to the number of " +
+                            "processor threads. Not used in legacy mode.",
+                    13
+            ));
             cr.addField(new TextField(
                     CK_TOPIC_FILTER,
                     "Topic filter regex",
@@ -550,7 +900,8 @@ public class KafkaTransport extends ThrottleableTransport {
                     CK_THREADS,
                     "Processor threads",
                     2,
-                    "Number of processor threads to spawn. Use one thread per Kafka topic partition.",
+                    "Number of processor threads to spawn. Use one thread per Kafka topic partition. " +
+                            "Maximum number of consumers in batch mode.",
                     ConfigurationField.Optional.NOT_OPTIONAL));
 
             cr.addField(new DropdownField(
@@ -42,17 +42,22 @@ public class CachePurge implements LookupCachePurge {
     public void purgeAll() {
         // Collect related caches on every call to improve the chance that we get all of them
         caches().forEach(cache -> cache.purge(LookupCacheKey.prefix(adapter)));
+        tables().forEach(LookupTable::purgeSharedCache);
     }
 
     @Override
     public void purgeKey(Object key) {
         // Collect related caches on every call to improve the chance that we get all of them
         caches().forEach(cache -> cache.purge(LookupCacheKey.create(adapter, key)));
+        tables().forEach(table -> table.purgeSharedCache(key));
     }
 
     private Stream<LookupCache> caches() {
+        return tables().map(LookupTable::cache);
+    }
+
+    private Stream<LookupTable> tables() {
         return tables.values().stream()
-                .filter(table -> table.dataAdapter().id().equals(adapter.id()))
-                .map(LookupTable::cache);
+                .filter(table -> table.dataAdapter().id().equals(adapter.id()));
     }
 }
@@ -23,10 +23,17 @@ import org.graylog2.plugin.lookup.LookupCache;
 import org.graylog2.plugin.lookup.LookupCacheKey;
 import org.graylog2.plugin.lookup.LookupDataAdapter;
 import org.graylog2.plugin.lookup.LookupResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 import static com.google.common.collect.Streams.stream;
@@ -34,11 +41,13 @@ import static com.google.common.collect.Streams.stream;
 /**
  * A LookupTable references a {@link LookupCache} and a {@link LookupDataAdapter}, which both have their own lifecycle.
  * <p>
- * Multiple lookup tables can use the same caches and adapters.
+ * Multiple lookup tables can use the same caches and adapters. If a {@link SharedLookupCache} is set, it is consulted
+ * between the cache and the data adapter.
  */
 @AutoValue
 @WithBeanGetter
 public abstract class LookupTable {
+    private static final Logger LOG = LoggerFactory.getLogger(LookupTable.class);
 
     @Nullable
     public abstract String id();
@@ -57,6 +66,9 @@ public abstract class LookupTable {
 
     public abstract LookupDefaultMultiValue defaultMultiValue();
 
+    @Nullable
+    public abstract SharedLookupCache sharedCache();
+
     public static Builder builder() {
         return new AutoValue_LookupTable.Builder();
     }
@@ -70,8 +82,125 @@ public abstract class LookupTable {
 
     @Nullable
     public LookupResult lookup(@Nonnull Object key) {
-        final LookupResult result = cache().get(LookupCacheKey.create(dataAdapter(), key), () -> dataAdapter().get(key));
+        final LookupResult result = cache().get(LookupCacheKey.create(dataAdapter(), key), () -> load(key));
+
+        return withDefaults(result);
+    }
+
+    private LookupResult load(Object key) {
+        final LookupResult sharedResult = getShared(key);
+        if (sharedResult != null) {
+            return sharedResult;
+        }
+        final LookupResult result = dataAdapter().get(key);
+        putShared(key, result);
+        return result;
+    }
+
+    /**
+     * Looks up multiple keys at once. If the data adapter {@link LookupDataAdapter#supportsMultiGet() supports it},
+     * all cache misses are loaded with a single multi-get, otherwise the keys are looked up one at a time. Keys which
+     * are missing from the result of the multi-get, or all keys if it fails, are looked up one at a time as well.
+     *
+     * @param keys the keys to look up
+     * @return the results by key, contains an entry for every given key
+     */
+    public Map<Object, LookupResult> lookupAll(@Nonnull Collection<Object> keys) {
+        final Map<Object, LookupResult> results = new HashMap<>(keys.size());
+        if (!dataAdapter().supportsMultiGet()) {
+            for (Object key : keys) {
+                results.put(key, lookup(key));
+            }
+            return results;
+        }
+
+        final Map<LookupCacheKey, Object> cacheKeys = new HashMap<>(keys.size());
+        for (Object key : keys) {
+            cacheKeys.put(LookupCacheKey.create(dataAdapter(), key), key);
+        }
+        final Map<LookupCacheKey, LookupResult> cachedResults = cache().getAll(cacheKeys.keySet(), missingKeys -> {
+            final Map<LookupCacheKey, LookupResult> loaded = new HashMap<>(missingKeys.size());
+            final List<Object> adapterKeys = new ArrayList<>(missingKeys.size());
+            for (LookupCacheKey cacheKey : missingKeys) {
+                final LookupResult sharedResult = getShared(cacheKeys.get(cacheKey));
+                if (sharedResult != null) {
+                    loaded.put(cacheKey, sharedResult);
+                } else {
+                    adapterKeys.add(cacheKeys.get(cacheKey));
+                }
+            }
+            if (adapterKeys.isEmpty()) {
+                return loaded;
+            }
+
+            Map<Object, LookupResult> values;
+            try {
+                values = dataAdapter().getAll(adapterKeys);
+            } catch (Exception e) {
+                LOG.warn("Multi-get of {} keys failed for data adapter <{}>, looking them up one at a time",
+                        adapterKeys.size(), dataAdapter().name(), e);
+                values = Collections.emptyMap();
+            }
+            for (LookupCacheKey cacheKey : missingKeys) {
+                if (loaded.containsKey(cacheKey)) {
+                    continue;
+                }
+                final Object key = cacheKeys.get(cacheKey);
+                LookupResult value = values.get(key);
+                if (value == null) {
+                    value = dataAdapter().get(key);
+                }
+                putShared(key, value);
+                loaded.put(cacheKey, value);
+            }
+            return loaded;
+        });
+        cacheKeys.forEach((cacheKey, key) -> results.put(key, withDefaults(cachedResults.get(cacheKey))));
+        return results;
+    }
+
+    @Nullable
+    private LookupResult getShared(Object key) {
+        final SharedLookupCache sharedCache = sharedCache();
+        if (sharedCache == null || id() == null) {
+            return null;
+        }
+        return sharedCache.get(id(), dataAdapter().id(), key);
+    }
 
+    private void putShared(Object key, LookupResult result) {
+        final SharedLookupCache sharedCache = sharedCache();
+        if (sharedCache != null && id() != null) {
+            sharedCache.put(id(), dataAdapter().id(), key, result);
+        }
+    }
+
+    /**
+     * Removes all entries of this lookup table from the shared cache.
+     */
+    public void purgeSharedCache() {
+        final SharedLookupCache sharedCache = sharedCache();
+        if (sharedCache != null && id() != null) {
+            sharedCache.purge(id(), dataAdapter().id());
+        }
+    }
+
+    /**
+     * Removes the given key of this lookup table from the shared cache.
+     */
+    public void purgeSharedCache(@Nonnull Object key) {
+        final SharedLookupCache sharedCache = sharedCache();
+        if (sharedCache != null && id() != null) {
+            sharedCache.purge(id(), dataAdapter().id(), key);
+        }
+    }
+
+    private void purge(Object key) {
+        cache().purge(LookupCacheKey.create(dataAdapter(), key));
+        purgeSharedCache(key);
+    }
+
+    private LookupResult withDefaults(LookupResult result) {
         if (result.hasError()) {
             return result;
         }
@@ -84,31 +213,31 @@ public abstract class LookupTable {
 
     public LookupResult setValue(@Nonnull Object key, @Nonnull Object value) {
         final LookupResult result = dataAdapter().setValue(key, value);
-        cache().purge(LookupCacheKey.create(dataAdapter(), key));
+        purge(key);
         return result;
     }
 
     public LookupResult setStringList(@Nonnull Object key, @Nonnull List<String> value) {
         final LookupResult result = dataAdapter().setStringList(key, value);
-        cache().purge(LookupCacheKey.create(dataAdapter(), key));
+        purge(key);
         return result;
     }
 
     public LookupResult addStringList(@Nonnull Object key, @Nonnull List<String> value, boolean keepDuplicates) {
         final LookupResult result = dataAdapter().addStringList(key, value, keepDuplicates);
-        cache().purge(LookupCacheKey.create(dataAdapter(), key));
+        purge(key);
         return result;
     }
 
     public LookupResult removeStringList(@Nonnull Object key, @Nonnull List<String> value) {
         final LookupResult result = dataAdapter().removeStringList(key, value);
-        cache().purge(LookupCacheKey.create(dataAdapter(), key));
+        purge(key);
         return result;
     }
 
     public void clearKey(@Nonnull Object key) {
         dataAdapter().clearKey(key);
-        cache().purge(LookupCacheKey.create(dataAdapter(), key));
+        purge(key);
     }
 
     @AutoValue.Builder
@@ -129,6 +258,8 @@ public abstract class LookupTable {
 
         public abstract Builder defaultMultiValue(LookupDefaultMultiValue defaultMultiValue);
 
+        public abstract Builder sharedCache(@Nullable SharedLookupCache sharedCache);
+
         public abstract LookupTable build();
     }
 }
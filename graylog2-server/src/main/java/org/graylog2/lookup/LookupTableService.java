@@ -23,6 +23,7 @@ import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
 import com.google.common.util.concurrent.AbstractIdleService;
 import com.google.common.util.concurrent.Service;
+import org.graylog2.lookup.caches.NullCache;
 import org.graylog2.lookup.dto.CacheDto;
 import org.graylog2.lookup.dto.DataAdapterDto;
 import org.graylog2.lookup.dto.LookupTableDto;
@@ -47,6 +48,7 @@ import javax.inject.Named;
 import javax.inject.Singleton;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -83,6 +85,7 @@ public class LookupTableService extends AbstractIdleService {
     private final ScheduledExecutorService scheduler;
     private final EventBus eventBus;
     private final LookupDataAdapterRefreshService adapterRefreshService;
+    private final SharedLookupCache sharedCache;
 
     private final ConcurrentMap<String, LookupTable> liveTables = new ConcurrentHashMap<>();
 
@@ -98,13 +101,15 @@ public class LookupTableService extends AbstractIdleService {
                               Map<String, LookupDataAdapter.Factory> adapterFactories,
                               Map<String, LookupDataAdapter.Factory2> adapterFactories2,
                               @Named("daemonScheduler") ScheduledExecutorService scheduler,
-                              EventBus eventBus) {
+                              EventBus eventBus,
+                              SharedLookupCache sharedCache) {
         this.configService = configService;
         this.cacheFactories = cacheFactories;
         this.adapterFactories = adapterFactories;
         this.adapterFactories2 = adapterFactories2;
         this.scheduler = scheduler;
         this.eventBus = eventBus;
+        this.sharedCache = sharedCache;
         this.adapterRefreshService = new LookupDataAdapterRefreshService(scheduler, liveTables);
     }
 
@@ -129,6 +134,9 @@ public class LookupTableService extends AbstractIdleService {
         adaptersLatch.await();
         cachesLatch.await();
 
+        // warm up the shared cache from the previous run before the tables start to receive lookups
+        sharedCache.load();
+
         createLookupTables();
 
         eventBus.register(this);
@@ -142,6 +150,8 @@ public class LookupTableService extends AbstractIdleService {
         // take all tables offline
         liveTables.clear();
 
+        sharedCache.persist();
+
         // take the caches and adapters offline and de-register their name/id mappings
         liveCaches.forEach((name, cache) -> {
             cache.addListener(new Listener() {
@@ -512,6 +522,8 @@ public class LookupTableService extends AbstractIdleService {
                 .dataAdapter(adapter)
                 .defaultSingleValue(defaultSingleValue)
                 .defaultMultiValue(defaultMultiValue)
+                // tables without a cache of their own always query their data adapter
+                .sharedCache(sharedCache.isEnabled() && !(cache instanceof NullCache) ? sharedCache : null)
                 .build();
         final LookupCache newCache = table.cache();
         final LookupDataAdapter newAdapter = table.dataAdapter();
@@ -638,6 +650,33 @@ public class LookupTableService extends AbstractIdleService {
             return result;
         }
 
+        /**
+         * Looks up multiple keys at once, see {@link LookupTable#lookupAll(Collection)}.
+         *
+         * @param keys the keys to look up
+         * @return the results by key, contains an entry for every given key
+         */
+        public Map<Object, LookupResult> lookupAll(@Nonnull Collection<Object> keys) {
+            final LookupTable lookupTable = lookupTableService.getTable(lookupTableName);
+            if (lookupTable == null) {
+                final Map<Object, LookupResult> results = new HashMap<>(keys.size());
+                keys.forEach(key -> results.put(key, LookupResult.withError()));
+                return results;
+            }
+
+            final Map<Object, LookupResult> results = lookupTable.lookupAll(keys);
+            results.replaceAll((key, result) -> result == null || (!result.hasError() && result.isEmpty()) ? LookupResult.empty() : result);
+            return results;
+        }
+
+        /**
+         * @return {@code true} if the data adapter of the lookup table implements an efficient multi-get
+         */
+        public boolean supportsMultiGet() {
+            final LookupTable lookupTable = lookupTableService.getTable(lookupTableName);
+            return lookupTable != null && lookupTable.dataAdapter().supportsMultiGet();
+        }
+
         private Object requireValidKey(Object key) {
             return requireNonNull(key, "key cannot be null");
         }
@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.lookup;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.joschi.jadconfig.util.Size;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.primitives.Ints;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.graylog2.plugin.lookup.LookupResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Second-tier cache for lookup results which is shared by all lookup tables of a node.
+ *
+ * Results are stored in serialized form, so the size limit is enforced in bytes. Entries are keyed by lookup table ID,
+ * data adapter ID and key, and expire at the TTL of their {@link LookupResult}. Results without a TTL are not stored,
+ * they would never expire. The content is written to disk on shutdown and loaded again on startup, so a restarted
+ * node doesn't have to query all data adapters at once.
+ */
+@Singleton
+public class SharedLookupCache {
+    private static final Logger LOG = LoggerFactory.getLogger(SharedLookupCache.class);
+
+    private static final String CACHE_FILE = "shared-lookup-cache.bin.gz";
+    private static final int FILE_MAGIC = 0x474c4c43; // "GLLC"
+    private static final int FILE_VERSION = 1;
+    // Approximate per-entry overhead of the cache, the entry object and the key string
+    private static final int ENTRY_OVERHEAD = 96;
+    private static final char SEPARATOR = '\u0000';
+
+    private final boolean enabled;
+    private final Path directory;
+    private final ObjectMapper objectMapper;
+    private final Clock clock;
+    private final Cache<String, Entry> cache;
+
+    private final Counter hits;
+    private final Counter misses;
+
+    @Inject
+    public SharedLookupCache(@Named("lookup_shared_cache_enabled") boolean enabled,
+                             @Named("lookup_shared_cache_max_size") Size maxSize,
+                             @Named("lookup_shared_cache_dir") Path directory,
+                             ObjectMapper objectMapper,
+                             MetricRegistry metricRegistry) {
+        this(enabled, maxSize, directory, objectMapper, metricRegistry, Clock.systemUTC());
+    }
+
+    @VisibleForTesting
+    SharedLookupCache(boolean enabled,
+                      Size maxSize,
+                      Path directory,
+                      ObjectMapper objectMapper,
+                      MetricRegistry metricRegistry,
+                      Clock clock) {
+        this.enabled = enabled;
+        this.directory = directory;
+        this.objectMapper = objectMapper;
+        this.clock = clock;
+        this.hits = metricRegistry.counter(name(SharedLookupCache.class, "hits"));
+        this.misses = metricRegistry.counter(name(SharedLookupCache.class, "misses"));
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(enabled ? maxSize.toBytes() : 0)
+                .weigher((String key, Entry entry) -> Ints.saturatedCast(ENTRY_OVERHEAD + 2L * key.length() + entry.payload.length))
+                .expireAfter(new Expiry<String, Entry>() {
+                    @Override
+                    public long expireAfterCreate(@NonNull String key, @NonNull Entry entry, long currentTime) {
+                        return remainingNanos(entry);
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(@NonNull String key, @NonNull Entry entry, long currentTime, long currentDuration) {
+                        return remainingNanos(entry);
+                    }
+
+                    @Override
+                    public long expireAfterRead(@NonNull String key, @NonNull Entry entry, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    private long remainingNanos(Entry entry) {
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(0, entry.expiresAt - clock.millis()));
+    }
+
+    private static String cacheKey(String tableId, String adapterId, @Nullable Object key) {
+        return tableId + SEPARATOR + adapterId + SEPARATOR + (key == null ? "" : String.valueOf(key));
+    }
+
+    /**
+     * Returns the cached result for the given key. The TTL of the returned result is the remaining time until the
+     * cached entry expires.
+     *
+     * @return the cached result or {@code null} if there is none
+     */
+    @Nullable
+    public LookupResult get(String tableId, String adapterId, Object key) {
+        final String cacheKey = cacheKey(tableId, adapterId, key);
+        final Entry entry = cache.getIfPresent(cacheKey);
+        final long now = clock.millis();
+        if (entry == null || entry.expiresAt <= now) {
+            misses.inc();
+            return null;
+        }
+
+        final LookupResult result;
+        try {
+            result = objectMapper.readValue(entry.payload, LookupResult.class);
+        } catch (IOException e) {
+            LOG.debug("Couldn't deserialize shared lookup cache entry, discarding it", e);
+            cache.invalidate(cacheKey);
+            misses.inc();
+            return null;
+        }
+        hits.inc();
+
+        return LookupResult.createFromJSON(result.singleValue(),
+                result.multiValue(),
+                result.stringListValue(),
+                result.hasError(),
+                entry.expiresAt - now);
+    }
+
+    /**
+     * Stores the given result. Error results and results without a TTL or with a TTL which isn't positive are not
+     * stored.
+     */
+    public void put(String tableId, String adapterId, Object key, LookupResult result) {
+        if (result.hasError() || !result.hasTTL() || result.cacheTTL() <= 0) {
+            return;
+        }
+        final byte[] payload;
+        try {
+            payload = objectMapper.writeValueAsBytes(result);
+        } catch (IOException e) {
+            LOG.debug("Couldn't serialize lookup result for the shared lookup cache", e);
+            return;
+        }
+        final long now = clock.millis();
+        final long expiresAt = result.cacheTTL() < Long.MAX_VALUE - now ? now + result.cacheTTL() : Long.MAX_VALUE;
+        cache.put(cacheKey(tableId, adapterId, key), new Entry(payload, expiresAt));
+    }
+
+    public void purge(String tableId, String adapterId, Object key) {
+        cache.invalidate(cacheKey(tableId, adapterId, key));
+    }
+
+    /**
+     * Removes all entries of the given lookup table and data adapter.
+     */
+    public void purge(String tableId, String adapterId) {
+        final String prefix = tableId + SEPARATOR + adapterId + SEPARATOR;
+        cache.asMap().keySet().removeIf(cacheKey -> cacheKey.startsWith(prefix));
+    }
+
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    /**
+     * Loads the entries which were written by {@link #persist()}. Expired entries are skipped.
+     */
+    public void load() {
+        if (!enabled) {
+            return;
+        }
+        final Path file = directory.resolve(CACHE_FILE);
+        if (!Files.exists(file)) {
+            return;
+        }
+
+        final long now = clock.millis();
+        int loaded = 0;
+        try (final DataInputStream input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+            if (input.readInt() != FILE_MAGIC || input.readInt() != FILE_VERSION) {
+                LOG.warn("Ignoring shared lookup cache file {} with unknown format", file);
+                return;
+            }
+            while (input.readBoolean()) {
+                final String key = new String(readBytes(input), StandardCharsets.UTF_8);
+                final long expiresAt = input.readLong();
+                final byte[] payload = readBytes(input);
+                if (expiresAt > now) {
+                    cache.put(key, new Entry(payload, expiresAt));
+                    loaded++;
+                }
+            }
+            LOG.info("Loaded {} entries into the shared lookup cache from {}", loaded, file);
+        } catch (EOFException e) {
+            LOG.warn("Shared lookup cache file {} is truncated, loaded {} entries", file, loaded);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Couldn't load shared lookup cache from {}: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * Writes all unexpired entries to disk. The file is replaced atomically, so a crash during shutdown doesn't leave
+     * a partial file behind.
+     */
+    public void persist() {
+        if (!enabled) {
+            return;
+        }
+        final Path file = directory.resolve(CACHE_FILE);
+        final long now = clock.millis();
+        int written = 0;
+        try {
+            Files.createDirectories(directory);
+            final Path tempFile = Files.createTempFile(directory, CACHE_FILE, ".tmp");
+            try {
+                try (final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tempFile))))) {
+                    output.writeInt(FILE_MAGIC);
+                    output.writeInt(FILE_VERSION);
+                    for (Map.Entry<String, Entry> entry : cache.asMap().entrySet()) {
+                        if (entry.getValue().expiresAt <= now) {
+                            continue;
+                        }
+                        output.writeBoolean(true);
+                        writeBytes(output, entry.getKey().getBytes(StandardCharsets.UTF_8));
+                        output.writeLong(entry.getValue().expiresAt);
+                        writeBytes(output, entry.getValue().payload);
+                        written++;
+                    }
+                    output.writeBoolean(false);
+                }
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+            LOG.info("Wrote {} entries of the shared lookup cache to {}", written, file);
+        } catch (IOException e) {
+            LOG.warn("Couldn't write shared lookup cache to {}: {}", file, e.getMessage());
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream input) throws IOException {
+        final byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return bytes;
+    }
+
+    private static void writeBytes(DataOutputStream output, byte[] bytes) throws IOException {
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static class Entry {
+        private final byte[] payload;
+        private final long expiresAt;
+
+        private Entry(byte[] payload, long expiresAt) {
+            this.payload = payload;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
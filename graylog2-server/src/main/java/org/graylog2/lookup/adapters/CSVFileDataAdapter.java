@@ -31,6 +31,7 @@ import com.google.common.primitives.Ints;
 import com.google.inject.assistedinject.Assisted;
 import org.graylog.autovalue.WithBeanGetter;
 import org.graylog2.lookup.AllowedAuxiliaryPathChecker;
+import org.graylog2.lookup.adapters.csvfile.MappedLookupIndex;
 import org.graylog2.plugin.lookup.LookupCachePurge;
 import org.graylog2.plugin.lookup.LookupDataAdapter;
 import org.graylog2.plugin.lookup.LookupDataAdapterConfiguration;
@@ -40,6 +41,7 @@ import org.joda.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotEmpty;
@@ -48,6 +50,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -73,9 +76,12 @@ public class CSVFileDataAdapter extends LookupDataAdapter {
     public static final String ALLOWED_PATH_ERROR =
             "The specified CSV file either does not exist or is not in an allowed path.";
 
+    private static final String INDEX_FILE_SUFFIX = ".idx";
+
     private final Config config;
     private final AllowedAuxiliaryPathChecker pathChecker;
     private final AtomicReference<Map<String, String>> lookupRef = new AtomicReference<>(ImmutableMap.of());
+    private final AtomicReference<MappedLookupIndex> indexRef = new AtomicReference<>();
 
     private FileInfo fileInfo = FileInfo.empty();
 
@@ -103,9 +109,13 @@ public class CSVFileDataAdapter extends LookupDataAdapter {
             throw new IllegalStateException("Check interval setting cannot be smaller than 1");
         }
 
+        if (config.isMemoryMappedIndex()) {
+            deleteStaleIndexFiles();
+        }
+
         // Set file info before parsing the data for the first time
         fileInfo = FileInfo.forPath(Paths.get(config.path()));
-        lookupRef.set(parseCSVFile());
+        loadCSVFile();
     }
 
     @Override
@@ -129,7 +139,7 @@ public class CSVFileDataAdapter extends LookupDataAdapter {
             }
 
             LOG.debug("CSV file {} has changed, updating data", config.path());
-            lookupRef.set(parseCSVFile());
+            loadCSVFile();
             cachePurge.purgeAll();
             fileInfo = fileChanged.fileInfo();
             clearError();
@@ -139,10 +149,73 @@ public class CSVFileDataAdapter extends LookupDataAdapter {
         }
     }
 
+    private void loadCSVFile() throws IOException {
+        if (config.isMemoryMappedIndex()) {
+            // Lookups are served from the old index until the new one is complete
+            deleteIndex(indexRef.getAndSet(buildIndex()));
+        } else {
+            lookupRef.set(parseCSVFile());
+        }
+    }
+
     private Map<String, String> parseCSVFile() throws IOException {
+        final ImmutableMap.Builder<String, String> newLookupBuilder = ImmutableMap.builder();
+        parseCSVFile(newLookupBuilder::put);
+        return newLookupBuilder.build();
+    }
+
+    /**
+     * Writes the CSV file into a new index file next to it, so the heap usage doesn't depend on the size of the file.
+     */
+    private MappedLookupIndex buildIndex() throws IOException {
+        final Path csvPath = Paths.get(config.path()).toAbsolutePath();
+        final Path indexPath = Files.createTempFile(csvPath.getParent(), indexFilePrefix(csvPath), INDEX_FILE_SUFFIX);
+        try (final MappedLookupIndex.Writer writer = MappedLookupIndex.writer(indexPath)) {
+            parseCSVFile(writer::put);
+            final MappedLookupIndex index = writer.finish();
+            LOG.debug("Created lookup index {} with {} entries for CSV file {}", indexPath, index.size(), config.path());
+            return index;
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(indexPath);
+            throw e;
+        }
+    }
+
+    private String indexFilePrefix(Path csvPath) {
+        return "." + csvPath.getFileName() + "." + id() + ".";
+    }
+
+    private void deleteIndex(@Nullable MappedLookupIndex index) {
+        if (index == null) {
+            return;
+        }
+        // The mapping of the old index stays valid for concurrent readers until it is garbage collected
+        try {
+            Files.deleteIfExists(index.path());
+        } catch (IOException e) {
+            LOG.warn("Couldn't delete lookup index {} of data adapter <{}>: {}", index.path(), name(), e.getMessage());
+        }
+    }
+
+    private void deleteStaleIndexFiles() {
+        final Path csvPath = Paths.get(config.path()).toAbsolutePath();
+        final String prefix = indexFilePrefix(csvPath);
+        final DirectoryStream.Filter<Path> filter = path -> {
+            final String fileName = path.getFileName().toString();
+            return fileName.startsWith(prefix) && fileName.endsWith(INDEX_FILE_SUFFIX);
+        };
+        try (final DirectoryStream<Path> staleFiles = Files.newDirectoryStream(csvPath.getParent(), filter)) {
+            for (Path staleFile : staleFiles) {
+                Files.deleteIfExists(staleFile);
+            }
+        } catch (IOException e) {
+            LOG.warn("Couldn't delete stale lookup indexes of data adapter <{}>: {}", name(), e.getMessage());
+        }
+    }
+
+    private void parseCSVFile(EntryConsumer consumer) throws IOException {
         final InputStream inputStream = Files.newInputStream(Paths.get(config.path()));
         final InputStreamReader fileReader = new InputStreamReader(inputStream, StandardCharsets.UTF_8);
-        final ImmutableMap.Builder<String, String> newLookupBuilder = ImmutableMap.builder();
 
         try (final CSVReader csvReader = new CSVReader(fileReader, config.separatorAsChar(), config.quotecharAsChar())) {
             int line = 0;
@@ -176,9 +249,9 @@ public class CSVFileDataAdapter extends LookupDataAdapter {
                         throw new IllegalStateException("Couldn't detect column number for key or value - check CSV file format");
                     }
                     if (config.isCaseInsensitiveLookup()) {
-                        newLookupBuilder.put(next[keyColumn].toLowerCase(Locale.ENGLISH), next[valueColumn]);
+                        consumer.accept(next[keyColumn].toLowerCase(Locale.ENGLISH), next[valueColumn]);
                     } else {
-                        newLookupBuilder.put(next[keyColumn], next[valueColumn]);
+                        consumer.accept(next[keyColumn], next[valueColumn]);
                     }
                 }
             }
@@ -187,19 +260,24 @@ public class CSVFileDataAdapter extends LookupDataAdapter {
                     config.separator(), config.quotechar(), config.keyColumn(), config.valueColumn(), e);
             setError(e);
         }
-
-        return newLookupBuilder.build();
     }
 
     @Override
     public void doStop() throws Exception {
         LOG.debug("Stopping CSV data adapter for file: {}", config.path());
+        deleteIndex(indexRef.getAndSet(null));
     }
 
     @Override
     public LookupResult doGet(Object key) {
         final String stringKey = config.isCaseInsensitiveLookup() ? String.valueOf(key).toLowerCase(Locale.ENGLISH) : String.valueOf(key);
-        final String value = lookupRef.get().get(stringKey);
+        final String value;
+        if (config.isMemoryMappedIndex()) {
+            final MappedLookupIndex index = indexRef.get();
+            value = index == null ? null : index.get(stringKey);
+        } else {
+            value = lookupRef.get().get(stringKey);
+        }
 
         if (value == null) {
             return getEmptyResult();
@@ -213,6 +291,10 @@ public class CSVFileDataAdapter extends LookupDataAdapter {
 
     }
 
+    private interface EntryConsumer {
+        void accept(String key, String value) throws IOException;
+    }
+
     public interface Factory extends LookupDataAdapter.Factory<CSVFileDataAdapter> {
         @Override
         CSVFileDataAdapter create(@Assisted("id") String id,
@@ -239,6 +321,7 @@ public class CSVFileDataAdapter extends LookupDataAdapter {
                     .valueColumn("value")
                     .checkInterval(60)
                     .caseInsensitiveLookup(false)
+                    .memoryMappedIndex(false)
                     .build();
         }
     }
@@ -301,6 +384,17 @@ public class CSVFileDataAdapter extends LookupDataAdapter {
             return caseInsensitiveLookup().isPresent() && caseInsensitiveLookup().get();
         }
 
+        /**
+         * If enabled, the CSV file is converted into an index file next to it and lookups are served from a
+         * memory-mapped copy of that index instead of an on-heap map.
+         */
+        @JsonProperty("memory_mapped_index")
+        public abstract Optional<Boolean> memoryMappedIndex();
+
+        public boolean isMemoryMappedIndex() {
+            return memoryMappedIndex().isPresent() && memoryMappedIndex().get();
+        }
+
         public static Builder builder() {
             return new AutoValue_CSVFileDataAdapter_Config.Builder();
         }
@@ -353,6 +447,9 @@ public class CSVFileDataAdapter extends LookupDataAdapter {
             @JsonProperty("case_insensitive_lookup")
             public abstract Builder caseInsensitiveLookup(Boolean caseInsensitiveLookup);
 
+            @JsonProperty("memory_mapped_index")
+            public abstract Builder memoryMappedIndex(Boolean memoryMappedIndex);
+
             public abstract Config build();
         }
     }
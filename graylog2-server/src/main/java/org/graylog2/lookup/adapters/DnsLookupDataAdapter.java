@@ -20,6 +20,7 @@ package org.graylog2.lookup.adapters;
 import com.codahale.metrics.Counter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
+import com.github.benmanes.caffeine.cache.Ticker;
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -30,11 +31,13 @@ import com.google.common.base.Strings;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.assistedinject.Assisted;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.graylog.autovalue.WithBeanGetter;
 import org.graylog2.lookup.adapters.dnslookup.ADnsAnswer;
+import org.graylog2.lookup.adapters.dnslookup.AsyncDnsResultCache;
 import org.graylog2.lookup.adapters.dnslookup.DnsAnswer;
 import org.graylog2.lookup.adapters.dnslookup.DnsClient;
 import org.graylog2.lookup.adapters.dnslookup.DnsLookupType;
@@ -61,6 +64,9 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 public class DnsLookupDataAdapter extends LookupDataAdapter {
@@ -78,25 +84,46 @@ public class DnsLookupDataAdapter extends LookupDataAdapter {
     private static final String TIMER_RESOLVE_DOMAIN_NAME = "resolveDomainNameTime";
     private static final String TIMER_REVERSE_LOOKUP = "reverseLookupTime";
     private static final String TIMER_TEXT_LOOKUP = "textLookupTime";
+    private static final String ASYNC_HITS_COUNTER = "asyncHits";
+    private static final String ASYNC_WAITS_AVOIDED_COUNTER = "asyncWaitsAvoided";
+    private static final String ASYNC_REFRESHES_COUNTER = "asyncRefreshes";
+    private static final String ASYNC_DROPPED_COUNTER = "asyncDroppedRequests";
+    private static final int ASYNC_RESOLVER_THREADS = 4;
+    private static final int ASYNC_QUEUE_SIZE = 10_000;
+    // Returned while a key is resolved in the background. The TTL of zero keeps it out of the lookup table cache.
+    private static final LookupResult ASYNC_PENDING_RESULT = LookupResult.builder().cacheTTL(0).build();
     private DnsClient dnsClient;
     private final Config config;
+    private final String adapterName;
 
     private final Counter errorCounter;
+    private final Counter asyncHitsCounter;
+    private final Counter asyncWaitsAvoidedCounter;
+    private final Counter asyncRefreshesCounter;
+    private final Counter asyncDroppedCounter;
 
     // Timers exist for all request types, so that each can be troubleshot individually.
     private final Timer resolveDomainNameTimer;
     private final Timer reverseLookupTimer;
     private final Timer textLookupTimer;
 
+    private ExecutorService asyncExecutor;
+    private volatile AsyncDnsResultCache asyncResults;
+
     @Inject
     public DnsLookupDataAdapter(@Assisted("dto") DataAdapterDto dto,
                                 MetricRegistry metricRegistry) {
         super(dto, metricRegistry);
         this.config = (Config) dto.config();
+        this.adapterName = dto.name();
         this.errorCounter = metricRegistry.counter(MetricRegistry.name(getClass(), dto.id(), ERROR_COUNTER));
         this.resolveDomainNameTimer = metricRegistry.timer(MetricRegistry.name(getClass(), dto.id(), TIMER_RESOLVE_DOMAIN_NAME));
         this.reverseLookupTimer = metricRegistry.timer(MetricRegistry.name(getClass(), dto.id(), TIMER_REVERSE_LOOKUP));
         this.textLookupTimer = metricRegistry.timer(MetricRegistry.name(getClass(), dto.id(), TIMER_TEXT_LOOKUP));
+        this.asyncHitsCounter = metricRegistry.counter(MetricRegistry.name(getClass(), dto.id(), ASYNC_HITS_COUNTER));
+        this.asyncWaitsAvoidedCounter = metricRegistry.counter(MetricRegistry.name(getClass(), dto.id(), ASYNC_WAITS_AVOIDED_COUNTER));
+        this.asyncRefreshesCounter = metricRegistry.counter(MetricRegistry.name(getClass(), dto.id(), ASYNC_REFRESHES_COUNTER));
+        this.asyncDroppedCounter = metricRegistry.counter(MetricRegistry.name(getClass(), dto.id(), ASYNC_DROPPED_COUNTER));
     }
 
     @Override
@@ -104,11 +131,33 @@ public class DnsLookupDataAdapter extends LookupDataAdapter {
 
         dnsClient = new DnsClient(config.requestTimeout());
         dnsClient.start(config.serverIps());
+
+        if (config.asyncLookupsEnabled()) {
+            // The DNS client blocks until a response arrived, so resolutions run on dedicated threads instead of the
+            // processing threads. Requests beyond the queue capacity are dropped and retried on the next lookup.
+            asyncExecutor = new ThreadPoolExecutor(ASYNC_RESOLVER_THREADS, ASYNC_RESOLVER_THREADS,
+                    0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(ASYNC_QUEUE_SIZE),
+                    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("dns-lookup-" + adapterName + "-%d").build());
+            asyncResults = new AsyncDnsResultCache(this::resolve,
+                    config.hasNegativeTTL() ? config.getNegativeTTLMillis() : -1,
+                    asyncExecutor,
+                    Ticker.systemTicker(),
+                    asyncHitsCounter,
+                    asyncWaitsAvoidedCounter,
+                    asyncRefreshesCounter,
+                    asyncDroppedCounter);
+        }
     }
 
     @Override
     protected void doStop() {
 
+        if (asyncExecutor != null) {
+            asyncExecutor.shutdownNow();
+            asyncExecutor = null;
+            asyncResults = null;
+        }
         dnsClient.stop();
     }
 
@@ -137,6 +186,17 @@ public class DnsLookupDataAdapter extends LookupDataAdapter {
             return getEmptyResult();
         }
 
+        final AsyncDnsResultCache asyncResults = this.asyncResults;
+        if (asyncResults != null) {
+            final LookupResult lookupResult = asyncResults.get(trimmedKey);
+            return lookupResult != null ? lookupResult : ASYNC_PENDING_RESULT;
+        }
+
+        return resolve(trimmedKey);
+    }
+
+    private LookupResult resolve(String trimmedKey) {
+
         LOG.debug("Beginning [{}] DNS resolution for key [{}]", config.lookupType(), trimmedKey);
 
         LookupResult lookupResult;
@@ -190,7 +250,7 @@ public class DnsLookupDataAdapter extends LookupDataAdapter {
         try {
             aDnsAnswers = dnsClient.resolveIPv4AddressForHostname(key.toString(), false);
         } catch (UnknownHostException e) {
-            return LookupResult.empty(); // UnknownHostException is a valid case when the DNS record does not exist. Do not log an error.
+            return getEmptyResult(); // UnknownHostException is a valid case when the DNS record does not exist. Do not log an error.
         } catch (Exception e) {
             LOG.error("Could not resolve [{}] records for hostname [{}]. Cause [{}]", A_RECORD_LABEL, key, ExceptionUtils.getRootCauseOrMessage(e));
             errorCounter.inc();
@@ -385,6 +445,17 @@ public class DnsLookupDataAdapter extends LookupDataAdapter {
         }
     }
 
+    /**
+     * Empty results are cached with the negative TTL, if one is configured.
+     */
+    @Override
+    public LookupResult getEmptyResult() {
+        if (config.hasNegativeTTL()) {
+            return LookupResult.builder().cacheTTL(config.getNegativeTTLMillis()).build();
+        }
+        return super.getEmptyResult();
+    }
+
     @Override
     public void set(Object key, Object value) {
         throw new UnsupportedOperationException();
@@ -411,6 +482,7 @@ public class DnsLookupDataAdapter extends LookupDataAdapter {
                                               .serverIps(Config.DEFAULT_SERVER_IP)
                                               .cacheTTLOverrideEnabled(Config.DEFAULT_CACHE_TTL_OVERRIDE)
                                               .requestTimeout(Config.DEFAULT_TIMEOUT_MILLIS)
+                                              .asyncLookupsEnabled(Config.DEFAULT_ASYNC_LOOKUPS_ENABLED)
                                               .build();
         }
     }
@@ -429,12 +501,16 @@ public class DnsLookupDataAdapter extends LookupDataAdapter {
         private static final String FIELD_LOOKUP_TYPE = "lookup_type";
         private static final String FIELD_REQUEST_TIMEOUT = "request_timeout";
         private static final String FIELD_SERVER_IPS = "server_ips";
+        private static final String FIELD_ASYNC_LOOKUPS_ENABLED = "async_lookups_enabled";
+        private static final String FIELD_NEGATIVE_CACHE_TTL = "negative_cache_ttl";
+        private static final String FIELD_NEGATIVE_CACHE_TTL_UNIT = "negative_cache_ttl_unit";
 
         // Default values
         private static final boolean DEFAULT_CACHE_TTL_OVERRIDE = false;
         private static final DnsLookupType DEFAULT_LOOKUP_TYPE = DnsLookupType.A;
         private static final int DEFAULT_TIMEOUT_MILLIS = 10000;
         private static final String DEFAULT_SERVER_IP = ""; // Intentionally blank
+        private static final boolean DEFAULT_ASYNC_LOOKUPS_ENABLED = false;
 
         @Override
         @JsonProperty(TYPE_FIELD)
@@ -460,6 +536,20 @@ public class DnsLookupDataAdapter extends LookupDataAdapter {
         @JsonProperty(FIELD_CACHE_TTL_OVERRIDE_UNIT)
         public abstract TimeUnit cacheTTLOverrideUnit();
 
+        /**
+         * If enabled, a lookup miss returns the default value right away and the key is resolved in the background.
+         */
+        @JsonProperty(FIELD_ASYNC_LOOKUPS_ENABLED)
+        public abstract boolean asyncLookupsEnabled();
+
+        @Nullable
+        @JsonProperty(FIELD_NEGATIVE_CACHE_TTL)
+        public abstract Long negativeCacheTTL();
+
+        @Nullable
+        @JsonProperty(FIELD_NEGATIVE_CACHE_TTL_UNIT)
+        public abstract TimeUnit negativeCacheTTLUnit();
+
         public static Builder builder() {
             return new AutoValue_DnsLookupDataAdapter_Config.Builder();
         }
@@ -477,6 +567,10 @@ public class DnsLookupDataAdapter extends LookupDataAdapter {
                 errors.put(FIELD_REQUEST_TIMEOUT, "Value cannot be smaller than 1");
             }
 
+            if (negativeCacheTTL() != null && negativeCacheTTL() < 0) {
+                errors.put(FIELD_NEGATIVE_CACHE_TTL, "Value cannot be negative");
+            }
+
             return errors.isEmpty() ? Optional.empty() : Optional.of(errors);
         }
 
@@ -495,6 +589,17 @@ public class DnsLookupDataAdapter extends LookupDataAdapter {
             return cacheTTLOverrideUnit().toMillis(cacheTTLOverride());
         }
 
+        private boolean hasNegativeTTL() {
+
+            return negativeCacheTTL() != null && negativeCacheTTLUnit() != null;
+        }
+
+        private long getNegativeTTLMillis() {
+
+            //noinspection ConstantConditions
+            return negativeCacheTTLUnit().toMillis(negativeCacheTTL());
+        }
+
         @AutoValue.Builder
         public abstract static class Builder {
 
@@ -504,7 +609,8 @@ public class DnsLookupDataAdapter extends LookupDataAdapter {
                              .serverIps(DEFAULT_SERVER_IP)
                              .lookupType(DnsLookupType.A)
                              .cacheTTLOverrideEnabled(DEFAULT_CACHE_TTL_OVERRIDE)
-                             .requestTimeout(DEFAULT_TIMEOUT_MILLIS);
+                             .requestTimeout(DEFAULT_TIMEOUT_MILLIS)
+                             .asyncLookupsEnabled(DEFAULT_ASYNC_LOOKUPS_ENABLED);
             }
 
             @JsonProperty(TYPE_FIELD)
@@ -528,6 +634,15 @@ public class DnsLookupDataAdapter extends LookupDataAdapter {
             @JsonProperty(FIELD_CACHE_TTL_OVERRIDE_UNIT)
             public abstract Builder cacheTTLOverrideUnit(@Nullable TimeUnit cacheTTLOverrideUnit);
 
+            @JsonProperty(FIELD_ASYNC_LOOKUPS_ENABLED)
+            public abstract Builder asyncLookupsEnabled(boolean asyncLookupsEnabled);
+
+            @JsonProperty(FIELD_NEGATIVE_CACHE_TTL)
+            public abstract Builder negativeCacheTTL(@Nullable Long negativeCacheTTL);
+
+            @JsonProperty(FIELD_NEGATIVE_CACHE_TTL_UNIT)
+            public abstract Builder negativeCacheTTLUnit(@Nullable TimeUnit negativeCacheTTLUnit);
+
             abstract Config autoBuild();
 
             public Config build() {
@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.lookup.adapters.csvfile;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import javax.annotation.Nullable;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Read-only key/value index which is stored in a file and served from memory-mapped buffers, so the heap usage does
+ * not depend on the number of entries.
+ *
+ * File layout (big-endian):
+ * <pre>
+ * header:  magic (long), entry count (long), table offset (long), table capacity (long)
+ * records: key length (int), key bytes (UTF-8), value length (int), value bytes (UTF-8)
+ * table:   open-addressing hash table with one long per slot, 0 for an empty slot
+ * </pre>
+ * A slot contains the upper 24 bits of the key hash and the 40 bit offset of the record. If a key occurs more than
+ * once, the last record wins.
+ *
+ * Instances can be shared between threads.
+ */
+public class MappedLookupIndex {
+    private static final long MAGIC = 0x474c4c4b50494458L; // "GLLKPIDX"
+    private static final int HEADER_SIZE = 32;
+    private static final int SEGMENT_BITS = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+    private static final int OFFSET_BITS = 40;
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private final Path path;
+    private final MappedByteBuffer[] segments;
+    private final long entries;
+    private final long tableOffset;
+    private final long mask;
+
+    private MappedLookupIndex(Path path, MappedByteBuffer[] segments) throws IOException {
+        this.path = path;
+        this.segments = segments;
+        if (getLong(0) != MAGIC) {
+            throw new IOException("Invalid lookup index file " + path);
+        }
+        this.entries = getLong(8);
+        this.tableOffset = getLong(16);
+        this.mask = getLong(24) - 1;
+    }
+
+    /**
+     * Opens an index file which was created by a {@link Writer}.
+     *
+     * @param path the index file
+     * @return the opened index
+     * @throws IOException if the file couldn't be mapped or isn't an index file
+     */
+    public static MappedLookupIndex open(Path path) throws IOException {
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new MappedLookupIndex(path, map(channel, FileChannel.MapMode.READ_ONLY, channel.size()));
+        }
+    }
+
+    /**
+     * Creates a writer for a new index file. Existing content of the file is replaced.
+     *
+     * @param path the index file
+     * @return the writer
+     * @throws IOException if the file couldn't be created
+     */
+    public static Writer writer(Path path) throws IOException {
+        return new Writer(path);
+    }
+
+    private static MappedByteBuffer[] map(FileChannel channel, FileChannel.MapMode mode, long size) throws IOException {
+        final MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_BITS)];
+        for (int i = 0; i < segments.length; i++) {
+            final long position = i * SEGMENT_SIZE;
+            segments[i] = channel.map(mode, position, Math.min(SEGMENT_SIZE, size - position));
+        }
+        return segments;
+    }
+
+    private static long hash(byte[] key) {
+        return HASH_FUNCTION.hashBytes(key).asLong();
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    public long size() {
+        return entries;
+    }
+
+    /**
+     * Returns the value of the given key.
+     *
+     * @param key the key
+     * @return the value or {@code null} if the index doesn't contain the key
+     */
+    @Nullable
+    public String get(String key) {
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        final long hash = hash(keyBytes);
+        final long fragment = hash >>> OFFSET_BITS;
+
+        for (long i = hash & mask; ; i = (i + 1) & mask) {
+            final long slot = getLong(tableOffset + i * Long.BYTES);
+            if (slot == 0) {
+                return null;
+            }
+            final long offset = slot & OFFSET_MASK;
+            if ((slot >>> OFFSET_BITS) == fragment && keyEquals(offset, keyBytes)) {
+                final long valueOffset = offset + Integer.BYTES + keyBytes.length;
+                final byte[] value = new byte[getInt(valueOffset)];
+                get(valueOffset + Integer.BYTES, value);
+                return new String(value, StandardCharsets.UTF_8);
+            }
+        }
+    }
+
+    private boolean keyEquals(long offset, byte[] key) {
+        if (getInt(offset) != key.length) {
+            return false;
+        }
+        final long keyOffset = offset + Integer.BYTES;
+        for (int i = 0; i < key.length; i++) {
+            if (get(keyOffset + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Absolute get operations don't modify the buffers, so concurrent readers are safe.
+
+    private byte get(long position) {
+        return segments[(int) (position >>> SEGMENT_BITS)].get((int) (position & (SEGMENT_SIZE - 1)));
+    }
+
+    private void get(long position, byte[] destination) {
+        for (int i = 0; i < destination.length; i++) {
+            destination[i] = get(position + i);
+        }
+    }
+
+    private int getInt(long position) {
+        final MappedByteBuffer segment = segments[(int) (position >>> SEGMENT_BITS)];
+        final int index = (int) (position & (SEGMENT_SIZE - 1));
+        if (index + Integer.BYTES <= segment.limit()) {
+            return segment.getInt(index);
+        }
+        // The value spans two segments
+        int value = 0;
+        for (int i = 0; i < Integer.BYTES; i++) {
+            value = (value << 8) | (get(position + i) & 0xff);
+        }
+        return value;
+    }
+
+    private long getLong(long position) {
+        // Header and table slots are aligned to 8 bytes and never span two segments
+        return segments[(int) (position >>> SEGMENT_BITS)].getLong((int) (position & (SEGMENT_SIZE - 1)));
+    }
+
+    private void putLong(long position, long value) {
+        segments[(int) (position >>> SEGMENT_BITS)].putLong((int) (position & (SEGMENT_SIZE - 1)), value);
+    }
+
+    private void insert(long offset, byte[] key) {
+        final long hash = hash(key);
+        final long fragment = hash >>> OFFSET_BITS;
+        final long entry = (fragment << OFFSET_BITS) | offset;
+
+        for (long i = hash & mask; ; i = (i + 1) & mask) {
+            final long slotPosition = tableOffset + i * Long.BYTES;
+            final long slot = getLong(slotPosition);
+            if (slot == 0 || ((slot >>> OFFSET_BITS) == fragment && keyEquals(slot & OFFSET_MASK, key))) {
+                putLong(slotPosition, entry);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes an index file. The records are streamed to the file and the hash table is built in a memory-mapped
+     * region of the file, so writing an index needs a constant amount of heap as well.
+     */
+    public static class Writer implements Closeable {
+        private final Path path;
+        private final DataOutputStream output;
+        private long position = HEADER_SIZE;
+        private long entries = 0;
+        private boolean closed = false;
+
+        private Writer(Path path) throws IOException {
+            this.path = requireNonNull(path, "path");
+            this.output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+            output.write(new byte[HEADER_SIZE]);
+        }
+
+        public void put(String key, String value) throws IOException {
+            final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            final byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+            if (position > OFFSET_MASK) {
+                throw new IOException("Lookup index file " + path + " exceeds the maximum size");
+            }
+            output.writeInt(keyBytes.length);
+            output.write(keyBytes);
+            output.writeInt(valueBytes.length);
+            output.write(valueBytes);
+            position += 2 * Integer.BYTES + keyBytes.length + valueBytes.length;
+            entries++;
+        }
+
+        /**
+         * Completes the index file and opens it for reading.
+         *
+         * @return the opened index
+         * @throws IOException if the index couldn't be written
+         */
+        public MappedLookupIndex finish() throws IOException {
+            close();
+
+            final long dataEnd = position;
+            final long tableOffset = (dataEnd + Long.BYTES - 1) & ~(Long.BYTES - 1);
+            // Keep the load factor at or below 0.5
+            final long capacity = Long.highestOneBit(Math.max(entries * 2, 16) - 1) << 1;
+
+            try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                final MappedByteBuffer[] segments = map(channel, FileChannel.MapMode.READ_WRITE, tableOffset + capacity * Long.BYTES);
+                segments[0].putLong(0, MAGIC);
+                segments[0].putLong(8, entries);
+                segments[0].putLong(16, tableOffset);
+                segments[0].putLong(24, capacity);
+
+                final MappedLookupIndex index = new MappedLookupIndex(path, segments);
+                long offset = HEADER_SIZE;
+                while (offset < dataEnd) {
+                    final int keyLength = index.getInt(offset);
+                    final byte[] key = new byte[keyLength];
+                    index.get(offset + Integer.BYTES, key);
+                    index.insert(offset, key);
+
+                    final long valueOffset = offset + Integer.BYTES + keyLength;
+                    offset = valueOffset + Integer.BYTES + index.getInt(valueOffset);
+                }
+
+                for (MappedByteBuffer segment : segments) {
+                    segment.force();
+                }
+            }
+
+            return open(path);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                output.close();
+            }
+        }
+    }
+}
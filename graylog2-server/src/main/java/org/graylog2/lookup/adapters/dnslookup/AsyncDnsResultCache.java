@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.lookup.adapters.dnslookup;
+
+import com.codahale.metrics.Counter;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Ticker;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.graylog2.plugin.lookup.LookupResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Resolves DNS lookups in the background, so processing threads never wait for a DNS server.
+ *
+ * A lookup of a key which hasn't been resolved yet returns {@code null} right away and schedules the resolution.
+ * Resolved results are kept until their TTL expires, empty results optionally with their own negative TTL. Results
+ * without a TTL are kept for {@link #DEFAULT_TTL_MILLIS}, so names which can't be resolved are retried eventually. Keys
+ * which are still read during the last part of their TTL are resolved again ahead of expiry, so hot keys never miss.
+ */
+public class AsyncDnsResultCache {
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncDnsResultCache.class);
+
+    private static final long MAX_ENTRIES = 100_000;
+    // keys which are read after this share of their TTL has passed are refreshed ahead of expiry
+    private static final double REFRESH_AHEAD_FACTOR = 0.8;
+    private static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final Function<String, LookupResult> resolver;
+    private final long negativeTTLMillis;
+    private final ExecutorService executor;
+    private final Ticker ticker;
+    private final Cache<String, Entry> results;
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+    private final Counter hits;
+    private final Counter waitsAvoided;
+    private final Counter refreshes;
+    private final Counter droppedRequests;
+
+    /**
+     * @param resolver          resolves a key, blocking until the DNS response arrived
+     * @param negativeTTLMillis the TTL of empty results, or a negative value to use the TTL of the result itself
+     * @param executor          the executor running the resolutions
+     * @param ticker            the time source for the TTLs
+     */
+    public AsyncDnsResultCache(Function<String, LookupResult> resolver,
+                               long negativeTTLMillis,
+                               ExecutorService executor,
+                               Ticker ticker,
+                               Counter hits,
+                               Counter waitsAvoided,
+                               Counter refreshes,
+                               Counter droppedRequests) {
+        this.resolver = resolver;
+        this.negativeTTLMillis = negativeTTLMillis;
+        this.executor = executor;
+        this.ticker = ticker;
+        this.hits = hits;
+        this.waitsAvoided = waitsAvoided;
+        this.refreshes = refreshes;
+        this.droppedRequests = droppedRequests;
+        this.results = Caffeine.newBuilder()
+                .maximumSize(MAX_ENTRIES)
+                .ticker(ticker)
+                .expireAfter(new Expiry<String, Entry>() {
+                    @Override
+                    public long expireAfterCreate(@NonNull String key, @NonNull Entry entry, long currentTime) {
+                        return entry.ttlNanos;
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(@NonNull String key, @NonNull Entry entry, long currentTime, long currentDuration) {
+                        return entry.ttlNanos;
+                    }
+
+                    @Override
+                    public long expireAfterRead(@NonNull String key, @NonNull Entry entry, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * Returns the resolved result of the given key, or schedules its resolution.
+     *
+     * @param key the key to look up
+     * @return the result or {@code null} if the key hasn't been resolved yet
+     */
+    @Nullable
+    public LookupResult get(String key) {
+        final Entry entry = results.getIfPresent(key);
+        if (entry == null) {
+            waitsAvoided.inc();
+            schedule(key);
+            return null;
+        }
+
+        hits.inc();
+        final long now = ticker.read();
+        if (now >= entry.refreshAtNanos && schedule(key)) {
+            refreshes.inc();
+        }
+        // Lookup caches in front of the adapter must not keep the result past its refresh point, otherwise hot keys
+        // would never reach this cache again before they expire.
+        final long remainingMillis = Math.max(0, TimeUnit.NANOSECONDS.toMillis(entry.refreshAtNanos - now));
+        return LookupResult.createFromJSON(entry.result.singleValue(),
+                entry.result.multiValue(),
+                entry.result.stringListValue(),
+                entry.result.hasError(),
+                remainingMillis);
+    }
+
+    private boolean schedule(String key) {
+        // only one resolution per key at a time
+        if (!inFlight.add(key)) {
+            return false;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    store(key, resolver.apply(key));
+                } catch (Exception e) {
+                    LOG.debug("Asynchronous DNS resolution of <{}> failed", key, e);
+                } finally {
+                    inFlight.remove(key);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(key);
+            droppedRequests.inc();
+            return false;
+        }
+    }
+
+    private void store(String key, LookupResult result) {
+        final long ttlMillis;
+        if (result.isEmpty() && !result.hasError() && negativeTTLMillis >= 0) {
+            ttlMillis = negativeTTLMillis;
+        } else if (!result.hasTTL()) {
+            ttlMillis = DEFAULT_TTL_MILLIS;
+        } else {
+            ttlMillis = result.cacheTTL();
+        }
+        if (ttlMillis <= 0) {
+            return;
+        }
+        final long ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        final long refreshAtNanos = ticker.read() + (long) (ttlNanos * REFRESH_AHEAD_FACTOR);
+        results.put(key, new Entry(result, ttlNanos, refreshAtNanos));
+    }
+
+    public long size() {
+        return results.estimatedSize();
+    }
+
+    private static class Entry {
+        private final LookupResult result;
+        private final long ttlNanos;
+        private final long refreshAtNanos;
+
+        private Entry(LookupResult result, long ttlNanos, long refreshAtNanos) {
+            this.result = result;
+            this.ttlNanos = ttlNanos;
+            this.refreshAtNanos = refreshAtNanos;
+        }
+    }
+}
@@ -25,9 +25,12 @@ import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Ticker;
 import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import com.github.benmanes.caffeine.cache.stats.StatsCounter;
 import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Maps;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
 import org.checkerframework.checker.nullness.qual.NonNull;
@@ -42,6 +45,10 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nullable;
 import javax.inject.Named;
 import javax.validation.constraints.Min;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
@@ -52,7 +59,9 @@ public class CaffeineLookupCache extends LookupCache {
 
     // Use the old GuavaLookupCache name, so we don't have to deal with migrations
     public static final String NAME = "guava_cache";
-    private final Cache<LookupCacheKey, LookupResult> cache;
+    private final Cache<LookupCacheKey, CachedResult> cache;
+    private final Ticker ticker;
+    private final SingleFlight<LookupCacheKey, LookupResult> inFlightLoads = new SingleFlight<>();
 
     @Inject
     public CaffeineLookupCache(@Assisted("id") String id,
@@ -60,10 +69,22 @@ public class CaffeineLookupCache extends LookupCache {
                                @Assisted LookupCacheConfiguration c,
                                @Named("processbuffer_processors") int processorCount,
                                MetricRegistry metricRegistry) {
+        this(id, name, c, metricRegistry, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    CaffeineLookupCache(String id,
+                        String name,
+                        LookupCacheConfiguration c,
+                        MetricRegistry metricRegistry,
+                        Ticker ticker) {
         super(id, name, c, metricRegistry);
         Config config = (Config) c;
+        this.ticker = ticker;
         Caffeine<Object, Object> builder = Caffeine.newBuilder();
 
+        builder.ticker(ticker);
+
         builder.recordStats(() -> new MetricStatsCounter(this));
 
         builder.maximumSize(config.maxSize());
@@ -72,12 +93,12 @@ public class CaffeineLookupCache extends LookupCache {
         cache = builder.build();
     }
 
-    private Expiry<LookupCacheKey, LookupResult> buildExpiry(Config config) {
-       return new Expiry<LookupCacheKey, LookupResult>() {
+    private Expiry<LookupCacheKey, CachedResult> buildExpiry(Config config) {
+       return new Expiry<LookupCacheKey, CachedResult>() {
            @Override
-           public long expireAfterCreate(@NonNull LookupCacheKey lookupCacheKey, @NonNull LookupResult lookupResult, long currentTime) {
-               if (lookupResult.hasTTL()) {
-                   return TimeUnit.MILLISECONDS.toNanos(lookupResult.cacheTTL());
+           public long expireAfterCreate(@NonNull LookupCacheKey lookupCacheKey, @NonNull CachedResult cachedResult, long currentTime) {
+               if (cachedResult.result.hasTTL()) {
+                   return cachedResult.ttlNanos;
                } else {
                    if (config.expireAfterWrite() > 0 && config.expireAfterWriteUnit() != null) {
                        //noinspection ConstantConditions
@@ -87,15 +108,21 @@ public class CaffeineLookupCache extends LookupCache {
                }
            }
            @Override
-           public long expireAfterUpdate(@NonNull LookupCacheKey lookupCacheKey, @NonNull LookupResult lookupResult, long currentTime, long currentDuration) {
+           public long expireAfterUpdate(@NonNull LookupCacheKey lookupCacheKey, @NonNull CachedResult cachedResult, long currentTime, long currentDuration) {
                return currentDuration;
            }
 
            @Override
-           public long expireAfterRead(@NonNull LookupCacheKey lookupCacheKey, @NonNull LookupResult lookupResult, long currentTime, long currentDuration) {
+           public long expireAfterRead(@NonNull LookupCacheKey lookupCacheKey, @NonNull CachedResult cachedResult, long currentTime, long currentDuration) {
                if (config.expireAfterAccess() > 0 && config.expireAfterAccessUnit() != null) {
                    //noinspection ConstantConditions
-                   return config.expireAfterAccessUnit().toNanos(config.expireAfterAccess());
+                   final long expireAfterAccess = config.expireAfterAccessUnit().toNanos(config.expireAfterAccess());
+                   // Reads don't extend a result beyond its TTL, so that frequently used keys are loaded from the
+                   // data adapter again once their TTL has passed.
+                   if (cachedResult.result.hasTTL()) {
+                       return Math.min(expireAfterAccess, cachedResult.remainingTTL(currentTime));
+                   }
+                   return expireAfterAccess;
                }
                return currentDuration;
            }
@@ -121,26 +148,54 @@ public class CaffeineLookupCache extends LookupCache {
 
     @Override
     public LookupResult get(LookupCacheKey key, Callable<LookupResult> loader) {
-        final Function<LookupCacheKey, LookupResult> mapFunction = unused -> {
+        final Function<LookupCacheKey, CachedResult> mapFunction = unused -> {
             try {
-                return loader.call();
+                return cached(loader.call());
             } catch (Exception e) {
                 LOG.warn("Loading value from data adapter failed for key {}, returning empty result", key, e);
-                return LookupResult.withError();
+                return cached(LookupResult.withError());
             }
         };
         try (final Timer.Context ignored = lookupTimer()) {
-            return cache.get(key, mapFunction);
+            return cache.get(key, mapFunction).result;
+        }
+    }
+
+    @Override
+    public Map<LookupCacheKey, LookupResult> getAll(Collection<LookupCacheKey> keys,
+                                                    Function<Collection<LookupCacheKey>, Map<LookupCacheKey, LookupResult>> loader) {
+        try (final Timer.Context ignored = lookupTimer()) {
+            final Map<LookupCacheKey, LookupResult> results = new HashMap<>(keys.size());
+            cache.getAllPresent(keys).forEach((key, cachedResult) -> results.put(key, cachedResult.result));
+            if (results.size() == keys.size()) {
+                return results;
+            }
+            final List<LookupCacheKey> missingKeys = keys.stream()
+                    .filter(key -> !results.containsKey(key))
+                    .collect(Collectors.toList());
+            // concurrent misses of the same keys wait for this load instead of asking the data adapter again
+            results.putAll(inFlightLoads.loadAll(missingKeys, keysToLoad -> {
+                final Map<LookupCacheKey, LookupResult> loaded = new HashMap<>(keysToLoad.size());
+                try {
+                    loaded.putAll(loader.apply(keysToLoad));
+                } catch (Exception e) {
+                    LOG.warn("Loading values from data adapter failed for {} keys, returning empty results", keysToLoad.size(), e);
+                }
+                keysToLoad.forEach(key -> loaded.putIfAbsent(key, LookupResult.withError()));
+                cache.putAll(Maps.transformValues(loaded, this::cached));
+                return loaded;
+            }));
+            return results;
         }
     }
 
     @Override
     public LookupResult getIfPresent(LookupCacheKey key) {
-        final LookupResult cacheEntry = cache.getIfPresent(key);
+        final CachedResult cacheEntry = cache.getIfPresent(key);
         if (cacheEntry == null) {
             return LookupResult.empty();
         }
-        return cacheEntry;
+        return cacheEntry.result;
     }
 
     @Override
@@ -162,6 +217,29 @@ public class CaffeineLookupCache extends LookupCache {
         }
     }
 
+    private CachedResult cached(LookupResult result) {
+        return new CachedResult(result, ticker.read());
+    }
+
+    /**
+     * A cached result together with the time it has been loaded, the TTL of the result starts at that time.
+     */
+    private static class CachedResult {
+        private final LookupResult result;
+        private final long ttlNanos;
+        private final long loadedAt;
+
+        private CachedResult(LookupResult result, long loadedAt) {
+            this.result = result;
+            this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(result.cacheTTL());
+            this.loadedAt = loadedAt;
+        }
+
+        private long remainingTTL(long currentTime) {
+            return Math.max(0, ttlNanos - (currentTime - loadedAt));
+        }
+    }
+
     public interface Factory extends LookupCache.Factory {
         @Override
         CaffeineLookupCache create(@Assisted("id") String id, @Assisted("name") String name, LookupCacheConfiguration configuration);
@@ -32,7 +32,11 @@ import org.graylog2.plugin.lookup.LookupResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.function.Function;
 
 /**
  * The cache that doesn't. Used in place when no cache is wanted, having a null implementation saves us ugly null checks.
@@ -42,6 +46,8 @@ public class NullCache extends LookupCache {
 
     public static final String NAME = "none";
 
+    private final SingleFlight<LookupCacheKey, LookupResult> inFlightLoads = new SingleFlight<>();
+
     @Inject
     public NullCache(@Assisted("id") String id,
                      @Assisted("name") String name,
@@ -62,12 +68,30 @@ public class NullCache extends LookupCache {
 
     @Override
     public LookupResult get(LookupCacheKey key, Callable<LookupResult> loader) {
-        try {
-            return loader.call();
-        } catch (Exception e) {
-            LOG.warn("Loading value from data adapter failed for key {}, returning empty result", key, e);
-            return LookupResult.empty();
-        }
+        // nothing is cached, but concurrent lookups of the same key still share a single data adapter call
+        return inFlightLoads.load(key, unused -> {
+            try {
+                return loader.call();
+            } catch (Exception e) {
+                LOG.warn("Loading value from data adapter failed for key {}, returning empty result", key, e);
+                return LookupResult.empty();
+            }
+        });
+    }
+
+    @Override
+    public Map<LookupCacheKey, LookupResult> getAll(Collection<LookupCacheKey> keys,
+                                                    Function<Collection<LookupCacheKey>, Map<LookupCacheKey, LookupResult>> loader) {
+        return inFlightLoads.loadAll(keys, missingKeys -> {
+            try {
+                return loader.apply(missingKeys);
+            } catch (Exception e) {
+                LOG.warn("Loading values from data adapter failed for {} keys, returning empty results", missingKeys.size(), e);
+                final Map<LookupCacheKey, LookupResult> results = new HashMap<>(missingKeys.size());
+                missingKeys.forEach(key -> results.put(key, LookupResult.empty()));
+                return results;
+            }
+        });
     }
 
     @Override
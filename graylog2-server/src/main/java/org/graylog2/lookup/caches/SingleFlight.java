@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.lookup.caches;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * Coalesces concurrent loads of the same keys: if a key is already being loaded by another thread, the caller waits
+ * for that result instead of loading the key again. Slow data adapters are thus only asked once for a key, no matter
+ * how many processor threads miss it at the same time.
+ *
+ * Loaders are expected to handle their errors. If a loader throws anyway, the waiting threads get a
+ * {@link java.util.concurrent.CompletionException} wrapping the error.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+class SingleFlight<K, V> {
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Loads a single key, or waits for a concurrent load of the same key.
+     */
+    V load(K key, Function<K, V> loader) {
+        final CompletableFuture<V> future = new CompletableFuture<>();
+        final CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            return existing.join();
+        }
+        try {
+            final V value = loader.apply(key);
+            future.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * Loads all keys which aren't already being loaded with a single loader call and waits for the others.
+     *
+     * The own keys are always loaded before waiting, so two threads loading overlapping key sets can't deadlock.
+     */
+    Map<K, V> loadAll(Collection<K> keys, Function<Set<K>, Map<K, V>> loader) {
+        final Map<K, CompletableFuture<V>> owned = new HashMap<>(keys.size());
+        final Map<K, CompletableFuture<V>> waiting = new HashMap<>();
+        for (K key : keys) {
+            final CompletableFuture<V> future = new CompletableFuture<>();
+            final CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+            if (existing == null) {
+                owned.put(key, future);
+            } else {
+                waiting.put(key, existing);
+            }
+        }
+
+        final Map<K, V> results = new HashMap<>(keys.size());
+        if (!owned.isEmpty()) {
+            try {
+                final Map<K, V> loaded = loader.apply(owned.keySet());
+                owned.forEach((key, future) -> {
+                    final V value = loaded.get(key);
+                    results.put(key, value);
+                    future.complete(value);
+                });
+            } catch (RuntimeException | Error e) {
+                owned.values().forEach(future -> future.completeExceptionally(e));
+                throw e;
+            } finally {
+                owned.forEach(inFlight::remove);
+            }
+        }
+        waiting.forEach((key, future) -> results.put(key, future.join()));
+        return results;
+    }
+
+    @VisibleForTesting
+    int inFlightCount() {
+        return inFlight.size();
+    }
+}
@@ -93,6 +93,11 @@ public class MessageFilterChainProcessor implements MessageProcessor {
     public Messages process(Messages messages) {
 
         for (final MessageFilter filter : filterRegistry) {
+            try {
+                filter.prepareBatch(messages);
+            } catch (Exception e) {
+                LOG.error("Could not prepare filter [{}] for a batch of messages", filter.getName(), e);
+            }
             for (Message msg : messages) {
                 final String timerName = name(filter.getClass(), "executionTime");
                 final Timer timer = metricRegistry.timer(timerName);
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.outputs;
+
+import com.github.joschi.jadconfig.ParameterException;
+import com.github.joschi.jadconfig.util.Size;
+
+import java.util.Objects;
+
+/**
+ * The configured size of an output batch. The size is either a number of messages (e.g. {@code 500}) or,
+ * if a unit is given, the estimated number of bytes of the messages in a batch (e.g. {@code 10mb}).
+ */
+public class BatchSizeConfig {
+    private static final int DEFAULT_INITIAL_CAPACITY = 500;
+
+    private final int messageCount;
+    private final long bytes;
+
+    private BatchSizeConfig(int messageCount, long bytes) {
+        this.messageCount = messageCount;
+        this.bytes = bytes;
+    }
+
+    public static BatchSizeConfig forCount(int messageCount) {
+        return new BatchSizeConfig(messageCount, -1L);
+    }
+
+    public static BatchSizeConfig forBytes(long bytes) {
+        return new BatchSizeConfig(-1, bytes);
+    }
+
+    public boolean isCountBased() {
+        return messageCount > 0;
+    }
+
+    public int getMessageCount() {
+        return messageCount;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns {@code true} if a batch of the given message count and estimated size in bytes has reached the
+     * configured batch size.
+     */
+    public boolean isReached(int batchMessageCount, long batchBytes) {
+        return isCountBased() ? batchMessageCount >= messageCount : batchBytes >= bytes;
+    }
+
+    /**
+     * Returns a sensible initial capacity for a list holding a batch of this size.
+     */
+    public int getInitialCapacity() {
+        return isCountBased() ? messageCount : DEFAULT_INITIAL_CAPACITY;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final BatchSizeConfig that = (BatchSizeConfig) o;
+        return messageCount == that.messageCount && bytes == that.bytes;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(messageCount, bytes);
+    }
+
+    @Override
+    public String toString() {
+        return isCountBased() ? String.valueOf(messageCount) : bytes + "b";
+    }
+
+    public static class Converter implements com.github.joschi.jadconfig.Converter<BatchSizeConfig> {
+        @Override
+        public BatchSizeConfig convertFrom(String value) {
+            final String trimmed = value.trim();
+            try {
+                if (trimmed.chars().allMatch(Character::isDigit)) {
+                    final int count = Integer.parseInt(trimmed);
+                    if (count > 0) {
+                        return forCount(count);
+                    }
+                } else {
+                    final long bytes = Size.parse(trimmed).toBytes();
+                    if (bytes > 0) {
+                        return forBytes(bytes);
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                throw new ParameterException("Unable to parse batch size <" + value + ">. Use a number of messages (e.g. 500) or a size (e.g. 10mb).", e);
+            }
+            throw new ParameterException("Batch size <" + value + "> must be greater than 0.");
+        }
+
+        @Override
+        public String convertTo(BatchSizeConfig value) {
+            return value.toString();
+        }
+    }
+}
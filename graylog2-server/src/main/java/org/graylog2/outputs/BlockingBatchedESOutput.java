@@ -16,11 +16,13 @@
  */
 package org.graylog2.outputs;
 
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.graylog2.indexer.IndexSet;
 import org.graylog2.indexer.messages.Messages;
 import org.graylog2.plugin.Message;
@@ -29,27 +31,51 @@ import org.graylog2.shared.messageq.MessageQueueAcknowledger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static com.codahale.metrics.MetricRegistry.name;
 import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.graylog2.shared.metrics.MetricUtils.safelyRegister;
 
+/**
+ * Batching Elasticsearch output.
+ *
+ * Messages are collected in a number of independently locked stripes (one per output buffer processor), so the
+ * output buffer processor threads don't contend on a single monitor. A stripe is handed off for indexing once it
+ * reached the configured {@code output_batch_size}, which is either a number of messages or an estimated size in bytes.
+ *
+ * If {@code output_flush_threads} is set, batches are indexed by a dedicated flusher pool and at most
+ * that many bulk requests are in flight. Writers block until a flusher becomes available (explicit back-pressure).
+ * Otherwise the writing thread indexes the batch itself.
+ */
 // Singleton class
 public class BlockingBatchedESOutput extends ElasticSearchOutput {
     private static final Logger log = LoggerFactory.getLogger(BlockingBatchedESOutput.class);
-    private final int maxBufferSize;
+    private final BatchSizeConfig maxBufferSize;
     private final Timer processTime;
     private final Histogram batchSize;
     private final Meter bufferFlushes;
     private final Meter bufferFlushFailures;
     private final Meter bufferFlushesRequested;
+    private final Timer flushBackPressure;
 
-    private volatile List<Map.Entry<IndexSet, Message>> buffer;
+    private final Stripe[] stripes;
+
+    @Nullable
+    private final ExecutorService flushExecutor;
+    @Nullable
+    private final Semaphore inFlightFlushes;
 
     private static final AtomicInteger activeFlushThreads = new AtomicInteger(0);
     private final AtomicLong lastFlushTime = new AtomicLong();
@@ -69,9 +95,27 @@ public class BlockingBatchedESOutput extends ElasticSearchOutput {
         this.bufferFlushes = metricRegistry.meter(name(this.getClass(), "bufferFlushes"));
         this.bufferFlushFailures = metricRegistry.meter(name(this.getClass(), "bufferFlushFailures"));
         this.bufferFlushesRequested = metricRegistry.meter(name(this.getClass(), "bufferFlushesRequested"));
+        this.flushBackPressure = metricRegistry.timer(name(this.getClass(), "flushBackPressure"));
 
-        buffer = new ArrayList<>(maxBufferSize);
+        this.stripes = new Stripe[Math.max(1, serverConfiguration.getOutputBufferProcessors())];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe(maxBufferSize.getInitialCapacity());
+        }
 
+        final int flushThreads = serverConfiguration.getOutputFlushThreads();
+        if (flushThreads > 0) {
+            this.flushExecutor = Executors.newFixedThreadPool(flushThreads, new ThreadFactoryBuilder()
+                    .setNameFormat("output-batch-flusher-%d")
+                    .setDaemon(true)
+                    .build());
+            this.inFlightFlushes = new Semaphore(flushThreads);
+            final Semaphore permits = this.inFlightFlushes;
+            safelyRegister(metricRegistry, name(this.getClass(), "inFlightFlushes"),
+                    (Gauge<Integer>) () -> flushThreads - permits.availablePermits());
+        } else {
+            this.flushExecutor = null;
+            this.inFlightFlushes = null;
+        }
     }
 
     @Override
@@ -82,20 +126,38 @@ public class BlockingBatchedESOutput extends ElasticSearchOutput {
     }
 
     public void writeMessageEntry(Map.Entry<IndexSet, Message> entry) throws Exception {
-        List<Map.Entry<IndexSet, Message>> flushBatch = null;
-        synchronized (this) {
-            buffer.add(entry);
+        final Stripe stripe = stripes[(int) (Thread.currentThread().getId() % stripes.length)];
+        final List<Map.Entry<IndexSet, Message>> flushBatch = stripe.add(entry, maxBufferSize);
 
-            if (buffer.size() >= maxBufferSize) {
-                flushBatch = buffer;
-                buffer = new ArrayList<>(maxBufferSize);
-            }
-        }
-        // if the current thread found it had to flush any messages, it does so but blocks.
-        // this ensures we don't flush more than 'processorCount' in parallel.
-        // TODO this will still be time limited by the OutputBufferProcessor and thus be called more often than it should
+        // if the current thread found it had to flush any messages, it hands them off to the flusher pool and
+        // blocks until a flusher is available, or flushes them itself if there is no flusher pool.
+        // this ensures we don't flush more than 'processorCount' or 'output_flush_threads' in parallel.
         if (flushBatch != null) {
-            flush(flushBatch);
+            dispatch(flushBatch);
+        }
+    }
+
+    private void dispatch(List<Map.Entry<IndexSet, Message>> messages) throws InterruptedException {
+        // after the flusher pool has been shut down, the remaining batches are flushed by the calling thread
+        if (flushExecutor == null || inFlightFlushes == null || flushExecutor.isShutdown()) {
+            flush(messages);
+            return;
+        }
+
+        try (Timer.Context ignored = flushBackPressure.time()) {
+            inFlightFlushes.acquire();
+        }
+        try {
+            flushExecutor.execute(() -> {
+                try {
+                    flush(messages);
+                } finally {
+                    inFlightFlushes.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlightFlushes.release();
+            throw e;
         }
     }
 
@@ -126,20 +188,98 @@ public class BlockingBatchedESOutput extends ElasticSearchOutput {
     }
 
     public void forceFlushIfTimedout() {
-        // if we shouldn't flush at all based on the last flush time, no need to synchronize on this.
+        // if we shouldn't flush at all based on the last flush time, no need to look at the stripes.
         if (lastFlushTime.get() != 0 &&
                 outputFlushInterval > NANOSECONDS.toSeconds(System.nanoTime() - lastFlushTime.get())) {
                     return;
                 }
-        // flip buffer quickly and initiate flush
-        final List<Map.Entry<IndexSet, Message>> flushBatch;
-        synchronized (this) {
-            flushBatch = buffer;
-            buffer = new ArrayList<>(maxBufferSize);
+        flushStripes();
+    }
+
+    private void flushStripes() {
+        // flip the stripes quickly and merge them into batches of at most the configured size
+        List<Map.Entry<IndexSet, Message>> flushBatch = new ArrayList<>(maxBufferSize.getInitialCapacity());
+        long flushBatchBytes = 0L;
+        for (Stripe stripe : stripes) {
+            for (Map.Entry<IndexSet, Message> entry : stripe.drain()) {
+                flushBatch.add(entry);
+                flushBatchBytes += entry.getValue().getSize();
+                if (maxBufferSize.isReached(flushBatch.size(), flushBatchBytes)) {
+                    bufferFlushesRequested.mark();
+                    dispatchFromFlushThread(flushBatch);
+                    flushBatch = new ArrayList<>(maxBufferSize.getInitialCapacity());
+                    flushBatchBytes = 0L;
+                }
+            }
         }
-        if (flushBatch != null) {
+        if (!flushBatch.isEmpty()) {
             bufferFlushesRequested.mark();
-            flush(flushBatch);
+            dispatchFromFlushThread(flushBatch);
+        }
+    }
+
+    private void dispatchFromFlushThread(List<Map.Entry<IndexSet, Message>> messages) {
+        try {
+            dispatch(messages);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // don't lose the already drained messages
+            flush(messages);
+        } catch (RejectedExecutionException e) {
+            // the flusher pool has been shut down concurrently
+            flush(messages);
+        }
+    }
+
+    @Override
+    public void stop() {
+        // hand off the buffered messages while the flusher pool still accepts them
+        flushStripes();
+        if (flushExecutor != null) {
+            flushExecutor.shutdown();
+            try {
+                if (!flushExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+                    log.warn("Timed out waiting for in-flight output batches to be flushed.");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        super.stop();
+    }
+
+    /**
+     * A single batch accumulator. Writers only contend on a stripe if their thread IDs map to the same stripe.
+     */
+    private static class Stripe {
+        private final int initialCapacity;
+        private List<Map.Entry<IndexSet, Message>> buffer;
+        private long bufferBytes = 0L;
+
+        private Stripe(int initialCapacity) {
+            this.initialCapacity = initialCapacity;
+            this.buffer = new ArrayList<>(initialCapacity);
+        }
+
+        /**
+         * Adds the given entry and returns the full batch if the batch size has been reached, {@code null} otherwise.
+         */
+        @Nullable
+        private synchronized List<Map.Entry<IndexSet, Message>> add(Map.Entry<IndexSet, Message> entry, BatchSizeConfig batchSize) {
+            buffer.add(entry);
+            bufferBytes += entry.getValue().getSize();
+
+            if (batchSize.isReached(buffer.size(), bufferBytes)) {
+                return drain();
+            }
+            return null;
+        }
+
+        private synchronized List<Map.Entry<IndexSet, Message>> drain() {
+            final List<Map.Entry<IndexSet, Message>> batch = buffer;
+            buffer = new ArrayList<>(initialCapacity);
+            bufferBytes = 0L;
+            return batch;
         }
     }
 
@@ -20,6 +20,7 @@ import com.github.joschi.jadconfig.Parameter;
 import com.github.joschi.jadconfig.ValidationException;
 import com.github.joschi.jadconfig.ValidatorMethod;
 import com.github.joschi.jadconfig.util.Duration;
+import com.github.joschi.jadconfig.util.Size;
 import com.github.joschi.jadconfig.validators.PositiveDurationValidator;
 import com.github.joschi.jadconfig.validators.PositiveIntegerValidator;
 import com.github.joschi.jadconfig.validators.StringNotBlankValidator;
@@ -51,6 +52,9 @@ public abstract class BaseConfiguration extends PathConfiguration {
     @Parameter(value = "processbuffer_processors", required = true, validator = PositiveIntegerValidator.class)
     private int processBufferProcessors = 5;
 
+    @Parameter(value = "processbuffer_batch_size", validator = PositiveIntegerValidator.class)
+    private int processBufferBatchSize = 1;
+
     @Parameter(value = "processor_wait_strategy", required = true)
     private String processorWaitStrategy = "blocking";
 
@@ -69,6 +73,9 @@ public abstract class BaseConfiguration extends PathConfiguration {
     @Parameter(value = "udp_recvbuffer_sizes", required = true, validator = PositiveIntegerValidator.class)
     private int udpRecvBufferSizes = 1048576;
 
+    @Parameter(value = "gelf_chunk_aggregator_max_size", required = true)
+    private Size gelfChunkAggregatorMaxSize = Size.megabytes(128L);
+
     @Parameter("message_journal_enabled")
     private boolean messageJournalEnabled = true;
 
@@ -109,6 +116,10 @@ public abstract class BaseConfiguration extends PathConfiguration {
         return processBufferProcessors;
     }
 
+    public int getProcessBufferBatchSize() {
+        return processBufferBatchSize;
+    }
+
     private WaitStrategy getWaitStrategy(String waitStrategyName, String configOptionName) {
         switch (waitStrategyName) {
             case "sleeping":
@@ -168,6 +179,10 @@ public abstract class BaseConfiguration extends PathConfiguration {
         return udpRecvBufferSizes;
     }
 
+    public Size getGelfChunkAggregatorMaxSize() {
+        return gelfChunkAggregatorMaxSize;
+    }
+
     public boolean isMessageRecordingsEnabled() {
         return messageRecordingsEnable;
     }
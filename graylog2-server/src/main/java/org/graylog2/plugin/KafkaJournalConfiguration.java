@@ -48,6 +48,9 @@ public class KafkaJournalConfiguration extends PathConfiguration {
     @Parameter("message_journal_flush_age")
     private Duration messageJournalFlushAge = Duration.standardMinutes(1L);
 
+    @Parameter("message_journal_mmap_reads")
+    private boolean messageJournalMmapReads = false;
+
     public Path getMessageJournalDir() {
         return messageJournalDir;
     }
@@ -75,4 +78,8 @@ public class KafkaJournalConfiguration extends PathConfiguration {
     public Duration getMessageJournalFlushAge() {
         return messageJournalFlushAge;
     }
+
+    public boolean isMessageJournalMmapReads() {
+        return messageJournalMmapReads;
+    }
 }
@@ -18,6 +18,7 @@ package org.graylog2.plugin;
 
 import com.codahale.metrics.Meter;
 import com.eaio.uuid.UUID;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
@@ -46,6 +47,7 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
+import java.io.IOException;
 import java.net.InetAddress;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
@@ -451,6 +453,89 @@ public class Message implements Messages, Indexable {
         return obj;
     }
 
+    /**
+     * Writes the same document as {@link #toElasticSearchObject(ObjectMapper, Meter)} to the given generator,
+     * without building an intermediate map of the message fields.
+     */
+    @Override
+    public void writeElasticSearchObject(JsonGenerator generator, ObjectMapper objectMapper, @Nonnull final Meter invalidTimestampMeter) throws IOException {
+        // Resolve the timestamp first, because an invalid timestamp adds a processing error.
+        final Object timestampValue = getField(FIELD_TIMESTAMP);
+        final DateTime dateTime = timestampValue == null ? fallbackForNullTimestamp() : convertToDateTime(timestampValue);
+        final boolean hasProcessingErrors = processingErrors != null && !processingErrors.isEmpty();
+
+        generator.writeStartObject();
+
+        Set<String> replacedKeys = null;
+        for (Map.Entry<String, Object> entry : fields.entrySet()) {
+            final String key = entry.getKey();
+            if (key.equals(FIELD_ID) || isWrittenSeparately(key, hasProcessingErrors)) {
+                continue;
+            }
+
+            final Object value = entry.getValue();
+            // Elasticsearch does not allow "." characters in keys since version 2.0.
+            if (key.indexOf('.') >= 0) {
+                final String newKey = key.replace('.', KEY_REPLACEMENT_CHAR);
+                if (replacedKeys == null) {
+                    replacedKeys = new HashSet<>();
+                }
+
+                // Same conflict resolution as #toElasticSearchObject(): an existing key with "_" always wins.
+                if (fields.containsKey(newKey) || !replacedKeys.add(newKey)) {
+                    LOG.warn("Keys must not contain a \".\" character! Ignoring field \"{}\"=\"{}\" in message [{}] - Unable to replace \".\" with a \"{}\" because of key conflict: \"{}\"",
+                            key, value, getId(), KEY_REPLACEMENT_CHAR, newKey);
+                    LOG.debug("Full message with \".\" in message key: {}", this);
+                    continue;
+                }
+                if (newKey.equals(FIELD_ID) || isWrittenSeparately(newKey, hasProcessingErrors)) {
+                    continue;
+                }
+                generator.writeFieldName(newKey);
+            } else {
+                generator.writeFieldName(key);
+            }
+            generator.writeObject(value);
+        }
+
+        generator.writeStringField(FIELD_MESSAGE, getMessage());
+        generator.writeStringField(FIELD_SOURCE, getSource());
+        generator.writeArrayFieldStart(FIELD_STREAMS);
+        for (String streamId : getStreamIds()) {
+            generator.writeString(streamId);
+        }
+        generator.writeEndArray();
+        generator.writeNumberField(FIELD_GL2_ACCOUNTED_MESSAGE_SIZE, getSize());
+        generator.writeStringField(FIELD_TIMESTAMP, buildElasticSearchTimeFormat(dateTime.withZone(UTC)));
+
+        if (hasProcessingErrors) {
+            if (processingErrors.stream().anyMatch(processingError -> processingError.getCause().equals(ProcessingFailureCause.InvalidTimestampException))) {
+                invalidTimestampMeter.mark();
+            }
+            generator.writeStringField(FIELD_GL2_PROCESSING_ERROR,
+                    processingErrors.stream()
+                            .map(pe -> pe.getMessage() + " - " + pe.getDetails())
+                            .collect(Collectors.joining(", ")));
+        }
+
+        generator.writeEndObject();
+    }
+
+    private static boolean isWrittenSeparately(String key, boolean hasProcessingErrors) {
+        switch (key) {
+            case FIELD_MESSAGE:
+            case FIELD_SOURCE:
+            case FIELD_STREAMS:
+            case FIELD_GL2_ACCOUNTED_MESSAGE_SIZE:
+            case FIELD_TIMESTAMP:
+                return true;
+            case FIELD_GL2_PROCESSING_ERROR:
+                return hasProcessingErrors;
+            default:
+                return false;
+        }
+    }
+
     public void ensureValidTimestamp() {
         final Object timestampValue = getField(FIELD_TIMESTAMP);
         if (timestampValue instanceof DateTime) {
@@ -18,6 +18,19 @@ package org.graylog2.plugin.buffers;
 
 import org.graylog2.plugin.journal.RawMessage;
 
+import java.util.List;
+
 public interface InputBuffer extends EventBuffer {
     void insert(RawMessage message);
+
+    /**
+     * Inserts the given messages in order. Implementations may claim the buffer slots for multiple messages at once.
+     *
+     * @param messages the messages to insert
+     */
+    default void insertAll(List<RawMessage> messages) {
+        for (RawMessage message : messages) {
+            insert(message);
+        }
+    }
 }
@@ -17,6 +17,7 @@
 package org.graylog2.plugin.filters;
 
 import org.graylog2.plugin.Message;
+import org.graylog2.plugin.Messages;
 
 public interface MessageFilter {
     /**
@@ -26,6 +27,15 @@ public interface MessageFilter {
      */
     boolean filter(Message msg);
 
+    /**
+     * Called once before {@link #filter(Message)} is called for every message of a batch. Filters can use it to
+     * prepare for the whole batch at once, e.g. to load external data for all messages with a single request.
+     *
+     * @param messages the messages of the batch
+     */
+    default void prepareBatch(Messages messages) {
+    }
+
     /**
      * @return The name of this filter. Should not include whitespaces or special characters.
      */
@@ -30,6 +30,7 @@ import org.graylog2.shared.utilities.ExceptionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -203,73 +204,111 @@ public abstract class Extractor implements EmbeddedPersistable {
                 field = (String) msg.getField(sourceField);
 
                 // Decide if to extract at all.
-                if (conditionType.equals(ConditionType.STRING)) {
-                    if (field.contains(conditionValue)) {
-                        conditionHitsCounter.inc();
-                    } else {
-                        conditionMissesCounter.inc();
-                        return;
-                    }
-                } else if (conditionType.equals(ConditionType.REGEX)) {
-                    if (regexConditionPattern.matcher(field).find()) {
-                        conditionHitsCounter.inc();
-                    } else {
-                        conditionMissesCounter.inc();
-                        return;
-                    }
+                if (!recordCondition(conditionMatches(field))) {
+                    return;
                 }
             }
 
             try (final Timer.Context ignored2 = executionTimer.time()) {
-                Result[] results;
-                try {
-                    results = run(field);
-                } catch (ExtractorException e) {
-                    final String error = "Could not apply extractor <" + getTitle() + " (" + getId() + ")>";
-                    msg.addProcessingError(new Message.ProcessingError(
-                            ProcessingFailureCause.ExtractorException, error, ExceptionUtils.getRootCauseMessage(e)));
-                    return;
-                }
+                extract(msg, field, true);
+            }
+        }
+    }
 
-                if (results == null || results.length == 0 || Arrays.stream(results).anyMatch(result -> result.getValue() == null)) {
-                    return;
-                } else if (results.length == 1 && results[0].target == null) {
-                    // results[0].target is null if this extractor cannot produce multiple fields use targetField in that case
-                    msg.addField(targetField, results[0].getValue());
-                } else {
-                    for (final Result result : results) {
-                        msg.addField(result.getTarget(), result.getValue());
-                    }
-                }
+    /**
+     * Runs the extractor on an already read source field value and an already evaluated condition, without
+     * recording any timer metrics. Used by callers which evaluate the conditions of several extractors at once
+     * and sample the timers themselves.
+     *
+     * @param msg              the message to run the extractor on
+     * @param field            the current value of the source field or {@code null} if it isn't a string
+     * @param conditionMatched the result of {@link #conditionMatches(String)} for the given field value
+     */
+    public void runExtractor(Message msg, @Nullable String field, boolean conditionMatched) {
+        if (field == null) {
+            conditionMissesCounter.inc();
+            return;
+        }
+        if (recordCondition(conditionMatched)) {
+            extract(msg, field, false);
+        }
+    }
 
-                // Remove original from message?
-                if (cursorStrategy.equals(CursorStrategy.CUT) && !targetField.equals(sourceField) && !Message.RESERVED_FIELDS.contains(sourceField) && results[0].beginIndex != -1) {
-                    final StringBuilder sb = new StringBuilder(field);
+    /**
+     * Evaluates the extractor condition against the given source field value.
+     *
+     * @param field the source field value
+     * @return {@code true} if the extractor should run on the value, {@code false} otherwise
+     */
+    public boolean conditionMatches(String field) {
+        if (conditionType.equals(ConditionType.STRING)) {
+            return field.contains(conditionValue);
+        } else if (conditionType.equals(ConditionType.REGEX)) {
+            return regexConditionPattern.matcher(field).find();
+        }
+        return true;
+    }
 
-                    final List<Result> reverseList = Arrays.stream(results)
-                            .sorted(Comparator.<Result>comparingInt(result -> result.endIndex).reversed())
-                            .collect(Collectors.toList());
+    private boolean recordCondition(boolean matched) {
+        if (conditionType.equals(ConditionType.NONE)) {
+            return true;
+        }
+        if (matched) {
+            conditionHitsCounter.inc();
+        } else {
+            conditionMissesCounter.inc();
+        }
+        return matched;
+    }
+
+    private void extract(Message msg, String field, boolean timed) {
+        Result[] results;
+        try {
+            results = run(field);
+        } catch (ExtractorException e) {
+            final String error = "Could not apply extractor <" + getTitle() + " (" + getId() + ")>";
+            msg.addProcessingError(new Message.ProcessingError(
+                    ProcessingFailureCause.ExtractorException, error, ExceptionUtils.getRootCauseMessage(e)));
+            return;
+        }
 
-                    // remove all from reverse so that the indices still match
-                    for (final Result result : reverseList) {
-                        sb.delete(result.getBeginIndex(), result.getEndIndex());
-                    }
+        if (results == null || results.length == 0 || Arrays.stream(results).anyMatch(result -> result.getValue() == null)) {
+            return;
+        } else if (results.length == 1 && results[0].target == null) {
+            // results[0].target is null if this extractor cannot produce multiple fields use targetField in that case
+            msg.addField(targetField, results[0].getValue());
+        } else {
+            for (final Result result : results) {
+                msg.addField(result.getTarget(), result.getValue());
+            }
+        }
 
-                    final String builtString = sb.toString();
-                    final String finalResult = builtString.trim().isEmpty() ? "fullyCutByExtractor" : builtString;
+        // Remove original from message?
+        if (cursorStrategy.equals(CursorStrategy.CUT) && !targetField.equals(sourceField) && !Message.RESERVED_FIELDS.contains(sourceField) && results[0].beginIndex != -1) {
+            final StringBuilder sb = new StringBuilder(field);
 
-                    msg.removeField(sourceField);
-                    // TODO don't add an empty field back, or rather don't add fullyCutByExtractor
-                    msg.addField(sourceField, finalResult);
-                }
+            final List<Result> reverseList = Arrays.stream(results)
+                    .sorted(Comparator.<Result>comparingInt(result -> result.endIndex).reversed())
+                    .collect(Collectors.toList());
 
-                runConverters(msg);
+            // remove all from reverse so that the indices still match
+            for (final Result result : reverseList) {
+                sb.delete(result.getBeginIndex(), result.getEndIndex());
             }
+
+            final String builtString = sb.toString();
+            final String finalResult = builtString.trim().isEmpty() ? "fullyCutByExtractor" : builtString;
+
+            msg.removeField(sourceField);
+            // TODO don't add an empty field back, or rather don't add fullyCutByExtractor
+            msg.addField(sourceField, finalResult);
         }
+
+        runConverters(msg, timed);
     }
 
-    private void runConverters(Message msg) {
-        try(final Timer.Context ignored = converterTimer.time()) {
+    private void runConverters(Message msg, boolean timed) {
+        try(final Timer.Context ignored = timed ? converterTimer.time() : null) {
             for (Converter converter : converters) {
                 try {
                     if (!(msg.getField(targetField) instanceof String)) {
@@ -41,7 +41,9 @@ import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public abstract class MessageInput implements Stoppable {
@@ -370,24 +372,57 @@ public abstract class MessageInput implements Stoppable {
     }
 
     public void processRawMessage(RawMessage rawMessage) {
-        final int payloadLength = rawMessage.getPayload().length;
-        if (payloadLength == 0) {
+        if (!prepareRawMessage(rawMessage)) {
+            return;
+        }
+
+        inputBuffer.insert(rawMessage);
+
+        markIncoming(rawMessage.getPayload().length);
+    }
+
+    /**
+     * Inserts the given messages into the input buffer as one batch. Empty messages are discarded and their
+     * write callback is run right away.
+     *
+     * @param rawMessages the messages to process
+     */
+    public void processRawMessages(List<RawMessage> rawMessages) {
+        final List<RawMessage> batch = new ArrayList<>(rawMessages.size());
+        for (RawMessage rawMessage : rawMessages) {
+            if (prepareRawMessage(rawMessage)) {
+                batch.add(rawMessage);
+            } else if (rawMessage.getWriteCallback() != null) {
+                rawMessage.getWriteCallback().run();
+            }
+        }
+
+        inputBuffer.insertAll(batch);
+
+        for (RawMessage rawMessage : batch) {
+            markIncoming(rawMessage.getPayload().length);
+        }
+    }
+
+    private boolean prepareRawMessage(RawMessage rawMessage) {
+        if (rawMessage.getPayload().length == 0) {
             LOG.debug("Discarding empty message {} from input [{}/{}] (remote address {}). Turn logger org.graylog2.plugin.journal.RawMessage to TRACE to see originating stack trace.",
                       rawMessage.getId(),
                       getTitle(),
                       getId(),
                       rawMessage.getRemoteAddress() == null ? "unknown" : rawMessage.getRemoteAddress());
             emptyMessages.inc();
-            return;
+            return false;
         }
 
         // add the common message metadata for this input/codec
         rawMessage.setCodecName(codec.getName());
         rawMessage.setCodecConfig(codecConfig);
         rawMessage.addSourceNode(getId(), serverStatus.getNodeId());
+        return true;
+    }
 
-        inputBuffer.insert(rawMessage);
-
+    private void markIncoming(int payloadLength) {
         incomingMessages.mark();
         globalIncomingMessages.inc();
         rawSize.mark(payloadLength);
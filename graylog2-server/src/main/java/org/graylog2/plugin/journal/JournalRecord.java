@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.plugin.journal;
+
+import javax.annotation.Nullable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Flyweight reader for the compact binary journal record format written by {@link RawMessage#encode()}.
+ * <p>
+ * The record is parsed once when it gets wrapped to find the offsets of its variable length parts. All accessors read
+ * from the wrapped buffer directly and variable length parts are returned as slices of it, so the payload, source nodes,
+ * remote address and codec configuration of a journal entry are never copied. The returned slices share their content
+ * with the journal buffer and must not be modified.
+ * </p>
+ * <p>
+ * Layout (all numbers are big-endian, lengths are unsigned):
+ * <pre>
+ * byte    magic (0x00, a protobuf encoded message can never start with it)
+ * byte    format version
+ * long    uuid time
+ * long    uuid clock sequence and node
+ * long    timestamp (milliseconds since epoch)
+ * short   codec name length, UTF-8 codec name
+ * int     codec config length, UTF-8 JSON codec config
+ * byte    source node count, per node:
+ *           byte  type ordinal
+ *           short node id length, UTF-8 node id
+ *           short input id length, UTF-8 input id
+ * byte    remote address length (0 if there is no remote address), address bytes, followed by
+ *           int   port
+ *           short resolved hostname length (0 if not resolved), UTF-8 hostname
+ * int     payload length, payload bytes
+ * </pre>
+ * </p>
+ */
+public final class JournalRecord {
+    static final byte MAGIC = 0x00;
+    public static final byte FORMAT_VERSION = 2;
+
+    private static final int MAX_SHORT_LENGTH = 0xFFFF;
+    private static final int MAX_SOURCE_NODES = 0xFF;
+    private static final int FIXED_HEADER_LENGTH = 2 + 3 * Long.BYTES;
+
+    private static final RawMessage.SourceNode.Type[] SOURCE_NODE_TYPES = RawMessage.SourceNode.Type.values();
+
+    private final ByteBuffer buffer;
+    private final int version;
+    private final long uuidTime;
+    private final long uuidClockSeq;
+    private final long timestamp;
+    private final int codecNameOffset;
+    private final int codecNameLength;
+    private final int codecConfigOffset;
+    private final int codecConfigLength;
+    private final int[] sourceNodeOffsets;
+    private final int remoteAddressOffset;
+    private final int remoteAddressLength;
+    private final int remotePort;
+    private final int remoteHostnameOffset;
+    private final int remoteHostnameLength;
+    private final int payloadOffset;
+    private final int payloadLength;
+
+    private JournalRecord(ByteBuffer buffer) {
+        this.buffer = buffer;
+        int position = buffer.position();
+
+        checkArgument(buffer.get(position) == MAGIC, "Not a compact journal record");
+        this.version = buffer.get(position + 1);
+        checkArgument(version == FORMAT_VERSION, "Unsupported journal record version %s", version);
+        this.uuidTime = buffer.getLong(position + 2);
+        this.uuidClockSeq = buffer.getLong(position + 10);
+        this.timestamp = buffer.getLong(position + 18);
+        position += FIXED_HEADER_LENGTH;
+
+        this.codecNameLength = unsignedShort(position);
+        this.codecNameOffset = position + Short.BYTES;
+        position = checkLength(codecNameOffset, codecNameLength);
+
+        this.codecConfigLength = buffer.getInt(position);
+        this.codecConfigOffset = position + Integer.BYTES;
+        position = checkLength(codecConfigOffset, codecConfigLength);
+
+        final int sourceNodeCount = Byte.toUnsignedInt(buffer.get(position++));
+        this.sourceNodeOffsets = new int[sourceNodeCount];
+        for (int i = 0; i < sourceNodeCount; i++) {
+            sourceNodeOffsets[i] = position;
+            position = checkLength(position + 1 + Short.BYTES, unsignedShort(position + 1));
+            position = checkLength(position + Short.BYTES, unsignedShort(position));
+        }
+
+        this.remoteAddressLength = Byte.toUnsignedInt(buffer.get(position++));
+        if (remoteAddressLength > 0) {
+            this.remoteAddressOffset = position;
+            position = checkLength(position, remoteAddressLength);
+            this.remotePort = buffer.getInt(position);
+            this.remoteHostnameLength = unsignedShort(position + Integer.BYTES);
+            this.remoteHostnameOffset = position + Integer.BYTES + Short.BYTES;
+            position = checkLength(remoteHostnameOffset, remoteHostnameLength);
+        } else {
+            this.remoteAddressOffset = -1;
+            this.remotePort = 0;
+            this.remoteHostnameOffset = -1;
+            this.remoteHostnameLength = 0;
+        }
+
+        this.payloadLength = buffer.getInt(position);
+        this.payloadOffset = position + Integer.BYTES;
+        checkLength(payloadOffset, payloadLength);
+    }
+
+    /**
+     * Checks whether the given buffer starts with a compact journal record, as opposed to a legacy protobuf encoded
+     * {@link JournalMessages.JournalMessage}.
+     *
+     * @param buffer the journal entry, starting at its position
+     * @return {@code true} if the entry is a compact journal record
+     */
+    public static boolean isCompactRecord(ByteBuffer buffer) {
+        return buffer.remaining() > 1 && buffer.get(buffer.position()) == MAGIC;
+    }
+
+    /**
+     * Wraps the journal record starting at the position of the given buffer. The buffer must not be modified while
+     * the record is in use.
+     *
+     * @param buffer the journal entry
+     * @return the record
+     * @throws IllegalArgumentException if the buffer doesn't contain a valid compact journal record
+     */
+    public static JournalRecord wrap(ByteBuffer buffer) {
+        try {
+            return new JournalRecord(buffer);
+        } catch (IndexOutOfBoundsException | BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated journal record", e);
+        }
+    }
+
+    public static JournalRecord wrap(byte[] bytes) {
+        return wrap(ByteBuffer.wrap(bytes));
+    }
+
+    static byte[] encode(RawMessage message, @Nullable String codecConfigJson) {
+        final byte[] codecName = utf8(message.getCodecName());
+        final byte[] codecConfig = utf8(codecConfigJson);
+        final RawMessage.SourceNode[] sourceNodes = message.getSourceNodes().toArray(new RawMessage.SourceNode[0]);
+        final byte[][] sourceNodeIds = new byte[sourceNodes.length][];
+        final byte[][] sourceNodeInputIds = new byte[sourceNodes.length][];
+        final byte[] remoteAddress = message.getRemoteAddressBytes();
+        final byte[] remoteHostname = utf8(message.getRemoteHostname());
+        final ByteBuffer payload = message.getPayloadBuffer();
+
+        checkArgument(codecName.length <= MAX_SHORT_LENGTH, "Codec name too long");
+        checkArgument(sourceNodes.length <= MAX_SOURCE_NODES, "Too many source nodes");
+        checkArgument(remoteAddress == null || remoteAddress.length <= 0xFF, "Invalid remote address");
+        checkArgument(remoteHostname.length <= MAX_SHORT_LENGTH, "Remote hostname too long");
+
+        int size = FIXED_HEADER_LENGTH + Short.BYTES + codecName.length + Integer.BYTES + codecConfig.length + 1;
+        for (int i = 0; i < sourceNodes.length; i++) {
+            sourceNodeIds[i] = utf8(sourceNodes[i].nodeId);
+            sourceNodeInputIds[i] = utf8(sourceNodes[i].inputId);
+            checkArgument(sourceNodeIds[i].length <= MAX_SHORT_LENGTH && sourceNodeInputIds[i].length <= MAX_SHORT_LENGTH,
+                    "Source node id too long");
+            size += 1 + Short.BYTES + sourceNodeIds[i].length + Short.BYTES + sourceNodeInputIds[i].length;
+        }
+        size += 1;
+        if (remoteAddress != null) {
+            size += remoteAddress.length + Integer.BYTES + Short.BYTES + remoteHostname.length;
+        }
+        size += Integer.BYTES + payload.remaining();
+
+        final byte[] record = new byte[size];
+        final ByteBuffer out = ByteBuffer.wrap(record);
+        out.put(MAGIC)
+                .put(FORMAT_VERSION)
+                .putLong(message.getId().getTime())
+                .putLong(message.getId().getClockSeqAndNode())
+                .putLong(message.getTimestampMillis())
+                .putShort((short) codecName.length).put(codecName)
+                .putInt(codecConfig.length).put(codecConfig)
+                .put((byte) sourceNodes.length);
+        for (int i = 0; i < sourceNodes.length; i++) {
+            final RawMessage.SourceNode.Type type = sourceNodes[i].type == null ? RawMessage.SourceNode.Type.SERVER : sourceNodes[i].type;
+            out.put((byte) type.ordinal())
+                    .putShort((short) sourceNodeIds[i].length).put(sourceNodeIds[i])
+                    .putShort((short) sourceNodeInputIds[i].length).put(sourceNodeInputIds[i]);
+        }
+        if (remoteAddress != null) {
+            out.put((byte) remoteAddress.length).put(remoteAddress)
+                    .putInt(message.getRemotePort())
+                    .putShort((short) remoteHostname.length).put(remoteHostname);
+        } else {
+            out.put((byte) 0);
+        }
+        out.putInt(payload.remaining()).put(payload);
+
+        return record;
+    }
+
+    private static byte[] utf8(@Nullable String value) {
+        return value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private int unsignedShort(int index) {
+        return Short.toUnsignedInt(buffer.getShort(index));
+    }
+
+    private int checkLength(int offset, int length) {
+        if (length < 0 || offset + length > buffer.limit()) {
+            throw new IndexOutOfBoundsException("Journal record field exceeds the record length");
+        }
+        return offset + length;
+    }
+
+    private ByteBuffer slice(int offset, int length) {
+        final ByteBuffer slice = buffer.duplicate();
+        slice.limit(offset + length).position(offset);
+        return slice.slice();
+    }
+
+    private String string(int offset, int length) {
+        if (length == 0) {
+            return "";
+        }
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + offset, length, StandardCharsets.UTF_8);
+        }
+        return StandardCharsets.UTF_8.decode(slice(offset, length)).toString();
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public long getUuidTime() {
+        return uuidTime;
+    }
+
+    public long getUuidClockSeq() {
+        return uuidClockSeq;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getCodecName() {
+        return string(codecNameOffset, codecNameLength);
+    }
+
+    /**
+     * @return the UTF-8 encoded JSON codec configuration, empty if the codec has no configuration
+     */
+    public ByteBuffer getCodecConfig() {
+        return slice(codecConfigOffset, codecConfigLength);
+    }
+
+    @Nullable
+    public String getCodecConfigJson() {
+        return codecConfigLength == 0 ? null : string(codecConfigOffset, codecConfigLength);
+    }
+
+    public int getSourceNodeCount() {
+        return sourceNodeOffsets.length;
+    }
+
+    public RawMessage.SourceNode.Type getSourceNodeType(int index) {
+        final int ordinal = buffer.get(sourceNodeOffsets[index]);
+        return ordinal >= 0 && ordinal < SOURCE_NODE_TYPES.length ? SOURCE_NODE_TYPES[ordinal] : RawMessage.SourceNode.Type.SERVER;
+    }
+
+    /**
+     * @return the UTF-8 encoded node ID of the source node at the given index
+     */
+    public ByteBuffer getSourceNodeId(int index) {
+        final int offset = sourceNodeOffsets[index] + 1;
+        return slice(offset + Short.BYTES, unsignedShort(offset));
+    }
+
+    /**
+     * @return the UTF-8 encoded input ID of the source node at the given index
+     */
+    public ByteBuffer getSourceNodeInputId(int index) {
+        final int idOffset = sourceNodeOffsets[index] + 1;
+        final int offset = idOffset + Short.BYTES + unsignedShort(idOffset);
+        return slice(offset + Short.BYTES, unsignedShort(offset));
+    }
+
+    public RawMessage.SourceNode getSourceNode(int index) {
+        final int idOffset = sourceNodeOffsets[index] + 1;
+        final int idLength = unsignedShort(idOffset);
+        final int inputIdOffset = idOffset + Short.BYTES + idLength;
+        return new RawMessage.SourceNode(
+                string(idOffset + Short.BYTES, idLength),
+                string(inputIdOffset + Short.BYTES, unsignedShort(inputIdOffset)),
+                getSourceNodeType(index));
+    }
+
+    public boolean hasRemoteAddress() {
+        return remoteAddressLength > 0;
+    }
+
+    /**
+     * @return the raw IP address bytes of the remote address, or {@code null} if the record has no remote address
+     */
+    @Nullable
+    public ByteBuffer getRemoteAddress() {
+        return hasRemoteAddress() ? slice(remoteAddressOffset, remoteAddressLength) : null;
+    }
+
+    public int getRemotePort() {
+        return remotePort;
+    }
+
+    @Nullable
+    public String getRemoteHostname() {
+        return remoteHostnameLength == 0 ? null : string(remoteHostnameOffset, remoteHostnameLength);
+    }
+
+    public ByteBuffer getPayload() {
+        return slice(payloadOffset, payloadLength);
+    }
+
+    public int getPayloadLength() {
+        return payloadLength;
+    }
+}
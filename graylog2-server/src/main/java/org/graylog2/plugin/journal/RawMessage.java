@@ -18,9 +18,9 @@ package org.graylog2.plugin.journal;
 
 import com.eaio.uuid.UUID;
 import com.google.common.base.MoreObjects;
-import com.google.common.collect.Lists;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import com.google.protobuf.ByteString;
-import com.google.protobuf.UninitializedMessageException;
 import org.graylog2.plugin.ResolvableInetSocketAddress;
 import org.graylog2.plugin.Tools;
 import org.graylog2.plugin.configuration.Configuration;
@@ -33,17 +33,21 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Strings.isNullOrEmpty;
+import static com.google.common.base.Strings.nullToEmpty;
 import static org.graylog2.plugin.journal.JournalMessages.JournalMessage;
 
 /**
@@ -58,16 +62,30 @@ import static org.graylog2.plugin.journal.JournalMessages.JournalMessage;
  * as well as an opaque meta data structure.<br>
  * The format of the meta data is not stable yet, but will likely be a JSON string.
  * </p>
+ * <p>
+ * Raw messages are written to the journal in the compact {@link JournalRecord} format. Messages read from the journal
+ * are backed by the journal bytes, the payload, source nodes and codec configuration are only materialized on access.
+ * Journal entries written in the legacy protobuf format by older versions are still readable.
+ * </p>
  */
 public class RawMessage implements Serializable {
-    public static final byte CURRENT_VERSION = 1;
+    public static final byte CURRENT_VERSION = JournalRecord.FORMAT_VERSION;
 
     private static final Logger log = LoggerFactory.getLogger(RawMessage.class);
 
-    private transient final JournalMessage.Builder msgBuilder;
+    private transient JournalRecord record;
     private final UUID id;
+    private final int version;
+    private final long timestamp;
     private Object messageQueueId;
     private Configuration codecConfig;
+    private String codecName;
+    private byte[] payload;
+    private List<SourceNode> sourceNodes;
+    private byte[] remoteAddress;
+    private int remotePort;
+    private String remoteHostname;
+    private transient Runnable writeCallback;
 
     public RawMessage(@Nonnull byte[] payload) {
         this(payload, (ResolvableInetSocketAddress)null);
@@ -81,6 +99,9 @@ public class RawMessage implements Serializable {
         this(Long.MIN_VALUE, new UUID(), Tools.nowUTC(), remoteAddress, payload);
     }
 
+    /**
+     * Creates a new raw message. The payload is not copied and must not be modified afterwards.
+     */
     public RawMessage(long journalOffset,
                       @Nonnull UUID id,
                       DateTime timestamp,
@@ -95,36 +116,51 @@ public class RawMessage implements Serializable {
                       new Throwable());
         }
 
-        msgBuilder = JournalMessage.newBuilder();
-
         this.messageQueueId = journalOffset;
-        msgBuilder.setVersion(CURRENT_VERSION);
-
+        this.version = CURRENT_VERSION;
         this.id = id;
-        msgBuilder.setUuidTime(id.time);
-        msgBuilder.setUuidClockseq(id.clockSeqAndNode);
-
-        msgBuilder.setTimestamp(timestamp.getMillis());
+        this.timestamp = timestamp.getMillis();
         if (null != remoteAddress) {
             setRemoteAddress(remoteAddress);
         }
-
-        msgBuilder.setPayload(ByteString.copyFrom(payload));
+        this.payload = payload;
+        this.sourceNodes = new ArrayList<>(1);
     }
 
     public void addSourceNode(String sourceInputId, NodeId nodeId) {
-        msgBuilder.addSourceNodesBuilder()
-                  .setInputId(sourceInputId)
-                  .setId(nodeId.toString())
-                  .setType(JournalMessages.SourceNode.Type.SERVER)
-                  .build();
+        materialize();
+        sourceNodes.add(new SourceNode(nodeId.toString(), sourceInputId, SourceNode.Type.SERVER));
     }
 
     public RawMessage(JournalMessage journalMessage, Object messageQueueId) {
         this.messageQueueId = messageQueueId;
-        id = new UUID(journalMessage.getUuidTime(), journalMessage.getUuidClockseq());
-        msgBuilder = JournalMessage.newBuilder(journalMessage);
-        codecConfig = Configuration.deserializeFromJson(journalMessage.getCodec().getConfig());
+        this.version = journalMessage.getVersion();
+        this.id = new UUID(journalMessage.getUuidTime(), journalMessage.getUuidClockseq());
+        this.timestamp = journalMessage.getTimestamp();
+        this.codecName = journalMessage.getCodec().getName();
+        this.codecConfig = Configuration.deserializeFromJson(journalMessage.getCodec().getConfig());
+        this.payload = journalMessage.getPayload().toByteArray();
+
+        this.sourceNodes = new ArrayList<>(journalMessage.getSourceNodesCount());
+        for (final JournalMessages.SourceNode node : journalMessage.getSourceNodesList()) {
+            sourceNodes.add(new SourceNode(node));
+        }
+
+        if (journalMessage.hasRemote()) {
+            final JournalMessages.RemoteAddress remote = journalMessage.getRemote();
+            this.remoteAddress = remote.getAddress().toByteArray();
+            this.remotePort = remote.hasPort() ? remote.getPort() : 0;
+            this.remoteHostname = remote.hasResolved() ? remote.getResolved() : null;
+        }
+    }
+
+    private RawMessage(JournalRecord record, Object messageQueueId) {
+        this.record = record;
+        this.messageQueueId = messageQueueId;
+        this.version = record.getVersion();
+        this.id = new UUID(record.getUuidTime(), record.getUuidClockSeq());
+        this.timestamp = record.getTimestamp();
+        this.codecName = record.getCodecName();
     }
 
     @Nullable
@@ -133,12 +169,12 @@ public class RawMessage implements Serializable {
             log.error("Cannot read <null> message from journal, ignoring this message.");
             return null;
         }
+        final ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+        if (JournalRecord.isCompactRecord(byteBuffer)) {
+            return decodeRecord(byteBuffer, messageQueueId);
+        }
         try {
-            final JournalMessage journalMessage = JournalMessage.parseFrom(buffer);
-
-            // TODO validate message based on field contents and version number
-
-            return new RawMessage(journalMessage, messageQueueId);
+            return decodeLegacy(JournalMessage.parseFrom(buffer), messageQueueId);
         } catch (IOException e) {
             log.error("Cannot read raw message from journal, ignoring this message.", e);
             return null;
@@ -147,49 +183,124 @@ public class RawMessage implements Serializable {
 
     @Nullable
     public static RawMessage decode(final byte[] buffer, final long journalOffset) {
-        try {
-            final JournalMessage journalMessage = JournalMessage.parseFrom(buffer);
-
-            // TODO validate message based on field contents and version number
+        return decode(buffer, (Object) journalOffset);
+    }
 
-            return new RawMessage(journalMessage, journalOffset);
+    /**
+     * Decodes the journal entry between the position and the limit of the given buffer. Entries in the compact journal
+     * record format are not copied, the returned message reads from the buffer which therefore must not be modified
+     * afterwards.
+     *
+     * @param buffer         the journal entry
+     * @param messageQueueId the message queue ID of the entry
+     * @return the decoded message or {@code null} if the entry couldn't be decoded
+     */
+    @Nullable
+    public static RawMessage decode(final ByteBuffer buffer, final Object messageQueueId) {
+        if (JournalRecord.isCompactRecord(buffer)) {
+            return decodeRecord(buffer, messageQueueId);
+        }
+        try {
+            return decodeLegacy(JournalMessage.parseFrom(ByteString.copyFrom(buffer.duplicate())), messageQueueId);
         } catch (IOException e) {
             log.error("Cannot read raw message from journal, ignoring this message.", e);
             return null;
         }
     }
 
-    public byte[] encode() {
+    @Nullable
+    private static RawMessage decodeRecord(ByteBuffer buffer, Object messageQueueId) {
         try {
-            final JournalMessages.CodecInfo codec = msgBuilder.getCodec();
-            final JournalMessages.CodecInfo.Builder builder = JournalMessages.CodecInfo.newBuilder(codec);
+            return new RawMessage(JournalRecord.wrap(buffer), messageQueueId);
+        } catch (IllegalArgumentException e) {
+            log.error("Cannot read raw message from journal, ignoring this message.", e);
+            return null;
+        }
+    }
 
-            final String codecConfigJson = codecConfig.serializeToJson();
-            if (codecConfigJson != null) {
-                builder.setConfig(codecConfigJson);
-            }
-            msgBuilder.setCodec(builder.build());
+    private static RawMessage decodeLegacy(JournalMessage journalMessage, Object messageQueueId) {
+        // Entries written by versions before the compact journal record format are protobuf encoded.
+        // TODO validate message based on field contents and version number
+        return new RawMessage(journalMessage, messageQueueId);
+    }
 
-            final JournalMessage journalMessage = msgBuilder.build();
-            return journalMessage.toByteArray();
-        } catch (UninitializedMessageException e) {
+    @Nullable
+    public byte[] encode() {
+        try {
+            final String codecConfigJson = codecConfig == null ? null : codecConfig.serializeToJson();
+            return JournalRecord.encode(this, codecConfigJson);
+        } catch (IllegalArgumentException e) {
             log.error(
-                    "Unable to write RawMessage to journal because required fields are missing, " +
+                    "Unable to write RawMessage to journal because it cannot be encoded, " +
                             "this message will be discarded. This is a bug.", e);
             return null;
         }
     }
 
+    /**
+     * Copies everything still backed by the journal record into this message, before it gets modified.
+     */
+    private void materialize() {
+        if (record == null) {
+            return;
+        }
+        getPayload();
+        getCodecConfig();
+        getSourceNodes();
+        if (record.hasRemoteAddress()) {
+            final ByteBuffer address = record.getRemoteAddress();
+            this.remoteAddress = new byte[address.remaining()];
+            address.get(remoteAddress);
+            this.remotePort = record.getRemotePort();
+            this.remoteHostname = record.getRemoteHostname();
+        }
+        this.record = null;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        materialize();
+        out.defaultWriteObject();
+    }
+
     public int getVersion() {
-        return msgBuilder.getVersion();
+        return version;
     }
 
     public DateTime getTimestamp() {
-        return new DateTime(msgBuilder.getTimestamp(), DateTimeZone.UTC); // TODO PERFORMANCE object creation
+        return new DateTime(timestamp, DateTimeZone.UTC); // TODO PERFORMANCE object creation
+    }
+
+    long getTimestampMillis() {
+        return timestamp;
     }
 
+    /**
+     * Returns the payload of this message. The returned array is not a copy and must not be modified.
+     *
+     * @return the payload
+     */
     public byte[] getPayload() {
-        return msgBuilder.getPayload().toByteArray(); // TODO PERFORMANCE array copy
+        if (payload == null) {
+            final ByteBuffer buffer = record.getPayload();
+            if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.remaining() == buffer.array().length) {
+                payload = buffer.array();
+            } else {
+                // The payload is only a part of the journal entry, this is the only copy made for it.
+                payload = new byte[buffer.remaining()];
+                buffer.get(payload);
+            }
+        }
+        return payload;
+    }
+
+    /**
+     * Returns the payload of this message without copying it, for messages read from the journal this is a slice of
+     * the journal entry. The content of the returned buffer must not be modified.
+     *
+     * @return the payload
+     */
+    public ByteBuffer getPayloadBuffer() {
+        return payload != null ? ByteBuffer.wrap(payload) : record.getPayload();
     }
 
     public UUID getId() {
@@ -208,60 +319,103 @@ public class RawMessage implements Serializable {
 
     @Nullable
     public ResolvableInetSocketAddress getRemoteAddress() {
-        if (msgBuilder.hasRemote()) {
-            final JournalMessages.RemoteAddress address = msgBuilder.getRemote();
+        final byte[] address = getRemoteAddressBytes();
+        if (address != null) {
             final InetAddress inetAddr;
             try {
-                inetAddr = InetAddress.getByAddress(address.getResolved(), address.getAddress().toByteArray());
+                inetAddr = InetAddress.getByAddress(getRemoteHostname(), address);
             } catch (UnknownHostException e) {
                 log.warn("Malformed InetAddress for message {}, expected 4 or 16 bytes, but got {} bytes",
-                         id, address.getAddress().toByteArray());
+                         id, address.length);
                 return null;
             }
 
-            final int port = address.hasPort() ? address.getPort() : 0;
             // TODO PERFORMANCE object creation
-            return ResolvableInetSocketAddress.wrap(new InetSocketAddress(inetAddr, port));
+            return ResolvableInetSocketAddress.wrap(new InetSocketAddress(inetAddr, getRemotePort()));
         }
         return null;
     }
 
+    @Nullable
+    byte[] getRemoteAddressBytes() {
+        if (record != null) {
+            final ByteBuffer address = record.getRemoteAddress();
+            if (address == null) {
+                return null;
+            }
+            final byte[] bytes = new byte[address.remaining()];
+            address.get(bytes);
+            return bytes;
+        }
+        return remoteAddress;
+    }
+
+    int getRemotePort() {
+        return record != null ? record.getRemotePort() : remotePort;
+    }
+
+    @Nullable
+    String getRemoteHostname() {
+        return record != null ? record.getRemoteHostname() : remoteHostname;
+    }
+
     public void setRemoteAddress(ResolvableInetSocketAddress address) {
-        final JournalMessages.RemoteAddress.Builder builder = msgBuilder.getRemoteBuilder();
-        builder.setAddress(ByteString.copyFrom(address.getAddressBytes()))
-                .setPort(address.getPort());
+        materialize();
+        this.remoteAddress = address.getAddressBytes();
+        this.remotePort = address.getPort();
 
         // do not perform any reverse lookup here
-        if (address.isReverseLookedUp()) {
-            builder.setResolved(address.getHostName());
-        }
+        this.remoteHostname = address.isReverseLookedUp() ? address.getHostName() : null;
     }
 
     public String getCodecName() {
-        return msgBuilder.getCodecBuilder().getName();
+        return codecName == null ? "" : codecName;
     }
 
     public void setCodecName(String name) {
         checkArgument(!isNullOrEmpty(name), "The payload type must not be null or empty!");
-        msgBuilder.getCodecBuilder().setName(name);
+        this.codecName = name;
     }
 
     public Configuration getCodecConfig() {
+        if (codecConfig == null && record != null) {
+            codecConfig = Configuration.deserializeFromJson(record.getCodecConfigJson());
+        }
         return codecConfig;
     }
 
     public void setCodecConfig(Configuration codecConfig) {
+        materialize();
         this.codecConfig = codecConfig;
     }
 
-    public List<SourceNode> getSourceNodes() {
-        final ArrayList<SourceNode> list = Lists.newArrayList();
+    /**
+     * Returns a fingerprint of the codec configuration, equal configurations have equal fingerprints. For messages read
+     * from the journal it is computed from the serialized configuration, without deserializing it.
+     *
+     * @return the fingerprint of the codec configuration
+     */
+    public HashCode getCodecConfigFingerprint() {
+        if (record != null) {
+            return Hashing.murmur3_128().hashBytes(record.getCodecConfig());
+        }
+        final String codecConfigJson = codecConfig == null ? null : codecConfig.serializeToJson();
+        return Hashing.murmur3_128().hashString(nullToEmpty(codecConfigJson), StandardCharsets.UTF_8);
+    }
 
-        for (final JournalMessages.SourceNode node : msgBuilder.getSourceNodesList()) {
-            list.add(new SourceNode(node));
+    /**
+     * @return the unmodifiable list of nodes which have handled this message, in receive order
+     */
+    public List<SourceNode> getSourceNodes() {
+        if (sourceNodes == null) {
+            final List<SourceNode> nodes = new ArrayList<>(record.getSourceNodeCount());
+            for (int i = 0; i < record.getSourceNodeCount(); i++) {
+                nodes.add(record.getSourceNode(i));
+            }
+            sourceNodes = nodes;
         }
 
-        return list;
+        return Collections.unmodifiableList(sourceNodes);
     }
 
     @Override
@@ -270,7 +424,7 @@ public class RawMessage implements Serializable {
         helper.add("id", getId())
                 .add("messageQueueId", getMessageQueueId())
                 .add("codec", getCodecName())
-                .add("payloadSize", getPayload().length)
+                .add("payloadSize", getPayloadBuffer().remaining())
                 .add("timestamp", getTimestamp());
         if (getRemoteAddress() != null) {
             helper.add("remoteAddress", getRemoteAddress().getInetSocketAddress().toString());
@@ -282,6 +436,21 @@ public class RawMessage implements Serializable {
         return messageQueueId;
     }
 
+    /**
+     * Sets a callback which is run once the message has been written to the journal, or handed to the process
+     * buffer if the journal is disabled. The callback is not persisted.
+     *
+     * @param writeCallback the callback, must not block
+     */
+    public void setWriteCallback(@Nullable Runnable writeCallback) {
+        this.writeCallback = writeCallback;
+    }
+
+    @Nullable
+    public Runnable getWriteCallback() {
+        return writeCallback;
+    }
+
     /**
      * @deprecated use {@link #getMessageQueueId()} instead
      */
@@ -293,7 +462,7 @@ public class RawMessage implements Serializable {
         return (long) messageQueueId;
     }
 
-    public static class SourceNode {
+    public static class SourceNode implements Serializable {
         public String nodeId;
         public String inputId;
         public Type type;
@@ -304,6 +473,12 @@ public class RawMessage implements Serializable {
             RADIO
         }
 
+        public SourceNode(String nodeId, String inputId, Type type) {
+            this.nodeId = nodeId;
+            this.inputId = inputId;
+            this.type = type;
+        }
+
         public SourceNode(JournalMessages.SourceNode node) {
             this.nodeId = node.getId();
             this.inputId = node.getInputId();
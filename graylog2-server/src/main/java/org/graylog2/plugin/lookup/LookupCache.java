@@ -28,9 +28,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.Callable;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 import static org.graylog2.utilities.ObjectUtils.objectId;
 
@@ -153,6 +158,23 @@ public abstract class LookupCache extends AbstractIdleService {
 
     public abstract LookupResult get(LookupCacheKey key, Callable<LookupResult> loader);
 
+    /**
+     * Returns the values of all given keys. Caches which support it load all missing keys with a single call of the
+     * given loader, the default implementation loads every missing key on its own.
+     *
+     * @param keys   the keys to look up
+     * @param loader loads the values of the given missing keys, must return an entry for every key
+     * @return the values by key, contains an entry for every given key
+     */
+    public Map<LookupCacheKey, LookupResult> getAll(Collection<LookupCacheKey> keys,
+                                                    Function<Collection<LookupCacheKey>, Map<LookupCacheKey, LookupResult>> loader) {
+        final Map<LookupCacheKey, LookupResult> results = new HashMap<>(keys.size());
+        for (LookupCacheKey key : keys) {
+            results.put(key, get(key, () -> loader.apply(Collections.singleton(key)).get(key)));
+        }
+        return results;
+    }
+
     public abstract LookupResult getIfPresent(LookupCacheKey key);
 
     public abstract void purge();
@@ -26,7 +26,10 @@ import org.joda.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -145,6 +148,48 @@ public abstract class LookupDataAdapter extends AbstractIdleService {
     }
     protected abstract LookupResult doGet(Object key);
 
+    /**
+     * Looks up multiple keys at once.
+     *
+     * @param keys the keys to look up
+     * @return the results by key, contains an entry for every given key
+     */
+    public Map<Object, LookupResult> getAll(Collection<Object> keys) {
+        if (state() == State.FAILED) {
+            final Map<Object, LookupResult> results = new HashMap<>(keys.size());
+            keys.forEach(key -> results.put(key, getErrorResult()));
+            return results;
+        }
+        checkState(isRunning(), "Data adapter needs to be started before it can be used");
+        try (final Timer.Context ignored = requestTimer.time()) {
+            return doGetAll(keys);
+        }
+    }
+
+    /**
+     * Data adapters which can look up multiple keys more efficiently than one at a time override
+     * {@link #doGetAll(Collection)} and return {@code true} here.
+     *
+     * @return {@code true} if this data adapter implements an efficient multi-get
+     */
+    public boolean supportsMultiGet() {
+        return false;
+    }
+
+    /**
+     * Looks up multiple keys at once. The default implementation calls {@link #doGet(Object)} for every key.
+     *
+     * @param keys the keys to look up
+     * @return the results by key, must contain an entry for every given key
+     */
+    protected Map<Object, LookupResult> doGetAll(Collection<Object> keys) {
+        final Map<Object, LookupResult> results = new HashMap<>(keys.size());
+        for (Object key : keys) {
+            results.put(key, doGet(key));
+        }
+        return results;
+    }
+
     @Deprecated
     public abstract void set(Object key, Object value);
 
@@ -40,6 +40,10 @@ class DirectMessageHandler implements WorkHandler<RawMessageEvent> {
         processBuffer.insertBlocking(rawMessage);
         if (rawMessage != null) {
             processingStatusRecorder.updateIngestReceiveTime(rawMessage.getTimestamp());
+            final Runnable writeCallback = rawMessage.getWriteCallback();
+            if (writeCallback != null) {
+                writeCallback.run();
+            }
         }
         // clear out for gc and to avoid promoting the raw message event to a tenured gen
         event.clear();
@@ -34,6 +34,7 @@ import org.slf4j.LoggerFactory;
 import javax.inject.Inject;
 import javax.inject.Provider;
 import javax.inject.Singleton;
+import java.util.List;
 import java.util.concurrent.ThreadFactory;
 
 import static com.codahale.metrics.MetricRegistry.name;
@@ -103,6 +104,22 @@ public class InputBufferImpl implements InputBuffer {
         incomingMessages.mark();
     }
 
+    @Override
+    public void insertAll(List<RawMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        // A batch must not be larger than the ring buffer, so big batches are published in chunks.
+        final RawMessage[] batch = messages.toArray(new RawMessage[0]);
+        final int chunkSize = ringBuffer.getBufferSize();
+        for (int start = 0; start < batch.length; start += chunkSize) {
+            final int size = Math.min(chunkSize, batch.length - start);
+            ringBuffer.publishEvents(RawMessageEvent.TRANSLATOR, start, size, batch);
+            incomingMessages.mark(size);
+        }
+    }
+
     @Override
     public long getUsage() {
         return ringBuffer.getBufferSize() - ringBuffer.remainingCapacity();
@@ -69,10 +69,13 @@ public class JournallingMessageHandler implements EventHandler<RawMessageEvent>
 
             messageQueueWriter.write(entries);
 
-            // Release objects for GC
+            // Acknowledge the write (also for skipped entries, they will never be written) and release objects for GC
             batch.stream()
                     .filter(Objects::nonNull)
-                    .forEach(RawMessageEvent::clear);
+                    .forEach(event -> {
+                        event.acknowledgeWrite();
+                        event.clear();
+                    });
 
             batch.clear();
         }
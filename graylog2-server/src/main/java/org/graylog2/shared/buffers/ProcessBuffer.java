@@ -32,6 +32,7 @@ import org.graylog2.plugin.buffers.Buffer;
 import org.graylog2.plugin.buffers.MessageEvent;
 import org.graylog2.plugin.journal.RawMessage;
 import org.graylog2.shared.buffers.processors.DecodingProcessor;
+import org.graylog2.shared.buffers.processors.ProcessBufferBatchHandler;
 import org.graylog2.shared.buffers.processors.ProcessBufferProcessor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -58,6 +59,7 @@ public class ProcessBuffer extends Buffer {
                          DecodingProcessor.Factory decodingProcessorFactory,
                          ProcessBufferProcessor.Factory bufferProcessorFactory,
                          @Named("processbuffer_processors") int processorCount,
+                         @Named("processbuffer_batch_size") int batchSize,
                          @Named("ring_size") int ringSize,
                          @Named("processor_wait_strategy") String waitStrategyName) {
         this.ringBufferSize = ringSize;
@@ -83,14 +85,22 @@ public class ProcessBuffer extends Buffer {
         );
         disruptor.setDefaultExceptionHandler(new LoggingExceptionHandler(LOG));
 
-        LOG.info("Initialized ProcessBuffer with ring size <{}> and wait strategy <{}>.",
-                ringBufferSize, waitStrategy.getClass().getSimpleName());
+        LOG.info("Initialized ProcessBuffer with ring size <{}>, wait strategy <{}> and batch size <{}>.",
+                ringBufferSize, waitStrategy.getClass().getSimpleName(), batchSize);
 
         processors = new ProcessBufferProcessor[processorCount];
         for (int i = 0; i < processorCount; i++) {
             processors[i] = bufferProcessorFactory.create(decodingProcessorFactory.create(decodeTime, parseTime));
         }
-        disruptor.handleEventsWithWorkerPool(processors);
+        if (batchSize > 1) {
+            final ProcessBufferBatchHandler[] batchHandlers = new ProcessBufferBatchHandler[processorCount];
+            for (int i = 0; i < processorCount; i++) {
+                batchHandlers[i] = new ProcessBufferBatchHandler(processors[i], i, processorCount, batchSize);
+            }
+            disruptor.handleEventsWith(batchHandlers);
+        } else {
+            disruptor.handleEventsWithWorkerPool(processors);
+        }
 
         ringBuffer = disruptor.start();
     }
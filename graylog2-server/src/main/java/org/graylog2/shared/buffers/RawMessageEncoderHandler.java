@@ -38,6 +38,8 @@ public class RawMessageEncoderHandler implements WorkHandler<RawMessageEvent> {
     @Override
     public void onEvent(RawMessageEvent event) throws Exception {
         incomingMessages.mark();
+        // Retain the callback first, the journal handler also acknowledges events which couldn't be encoded
+        event.setWriteCallback(event.getRawMessage().getWriteCallback());
         event.setEncodedRawMessage(event.getRawMessage().encode());
         event.setMessageIdBytes(event.getRawMessage().getIdBytes());
         
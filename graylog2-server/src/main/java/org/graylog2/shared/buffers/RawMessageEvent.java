@@ -37,6 +37,9 @@ public class RawMessageEvent {
     // We need access to the raw message timestamp after the raw message has been cleared
     private DateTime messageTimestamp;
 
+    // Retained after the raw message has been cleared, see RawMessage#setWriteCallback(Runnable)
+    private Runnable writeCallback;
+
     public static final EventFactory<RawMessageEvent> FACTORY = new EventFactory<RawMessageEvent>() {
         @Override
         public RawMessageEvent newInstance() {
@@ -91,6 +94,23 @@ public class RawMessageEvent {
         this.messageTimestamp = messageTimestamp;
     }
 
+    public Runnable getWriteCallback() {
+        return writeCallback;
+    }
+
+    public void setWriteCallback(Runnable writeCallback) {
+        this.writeCallback = writeCallback;
+    }
+
+    /**
+     * Runs the write callback of the message if there is one.
+     */
+    public void acknowledgeWrite() {
+        if (writeCallback != null) {
+            writeCallback.run();
+        }
+    }
+
     // performance doesn't matter, it's only being called during tracing
     public UUID getMessageId() {
         final ByteBuffer wrap = ByteBuffer.wrap(messageIdBytes);
@@ -102,5 +122,6 @@ public class RawMessageEvent {
         this.encodedRawMessage = null;
         this.messageIdBytes = null;
         this.messageTimestamp = null;
+        this.writeCallback = null;
     }
 }
@@ -17,11 +17,15 @@
 package org.graylog2.shared.buffers.processors;
 
 import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.google.common.base.Strings;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.hash.HashCode;
 import com.google.common.net.InetAddresses;
 import com.google.inject.assistedinject.Assisted;
 import com.google.inject.assistedinject.AssistedInject;
@@ -34,6 +38,8 @@ import org.graylog2.plugin.buffers.MessageEvent;
 import org.graylog2.plugin.inputs.codecs.Codec;
 import org.graylog2.plugin.inputs.codecs.MultiMessageCodec;
 import org.graylog2.plugin.journal.RawMessage;
+import org.graylog2.rest.models.system.inputs.responses.InputDeleted;
+import org.graylog2.rest.models.system.inputs.responses.InputUpdated;
 import org.graylog2.shared.journal.Journal;
 import org.graylog2.shared.messageq.MessageQueueAcknowledger;
 import org.graylog2.shared.utilities.ExceptionUtils;
@@ -42,9 +48,13 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
@@ -53,6 +63,9 @@ import static com.codahale.metrics.MetricRegistry.name;
 public class DecodingProcessor implements EventHandler<MessageEvent> {
     private static final Logger LOG = LoggerFactory.getLogger(DecodingProcessor.class);
 
+    // Upper bound for the number of cached codecs, in case input configurations change without an input event.
+    private static final int MAX_CACHED_CODECS = 1000;
+
     private final Timer decodeTime;
     private final Counter decodedTrafficCounter;
 
@@ -67,12 +80,17 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
     private final MessageQueueAcknowledger acknowledger;
     private final Timer parseTime;
 
+    // Only accessed by the processor thread, invalidations from the event bus are handed over through the queue.
+    private final Map<CodecKey, CachedCodec> codecCache = new HashMap<>();
+    private final Queue<String> invalidatedInputs = new ConcurrentLinkedQueue<>();
+
     @AssistedInject
     public DecodingProcessor(Map<String, Codec.Factory<? extends Codec>> codecFactory,
                              final ServerStatus serverStatus,
                              final MetricRegistry metricRegistry,
                              final Journal journal,
                              MessageQueueAcknowledger acknowledger,
+                             EventBus eventBus,
                              @Assisted("decodeTime") Timer decodeTime,
                              @Assisted("parseTime") Timer parseTime) {
         this.codecFactory = codecFactory;
@@ -85,6 +103,18 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
         this.parseTime = parseTime;
         this.decodeTime = decodeTime;
         decodedTrafficCounter = metricRegistry.counter(GlobalMetricNames.DECODED_TRAFFIC);
+
+        eventBus.register(this);
+    }
+
+    @Subscribe
+    public void inputUpdated(InputUpdated inputUpdatedEvent) {
+        invalidatedInputs.add(inputUpdatedEvent.id());
+    }
+
+    @Subscribe
+    public void inputDeleted(InputDeleted inputDeletedEvent) {
+        invalidatedInputs.add(inputDeletedEvent.id());
     }
 
     @Override
@@ -132,15 +162,13 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
             inputIdOnCurrentNode = null;
         }
 
-        final Codec.Factory<? extends Codec> factory = codecFactory.get(raw.getCodecName());
-        if (factory == null) {
+        final CachedCodec cachedCodec = getCodec(raw, inputIdOnCurrentNode);
+        if (cachedCodec == null) {
             LOG.warn("Couldn't find factory for codec <{}>, skipping message {} on input <{}>.",
                     raw.getCodecName(), raw, inputIdOnCurrentNode);
             return;
         }
-
-        final Codec codec = factory.create(raw.getCodecConfig());
-        final String baseMetricName = name(codec.getClass(), inputIdOnCurrentNode);
+        final Codec codec = cachedCodec.codec;
 
         Message message = null;
         Collection<Message> messages = null;
@@ -157,19 +185,20 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
             }
         } catch (RuntimeException e) {
             LOG.error("Unable to decode raw message {} on input <{}>.", raw, inputIdOnCurrentNode);
-            metricRegistry.meter(name(baseMetricName, "failures")).mark();
+            cachedCodec.failures.mark();
             throw e;
         } finally {
             decodeTime = decodeTimeCtx.stop();
+            cachedCodec.inputDecodeTime.update(decodeTime, TimeUnit.NANOSECONDS);
         }
 
         if (message != null) {
-            event.setMessage(postProcessMessage(raw, codec, inputIdOnCurrentNode, baseMetricName, message, decodeTime));
+            event.setMessage(postProcessMessage(raw, cachedCodec, inputIdOnCurrentNode, message, decodeTime));
         } else if (messages != null && !messages.isEmpty()) {
             final List<Message> processedMessages = Lists.newArrayListWithCapacity(messages.size());
 
             for (final Message msg : messages) {
-                final Message processedMessage = postProcessMessage(raw, codec, inputIdOnCurrentNode, baseMetricName, msg, decodeTime);
+                final Message processedMessage = postProcessMessage(raw, cachedCodec, inputIdOnCurrentNode, msg, decodeTime);
 
                 if (processedMessage != null) {
                     processedMessages.add(processedMessage);
@@ -181,13 +210,38 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
     }
 
     @Nullable
-    private Message postProcessMessage(RawMessage raw, Codec codec, String inputIdOnCurrentNode, String baseMetricName, Message message, long decodeTime) {
+    private CachedCodec getCodec(RawMessage raw, @Nullable String inputId) {
+        String invalidatedInput;
+        while ((invalidatedInput = invalidatedInputs.poll()) != null) {
+            final String id = invalidatedInput;
+            codecCache.keySet().removeIf(key -> id.equals(key.inputId));
+        }
+
+        final CodecKey key = new CodecKey(inputId, raw.getCodecName(), raw.getCodecConfigFingerprint());
+        CachedCodec cachedCodec = codecCache.get(key);
+        if (cachedCodec == null) {
+            final Codec.Factory<? extends Codec> factory = codecFactory.get(raw.getCodecName());
+            if (factory == null) {
+                return null;
+            }
+            if (codecCache.size() >= MAX_CACHED_CODECS) {
+                codecCache.clear();
+            }
+            cachedCodec = new CachedCodec(factory.create(raw.getCodecConfig()), inputId, metricRegistry);
+            codecCache.put(key, cachedCodec);
+        }
+        return cachedCodec;
+    }
+
+    @Nullable
+    private Message postProcessMessage(RawMessage raw, CachedCodec cachedCodec, String inputIdOnCurrentNode, Message message, long decodeTime) {
+        final Codec codec = cachedCodec.codec;
         if (message == null) {
-            metricRegistry.meter(name(baseMetricName, "failures")).mark();
+            cachedCodec.failures.mark();
             return null;
         }
         if (!message.isComplete()) {
-            metricRegistry.meter(name(baseMetricName, "incomplete")).mark();
+            cachedCodec.incomplete.mark();
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Dropping incomplete message {} on input <{}>. Parsed fields: [{}]",
                         raw, inputIdOnCurrentNode, message.getFields());
@@ -197,7 +251,7 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
 
         message.setMessageQueueId(raw.getMessageQueueId());
         message.recordTiming(serverStatus, "parse", decodeTime);
-        metricRegistry.timer(name(baseMetricName, "parseTime")).update(decodeTime, TimeUnit.NANOSECONDS);
+        cachedCodec.parseTime.update(decodeTime, TimeUnit.NANOSECONDS);
 
         for (final RawMessage.SourceNode node : raw.getSourceNodes()) {
             switch (node.type) {
@@ -259,8 +313,62 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
         // message to the journal.
         message.setReceiveTime(raw.getTimestamp());
 
-        metricRegistry.meter(name(baseMetricName, "processedMessages")).mark();
+        cachedCodec.processedMessages.mark();
         decodedTrafficCounter.inc(message.getSize());
         return message;
     }
+
+    private static class CodecKey {
+        private final String inputId;
+        private final String codecName;
+        private final HashCode configFingerprint;
+
+        private CodecKey(@Nullable String inputId, String codecName, HashCode configFingerprint) {
+            this.inputId = inputId;
+            this.codecName = codecName;
+            this.configFingerprint = configFingerprint;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final CodecKey that = (CodecKey) o;
+            return Objects.equals(inputId, that.inputId) &&
+                    codecName.equals(that.codecName) &&
+                    configFingerprint.equals(that.configFingerprint);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(inputId, codecName, configFingerprint);
+        }
+    }
+
+    /**
+     * A codec instance together with the metrics of its input, resolved once when the codec is created.
+     */
+    private static class CachedCodec {
+        private final Codec codec;
+        private final Meter failures;
+        private final Meter incomplete;
+        private final Meter processedMessages;
+        private final Timer parseTime;
+        private final Timer inputDecodeTime;
+
+        private CachedCodec(Codec codec, @Nullable String inputId, MetricRegistry metricRegistry) {
+            this.codec = codec;
+
+            final String baseMetricName = name(codec.getClass(), inputId);
+            this.failures = metricRegistry.meter(name(baseMetricName, "failures"));
+            this.incomplete = metricRegistry.meter(name(baseMetricName, "incomplete"));
+            this.processedMessages = metricRegistry.meter(name(baseMetricName, "processedMessages"));
+            this.parseTime = metricRegistry.timer(name(baseMetricName, "parseTime"));
+            this.inputDecodeTime = metricRegistry.timer(name(DecodingProcessor.class, "decodeTime", inputId));
+        }
+    }
 }
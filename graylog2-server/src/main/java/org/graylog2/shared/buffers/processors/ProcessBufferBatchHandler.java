@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.buffers.processors;
+
+import com.lmax.disruptor.EventHandler;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.buffers.MessageEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Collects the messages of a disruptor batch and runs them through a {@link ProcessBufferProcessor} as one batch.
+ * <p>
+ * Every handler sees all events of the ring buffer, so the events are distributed round-robin by sequence between
+ * the handlers. A batch is processed when it is full or at the end of a disruptor batch, so messages never wait for
+ * more messages to arrive.
+ * </p>
+ */
+public class ProcessBufferBatchHandler implements EventHandler<MessageEvent> {
+    private final ProcessBufferProcessor processor;
+    private final int ordinal;
+    private final int numberOfHandlers;
+    private final int maxBatchSize;
+    private final List<Message> batch;
+
+    public ProcessBufferBatchHandler(ProcessBufferProcessor processor, int ordinal, int numberOfHandlers, int maxBatchSize) {
+        checkArgument(ordinal >= 0 && ordinal < numberOfHandlers, "Invalid ordinal %s for %s handlers", ordinal, numberOfHandlers);
+        checkArgument(maxBatchSize > 0, "Batch size must be positive");
+        this.processor = processor;
+        this.ordinal = ordinal;
+        this.numberOfHandlers = numberOfHandlers;
+        this.maxBatchSize = maxBatchSize;
+        this.batch = new ArrayList<>(maxBatchSize);
+    }
+
+    @Override
+    public void onEvent(MessageEvent event, long sequence, boolean endOfBatch) throws Exception {
+        try {
+            if (sequence % numberOfHandlers == ordinal) {
+                processor.decodeInto(event, batch);
+                if (batch.size() >= maxBatchSize) {
+                    flush();
+                }
+            }
+        } finally {
+            // Don't keep already decoded messages waiting for the next event if decoding failed
+            if (endOfBatch) {
+                flush();
+            }
+        }
+    }
+
+    private void flush() {
+        try {
+            processor.dispatchBatch(batch);
+        } finally {
+            batch.clear();
+        }
+    }
+}
@@ -16,6 +16,7 @@
  */
 package org.graylog2.shared.buffers.processors;
 
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
@@ -28,6 +29,7 @@ import org.graylog.failure.FailureSubmissionService;
 import org.graylog2.buffers.OutputBuffer;
 import org.graylog2.messageprocessors.OrderedMessageProcessors;
 import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageCollection;
 import org.graylog2.plugin.Messages;
 import org.graylog2.plugin.Tools;
 import org.graylog2.plugin.buffers.MessageEvent;
@@ -40,8 +42,10 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import java.util.Collection;
+import java.util.List;
 import java.util.Locale;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 import static com.codahale.metrics.MetricRegistry.name;
 import static com.google.common.base.Strings.isNullOrEmpty;
@@ -52,6 +56,8 @@ public class ProcessBufferProcessor implements WorkHandler<MessageEvent> {
     private final Meter incomingMessages;
 
     private final Timer processTime;
+    private final Timer processBatchTime;
+    private final Histogram batchSize;
     private final Meter outgoingMessages;
     private final OrderedMessageProcessors orderedMessageProcessors;
 
@@ -83,6 +89,8 @@ public class ProcessBufferProcessor implements WorkHandler<MessageEvent> {
         incomingMessages = metricRegistry.meter(name(ProcessBufferProcessor.class, "incomingMessages"));
         outgoingMessages = metricRegistry.meter(name(ProcessBufferProcessor.class, "outgoingMessages"));
         processTime = metricRegistry.timer(name(ProcessBufferProcessor.class, "processTime"));
+        processBatchTime = metricRegistry.timer(name(ProcessBufferProcessor.class, "processBatchTime"));
+        batchSize = metricRegistry.histogram(name(ProcessBufferProcessor.class, "batchSize"));
         currentMessage = null;
     }
 
@@ -112,6 +120,96 @@ public class ProcessBufferProcessor implements WorkHandler<MessageEvent> {
         }
     }
 
+    /**
+     * Decodes the raw message of the given event and adds the resulting messages to the given batch.
+     *
+     * @param event the event to decode
+     * @param batch the batch to add the decoded messages to
+     */
+    void decodeInto(MessageEvent event, List<Message> batch) throws Exception {
+        try {
+            decodingProcessor.onEvent(event, 0L, false);
+
+            if (event.isSingleMessage()) {
+                batch.add(event.getMessage());
+            } else if (event.getMessages() != null) {
+                // skip message events which could not be decoded properly
+                batch.addAll(event.getMessages());
+            }
+        } finally {
+            event.clearMessages();
+        }
+    }
+
+    /**
+     * Runs the given messages through the message processors as a single batch. The processing order of each message
+     * is the same as if the messages would have been processed one by one.
+     * <p>
+     * If a message processor fails, the failing message can't be determined and every message of the batch is reported
+     * as failed. The messages are not processed again, because the message processors which ran before the failure
+     * already modified them and might have had side effects. The "processTime" timer is updated with the average
+     * time per message of a batch.
+     * </p>
+     *
+     * @param batch the messages to process
+     */
+    void dispatchBatch(List<Message> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        currentMessage = batch.get(0);
+        incomingMessages.mark(batch.size());
+        batchSize.update(batch.size());
+
+        if (LOG.isTraceEnabled()) {
+            LOG.trace("Starting to process batch of {} messages.", batch.size());
+        }
+
+        try {
+            final Messages messages;
+            final Timer.Context batchTime = processBatchTime.time();
+            try {
+                messages = processBatch(batch);
+            } catch (Exception e) {
+                LOG.debug("Unable to process batch of {} messages:", batch.size(), e);
+                for (Message msg : batch) {
+                    currentMessage = msg;
+                    handleFailure(msg, e);
+                }
+                return;
+            }
+
+            for (Message message : messages) {
+                currentMessage = message;
+                try {
+                    finishMessage(message);
+                } catch (Exception e) {
+                    handleFailure(message, e);
+                }
+            }
+
+            final long timePerMessage = batchTime.stop() / batch.size();
+            for (int i = 0; i < batch.size(); i++) {
+                processTime.update(timePerMessage, TimeUnit.NANOSECONDS);
+            }
+        } finally {
+            currentMessage = null;
+            outgoingMessages.mark(batch.size());
+        }
+    }
+
+    private Messages processBatch(List<Message> batch) {
+        for (Message message : batch) {
+            message.addStream(defaultStreamProvider.get());
+        }
+        Messages messages = new MessageCollection(batch);
+
+        for (MessageProcessor messageProcessor : orderedMessageProcessors) {
+            messages = messageProcessor.process(messages);
+        }
+        return messages;
+    }
+
     public Optional<Message> getCurrentMessage() {
         return Optional.ofNullable(currentMessage);
     }
@@ -120,6 +218,15 @@ public class ProcessBufferProcessor implements WorkHandler<MessageEvent> {
         currentMessage = msg;
         incomingMessages.mark();
 
+        try {
+            processMessage(msg);
+        } finally {
+            currentMessage = null;
+            outgoingMessages.mark();
+        }
+    }
+
+    private void processMessage(final Message msg) {
         if (LOG.isTraceEnabled()) {
             LOG.trace("Starting to process message <{}>.", msg.getId());
         }
@@ -130,24 +237,24 @@ public class ProcessBufferProcessor implements WorkHandler<MessageEvent> {
                 LOG.trace("Finished processing message <{}>. Writing to output buffer.", msg.getId());
             }
         } catch (Exception e) {
-            if (LOG.isDebugEnabled()) {
-                // Log warning including the stacktrace
-                LOG.warn("Unable to process message <{}>:", msg.getId(), e);
-                // Log full message content to aid debugging
-                LOG.debug("Failed message <{}>: {}", msg.getId(), msg.toDumpString());
-            } else {
-                // Only logs a single line warning without stacktrace
-                LOG.warn("Unable to process message <{}>: {}", msg.getId(), e);
-            }
-
-            failureSubmissionService.submitUnknownProcessingError(msg, String.format(Locale.ENGLISH,
-                    "Unable to process message <%s>: %s",
-                    msg.getId(), e));
+            handleFailure(msg, e);
+        }
+    }
 
-        } finally {
-            currentMessage = null;
-            outgoingMessages.mark();
+    private void handleFailure(Message msg, Exception e) {
+        if (LOG.isDebugEnabled()) {
+            // Log warning including the stacktrace
+            LOG.warn("Unable to process message <{}>:", msg.getId(), e);
+            // Log full message content to aid debugging
+            LOG.debug("Failed message <{}>: {}", msg.getId(), msg.toDumpString());
+        } else {
+            // Only logs a single line warning without stacktrace
+            LOG.warn("Unable to process message <{}>: {}", msg.getId(), e);
         }
+
+        failureSubmissionService.submitUnknownProcessingError(msg, String.format(Locale.ENGLISH,
+                "Unable to process message <%s>: %s",
+                msg.getId(), e));
     }
 
     private void handleMessage(@Nonnull Message msg) {
@@ -159,21 +266,25 @@ public class ProcessBufferProcessor implements WorkHandler<MessageEvent> {
         }
 
         for (Message message : messages) {
-            message.ensureValidTimestamp();
+            finishMessage(message);
+        }
+    }
 
-            if (!message.hasField(Message.FIELD_GL2_MESSAGE_ID) || isNullOrEmpty(message.getFieldAs(String.class, Message.FIELD_GL2_MESSAGE_ID))) {
-                // Set the message ID once all message processors have finished
-                // See documentation of Message.FIELD_GL2_MESSAGE_ID for details
-                message.addField(Message.FIELD_GL2_MESSAGE_ID, ulid.nextULID());
-            }
+    private void finishMessage(Message message) {
+        message.ensureValidTimestamp();
 
-            // The processing time should only be set once all message processors have finished
-            message.setProcessingTime(Tools.nowUTC());
-            processingStatusRecorder.updatePostProcessingReceiveTime(message.getReceiveTime());
+        if (!message.hasField(Message.FIELD_GL2_MESSAGE_ID) || isNullOrEmpty(message.getFieldAs(String.class, Message.FIELD_GL2_MESSAGE_ID))) {
+            // Set the message ID once all message processors have finished
+            // See documentation of Message.FIELD_GL2_MESSAGE_ID for details
+            message.addField(Message.FIELD_GL2_MESSAGE_ID, ulid.nextULID());
+        }
 
-            if(failureSubmissionService.submitProcessingErrors(message)) {
-                outputBuffer.insertBlocking(message);
-            }
+        // The processing time should only be set once all message processors have finished
+        message.setProcessingTime(Tools.nowUTC());
+        processingStatusRecorder.updatePostProcessingReceiveTime(message.getReceiveTime());
+
+        if(failureSubmissionService.submitProcessingErrors(message)) {
+            outputBuffer.insertBlocking(message);
         }
     }
 
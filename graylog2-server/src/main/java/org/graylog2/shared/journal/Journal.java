@@ -16,6 +16,7 @@
  */
 package org.graylog2.shared.journal;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 
 public interface Journal {
@@ -51,11 +52,23 @@ public interface Journal {
 
     class JournalReadEntry {
 
-        private final byte[] payload;
+        private byte[] payload;
+        private final ByteBuffer payloadBuffer;
         private final long offset;
 
         public JournalReadEntry(byte[] payload, long offset) {
             this.payload = payload;
+            this.payloadBuffer = null;
+            this.offset = offset;
+        }
+
+        /**
+         * Creates an entry whose payload is backed by the given buffer, e. g. a slice of a memory mapped journal
+         * segment. The buffer content must not change while the entry is in use.
+         */
+        public JournalReadEntry(ByteBuffer payload, long offset) {
+            this.payload = null;
+            this.payloadBuffer = payload;
             this.offset = offset;
         }
 
@@ -64,7 +77,21 @@ public interface Journal {
         }
 
         public byte[] getPayload() {
+            if (payload == null) {
+                final ByteBuffer buffer = payloadBuffer.duplicate();
+                payload = new byte[buffer.remaining()];
+                buffer.get(payload);
+            }
             return payload;
         }
+
+        /**
+         * Returns the payload without copying it.
+         *
+         * @return the payload
+         */
+        public ByteBuffer getPayloadBuffer() {
+            return payloadBuffer != null ? payloadBuffer.duplicate() : ByteBuffer.wrap(payload);
+        }
     }
 }
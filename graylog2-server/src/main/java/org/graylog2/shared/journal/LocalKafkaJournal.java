@@ -63,6 +63,7 @@ import org.joda.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
@@ -106,6 +107,7 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
     private static final String LEGACY_CLASS_NAME = "org.graylog2.shared.journal.KafkaJournal";
 
     private static final int NUM_IO_THREADS = 1;
+    private static final int READ_MAX_BYTES = 5 * 1024 * 1024;
 
     public static final long DEFAULT_COMMITTED_OFFSET = Long.MIN_VALUE;
     public static final int NOTIFY_ON_UTILIZATION_PERCENTAGE = 95;
@@ -166,6 +168,7 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
     private final long maxSegmentSize;
     private final int maxMessageSize;
     private final String metricPrefix;
+    private final MappedSegmentReader mappedSegmentReader;
 
     private long nextReadOffset = 0L;
     private ScheduledFuture<?> checkpointFlusherFuture;
@@ -188,16 +191,51 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
                              @Named("message_journal_flush_interval") long flushInterval,
                              @Named("message_journal_flush_age") Duration flushAge,
                              @Named("lb_throttle_threshold_percentage") int throttleThresholdPercentage,
+                             @Named("message_journal_mmap_reads") boolean mmapReads,
                              MetricRegistry metricRegistry,
                              ServerStatus serverStatus) {
 
         this(journalDirectory, scheduler, segmentSize, segmentAge, retentionSize, retentionAge, flushInterval, flushAge,
-             throttleThresholdPercentage, metricRegistry, serverStatus, LocalKafkaJournal.class.getName());
+             throttleThresholdPercentage, mmapReads, metricRegistry, serverStatus, LocalKafkaJournal.class.getName());
+    }
+
+    public LocalKafkaJournal(Path journalDirectory,
+                             ScheduledExecutorService scheduler,
+                             Size segmentSize,
+                             Duration segmentAge,
+                             Size retentionSize,
+                             Duration retentionAge,
+                             long flushInterval,
+                             Duration flushAge,
+                             int throttleThresholdPercentage,
+                             MetricRegistry metricRegistry,
+                             ServerStatus serverStatus) {
+
+        this(journalDirectory, scheduler, segmentSize, segmentAge, retentionSize, retentionAge, flushInterval, flushAge,
+             throttleThresholdPercentage, false, metricRegistry, serverStatus, LocalKafkaJournal.class.getName());
+    }
+
+    public LocalKafkaJournal(Path journalDirectory,
+                             ScheduledExecutorService scheduler,
+                             Size segmentSize,
+                             Duration segmentAge,
+                             Size retentionSize,
+                             Duration retentionAge,
+                             long flushInterval,
+                             Duration flushAge,
+                             int throttleThresholdPercentage,
+                             MetricRegistry metricRegistry,
+                             ServerStatus serverStatus,
+                             String metricPrefix) {
+
+        this(journalDirectory, scheduler, segmentSize, segmentAge, retentionSize, retentionAge, flushInterval, flushAge,
+             throttleThresholdPercentage, false, metricRegistry, serverStatus, metricPrefix);
     }
 
     /**
      * @param throttleThresholdPercentage The journal utilization percent at which throttling will be triggered.
      *                                    Expressed as an integer between 1 and 100. The value -1 disables throttling.
+     * @param mmapReads                   Read entries directly from memory mapped segment files.
      */
     public LocalKafkaJournal(Path journalDirectory,
                              ScheduledExecutorService scheduler,
@@ -208,6 +246,7 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
                              long flushInterval,
                              Duration flushAge,
                              int throttleThresholdPercentage,
+                             boolean mmapReads,
                              MetricRegistry metricRegistry,
                              ServerStatus serverStatus,
                              String metricPrefix) {
@@ -226,6 +265,7 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
         this.maxMessageSize = Ints.saturatedCast(maxSegmentSize);
         this.metricPrefix = metricPrefix;
         this.metricRegistry = metricRegistry;
+        this.mappedSegmentReader = mmapReads ? new MappedSegmentReader() : null;
 
         // Set up metrics
         this.writtenMessages = metricRegistry.meter(name(this.metricPrefix, METER_WRITTEN_MESSAGES));
@@ -673,33 +713,48 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
             LOG.debug("Requesting to read a maximum of {} messages (or 5MB) from the journal, offset interval [{}, {})",
                     maximumCount, readOffset, maxOffset);
 
-            // TODO benchmark and make read-ahead strategy configurable for performance tuning
-            final MessageSet messageSet = kafkaLog.read(readOffset,
-                    5 * 1024 * 1024,
-                    Option.<Object>apply(maxOffset)).messageSet();
-
-            final Iterator<MessageAndOffset> iterator = messageSet.iterator();
             long firstOffset = Long.MIN_VALUE;
             long lastOffset = Long.MIN_VALUE;
             long totalBytes = 0;
-            while (iterator.hasNext()) {
-                final MessageAndOffset messageAndOffset = iterator.next();
 
-                if (firstOffset == Long.MIN_VALUE) {
-                    firstOffset = messageAndOffset.offset();
+            final List<JournalReadEntry> mappedEntries = readMappedSegments(readOffset, maxOffset);
+            if (mappedEntries != null) {
+                for (final JournalReadEntry entry : mappedEntries) {
+                    if (firstOffset == Long.MIN_VALUE) {
+                        firstOffset = entry.getOffset();
+                    }
+                    lastOffset = entry.getOffset();
+                    totalBytes += entry.getPayloadBuffer().remaining();
+                    messages.add(entry);
+                    // remember where to read from, entries are never compressed so the next offset is always the following one
+                    nextReadOffset = entry.getOffset() + 1;
                 }
-                // always remember the last seen offset for debug purposes below
-                lastOffset = messageAndOffset.offset();
+            } else {
+                // TODO benchmark and make read-ahead strategy configurable for performance tuning
+                final MessageSet messageSet = kafkaLog.read(readOffset,
+                        READ_MAX_BYTES,
+                        Option.<Object>apply(maxOffset)).messageSet();
 
-                final byte[] payloadBytes = ByteBufferUtils.readBytes(messageAndOffset.message().payload());
-                if (LOG.isTraceEnabled()) {
-                    final byte[] keyBytes = ByteBufferUtils.readBytes(messageAndOffset.message().key());
-                    LOG.trace("Read message {} contains {}", bytesToHex(keyBytes), bytesToHex(payloadBytes));
+                final Iterator<MessageAndOffset> iterator = messageSet.iterator();
+                while (iterator.hasNext()) {
+                    final MessageAndOffset messageAndOffset = iterator.next();
+
+                    if (firstOffset == Long.MIN_VALUE) {
+                        firstOffset = messageAndOffset.offset();
+                    }
+                    // always remember the last seen offset for debug purposes below
+                    lastOffset = messageAndOffset.offset();
+
+                    final byte[] payloadBytes = ByteBufferUtils.readBytes(messageAndOffset.message().payload());
+                    if (LOG.isTraceEnabled()) {
+                        final byte[] keyBytes = ByteBufferUtils.readBytes(messageAndOffset.message().key());
+                        LOG.trace("Read message {} contains {}", bytesToHex(keyBytes), bytesToHex(payloadBytes));
+                    }
+                    totalBytes += payloadBytes.length;
+                    messages.add(new JournalReadEntry(payloadBytes, messageAndOffset.offset()));
+                    // remember where to read from
+                    nextReadOffset = messageAndOffset.nextOffset();
                 }
-                totalBytes += payloadBytes.length;
-                messages.add(new JournalReadEntry(payloadBytes, messageAndOffset.offset()));
-                // remember where to read from
-                nextReadOffset = messageAndOffset.nextOffset();
             }
             if (messages.isEmpty()) {
                 LOG.debug("No messages available to read for offset interval [{}, {}).", readOffset, maxOffset);
@@ -735,6 +790,27 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
         return messages;
     }
 
+    /**
+     * Reads from the memory mapped segments if enabled.
+     *
+     * @return the entries or {@code null} if the entries have to be read through the regular Kafka log
+     */
+    @Nullable
+    private List<JournalReadEntry> readMappedSegments(long readOffset, long maxOffset) {
+        if (mappedSegmentReader == null) {
+            return null;
+        }
+        if (readOffset >= getLogEndOffset()) {
+            return Collections.emptyList();
+        }
+        try {
+            return mappedSegmentReader.read(getSegments(), readOffset, maxOffset, READ_MAX_BYTES);
+        } catch (IOException e) {
+            LOG.warn("Couldn't read journal segments via memory mapping, falling back to regular reads.", e);
+            return null;
+        }
+    }
+
     /**
      * Upon fully processing, and persistently storing, a batch of messages, the system should mark the message with the
      * highest offset as committed. A background job will write the last position to disk periodically.
@@ -893,6 +969,9 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
      * @param offset offset to truncate to, so that no offset in the journal is larger than this.
      */
     public void truncateTo(long offset) {
+        if (mappedSegmentReader != null) {
+            mappedSegmentReader.invalidate();
+        }
         kafkaLog.truncateTo(offset);
     }
 
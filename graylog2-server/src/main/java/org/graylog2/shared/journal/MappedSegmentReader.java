@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.journal;
+
+import org.graylog.shaded.kafka09.log.LogSegment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reads journal entries directly from memory mapped log segment files instead of going through
+ * {@link org.graylog.shaded.kafka09.log.Log#read}, which copies every message into a new heap buffer.
+ * <p>
+ * The payloads of the returned entries are slices of the mapped segment files, the segment which is currently read
+ * and the ones after it stay mapped between reads. Mapped segments which have been deleted by the retention cleaner
+ * stay readable until the mapping becomes unreachable.
+ * </p>
+ * <p>
+ * The active segment is only mapped again once it has grown by {@link #ACTIVE_SEGMENT_REMAP_BYTES}, entries which
+ * have been appended after it was mapped are read through the regular read path. This bounds the number of mappings
+ * which are created for a segment, they are only released by the garbage collector.
+ * </p>
+ * <p>
+ * Only uncompressed messages in the message format version 0 written by {@link LocalKafkaJournal} are supported. If
+ * anything else is found, {@link #read(Iterable, long, long, int)} returns {@code null} and the caller has to fall back
+ * to the regular read path.
+ * </p>
+ */
+class MappedSegmentReader {
+    private static final Logger LOG = LoggerFactory.getLogger(MappedSegmentReader.class);
+
+    // Log entry: offset (8 bytes) + message size (4 bytes)
+    private static final int LOG_OVERHEAD = Long.BYTES + Integer.BYTES;
+    // Message: crc (4 bytes) + magic (1 byte) + attributes (1 byte) + key length (4 bytes) + value length (4 bytes)
+    private static final int MAGIC_OFFSET = 4;
+    private static final int ATTRIBUTES_OFFSET = 5;
+    private static final int KEY_LENGTH_OFFSET = 6;
+    private static final int MIN_MESSAGE_SIZE = 14;
+    private static final byte SUPPORTED_MAGIC = 0;
+    private static final int COMPRESSION_CODEC_MASK = 0x07;
+    private static final long ACTIVE_SEGMENT_REMAP_BYTES = 8 * 1024 * 1024;
+
+    private final Map<Long, MappedSegment> mappedSegments = new TreeMap<>();
+
+    /**
+     * Reads the entries in the offset interval [readOffset, maxOffset) from the first segment containing any of them.
+     *
+     * @param segments   the current log segments, in offset order
+     * @param readOffset the first offset to read
+     * @param maxOffset  the offset to stop reading at (exclusive)
+     * @param maxBytes   the soft limit for the total payload size, at least one entry is always returned
+     * @return the entries or {@code null} if the entries have to be read by the regular read path, because they
+     * haven't been mapped yet or can't be read by this reader
+     * @throws IOException if a segment file couldn't be mapped
+     */
+    @Nullable
+    synchronized List<Journal.JournalReadEntry> read(Iterable<LogSegment> segments, long readOffset, long maxOffset, int maxBytes) throws IOException {
+        final List<LogSegment> candidates = new ArrayList<>();
+        LogSegment activeSegment = null;
+        for (LogSegment segment : segments) {
+            if (segment.baseOffset() <= readOffset) {
+                candidates.clear();
+            }
+            if (segment.baseOffset() < maxOffset) {
+                candidates.add(segment);
+            }
+            activeSegment = segment;
+        }
+        if (candidates.isEmpty()) {
+            return new ArrayList<>(0);
+        }
+
+        unmapBefore(candidates.get(0).baseOffset());
+
+        final List<Journal.JournalReadEntry> entries = new ArrayList<>();
+        for (LogSegment segment : candidates) {
+            final boolean active = segment == activeSegment;
+            final MappedSegment mappedSegment = map(segment, active);
+            if (!readSegment(segment, mappedSegment.buffer, readOffset, maxOffset, maxBytes, entries)) {
+                return null;
+            }
+            if (!entries.isEmpty()) {
+                break;
+            }
+            if (active && mappedSegment.buffer.limit() < segment.size()) {
+                // The requested entries have been appended after the active segment was mapped
+                return null;
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Reads the entries of the mapped part of the given segment. The mapping always ends at an entry boundary, so a
+     * short entry means that the segment is corrupt.
+     *
+     * @return {@code false} if the segment contains entries which can't be read by this reader
+     */
+    private boolean readSegment(LogSegment segment,
+                                ByteBuffer buffer,
+                                long readOffset,
+                                long maxOffset,
+                                int maxBytes,
+                                List<Journal.JournalReadEntry> entries) {
+        final int limit = buffer.limit();
+
+        // The offset index points to the closest entry at or before the requested offset.
+        int position = readOffset > segment.baseOffset() ? segment.index().lookup(readOffset).position() : 0;
+        long totalBytes = 0;
+        while (position < limit) {
+            if (limit - position < LOG_OVERHEAD) {
+                LOG.warn("Short entry at position {} of journal segment {}, falling back to regular reads.",
+                        position, segment.log().file());
+                return false;
+            }
+            final long offset = buffer.getLong(position);
+            final int messageSize = buffer.getInt(position + Long.BYTES);
+            final int messageStart = position + LOG_OVERHEAD;
+            if (messageSize < MIN_MESSAGE_SIZE || messageSize > limit - messageStart) {
+                LOG.warn("Corrupt entry with size {} at offset {} of journal segment {}, falling back to regular reads.",
+                        messageSize, offset, segment.log().file());
+                return false;
+            }
+            position = messageStart + messageSize;
+
+            if (offset < readOffset) {
+                continue;
+            }
+            if (offset >= maxOffset) {
+                break;
+            }
+
+            final byte magic = buffer.get(messageStart + MAGIC_OFFSET);
+            final byte attributes = buffer.get(messageStart + ATTRIBUTES_OFFSET);
+            if (magic != SUPPORTED_MAGIC || (attributes & COMPRESSION_CODEC_MASK) != 0) {
+                LOG.debug("Unsupported message (magic {}, attributes {}) at offset {}, can't read segment {} directly.",
+                        magic, attributes, offset, segment.baseOffset());
+                return false;
+            }
+
+            final int keyLength = buffer.getInt(messageStart + KEY_LENGTH_OFFSET);
+            final int valueLength = keyLength <= messageSize - MIN_MESSAGE_SIZE
+                    ? buffer.getInt(messageStart + KEY_LENGTH_OFFSET + Integer.BYTES + Math.max(keyLength, 0))
+                    : -1;
+            final int valueStart = messageStart + MIN_MESSAGE_SIZE + Math.max(keyLength, 0);
+            if (valueLength < 0 || valueStart + valueLength > position) {
+                LOG.warn("Corrupt message at offset {} of journal segment {}, falling back to regular reads.",
+                        offset, segment.log().file());
+                return false;
+            }
+            if (!entries.isEmpty() && totalBytes + valueLength > maxBytes) {
+                break;
+            }
+
+            final ByteBuffer payload = buffer.duplicate();
+            payload.limit(valueStart + valueLength).position(valueStart);
+            entries.add(new Journal.JournalReadEntry(payload.slice(), offset));
+            totalBytes += valueLength;
+        }
+        return true;
+    }
+
+    private MappedSegment map(LogSegment segment, boolean active) throws IOException {
+        final File file = segment.log().file();
+        final long size = segment.size();
+        final MappedSegment mappedSegment = mappedSegments.get(segment.baseOffset());
+        if (mappedSegment != null && mappedSegment.file.equals(file)) {
+            final long mappedSize = mappedSegment.buffer.limit();
+            // The active segment grows while it is written to, it is only mapped again once it has grown enough.
+            // Other segments don't change anymore, they are mapped again once after they have been rolled.
+            if (active ? size - mappedSize < ACTIVE_SEGMENT_REMAP_BYTES : mappedSize == size) {
+                return mappedSegment;
+            }
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // Only map what has been appended so far, the segment file might be preallocated.
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, channel.size()));
+            final MappedSegment newMappedSegment = new MappedSegment(file, buffer);
+            mappedSegments.put(segment.baseOffset(), newMappedSegment);
+            LOG.debug("Mapped {} bytes of journal segment {}", buffer.limit(), file);
+            return newMappedSegment;
+        }
+    }
+
+    private void unmapBefore(long baseOffset) {
+        final Iterator<Long> iterator = mappedSegments.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() < baseOffset) {
+                iterator.remove();
+            } else {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Drops all mappings, this must be called before segments get truncated.
+     */
+    synchronized void invalidate() {
+        mappedSegments.clear();
+    }
+
+    private static class MappedSegment {
+        private final File file;
+        private final MappedByteBuffer buffer;
+
+        private MappedSegment(File file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+}
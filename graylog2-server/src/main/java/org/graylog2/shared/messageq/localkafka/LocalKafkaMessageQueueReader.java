@@ -34,6 +34,7 @@ import org.slf4j.LoggerFactory;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.concurrent.Semaphore;
 
@@ -126,9 +127,9 @@ public class LocalKafkaMessageQueueReader extends AbstractMessageQueueReader {
                 readerMetrics.readMessages().mark(encodedRawMessages.size());
                 log.debug("Processing {} messages from journal.", encodedRawMessages.size());
                 for (final Journal.JournalReadEntry encodedRawMessage : encodedRawMessages) {
-                    final RawMessage rawMessage = RawMessage.decode(encodedRawMessage.getPayload(),
-                                                                    encodedRawMessage.getOffset());
-                    readerMetrics.readBytes().mark(encodedRawMessage.getPayload().length);
+                    final ByteBuffer payload = encodedRawMessage.getPayloadBuffer();
+                    readerMetrics.readBytes().mark(payload.remaining());
+                    final RawMessage rawMessage = RawMessage.decode(payload, encodedRawMessage.getOffset());
                     if (rawMessage == null) {
                         // never insert null objects into the ringbuffer, as that is useless
                         log.error("Found null raw message!");
@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.streams;
+
+import com.google.common.primitives.Ints;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.streams.Stream;
+import org.graylog2.plugin.streams.StreamRule;
+import org.graylog2.plugin.streams.StreamRuleType;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
+
+/**
+ * Index-driven representation of the stream rules used by the {@link StreamRouterEngine}.
+ *
+ * Non-inverted EXACT, MATCH_INPUT and PRESENCE rules are looked up in hash indexes keyed by field (and value), and the
+ * non-inverted CONTAINS rules of a field are matched with a single {@link ContainsAutomaton} pass. REGEX rules are
+ * evaluated last and only for streams which can still change their outcome. All other rules are evaluated one by one.
+ *
+ * AND/OR outcomes are tracked with per-stream match counters, so the cost of matching a message depends on the
+ * fields it contains and not on the total number of stream rules.
+ *
+ * Instances are immutable and can be shared between threads.
+ */
+class CompiledStreamRules {
+    private final long streamProcessingTimeout;
+
+    private final Stream[] streams;
+    private final boolean[] andMatching;
+    private final int[] ruleCounts;
+    private final int[] eagerRuleCounts;
+    private final int[] ruleStreams;
+
+    private final Map<String, Map<String, int[]>> exactRules;
+    private final Map<String, int[]> inputRules;
+    private final Map<String, int[]> presenceRules;
+    private final Map<String, ContainsAutomaton> containsRules;
+    private final List<CompiledRule> fallbackRules;
+    private final List<CompiledRule> regexRules;
+
+    private final ThreadLocal<MatchState> matchState;
+
+    CompiledStreamRules(List<StreamRouterEngine.Rule> rules, long streamProcessingTimeout) {
+        this.streamProcessingTimeout = streamProcessingTimeout;
+
+        final Map<Stream, Integer> streamIndexes = new IdentityHashMap<>();
+        final List<Stream> streamList = new ArrayList<>();
+        for (StreamRouterEngine.Rule rule : rules) {
+            streamIndexes.computeIfAbsent(rule.getStream(), stream -> {
+                streamList.add(stream);
+                return streamList.size() - 1;
+            });
+        }
+
+        this.streams = streamList.toArray(new Stream[0]);
+        this.andMatching = new boolean[streams.length];
+        this.ruleCounts = new int[streams.length];
+        this.eagerRuleCounts = new int[streams.length];
+        this.ruleStreams = new int[rules.size()];
+
+        final Map<String, Map<String, List<Integer>>> exactIds = new HashMap<>();
+        final Map<String, List<Integer>> inputIds = new HashMap<>();
+        final Map<String, List<Integer>> presenceIds = new HashMap<>();
+        final Map<String, ContainsAutomaton.Builder> containsBuilders = new HashMap<>();
+        final List<CompiledRule> fallback = new ArrayList<>();
+        final List<CompiledRule> regex = new ArrayList<>();
+
+        for (int id = 0; id < rules.size(); id++) {
+            final StreamRouterEngine.Rule rule = rules.get(id);
+            final StreamRule streamRule = rule.getStreamRule();
+            final int streamIndex = streamIndexes.get(rule.getStream());
+
+            ruleStreams[id] = streamIndex;
+            ruleCounts[streamIndex]++;
+            andMatching[streamIndex] = rule.getMatchingType() == Stream.MatchingType.AND;
+
+            final StreamRuleType type = streamRule.getType();
+            if (type == StreamRuleType.REGEX) {
+                regex.add(new CompiledRule(id, streamIndex, rule));
+                continue;
+            }
+
+            eagerRuleCounts[streamIndex]++;
+
+            final String field = streamRule.getField();
+            final String value = streamRule.getValue();
+            if (streamRule.getInverted()) {
+                fallback.add(new CompiledRule(id, streamIndex, rule));
+            } else if (type == StreamRuleType.EXACT && field != null && value != null) {
+                exactIds.computeIfAbsent(field, k -> new HashMap<>()).computeIfAbsent(value, k -> new ArrayList<>()).add(id);
+            } else if (type == StreamRuleType.MATCH_INPUT && value != null) {
+                inputIds.computeIfAbsent(value.toLowerCase(Locale.ENGLISH), k -> new ArrayList<>()).add(id);
+            } else if (type == StreamRuleType.PRESENCE && field != null) {
+                presenceIds.computeIfAbsent(field, k -> new ArrayList<>()).add(id);
+            } else if (type == StreamRuleType.CONTAINS && field != null && value != null) {
+                containsBuilders.computeIfAbsent(field, k -> ContainsAutomaton.builder()).add(value, id);
+            } else {
+                fallback.add(new CompiledRule(id, streamIndex, rule));
+            }
+        }
+
+        this.exactRules = new HashMap<>();
+        exactIds.forEach((field, values) -> exactRules.put(field, toIdArrays(values)));
+        this.inputRules = toIdArrays(inputIds);
+        this.presenceRules = toIdArrays(presenceIds);
+        this.containsRules = new HashMap<>();
+        containsBuilders.forEach((field, builder) -> containsRules.put(field, builder.build()));
+        this.fallbackRules = fallback;
+
+        // REGEX rules are grouped by stream so an AND stream can be skipped as soon as one of its rules failed.
+        regex.sort(Comparator.comparingInt(rule -> rule.streamIndex));
+        final int[] ordinals = new int[streams.length];
+        this.regexRules = regex.stream()
+                .map(rule -> rule.withOrdinal(ordinals[rule.streamIndex]++))
+                .collect(Collectors.toList());
+
+        this.matchState = ThreadLocal.withInitial(() -> new MatchState(rules.size(), streams.length));
+    }
+
+    private static Map<String, int[]> toIdArrays(Map<String, List<Integer>> ids) {
+        final Map<String, int[]> result = new HashMap<>(ids.size());
+        ids.forEach((key, value) -> result.put(key, Ints.toArray(value)));
+        return result;
+    }
+
+    /**
+     * Returns the streams matching the given message.
+     *
+     * @param message the message
+     * @return the list of matching streams
+     */
+    public List<Stream> match(Message message) {
+        final MatchState state = matchState.get();
+        try {
+            matchIndexedRules(message, state);
+            matchFallbackRules(message, state);
+            matchRegexRules(message, state);
+
+            final List<Stream> result = new ArrayList<>(state.touchedCount);
+            for (int i = 0; i < state.touchedCount; i++) {
+                final int streamIndex = state.touchedStreams[i];
+                if (!andMatching[streamIndex] || state.matchCounts[streamIndex] == ruleCounts[streamIndex]) {
+                    result.add(streams[streamIndex]);
+                }
+            }
+            return result;
+        } finally {
+            state.reset();
+        }
+    }
+
+    private void matchIndexedRules(Message message, MatchState state) {
+        for (Map.Entry<String, Map<String, int[]>> entry : exactRules.entrySet()) {
+            final Object value = message.getField(entry.getKey());
+            if (value != null) {
+                state.markMatched(entry.getValue().get(value.toString().trim()));
+            }
+        }
+
+        if (!inputRules.isEmpty()) {
+            final Object input = message.getField(Message.FIELD_GL2_SOURCE_INPUT);
+            if (input != null) {
+                state.markMatched(inputRules.get(input.toString().trim().toLowerCase(Locale.ENGLISH)));
+            }
+        }
+
+        for (Map.Entry<String, int[]> entry : presenceRules.entrySet()) {
+            final Object value = message.getField(entry.getKey());
+            if (value != null && !(value instanceof String && ((String) value).trim().isEmpty())) {
+                state.markMatched(entry.getValue());
+            }
+        }
+
+        for (Map.Entry<String, ContainsAutomaton> entry : containsRules.entrySet()) {
+            final Object value = message.getField(entry.getKey());
+            if (value != null) {
+                entry.getValue().search(value.toString(), state);
+            }
+        }
+    }
+
+    private void matchFallbackRules(Message message, MatchState state) {
+        for (CompiledRule compiledRule : fallbackRules) {
+            if (!andMatching[compiledRule.streamIndex] && state.matchCounts[compiledRule.streamIndex] > 0) {
+                // OR stream is already matched
+                continue;
+            }
+
+            final StreamRule streamRule = compiledRule.rule.getStreamRule();
+            final StreamRuleType type = streamRule.getType();
+            if ((type == StreamRuleType.GREATER || type == StreamRuleType.SMALLER) && !message.hasField(streamRule.getField())) {
+                continue;
+            }
+
+            if (compiledRule.rule.match(message) != null) {
+                state.markMatched(compiledRule.id);
+            }
+        }
+    }
+
+    private void matchRegexRules(Message message, MatchState state) {
+        for (CompiledRule compiledRule : regexRules) {
+            final int streamIndex = compiledRule.streamIndex;
+            if (andMatching[streamIndex]) {
+                // All previous rules of an AND stream must have matched, otherwise the stream can't match anymore.
+                if (state.matchCounts[streamIndex] != eagerRuleCounts[streamIndex] + compiledRule.ordinal) {
+                    continue;
+                }
+            } else if (state.matchCounts[streamIndex] > 0) {
+                continue;
+            }
+
+            final StreamRule streamRule = compiledRule.rule.getStreamRule();
+            if (!streamRule.getInverted() && !message.hasField(streamRule.getField())) {
+                continue;
+            }
+
+            if (compiledRule.rule.matchWithTimeOut(message, streamProcessingTimeout, TimeUnit.MILLISECONDS) != null) {
+                state.markMatched(compiledRule.id);
+            }
+        }
+    }
+
+    private static class CompiledRule {
+        private final int id;
+        private final int streamIndex;
+        private final StreamRouterEngine.Rule rule;
+        private final int ordinal;
+
+        private CompiledRule(int id, int streamIndex, StreamRouterEngine.Rule rule) {
+            this(id, streamIndex, rule, 0);
+        }
+
+        private CompiledRule(int id, int streamIndex, StreamRouterEngine.Rule rule, int ordinal) {
+            this.id = id;
+            this.streamIndex = streamIndex;
+            this.rule = rule;
+            this.ordinal = ordinal;
+        }
+
+        private CompiledRule withOrdinal(int ordinal) {
+            return new CompiledRule(id, streamIndex, rule, ordinal);
+        }
+    }
+
+    /**
+     * Per-thread scratch space for a single {@link #match(Message)} call.
+     */
+    private class MatchState implements IntConsumer {
+        private final BitSet matchedRules;
+        private final int[] matchCounts;
+        private final int[] touchedStreams;
+        private int touchedCount = 0;
+
+        private MatchState(int ruleCount, int streamCount) {
+            this.matchedRules = new BitSet(ruleCount);
+            this.matchCounts = new int[streamCount];
+            this.touchedStreams = new int[streamCount];
+        }
+
+        private void markMatched(@Nullable int[] ruleIds) {
+            if (ruleIds != null) {
+                for (int ruleId : ruleIds) {
+                    markMatched(ruleId);
+                }
+            }
+        }
+
+        @Override
+        public void accept(int ruleId) {
+            markMatched(ruleId);
+        }
+
+        private void markMatched(int ruleId) {
+            // A rule is only counted once, even if its pattern occurs multiple times in a field.
+            if (matchedRules.get(ruleId)) {
+                return;
+            }
+            matchedRules.set(ruleId);
+
+            final int streamIndex = ruleStreams[ruleId];
+            if (matchCounts[streamIndex]++ == 0) {
+                touchedStreams[touchedCount++] = streamIndex;
+            }
+        }
+
+        private void reset() {
+            for (int i = 0; i < touchedCount; i++) {
+                matchCounts[touchedStreams[i]] = 0;
+            }
+            touchedCount = 0;
+            matchedRules.clear();
+        }
+    }
+}
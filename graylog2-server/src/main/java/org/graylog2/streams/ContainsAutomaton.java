@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.streams;
+
+import com.google.common.primitives.Ints;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.IntConsumer;
+
+/**
+ * Aho-Corasick automaton to find all substring patterns of a set of CONTAINS stream rules or STRING extractor
+ * conditions in a single pass over a field value.
+ *
+ * Instances are immutable and can be shared between threads.
+ */
+public class ContainsAutomaton {
+    private final char[][] edgeChars;
+    private final int[][] edgeTargets;
+    private final int[] failure;
+    private final int[][] outputs;
+
+    private ContainsAutomaton(char[][] edgeChars, int[][] edgeTargets, int[] failure, int[][] outputs) {
+        this.edgeChars = edgeChars;
+        this.edgeTargets = edgeTargets;
+        this.failure = failure;
+        this.outputs = outputs;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Calls the given consumer with the ID of every pattern contained in the given text. An ID might be reported
+     * more than once if its pattern occurs more than once in the text.
+     *
+     * @param text     the text to search
+     * @param consumer the consumer for the IDs of the matching patterns
+     */
+    public void search(CharSequence text, IntConsumer consumer) {
+        // Empty patterns are attached to the root node and match every text.
+        emit(0, consumer);
+
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            int next = transition(state, c);
+            while (next < 0 && state != 0) {
+                state = failure[state];
+                next = transition(state, c);
+            }
+            state = next < 0 ? 0 : next;
+            if (state != 0) {
+                emit(state, consumer);
+            }
+        }
+    }
+
+    private void emit(int state, IntConsumer consumer) {
+        for (int id : outputs[state]) {
+            consumer.accept(id);
+        }
+    }
+
+    private int transition(int state, char c) {
+        final char[] chars = edgeChars[state];
+        int low = 0;
+        int high = chars.length - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (chars[mid] < c) {
+                low = mid + 1;
+            } else if (chars[mid] > c) {
+                high = mid - 1;
+            } else {
+                return edgeTargets[state][mid];
+            }
+        }
+        return -1;
+    }
+
+    public static class Builder {
+        private final List<TreeMap<Character, Integer>> edges = new ArrayList<>();
+        private final List<Set<Integer>> outputs = new ArrayList<>();
+
+        private Builder() {
+            addNode();
+        }
+
+        private int addNode() {
+            edges.add(new TreeMap<>());
+            outputs.add(new LinkedHashSet<>());
+            return edges.size() - 1;
+        }
+
+        public Builder add(String pattern, int id) {
+            int state = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                final Integer next = edges.get(state).get(pattern.charAt(i));
+                if (next == null) {
+                    final int node = addNode();
+                    edges.get(state).put(pattern.charAt(i), node);
+                    state = node;
+                } else {
+                    state = next;
+                }
+            }
+            outputs.get(state).add(id);
+            return this;
+        }
+
+        public ContainsAutomaton build() {
+            final int size = edges.size();
+            final int[] failure = new int[size];
+
+            // Breadth-first traversal so the failure target of a node is always complete before the node itself.
+            final Deque<Integer> queue = new ArrayDeque<>();
+            for (int child : edges.get(0).values()) {
+                failure[child] = 0;
+                queue.add(child);
+            }
+            while (!queue.isEmpty()) {
+                final int state = queue.poll();
+                for (Map.Entry<Character, Integer> edge : edges.get(state).entrySet()) {
+                    final char c = edge.getKey();
+                    final int child = edge.getValue();
+
+                    int fallback = failure[state];
+                    while (fallback != 0 && !edges.get(fallback).containsKey(c)) {
+                        fallback = failure[fallback];
+                    }
+                    final Integer target = edges.get(fallback).get(c);
+                    failure[child] = (target == null || target == child) ? 0 : target;
+                    // Root outputs (empty patterns) are reported once per search, don't inherit them.
+                    if (failure[child] != 0) {
+                        outputs.get(child).addAll(outputs.get(failure[child]));
+                    }
+                    queue.add(child);
+                }
+            }
+
+            final char[][] edgeChars = new char[size][];
+            final int[][] edgeTargets = new int[size][];
+            final int[][] nodeOutputs = new int[size][];
+            for (int state = 0; state < size; state++) {
+                final TreeMap<Character, Integer> nodeEdges = edges.get(state);
+                edgeChars[state] = new char[nodeEdges.size()];
+                edgeTargets[state] = new int[nodeEdges.size()];
+                int i = 0;
+                for (Map.Entry<Character, Integer> edge : nodeEdges.entrySet()) {
+                    edgeChars[state][i] = edge.getKey();
+                    edgeTargets[state][i] = edge.getValue();
+                    i++;
+                }
+                nodeOutputs[state] = Ints.toArray(outputs.get(state));
+            }
+
+            return new ContainsAutomaton(edgeChars, edgeTargets, failure, nodeOutputs);
+        }
+    }
+}
@@ -36,7 +36,9 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Provider;
+import java.util.Collection;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
@@ -63,6 +65,7 @@ public class StreamRouterEngine {
     private final Provider<Stream> defaultStreamProvider;
 
     private final List<Rule> rulesList;
+    private final CompiledStreamRules compiledRules;
 
     public interface Factory {
         StreamRouterEngine create(List<Stream> streams, ExecutorService executorService);
@@ -73,7 +76,8 @@ public class StreamRouterEngine {
                               @Assisted ExecutorService executorService,
                               StreamFaultManager streamFaultManager,
                               StreamMetrics streamMetrics,
-                              @DefaultStream Provider<Stream> defaultStreamProvider) {
+                              @DefaultStream Provider<Stream> defaultStreamProvider,
+                              @Named("stream_processing_compiled_rules") boolean compiledRulesEnabled) {
         this.streams = streams;
         this.streamFaultManager = streamFaultManager;
         this.streamMetrics = streamMetrics;
@@ -139,6 +143,8 @@ public class StreamRouterEngine {
         this.rulesList.addAll(smallerRules);
         this.rulesList.addAll(containsRules);
         this.rulesList.addAll(regexRules);
+
+        this.compiledRules = compiledRulesEnabled ? new CompiledStreamRules(rulesList, streamProcessingTimeout) : null;
     }
 
     /**
@@ -166,6 +172,35 @@ public class StreamRouterEngine {
      * @return the list of matching streams
      */
     public List<Stream> match(Message message) {
+        final Collection<Stream> result = compiledRules != null ? compiledRules.match(message) : matchRules(message);
+
+        final Stream defaultStream = defaultStreamProvider.get();
+        boolean alreadyRemovedDefaultStream = false;
+        for (Stream stream : result) {
+            streamMetrics.markIncomingMeter(stream.getId());
+            if (stream.getRemoveMatchesFromDefaultStream()) {
+                if (alreadyRemovedDefaultStream || message.removeStream(defaultStream)) {
+                    alreadyRemovedDefaultStream = true;
+                    if (LOG.isTraceEnabled()) {
+                        LOG.trace("Successfully removed default stream <{}> from message <{}>", defaultStream.getId(), message.getId());
+                    }
+                } else {
+                    if (LOG.isWarnEnabled()) {
+                        LOG.warn("Couldn't remove default stream <{}> from message <{}>", defaultStream.getId(), message.getId());
+                    }
+                }
+            }
+        }
+        // either the message stayed on the default stream, in which case we mark that stream's throughput,
+        // or someone removed it, in which case we don't mark it.
+        if (!alreadyRemovedDefaultStream) {
+            streamMetrics.markIncomingMeter(defaultStream.getId());
+        }
+
+        return ImmutableList.copyOf(result);
+    }
+
+    private Set<Stream> matchRules(Message message) {
         final Set<Stream> result = Sets.newHashSet();
         final Set<String> blackList = Sets.newHashSet();
 
@@ -210,30 +245,7 @@ public class StreamRouterEngine {
             }
         }
 
-        final Stream defaultStream = defaultStreamProvider.get();
-        boolean alreadyRemovedDefaultStream = false;
-        for (Stream stream : result) {
-            streamMetrics.markIncomingMeter(stream.getId());
-            if (stream.getRemoveMatchesFromDefaultStream()) {
-                if (alreadyRemovedDefaultStream || message.removeStream(defaultStream)) {
-                    alreadyRemovedDefaultStream = true;
-                    if (LOG.isTraceEnabled()) {
-                        LOG.trace("Successfully removed default stream <{}> from message <{}>", defaultStream.getId(), message.getId());
-                    }
-                } else {
-                    if (LOG.isWarnEnabled()) {
-                        LOG.warn("Couldn't remove default stream <{}> from message <{}>", defaultStream.getId(), message.getId());
-                    }
-                }
-            }
-        }
-        // either the message stayed on the default stream, in which case we mark that stream's throughput,
-        // or someone removed it, in which case we don't mark it.
-        if (!alreadyRemovedDefaultStream) {
-            streamMetrics.markIncomingMeter(defaultStream.getId());
-        }
-
-        return ImmutableList.copyOf(result);
+        return result;
     }
 
     /**
@@ -265,7 +277,7 @@ public class StreamRouterEngine {
         return matches;
     }
 
-    private class Rule {
+    class Rule {
         private final Stream stream;
         private final StreamRule rule;
         private final String streamId;
@@ -305,7 +317,7 @@ public class StreamRouterEngine {
         }
 
         @Nullable
-        private Stream matchWithTimeOut(final Message message, long timeout, TimeUnit unit) {
+        Stream matchWithTimeOut(final Message message, long timeout, TimeUnit unit) {
             Stream matchedStream = null;
             try (final Timer.Context ignored = streamMetrics.getExecutionTimer(streamId, streamRuleId).time()) {
                 matchedStream = timeLimiter.callWithTimeout(new Callable<Stream>() {
@@ -32,8 +32,12 @@ import org.mockito.junit.MockitoRule;
 
 import java.io.IOException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -301,6 +305,83 @@ public class Beats2CodecTest {
         assertThat(message.getField("beat_meta_cloud_availability_zone")).isEqualTo("gz-azone2");
     }
 
+    @Test
+    public void streamingDecodeCreatesSameFieldsAsTreeDecode() throws Exception {
+        final String[] testFiles = {
+                "filebeat.json",
+                "generic.json",
+                "generic-with-cloud-ec2.json",
+                "generic-with-docker.json",
+                "generic-with-fields.json",
+                "generic-with-kubernetes.json",
+                "metricbeat-docker-container.json",
+                "metricbeat-system-filesystem.json",
+                "packetbeat-dns.json",
+                "topbeat-process.json",
+                "winlogbeat.json",
+                "winlogbeat-v7.json"
+        };
+        for (boolean noBeatsPrefix : new boolean[]{false, true}) {
+            for (String testFile : testFiles) {
+                final byte[] json = messageFromJson(testFile).getPayload();
+                assertThat(fieldsWithoutId(decodeStreaming(json, noBeatsPrefix)))
+                        .as("%s (no_beats_prefix=%s)", testFile, noBeatsPrefix)
+                        .isEqualTo(fieldsWithoutId(new Beats2Codec(new Configuration(Collections.singletonMap("no_beats_prefix", noBeatsPrefix)), objectMapper)
+                                .decode(new RawMessage(json))));
+            }
+        }
+    }
+
+    @Test
+    public void streamingDecodeHandlesMetadataAfterOtherFields() throws Exception {
+        final byte[] json = ("{\"@timestamp\":\"2016-04-01T00:00:00.000Z\",\"foo\":{\"bar\":[1,\"baz\",{\"qux\":true}]},"
+                + "\"message\":\"TEST\",\"agent\":{\"hostname\":\"example.local\"},\"@metadata\":{\"beat\":\"filebeat\"},\"count\":1}")
+                .getBytes(StandardCharsets.UTF_8);
+
+        final Message message = decodeStreaming(json, false);
+        assertThat(message).isNotNull();
+        assertThat(message.getMessage()).isEqualTo("TEST");
+        assertThat(message.getSource()).isEqualTo("example.local");
+        assertThat(message.getField("beats_type")).isEqualTo("filebeat");
+        assertThat(message.getField("filebeat_@timestamp")).isEqualTo("2016-04-01T00:00:00.000Z");
+        assertThat(message.getField("filebeat_foo_bar_2_qux")).isEqualTo(true);
+        assertThat(message.getField("filebeat_foo_bar")).isEqualTo(Arrays.asList(1, "baz"));
+        assertThat(message.getField("filebeat_agent_hostname")).isEqualTo("example.local");
+        assertThat(message.getField("filebeat_@metadata_beat")).isEqualTo("filebeat");
+        assertThat(message.getField("filebeat_count")).isEqualTo(1);
+        assertThat(fieldsWithoutId(message)).isEqualTo(fieldsWithoutId(codec.decode(new RawMessage(json))));
+    }
+
+    @Test
+    public void streamingDecodeFallsBackToTreeDecodeForUnexpectedTypes() throws Exception {
+        final byte[] json = "{\"@metadata\":{\"beat\":\"filebeat\"},\"message\":{\"foo\":\"bar\"},\"beat\":{\"hostname\":42}}"
+                .getBytes(StandardCharsets.UTF_8);
+
+        final Message message = decodeStreaming(json, false);
+        assertThat(message).isNotNull();
+        assertThat(fieldsWithoutId(message)).isEqualTo(fieldsWithoutId(codec.decode(new RawMessage(json))));
+    }
+
+    @Test
+    public void streamingDecodeReturnsNullIfPayloadCouldNotBeDecoded() throws Exception {
+        assertThat(decodeStreaming(new byte[0], false)).isNull();
+        assertThat(decodeStreaming("{\"message\":".getBytes(StandardCharsets.UTF_8), false)).isNull();
+    }
+
+    private Message decodeStreaming(byte[] json, boolean noBeatsPrefix) {
+        final Map<String, Object> config = new HashMap<>();
+        config.put("no_beats_prefix", noBeatsPrefix);
+        config.put("streaming_decode", true);
+        return new Beats2Codec(new Configuration(config), objectMapper).decode(new RawMessage(json));
+    }
+
+    private Map<String, Object> fieldsWithoutId(Message message) {
+        assertThat(message).isNotNull();
+        final Map<String, Object> fields = new HashMap<>(message.getFields());
+        fields.remove(Message.FIELD_ID);
+        return fields;
+    }
+
     private RawMessage messageFromJson(String resourceName) throws IOException {
         final URL resource = Resources.getResource(this.getClass(), resourceName);
         final byte[] json = Resources.toByteArray(resource);
@@ -19,25 +19,44 @@ package org.graylog.plugins.beats;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableMap;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.embedded.EmbeddedChannel;
 import io.netty.handler.logging.LoggingHandler;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.ResourceLeakDetector;
 import org.graylog2.jackson.TypeReferences;
 import org.graylog2.shared.bindings.providers.ObjectMapperProvider;
+import org.junit.AfterClass;
 import org.junit.Before;
+import org.junit.BeforeClass;
 import org.junit.Test;
 
 import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
 public class BeatsFrameDecoderTest {
+    private static ResourceLeakDetector.Level leakDetectionLevel;
+
     private final ObjectMapper objectMapper = new ObjectMapperProvider().get();
     private EmbeddedChannel channel;
     private BeatsFrameDecoder decoder;
 
+    @BeforeClass
+    public static void enableLeakDetection() {
+        leakDetectionLevel = ResourceLeakDetector.getLevel();
+        ResourceLeakDetector.setLevel(ResourceLeakDetector.Level.PARANOID);
+    }
+
+    @AfterClass
+    public static void resetLeakDetection() {
+        ResourceLeakDetector.setLevel(leakDetectionLevel);
+    }
+
     @Before
     public void setUp() throws Exception {
         decoder = new BeatsFrameDecoder();
@@ -231,6 +250,104 @@ public class BeatsFrameDecoderTest {
         }
     }
 
+    @Test
+    public void releasesJsonFrameWithEvent() throws Exception {
+        final ByteBuf buffer = buildJsonFrame("{\"answer\": 42}".getBytes(StandardCharsets.UTF_8), 0);
+
+        channel.writeInbound(buffer);
+        channel.finish();
+
+        final ByteBuf event = channel.readInbound();
+        assertThat(event.refCnt()).isEqualTo(1);
+        assertThat(event.release()).isTrue();
+        assertThat(event.refCnt()).isZero();
+        assertThat(buffer.refCnt()).isZero();
+        releaseOutbound();
+    }
+
+    @Test
+    public void releasesDataFrameWithEvent() throws Exception {
+        final ByteBuf buffer = buildDataFrame(ImmutableMap.of("foo", "bar"), 0);
+
+        channel.writeInbound(buffer);
+        channel.finish();
+
+        final ByteBuf event = channel.readInbound();
+        assertThat(event.refCnt()).isEqualTo(1);
+        assertThat(event.release()).isTrue();
+        assertThat(event.refCnt()).isZero();
+        assertThat(buffer.refCnt()).isZero();
+        releaseOutbound();
+    }
+
+    @Test
+    public void releasesCompressedFrameWithEvents() throws Exception {
+        final ByteBuf innerBuffer = Unpooled.copiedBuffer(
+                buildJsonFrame("{\"answer\": 42}".getBytes(StandardCharsets.UTF_8), 0),
+                buildDataFrame(ImmutableMap.of("foo", "bar"), 1),
+                buildJsonFrame("{\"answer\": 23}".getBytes(StandardCharsets.UTF_8), 2));
+        final ByteBuf buffer = buildCompressedFrame(ByteBufUtil.getBytes(innerBuffer), 3);
+
+        channel.writeInbound(buffer);
+        channel.finish();
+
+        final ByteBuf first = channel.readInbound();
+        final ByteBuf second = channel.readInbound();
+        final ByteBuf third = channel.readInbound();
+        assertThat((Object) channel.readInbound()).isNull();
+        assertThat(buffer.refCnt()).isZero();
+
+        // the JSON events are slices of the inflated buffer, it's freed with the last one
+        first.release();
+        second.release();
+        third.release();
+        assertThat(first.refCnt()).isZero();
+        assertThat(second.refCnt()).isZero();
+        assertThat(third.refCnt()).isZero();
+        releaseOutbound();
+    }
+
+    @Test
+    public void endsInflaterIfChannelIsClosedDuringCompressedFrame() throws Exception {
+        final TrackingInflater inflater = new TrackingInflater();
+        channel = new EmbeddedChannel(new BeatsFrameDecoder(() -> inflater));
+        final byte[] jsonBytes = "{\"answer\": 42}".getBytes(StandardCharsets.UTF_8);
+
+        channel.writeInbound(buildCompressedFrame(buildJsonFrame(jsonBytes, 0).array(), 3));
+        final ByteBuf event = channel.readInbound();
+        event.release();
+
+        // the second compressed frame is cut off
+        final ByteBuf partialFrame = buildCompressedFrame(buildJsonFrame(jsonBytes, 1).array(), 3);
+        channel.writeInbound(partialFrame.readRetainedSlice(partialFrame.readableBytes() / 2));
+        assertThat(inflater.ended).isFalse();
+
+        channel.close();
+
+        assertThat(inflater.ended).isTrue();
+        assertThat((Object) channel.readInbound()).isNull();
+        partialFrame.release();
+        assertThat(partialFrame.refCnt()).isZero();
+        releaseOutbound();
+    }
+
+    private void releaseOutbound() {
+        Object outbound;
+        while ((outbound = channel.readOutbound()) != null) {
+            ReferenceCountUtil.release(outbound);
+        }
+    }
+
+    private static class TrackingInflater extends Inflater {
+        private boolean ended = false;
+
+        @Override
+        public void end() {
+            ended = true;
+            super.end();
+        }
+    }
+
     private long extractSequenceNumber(ByteBuf buffer) {
         assertThat(buffer.readByte()).isEqualTo((byte) '2');
         assertThat(buffer.readByte()).isEqualTo((byte) 'A');
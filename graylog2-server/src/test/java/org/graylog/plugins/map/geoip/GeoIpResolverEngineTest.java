@@ -42,7 +42,10 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class GeoIpResolverEngineTest {
@@ -249,6 +252,46 @@ public class GeoIpResolverEngineTest {
         assertNull(engine.getIpFromFieldValue("Test message with no IP"));
     }
 
+    @Test
+    public void resolvedAddressesAreCached() {
+        final GeoIpResolverEngine engine = new GeoIpResolverEngine(geoIpVendorResolverService, config, metricRegistry);
+
+        for (int i = 0; i < 3; i++) {
+            final Map<String, Object> fields = new HashMap<>();
+            fields.put("_id", java.util.UUID.randomUUID().toString());
+            fields.put("source_ip", publicIp.getHostAddress());
+            fields.put("destination_ip", publicIp.getHostAddress());
+
+            final Message message = new Message(fields);
+            engine.filter(message);
+
+            Assertions.assertEquals(maxMindAsnInfo.asn(), message.getField("source_as_number"));
+            Assertions.assertEquals(maxMindAsnInfo.asn(), message.getField("destination_as_number"));
+            Assertions.assertEquals(maxMindLocationInfo.cityName(), message.getField("destination_geo_city"));
+        }
+
+        verify(maxMindCityResolver, times(1)).getGeoIpData(publicIp);
+        verify(maxMindAsnResolver, times(1)).getGeoIpData(publicIp);
+        assertEquals(1, metricRegistry.counter("org.graylog.plugins.map.geoip.GeoIpResolverEngine.cache.misses").getCount());
+        assertEquals(5, metricRegistry.counter("org.graylog.plugins.map.geoip.GeoIpResolverEngine.cache.hits").getCount());
+    }
+
+    @Test
+    public void mayBeIpAddress() {
+        assertTrue(GeoIpResolverEngine.mayBeIpAddress("127.0.0.1"));
+        assertTrue(GeoIpResolverEngine.mayBeIpAddress("2001:4860:4860::8888"));
+        assertTrue(GeoIpResolverEngine.mayBeIpAddress("::"));
+        assertTrue(GeoIpResolverEngine.mayBeIpAddress("::ffff:192.168.0.1"));
+        assertTrue(GeoIpResolverEngine.mayBeIpAddress("fe80::1%eth0"));
+
+        assertFalse(GeoIpResolverEngine.mayBeIpAddress(""));
+        assertFalse(GeoIpResolverEngine.mayBeIpAddress("1"));
+        assertFalse(GeoIpResolverEngine.mayBeIpAddress("12345"));
+        assertFalse(GeoIpResolverEngine.mayBeIpAddress("Test message with no IP"));
+        assertFalse(GeoIpResolverEngine.mayBeIpAddress("host.example.org"));
+        assertFalse(GeoIpResolverEngine.mayBeIpAddress("2021-01-01T00:00:00.000Z"));
+    }
+
     @Test
     public void trimFieldValueBeforeLookup() {
         final GeoIpResolverEngine resolver = new GeoIpResolverEngine(geoIpVendorResolverService, config, metricRegistry);
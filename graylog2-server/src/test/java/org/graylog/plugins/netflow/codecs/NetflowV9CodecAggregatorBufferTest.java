@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.netflow.codecs;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.io.Resources;
+import io.netty.buffer.Unpooled;
+import org.graylog2.plugin.inputs.codecs.CodecAggregator;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class NetflowV9CodecAggregatorBufferTest {
+    private InetSocketAddress source;
+    private MetricRegistry metricRegistry;
+    private byte[] templatePacket;
+    private byte[] dataPacket;
+
+    @Before
+    public void setUp() throws IOException {
+        source = new InetSocketAddress(InetAddress.getLocalHost(), 12345);
+        metricRegistry = new MetricRegistry();
+        templatePacket = Resources.toByteArray(Resources.getResource("netflow-data/netflow-v9-2-1.dat"));
+        dataPacket = Resources.toByteArray(Resources.getResource("netflow-data/netflow-v9-2-2.dat"));
+    }
+
+    @Test
+    public void buffersPacketsUntilTemplateArrives() {
+        final NetflowV9CodecAggregator aggregator = new NetflowV9CodecAggregator(null, 1024 * 1024, metricRegistry);
+
+        final CodecAggregator.Result buffered = aggregator.addChunk(Unpooled.wrappedBuffer(dataPacket), source);
+        assertThat(buffered.isValid()).isTrue();
+        assertThat(buffered.getMessage()).isNull();
+        assertThat(aggregator.getBufferedBytes()).isEqualTo(dataPacket.length);
+
+        final CodecAggregator.Result released = aggregator.addChunk(Unpooled.wrappedBuffer(templatePacket), source);
+        assertThat(released.isValid()).isTrue();
+        assertThat(released.getMessage()).isNotNull();
+        assertThat(aggregator.getBufferedBytes()).isZero();
+        assertThat(metricRegistry.timer(name(NetflowV9CodecAggregator.class, "template-wait-time")).getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void dropsPacketsIfBufferIsFull() {
+        final NetflowV9CodecAggregator aggregator = new NetflowV9CodecAggregator(null, dataPacket.length + 1, metricRegistry);
+
+        assertThat(aggregator.addChunk(Unpooled.wrappedBuffer(dataPacket), source).getMessage()).isNull();
+        assertThat(aggregator.addChunk(Unpooled.wrappedBuffer(dataPacket), source).getMessage()).isNull();
+
+        assertThat(aggregator.getBufferedBytes()).isEqualTo(dataPacket.length);
+        assertThat(metricRegistry.meter(name(NetflowV9CodecAggregator.class, "dropped-packets")).getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void usesTemplatesSharedByOtherNodes() {
+        final Map<TemplateKey, NetFlowV9TemplateStore.StoredTemplate> sharedTemplates = new HashMap<>();
+        final NetFlowV9TemplateStore templateStore = mock(NetFlowV9TemplateStore.class);
+        doAnswer(invocation -> sharedTemplates.put(invocation.<TemplateKey>getArgument(0),
+                new NetFlowV9TemplateStore.StoredTemplate(invocation.<byte[]>getArgument(1), invocation.<Boolean>getArgument(2), 0L)))
+                .when(templateStore).publish(any(TemplateKey.class), any(byte[].class), anyBoolean());
+        when(templateStore.get(any(TemplateKey.class))).thenAnswer(invocation -> sharedTemplates.get(invocation.<TemplateKey>getArgument(0)));
+
+        // the exporter sends its templates to the first node only
+        final NetflowV9CodecAggregator firstNode = new NetflowV9CodecAggregator(templateStore, 1024 * 1024, metricRegistry);
+        firstNode.addChunk(Unpooled.wrappedBuffer(templatePacket), source);
+        assertThat(sharedTemplates).isNotEmpty();
+
+        final NetflowV9CodecAggregator secondNode = new NetflowV9CodecAggregator(templateStore, 1024 * 1024, new MetricRegistry());
+        final CodecAggregator.Result result = secondNode.addChunk(Unpooled.wrappedBuffer(dataPacket), source);
+        assertThat(result.getMessage()).isNotNull();
+        assertThat(secondNode.getBufferedBytes()).isZero();
+    }
+
+    @Test
+    public void keepsBufferedBytesConsistentWhenPacketsExpireConcurrently() throws Exception {
+        final NetflowV9CodecAggregator aggregator = new NetflowV9CodecAggregator(null, Long.MAX_VALUE / 2, metricRegistry);
+        final ExecutorService executor = Executors.newFixedThreadPool(5);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicBoolean buffering = new AtomicBoolean(true);
+        try {
+            final List<Future<?>> writers = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                writers.add(executor.submit(() -> {
+                    start.await();
+                    for (int j = 0; j < 2000; j++) {
+                        aggregator.addChunk(Unpooled.wrappedBuffer(dataPacket), source);
+                    }
+                    return null;
+                }));
+            }
+            final Future<?> expiry = executor.submit(() -> {
+                start.await();
+                while (buffering.get()) {
+                    aggregator.expireBufferedPackets();
+                }
+                return null;
+            });
+
+            start.countDown();
+            for (Future<?> writer : writers) {
+                writer.get();
+            }
+            buffering.set(false);
+            expiry.get();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        aggregator.expireBufferedPackets();
+
+        assertThat(aggregator.getBufferedBytes()).isZero();
+        assertThat(metricRegistry.counter(name(NetflowV9CodecAggregator.class, "buffered-bytes")).getCount()).isZero();
+        assertThat(metricRegistry.meter(name(NetflowV9CodecAggregator.class, "dropped-packets")).getCount()).isEqualTo(4 * 2000);
+    }
+}
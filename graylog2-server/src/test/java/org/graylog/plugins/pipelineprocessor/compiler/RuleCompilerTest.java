@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.pipelineprocessor.compiler;
+
+import org.graylog.plugins.pipelineprocessor.BaseParserTest;
+import org.graylog.plugins.pipelineprocessor.EvaluationContext;
+import org.graylog.plugins.pipelineprocessor.ast.Rule;
+import org.graylog.plugins.pipelineprocessor.ast.functions.Function;
+import org.graylog.plugins.pipelineprocessor.ast.statements.FunctionStatement;
+import org.graylog.plugins.pipelineprocessor.ast.statements.Statement;
+import org.graylog.plugins.pipelineprocessor.ast.statements.VarAssignStatement;
+import org.graylog.plugins.pipelineprocessor.functions.conversion.LongConversion;
+import org.graylog.plugins.pipelineprocessor.functions.conversion.StringConversion;
+import org.graylog.plugins.pipelineprocessor.functions.messages.HasField;
+import org.graylog.plugins.pipelineprocessor.functions.messages.SetField;
+import org.graylog.plugins.pipelineprocessor.functions.strings.Concat;
+import org.graylog.plugins.pipelineprocessor.functions.strings.Lowercase;
+import org.graylog.plugins.pipelineprocessor.functions.strings.RegexMatch;
+import org.graylog.plugins.pipelineprocessor.parser.FunctionRegistry;
+import org.graylog2.plugin.Message;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RuleCompilerTest extends BaseParserTest {
+    private final RuleCompiler compiler = new RuleCompiler();
+
+    @BeforeClass
+    public static void registerFunctions() {
+        final Map<String, Function<?>> functions = commonFunctions();
+        functions.put(HasField.NAME, new HasField());
+        functions.put(SetField.NAME, new SetField());
+        functions.put(LongConversion.NAME, new LongConversion());
+        functions.put(StringConversion.NAME, new StringConversion());
+        functions.put(Concat.NAME, new Concat());
+        functions.put(Lowercase.NAME, new Lowercase());
+        functions.put(RegexMatch.NAME, new RegexMatch());
+        functionRegistry = new FunctionRegistry(functions);
+    }
+
+    @Test
+    public void compilesConditionAndStatements() {
+        final Rule rule = parser.parseRule("rule \"test\"\n" +
+                "when has_field(\"level\") && to_long($message.level) >= 3 && lowercase(to_string($message.host)) == \"web\"\n" +
+                "then\n" +
+                "  let prefix = concat(\"level-\", to_string($message.level));\n" +
+                "  set_field(\"result\", prefix);\n" +
+                "end", false);
+        final Rule compiled = compiler.compile(rule);
+
+        assertThat(compiled.when()).isInstanceOf(CompiledLogicalExpression.class);
+        for (Statement statement : compiled.then()) {
+            if (statement instanceof FunctionStatement) {
+                assertThat(((FunctionStatement) statement).getFunctionExpression()).isInstanceOf(CompiledExpression.class);
+            } else {
+                assertThat(((VarAssignStatement) statement).getValueExpression()).isInstanceOf(CompiledExpression.class);
+            }
+        }
+
+        assertSameResult(rule, compiled, message -> {
+            message.addField("level", 4L);
+            message.addField("host", "WEB");
+        });
+        assertThat(evaluate(compiled, message -> {
+            message.addField("level", 4L);
+            message.addField("host", "WEB");
+        }).getField("result")).isEqualTo("level-4");
+
+        assertSameResult(rule, compiled, message -> {
+            message.addField("level", 2L);
+            message.addField("host", "web");
+        });
+        assertSameResult(rule, compiled, message -> message.addField("host", "web"));
+    }
+
+    @Test
+    public void comparisonsMatchInterpreter() {
+        for (String operator : new String[]{">", ">=", "<", "<="}) {
+            for (String value : new String[]{"1", "2", "3", "1.5", "2.0", "-0.0"}) {
+                final String right = value.contains(".") ? "2.0" : "2";
+                final Rule rule = parser.parseRule("rule \"test\" when " + value + " " + operator + " " + right +
+                        " then set_field(\"matched\", true); end", false);
+
+                assertSameResult(rule, compiler.compile(rule), message -> {});
+            }
+        }
+    }
+
+    @Test
+    public void reportsSameEvaluationErrors() {
+        final Rule rule = parser.parseRule("rule \"test\"\n" +
+                "when true\n" +
+                "then\n" +
+                "  let result = regex(to_string($message.pattern), \"abc\");\n" +
+                "end", false);
+        final Rule compiled = compiler.compile(rule);
+
+        final EvaluationContext interpreted = context(rule, message -> message.addField("pattern", "("));
+        final EvaluationContext compiledContext = context(compiled, message -> message.addField("pattern", "("));
+
+        assertThat(interpreted.hasEvaluationErrors()).isTrue();
+        assertThat(compiledContext.evaluationErrors().stream().map(Object::toString).collect(Collectors.toList()))
+                .isEqualTo(interpreted.evaluationErrors().stream().map(Object::toString).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void interpretsExpressionsWithoutCompiledForm() {
+        final Rule rule = parser.parseRule("rule \"test\"\n" +
+                "when to_long($message.count) + 1 > 2 && !(to_long($message.count) * 2 == 10)\n" +
+                "then set_field(\"matched\", true);\n" +
+                "end", false);
+        final Rule compiled = compiler.compile(rule);
+
+        assertSameResult(rule, compiled, message -> message.addField("count", 2L));
+        assertSameResult(rule, compiled, message -> message.addField("count", 5L));
+        assertSameResult(rule, compiled, message -> message.addField("count", 0L));
+    }
+
+    private void assertSameResult(Rule interpreted, Rule compiled, Consumer<Message> messageModifier) {
+        final Message expected = evaluate(interpreted, messageModifier);
+        final Message actual = evaluate(compiled, messageModifier);
+
+        if (expected == null) {
+            assertThat(actual).isNull();
+        } else {
+            assertThat(actual).isNotNull();
+            assertThat(actual.getFields()).isEqualTo(expected.getFields());
+        }
+    }
+
+    private Message evaluate(Rule rule, Consumer<Message> messageModifier) {
+        return evaluateRule(rule, newMessage(messageModifier));
+    }
+
+    private EvaluationContext context(Rule rule, Consumer<Message> messageModifier) {
+        return contextForRuleEval(rule, newMessage(messageModifier));
+    }
+
+    private Message newMessage(Consumer<Message> messageModifier) {
+        final Message message = new Message("hello test", "source", new DateTime(2021, 1, 1, 0, 0, DateTimeZone.UTC));
+        message.addField("_id", "4e6d2de0-4b8b-11eb-a82b-0242ac130002");
+        messageModifier.accept(message);
+        return message;
+    }
+}
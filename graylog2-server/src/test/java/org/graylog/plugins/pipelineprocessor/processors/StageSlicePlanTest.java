@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.pipelineprocessor.processors;
+
+import com.google.common.collect.ImmutableList;
+import org.graylog.plugins.pipelineprocessor.BaseParserTest;
+import org.graylog.plugins.pipelineprocessor.EvaluationContext;
+import org.graylog.plugins.pipelineprocessor.ast.Rule;
+import org.graylog.plugins.pipelineprocessor.ast.Stage;
+import org.graylog.plugins.pipelineprocessor.ast.functions.Function;
+import org.graylog.plugins.pipelineprocessor.compiler.CompiledLogicalExpression;
+import org.graylog.plugins.pipelineprocessor.compiler.RuleCompiler;
+import org.graylog.plugins.pipelineprocessor.functions.conversion.IsString;
+import org.graylog.plugins.pipelineprocessor.functions.conversion.StringConversion;
+import org.graylog.plugins.pipelineprocessor.functions.messages.HasField;
+import org.graylog.plugins.pipelineprocessor.functions.strings.RegexMatch;
+import org.graylog.plugins.pipelineprocessor.parser.FunctionRegistry;
+import org.graylog2.plugin.Message;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class StageSlicePlanTest extends BaseParserTest {
+
+    @BeforeClass
+    public static void registerFunctions() {
+        final Map<String, Function<?>> functions = commonFunctions();
+        functions.put(HasField.NAME, new HasField());
+        functions.put(StringConversion.NAME, new StringConversion());
+        functions.put(IsString.NAME, new IsString());
+        functions.put(RegexMatch.NAME, new RegexMatch());
+        functionRegistry = new FunctionRegistry(functions);
+    }
+
+    @Test
+    public void sharesIdenticalSubexpressionsAcrossStages() {
+        final Rule first = rule("has_field(\"source\") && to_string($message.source) == \"web\"");
+        final Rule second = rule("has_field(\"source\")");
+        final Rule third = rule("to_string($message.source) == \"web\" || has_field(\"other\")");
+        final StageSlicePlan plan = StageSlicePlan.create(ImmutableList.of(stage(first, second), stage(third)));
+
+        assertThat(plan.slotCount()).isEqualTo(2);
+
+        final Message message = message();
+        final EvaluationContext.SharedValues sharedValues = plan.newSharedValues();
+        final EvaluationContext context = new EvaluationContext(message);
+        context.setSharedValues(sharedValues);
+
+        assertThat(plan.condition(first).evaluateBool(context)).isTrue();
+        assertThat(plan.condition(second).evaluateBool(context)).isTrue();
+        assertThat(plan.condition(third).evaluateBool(context)).isTrue();
+        assertThat(sharedValues.misses()).isEqualTo(2);
+        assertThat(sharedValues.hits()).isEqualTo(2);
+    }
+
+    @Test
+    public void keepsConditionsWithoutSharedSubexpressions() {
+        final Rule first = rule("is_string($message.source)");
+        final Rule second = rule("is_string($message.source)");
+        final Rule third = rule("has_field(\"source\")");
+        final StageSlicePlan plan = StageSlicePlan.create(ImmutableList.of(stage(first, second, third)));
+
+        assertThat(plan.newSharedValues()).isNull();
+        assertThat(plan.condition(first)).isSameAs(first.when());
+        assertThat(plan.condition(third)).isSameAs(third.when());
+    }
+
+    @Test
+    public void reevaluatesAfterClear() {
+        final Rule first = rule("to_string($message.source) == \"web\"");
+        final Rule second = rule("to_string($message.source) == \"web\"");
+        final StageSlicePlan plan = StageSlicePlan.create(ImmutableList.of(stage(first), stage(second)));
+
+        final Message message = message();
+        final EvaluationContext.SharedValues sharedValues = plan.newSharedValues();
+        final EvaluationContext context = new EvaluationContext(message);
+        context.setSharedValues(sharedValues);
+
+        assertThat(plan.condition(first).evaluateBool(context)).isTrue();
+        message.addField("source", "db");
+        sharedValues.clear();
+        assertThat(plan.condition(second).evaluateBool(context)).isFalse();
+        assertThat(sharedValues.misses()).isEqualTo(2);
+        assertThat(sharedValues.hits()).isZero();
+    }
+
+    @Test
+    public void doesNotShareFailedEvaluations() {
+        final Rule first = rule("regex(to_string($message.pattern), \"abc\").matches == true");
+        final Rule second = rule("regex(to_string($message.pattern), \"abc\").matches == true");
+        final StageSlicePlan plan = StageSlicePlan.create(ImmutableList.of(stage(first, second)));
+
+        final Message message = message();
+        message.addField("pattern", "(");
+        final EvaluationContext.SharedValues sharedValues = plan.newSharedValues();
+        final EvaluationContext context = new EvaluationContext(message);
+        context.setSharedValues(sharedValues);
+
+        assertThatThrownBy(() -> plan.condition(first).evaluateBool(context));
+        assertThatThrownBy(() -> plan.condition(second).evaluateBool(context));
+        assertThat(sharedValues.hits()).isZero();
+    }
+
+    @Test
+    public void keepsCompiledConditions() {
+        final RuleCompiler compiler = new RuleCompiler();
+        final Rule first = compiler.compile(rule("has_field(\"source\") && to_string($message.source) == \"web\""));
+        final Rule second = compiler.compile(rule("has_field(\"source\")"));
+        final Rule third = compiler.compile(rule("to_string($message.source) == \"web\" || has_field(\"other\")"));
+        final StageSlicePlan plan = StageSlicePlan.create(ImmutableList.of(stage(first, second), stage(third)));
+
+        assertThat(plan.slotCount()).isEqualTo(2);
+        assertThat(plan.condition(first)).isInstanceOf(CompiledLogicalExpression.class).isNotSameAs(first.when());
+        assertThat(plan.condition(third)).isInstanceOf(CompiledLogicalExpression.class).isNotSameAs(third.when());
+        // the condition of the second rule is shared as a whole
+        assertThat(plan.condition(second)).isInstanceOf(SharedLogicalExpression.class);
+        assertThat(((SharedExpression) plan.condition(second)).expression()).isInstanceOf(CompiledLogicalExpression.class);
+
+        final Message message = message();
+        final EvaluationContext.SharedValues sharedValues = plan.newSharedValues();
+        final EvaluationContext context = new EvaluationContext(message);
+        context.setSharedValues(sharedValues);
+
+        assertThat(plan.condition(first).evaluateBool(context)).isTrue();
+        assertThat(plan.condition(second).evaluateBool(context)).isTrue();
+        assertThat(plan.condition(third).evaluateBool(context)).isTrue();
+        assertThat(sharedValues.misses()).isEqualTo(2);
+        assertThat(sharedValues.hits()).isEqualTo(2);
+    }
+
+    private Rule rule(String condition) {
+        return parser.parseRule("rule \"test\" when " + condition + " then end", false);
+    }
+
+    private static Stage stage(Rule... rules) {
+        final Stage stage = Stage.builder()
+                .stage(0)
+                .match(Stage.Match.EITHER)
+                .ruleReferences(Collections.emptyList())
+                .build();
+        stage.setRules(ImmutableList.copyOf(rules));
+        return stage;
+    }
+
+    private static Message message() {
+        final Message message = new Message("hello test", "source", DateTime.now(DateTimeZone.UTC));
+        message.addField("source", "web");
+        return message;
+    }
+}
@@ -16,9 +16,14 @@
  */
 package org.graylog.plugins.pipelineprocessor.processors;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import org.graylog.plugins.pipelineprocessor.ast.Pipeline;
 import org.graylog2.plugin.LocalMetricRegistry;
 import org.junit.Test;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertEquals;
 
 public class StateTest {
@@ -30,4 +35,23 @@ public class StateTest {
         assertEquals("org.graylog.plugins.pipelineprocessor.processors.PipelineInterpreter.stage-cache",
                 state.getStageCacheMetricName());
     }
+
+    @Test
+    public void testSelectPipelinesIsCachedPerStreamSet() {
+        final Pipeline pipeline1 = Pipeline.empty("pipeline1").toBuilder().id("p1").build();
+        final Pipeline pipeline2 = Pipeline.empty("pipeline2").toBuilder().id("p2").build();
+        final PipelineInterpreter.State state = new PipelineInterpreter.State(
+                ImmutableMap.of("p1", pipeline1, "p2", pipeline2),
+                ImmutableSetMultimap.of("s1", pipeline1, "s2", pipeline1, "s2", pipeline2),
+                null,
+                new LocalMetricRegistry(), 1, true);
+
+        final PipelineSelection selection = state.selectPipelines(ImmutableSet.of("s1", "s2", "unconnected"));
+
+        assertThat(selection.streamIds()).containsOnly("s1", "s2");
+        assertThat(selection.pipelines()).containsOnly(pipeline1, pipeline2);
+        assertThat(state.selectPipelines(ImmutableSet.of("unconnected", "s2", "s1"))).isSameAs(selection);
+        assertThat(state.selectPipelines(ImmutableSet.of("s1")).pipelines()).containsOnly(pipeline1);
+        assertThat(state.selectPipelines(ImmutableSet.of()).pipelines()).isEmpty();
+    }
 }
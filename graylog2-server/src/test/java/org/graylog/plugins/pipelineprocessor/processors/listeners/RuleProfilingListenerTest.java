@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.pipelineprocessor.processors.listeners;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.Iterables;
+import com.google.common.eventbus.EventBus;
+import org.graylog.plugins.pipelineprocessor.ast.Pipeline;
+import org.graylog.plugins.pipelineprocessor.ast.Rule;
+import org.graylog.plugins.pipelineprocessor.ast.functions.FunctionDescriptor;
+import org.graylog.plugins.pipelineprocessor.events.RulesChangedEvent;
+import org.graylog.plugins.pipelineprocessor.functions.messages.HasField;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class RuleProfilingListenerTest {
+    private final Rule rule = Rule.alwaysFalse("rule").withId("abc");
+    private final Pipeline pipeline = Pipeline.empty("pipeline").toBuilder().id("cde").build();
+    private final FunctionDescriptor<Boolean> hasField = new HasField().descriptor();
+
+    private MetricRegistry metricRegistry;
+    private RuleProfiler profiler;
+    private InterpreterListener delegate;
+    private RuleProfilingListener listener;
+
+    @Before
+    public void setUp() {
+        metricRegistry = new MetricRegistry();
+        profiler = new RuleProfiler(metricRegistry, new EventBus(), 1);
+        delegate = mock(InterpreterListener.class);
+        listener = new RuleProfilingListener(profiler, delegate);
+    }
+
+    @Test
+    public void profilingIsDisabledByDefault() {
+        assertThat(new RuleProfiler(metricRegistry, new EventBus(), 0).isEnabled()).isFalse();
+        assertThat(profiler.isEnabled()).isTrue();
+    }
+
+    @Test
+    public void recordsConditionActionsAndFunctions() {
+        listener.evaluateRule(rule, pipeline);
+        listener.evaluateFunction(hasField);
+        listener.finishEvaluateFunction(hasField);
+        listener.satisfyRule(rule, pipeline);
+        listener.executeRule(rule, pipeline);
+        listener.finishExecuteRule(rule, pipeline);
+
+        final RuleProfiler.RuleTimings timings = Iterables.getOnlyElement(profiler.ruleTimings());
+        assertThat(timings.ruleId()).isEqualTo("abc");
+        assertThat(timings.pipelineName()).isEqualTo("pipeline");
+        assertThat(timings.condition().samples()).isEqualTo(1);
+        assertThat(timings.actions().samples()).isEqualTo(1);
+
+        final RuleProfiler.Timings functionTimings = Iterables.getOnlyElement(profiler.functionTimings());
+        assertThat(functionTimings.label()).isEqualTo("has_field");
+        assertThat(functionTimings.samples()).isEqualTo(1);
+
+        assertThat(metricRegistry.getTimers())
+                .containsKey(name(Rule.class, "abc", "profile", "cde", "evaluate", "wall-time"))
+                .containsKey(name(Rule.class, "abc", "profile", "cde", "execute", "wall-time"));
+
+        verify(delegate).evaluateRule(rule, pipeline);
+        verify(delegate).evaluateFunction(hasField);
+        verify(delegate).satisfyRule(rule, pipeline);
+        verify(delegate).finishExecuteRule(rule, pipeline);
+    }
+
+    @Test
+    public void recordsFailedActions() {
+        listener.executeRule(rule, pipeline);
+        listener.evaluateFunction(hasField);
+        listener.failExecuteRule(rule, pipeline);
+
+        final RuleProfiler.RuleTimings timings = Iterables.getOnlyElement(profiler.ruleTimings());
+        assertThat(timings.actions().samples()).isEqualTo(1);
+        verify(delegate).failExecuteRule(rule, pipeline);
+
+        // A function call of the failed action must not end up in the next profiled rule
+        listener.evaluateRule(rule, pipeline);
+        listener.satisfyRule(rule, pipeline);
+        assertThat(timings.condition().samples()).isEqualTo(1);
+        assertThat(profiler.functionTimings()).isEmpty();
+    }
+
+    @Test
+    public void ignoresFunctionsOutsideOfRules() {
+        listener.evaluateFunction(hasField);
+        listener.finishEvaluateFunction(hasField);
+
+        assertThat(profiler.functionTimings()).isEmpty();
+    }
+
+    @Test
+    public void removesTimingsOfDeletedRules() {
+        listener.evaluateRule(rule, pipeline);
+        listener.dissatisfyRule(rule, pipeline);
+        assertThat(profiler.ruleTimings()).hasSize(1);
+
+        profiler.handleRuleChanges(RulesChangedEvent.deletedRuleId("abc"));
+
+        assertThat(profiler.ruleTimings()).isEmpty();
+        assertThat(metricRegistry.getNames()).noneMatch(metric -> metric.startsWith(name(Rule.class, "abc")));
+    }
+}
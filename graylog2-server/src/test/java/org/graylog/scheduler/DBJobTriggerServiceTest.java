@@ -23,6 +23,8 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import org.graylog.events.JobSchedulerTestClock;
 import org.graylog.events.TestJobTriggerData;
+import org.graylog.scheduler.eventbus.JobSchedulerEventBus;
+import org.graylog.scheduler.eventbus.JobTriggerUpdatedEvent;
 import org.graylog.scheduler.schedule.IntervalJobSchedule;
 import org.graylog.scheduler.schedule.OnceJobSchedule;
 import org.graylog.testing.mongodb.MongoDBFixtures;
@@ -44,13 +46,18 @@ import java.util.List;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static java.util.Comparator.comparing;
 import static java.util.Objects.requireNonNull;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatCode;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class DBJobTriggerServiceTest {
@@ -500,6 +507,76 @@ public class DBJobTriggerServiceTest {
         assertThat(dbJobTriggerService.nextRunnableTrigger()).isEmpty();
     }
 
+    @Test
+    public void nextRunnableTriggers() {
+        // No triggers yet
+        assertThat(dbJobTriggerService.nextRunnableTriggers(10)).isEmpty();
+
+        final List<JobTriggerDto> created = IntStream.range(0, 5)
+                .mapToObj(i -> dbJobTriggerService.create(JobTriggerDto.Builder.create(clock)
+                        .jobDefinitionId("abc-123")
+                        .nextTime(clock.nowUTC().plusSeconds(10 - i))
+                        .schedule(IntervalJobSchedule.builder()
+                                .interval(1)
+                                .unit(TimeUnit.SECONDS)
+                                .build())
+                        .build()))
+                .collect(Collectors.toList());
+
+        // The next time of all triggers is in the future
+        assertThat(dbJobTriggerService.nextRunnableTriggers(10)).isEmpty();
+
+        clock.plus(20, TimeUnit.SECONDS);
+
+        // The triggers with the oldest next time must be locked first
+        assertThat(dbJobTriggerService.nextRunnableTriggers(3))
+                .extracting(JobTriggerDto::id)
+                .containsExactly(created.get(4).id(), created.get(3).id(), created.get(2).id());
+        assertThat(dbJobTriggerService.nextRunnableTriggers(3))
+                .hasSize(2)
+                .allSatisfy(trigger -> {
+                    assertThat(trigger.status()).isEqualTo(JobTriggerStatus.RUNNING);
+                    assertThat(trigger.triggeredAt()).isPresent().get().isEqualTo(clock.nowUTC());
+                    assertThat(trigger.lock().owner()).isEqualTo(NODE_ID);
+                    assertThat(trigger.lock().lastLockTime()).isEqualTo(clock.nowUTC());
+                });
+
+        // All triggers are locked now
+        assertThat(dbJobTriggerService.nextRunnableTriggers(3)).isEmpty();
+        assertThat(dbJobTriggerService.nextRunnableTriggers(0)).isEmpty();
+    }
+
+    @Test
+    public void createAndUpdateNotifyAboutDueTriggers() {
+        final JobSchedulerEventBus eventBus = mock(JobSchedulerEventBus.class);
+        final DBJobTriggerService service = new DBJobTriggerService(mongodb.mongoConnection(), mapperProvider, nodeId, clock, EXPIRATION_DURATION, eventBus);
+
+        final JobTriggerDto futureTrigger = service.create(JobTriggerDto.Builder.create(clock)
+                .jobDefinitionId("abc-123")
+                .nextTime(clock.nowUTC().plusSeconds(10))
+                .schedule(IntervalJobSchedule.builder()
+                        .interval(1)
+                        .unit(TimeUnit.SECONDS)
+                        .build())
+                .build());
+
+        verify(eventBus, never()).post(any());
+
+        service.create(JobTriggerDto.Builder.create(clock)
+                .jobDefinitionId("abc-123")
+                .schedule(IntervalJobSchedule.builder()
+                        .interval(1)
+                        .unit(TimeUnit.SECONDS)
+                        .build())
+                .build());
+
+        verify(eventBus, times(1)).post(JobTriggerUpdatedEvent.INSTANCE);
+
+        assertThat(service.update(futureTrigger.toBuilder().nextTime(clock.nowUTC()).build())).isTrue();
+
+        verify(eventBus, times(2)).post(JobTriggerUpdatedEvent.INSTANCE);
+    }
+
     @Test
     @MongoDBFixtures("job-triggers.json")
     public void nextRunnableTriggerWithEndTime() {
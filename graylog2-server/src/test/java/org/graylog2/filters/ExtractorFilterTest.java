@@ -35,6 +35,7 @@ import java.util.concurrent.ScheduledExecutorService;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -85,6 +86,7 @@ class ExtractorFilterTest {
         final Extractor extractor = mock(Extractor.class);
         lenient().when(extractor.getOrder()).thenReturn(1L);
         lenient().doThrow(new RuntimeException("EIEIO!")).when(extractor).runExtractor(any());
+        lenient().doThrow(new RuntimeException("EIEIO!")).when(extractor).runExtractor(any(), any(), anyBoolean());
         return extractor;
     }
 }
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.filters;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.graylog2.inputs.extractors.RegexExtractor;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.inputs.Extractor;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ExtractorPlanTest {
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    @Test
+    void evaluatesConditionsOfGroupedExtractors() throws Exception {
+        final Extractor first = regexExtractor("1", "message", "first", "(foo)", Extractor.ConditionType.STRING, "foo");
+        final Extractor second = regexExtractor("2", "message", "second", "(bar)", Extractor.ConditionType.REGEX, "^bar");
+        final Extractor third = regexExtractor("3", "message", "third", "(baz)", Extractor.ConditionType.STRING, "baz");
+        final Extractor fourth = regexExtractor("4", "message", "fourth", "(bar)", Extractor.ConditionType.REGEX, "^bar");
+        final ExtractorPlan plan = new ExtractorPlan(ImmutableList.of(first, second, third, fourth));
+
+        final Message message = message("bar foo");
+        plan.apply(message);
+
+        assertThat(message.getField("first")).isEqualTo("foo");
+        assertThat(message.getField("second")).isEqualTo("bar");
+        assertThat(message.hasField("third")).isFalse();
+        assertThat(message.getField("fourth")).isEqualTo("bar");
+
+        assertThat(hits(first)).isEqualTo(1);
+        assertThat(hits(second)).isEqualTo(1);
+        assertThat(misses(third)).isEqualTo(1);
+        assertThat(hits(fourth)).isEqualTo(1);
+    }
+
+    @Test
+    void reevaluatesConditionsAfterSourceFieldWasCut() throws Exception {
+        final Extractor cut = regexExtractor("1", "message", "id", "id:(\\d+)", Extractor.CursorStrategy.CUT,
+                Extractor.ConditionType.STRING, "123");
+        final Extractor next = regexExtractor("2", "message", "again", "(\\d+)", Extractor.ConditionType.STRING, "123");
+        final ExtractorPlan plan = new ExtractorPlan(ImmutableList.of(cut, next));
+
+        final Message message = message("id:123 hello");
+        plan.apply(message);
+
+        assertThat(message.getField("id")).isEqualTo("123");
+        assertThat(message.getField("message")).isEqualTo("id: hello");
+        assertThat(message.hasField("again")).isFalse();
+        assertThat(misses(next)).isEqualTo(1);
+    }
+
+    @Test
+    void runsGroupsInExtractorOrder() throws Exception {
+        final Extractor toField = regexExtractor("1", "message", "user", "user=(\\w+)", Extractor.ConditionType.NONE, null);
+        final Extractor fromField = regexExtractor("2", "user", "user_prefix", "^(\\w{3})", Extractor.ConditionType.REGEX, "^adm");
+        final Extractor fromMessage = regexExtractor("3", "message", "action", "action=(\\w+)", Extractor.ConditionType.NONE, null);
+        final ExtractorPlan plan = new ExtractorPlan(ImmutableList.of(toField, fromField, fromMessage));
+
+        final Message message = message("user=admin action=login");
+        plan.apply(message);
+
+        assertThat(message.getField("user")).isEqualTo("admin");
+        assertThat(message.getField("user_prefix")).isEqualTo("adm");
+        assertThat(message.getField("action")).isEqualTo("login");
+    }
+
+    @Test
+    void countsMissesForNonStringSourceFields() throws Exception {
+        final Extractor extractor = regexExtractor("1", "number", "target", "(\\d)", Extractor.ConditionType.NONE, null);
+        final ExtractorPlan plan = new ExtractorPlan(ImmutableList.of(extractor));
+
+        final Message message = message("hello");
+        message.addField("number", 42);
+        plan.apply(message);
+
+        assertThat(message.hasField("target")).isFalse();
+        assertThat(misses(extractor)).isEqualTo(1);
+    }
+
+    private long hits(Extractor extractor) {
+        return metricRegistry.counter(extractor.getConditionHitsCounterName()).getCount();
+    }
+
+    private long misses(Extractor extractor) {
+        return metricRegistry.counter(extractor.getConditionMissesCounterName()).getCount();
+    }
+
+    private Message message(String text) {
+        return new Message(text, "source", new DateTime(2016, 1, 1, 0, 0, DateTimeZone.UTC));
+    }
+
+    private Extractor regexExtractor(String id, String sourceField, String targetField, String regex,
+                                     Extractor.ConditionType conditionType, String conditionValue) throws Exception {
+        return regexExtractor(id, sourceField, targetField, regex, Extractor.CursorStrategy.COPY, conditionType, conditionValue);
+    }
+
+    private Extractor regexExtractor(String id, String sourceField, String targetField, String regex,
+                                     Extractor.CursorStrategy cursorStrategy, Extractor.ConditionType conditionType,
+                                     String conditionValue) throws Exception {
+        return new RegexExtractor(metricRegistry, id, "title-" + id, Long.parseLong(id), cursorStrategy, sourceField,
+                targetField, ImmutableMap.<String, Object>of("regex_value", regex), "user", Collections.emptyList(),
+                conditionType, conditionValue);
+    }
+}
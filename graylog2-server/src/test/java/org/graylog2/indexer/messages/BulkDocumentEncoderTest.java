@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.indexer.messages;
+
+import com.codahale.metrics.Meter;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import org.graylog2.indexer.IndexSet;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.Tools;
+import org.graylog2.shared.bindings.providers.ObjectMapperProvider;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class BulkDocumentEncoderTest {
+    private final ObjectMapper objectMapper = new ObjectMapperProvider().get();
+
+    @Test
+    public void encodesEveryDocumentAsSliceOfSharedBuffer() throws Exception {
+        final BulkDocumentEncoder encoder = new BulkDocumentEncoder(objectMapper, new Meter());
+        final List<IndexingRequest> requests = ImmutableList.of(
+                IndexingRequest.create(mock(IndexSet.class), new Message("message1", "source1", Tools.nowUTC())),
+                IndexingRequest.create(mock(IndexSet.class), new Message("message2", "source2", Tools.nowUTC())));
+
+        final List<JsonNode> documents = new ArrayList<>();
+        encoder.encode(requests, (request, buffer, offset, length) -> {
+            try {
+                documents.add(objectMapper.readTree(new ByteArrayInputStream(buffer, offset, length)));
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        });
+        encoder.release();
+
+        assertThat(documents).hasSize(2);
+        assertThat(documents.get(0).path("message").asText()).isEqualTo("message1");
+        assertThat(documents.get(0).path("source").asText()).isEqualTo("source1");
+        assertThat(documents.get(1).path("message").asText()).isEqualTo("message2");
+        assertThat(documents.get(1).has("_id")).isFalse();
+    }
+}
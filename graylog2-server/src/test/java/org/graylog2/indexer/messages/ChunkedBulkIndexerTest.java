@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.indexer.messages;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Duration;
+import com.github.joschi.jadconfig.util.Size;
+import org.graylog2.indexer.IndexSet;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.Tools;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class ChunkedBulkIndexerTest {
+    @Test
+    public void splitsBatchOnEntityTooLarge() throws Exception {
+        final ChunkedBulkIndexer indexer = new ChunkedBulkIndexer();
+        final List<IndexingRequest> requests = buildRequests(10, 10);
+        final List<Integer> chunkSizes = new ArrayList<>();
+
+        indexer.index(requests, chunk -> {
+            chunkSizes.add(chunk.size);
+            if (chunk.size > 5) {
+                throw new ChunkedBulkIndexer.EntityTooLargeException(0, Collections.emptyList());
+            }
+            return Collections.emptyList();
+        });
+
+        assertThat(chunkSizes).containsExactly(10, 5);
+    }
+
+    @Test
+    public void adaptiveModeIndexesAllChunksAndCollectsErrors() throws Exception {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final ChunkedBulkIndexer indexer = new ChunkedBulkIndexer(true, 3, Size.megabytes(1L), Duration.seconds(10L), metricRegistry);
+        // 4 messages of ~600kb each result in two chunks with the initial chunk size of 1mb
+        final List<IndexingRequest> requests = buildRequests(4, 600 * 1024);
+        final List<IndexingRequest> indexed = new CopyOnWriteArrayList<>();
+
+        final List<Messages.IndexingError> errors = indexer.index(requests, chunk -> {
+            final List<IndexingRequest> chunkRequests = chunk.requests.subList(chunk.offset, chunk.requests.size());
+            indexed.addAll(chunkRequests);
+            return Collections.singletonList(Messages.IndexingError.create(chunkRequests.get(0).message(), "index"));
+        });
+
+        assertThat(indexed).containsExactlyInAnyOrderElementsOf(requests);
+        assertThat(errors).hasSize(2);
+        assertThat(metricRegistry.getTimers()).containsKey("org.graylog2.indexer.messages.ChunkedBulkIndexer.requestLatency");
+        assertThat(metricRegistry.getTimers().get("org.graylog2.indexer.messages.ChunkedBulkIndexer.requestLatency").getCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void adaptiveChunkSizeGrowsAndShrinks() {
+        final AdaptiveChunkSize chunkSize = new AdaptiveChunkSize(Size.megabytes(100L).toBytes(), 1_000_000L);
+        final long initial = chunkSize.get();
+
+        chunkSize.onResponse(10L, 0);
+        assertThat(chunkSize.get()).isEqualTo(initial + AdaptiveChunkSize.MIN_CHUNK_BYTES);
+
+        chunkSize.onResponse(10L, 1);
+        assertThat(chunkSize.get()).isEqualTo((initial + AdaptiveChunkSize.MIN_CHUNK_BYTES) / 2);
+
+        chunkSize.onEntityTooLarge(2 * AdaptiveChunkSize.MIN_CHUNK_BYTES);
+        for (int i = 0; i < 10; i++) {
+            chunkSize.onResponse(10L, 0);
+        }
+        assertThat(chunkSize.get()).isEqualTo(AdaptiveChunkSize.MIN_CHUNK_BYTES);
+    }
+
+    private List<IndexingRequest> buildRequests(int count, int messageLength) {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < messageLength; i++) {
+            text.append('x');
+        }
+        final List<IndexingRequest> requests = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            requests.add(IndexingRequest.create(mock(IndexSet.class), new Message(text.toString(), "source", Tools.nowUTC())));
+        }
+        return requests;
+    }
+}
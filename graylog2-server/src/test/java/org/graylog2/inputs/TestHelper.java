@@ -34,7 +34,11 @@ import java.util.zip.GZIPOutputStream;
 public class TestHelper {
 
     public static byte[] zlibCompress(String what, int level) throws IOException {
-        final ByteArrayInputStream compressMe = new ByteArrayInputStream(what.getBytes(StandardCharsets.UTF_8));
+        return zlibCompress(what.getBytes(StandardCharsets.UTF_8), level);
+    }
+
+    public static byte[] zlibCompress(byte[] what, int level) throws IOException {
+        final ByteArrayInputStream compressMe = new ByteArrayInputStream(what);
         final ByteArrayOutputStream compressedMessage = new ByteArrayOutputStream();
 
         try (DeflaterOutputStream out = new DeflaterOutputStream(compressedMessage, new Deflater(level))) {
@@ -48,9 +52,17 @@ public class TestHelper {
         return zlibCompress(what, -1);
     }
 
+    public static byte[] zlibCompress(byte[] what) throws IOException {
+        return zlibCompress(what, -1);
+    }
+
     public static byte[] gzipCompress(String what) throws IOException {
+        return gzipCompress(what.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static byte[] gzipCompress(byte[] what) throws IOException {
         // GZIP compress message.
-        final ByteArrayInputStream compressMe = new ByteArrayInputStream(what.getBytes(StandardCharsets.UTF_8));
+        final ByteArrayInputStream compressMe = new ByteArrayInputStream(what);
         final ByteArrayOutputStream compressedMessage = new ByteArrayOutputStream();
 
         try (GZIPOutputStream out = new GZIPOutputStream(compressedMessage)) {
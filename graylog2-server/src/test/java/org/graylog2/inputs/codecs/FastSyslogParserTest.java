@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.inputs.codecs;
+
+import com.google.common.collect.ImmutableList;
+import org.graylog2.syslog4j.server.impl.event.SyslogServerEvent;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FastSyslogParserTest {
+    // The patterns which have been used by the SyslogCodec before
+    private static final Pattern STRUCTURED_SYSLOG_PATTERN = Pattern.compile("<\\d{1,3}>[0-9]\\d{0,2}\\s.*", Pattern.DOTALL);
+    private static final Pattern CISCO_WITH_SEQUENCE_NUMBERS_PATTERN = Pattern.compile("<\\d{1,3}>\\d*:\\s.*", Pattern.DOTALL);
+    private static final Pattern FORTIGATE_PATTERN = Pattern.compile("<\\d{1,3}>date=.*", Pattern.DOTALL);
+
+    private static final List<String> CORPUS = ImmutableList.of(
+            "<165>1 2012-12-25T22:14:15.003Z mymachine.example.com evntslog - ID47 [exampleSDID@32473 iut=\"3\"] BOMAn application event log entry",
+            "<6>0 2017-02-15T16:01:07.000+01:00 hostname test - - -  test 4",
+            "<6>12\ttab",
+            "<6>1234 too many version digits",
+            "<45>Oct 21 12:09:37 c4dc57ba1ebb syslog-ng[7208]: syslog-ng starting up; version='3.5.3'",
+            "<34>Oct 11 22:14:15 mymachine su: 'su root' failed for lonvick on /dev/pts/8",
+            "<13>Feb  5 17:32:18 10.0.0.99 Use the BFG!",
+            "<13>Feb 05 17:32:18 10.0.0.99 Use the BFG!",
+            "<0>Jan  1 00:00:00 ::1 kernel: boot",
+            "<191>Dec 31 23:59:59 host-1.example.org_x last second",
+            "<13>Feb 30 17:32:18 host invalid day",
+            "<13>Feb  5 24:32:18 host invalid hour",
+            "<13>feb  5 17:32:18 host lower case month",
+            "<13>Feb  5 17:32:18 su: no host",
+            "<13>Feb  5 17:32:18 app[123]: no host",
+            "<13>Feb  5 17:32:18  two spaces",
+            "<13>Feb  5 17:32:18 host trailing space ",
+            "<13>Feb  5 17:32:18 host trailing newline\n",
+            "<13>Feb  5 17:32:18 host multi\nline",
+            "<13>Feb  5 17:32:18 hostonly",
+            "<13>Feb  5 17:32:18 höst umlaut",
+            "<13>Feb  5 17:32:18 host ünicode message",
+            "<013>Feb  5 17:32:18 host leading zero",
+            "<192>Feb  5 17:32:18 host priority too large",
+            "<6>2016-10-12T14:10:18Z hostname testmsg[20]: Test",
+            "<186>1541800: Feb 27 06:08:59.485: %HARDWARE-2-FAN_ERROR: Fan Failure",
+            "<190>530470: *Sep 28 17:13:35.098: %SEC-6-IPACCESSLOGP: list MGMT_IN denied udp",
+            "<190>: 2017 Mar 06 09:22:34 CET: %AUTHPRIV-6-SYSTEM_MSG: START: rsync pid=4311",
+            "<190>1:\nnewline",
+            "<190>1:no whitespace",
+            "<45>date=2017-03-06 time=12:53:10 devname=DEVICENAME devid=DEVICEID logid=0000000013",
+            "<45>1date=2017-03-06",
+            "<1234>Feb  5 17:32:18 host too many priority digits",
+            "<>Feb  5 17:32:18 host no priority",
+            "Feb  5 17:32:18 host no priority",
+            "<1>",
+            "<1",
+            ""
+    );
+
+    @Test
+    public void classifyMatchesPreviousPatterns() {
+        for (String message : CORPUS) {
+            final FastSyslogParser.Dialect expected;
+            if (STRUCTURED_SYSLOG_PATTERN.matcher(message).matches()) {
+                expected = FastSyslogParser.Dialect.STRUCTURED;
+            } else if (CISCO_WITH_SEQUENCE_NUMBERS_PATTERN.matcher(message).matches()) {
+                expected = FastSyslogParser.Dialect.CISCO;
+            } else if (FORTIGATE_PATTERN.matcher(message).matches()) {
+                expected = FastSyslogParser.Dialect.FORTIGATE;
+            } else {
+                expected = FastSyslogParser.Dialect.UNSTRUCTURED;
+            }
+
+            assertThat(FastSyslogParser.classify(bytes(message))).as(message).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    public void parseUnstructuredMatchesSyslogServerEvent() {
+        int parsed = 0;
+        for (String message : CORPUS) {
+            final FastSyslogParser.ParsedMessage result = FastSyslogParser.parseUnstructured(bytes(message));
+            if (result == null) {
+                continue;
+            }
+            parsed++;
+
+            assertThat(FastSyslogParser.classify(bytes(message))).as(message).isEqualTo(FastSyslogParser.Dialect.UNSTRUCTURED);
+
+            final SyslogServerEvent event = new SyslogServerEvent(message, null);
+            assertThat(result.host).as(message).isEqualTo(event.getHost());
+            assertThat(result.message).as(message).isEqualTo(event.getMessage());
+            assertThat(result.timestamp).as(message).isEqualTo(new DateTime(event.getDate()));
+            assertThat(result.facility).as(message).isEqualTo(event.getFacility());
+            assertThat(result.level).as(message).isEqualTo(event.getLevel());
+        }
+        assertThat(parsed).isEqualTo(7);
+    }
+
+    @Test
+    public void parseUnstructuredRejectsUnsupportedMessages() {
+        assertThat(FastSyslogParser.parseUnstructured(bytes("<13>Feb 30 17:32:18 host invalid day"))).isNull();
+        assertThat(FastSyslogParser.parseUnstructured(bytes("<13>Feb  5 17:32:18 su: no host"))).isNull();
+        assertThat(FastSyslogParser.parseUnstructured(bytes("<13>Feb  5 17:32:18 host trailing newline\n"))).isNull();
+        assertThat(FastSyslogParser.parseUnstructured(bytes("<013>Feb  5 17:32:18 host leading zero"))).isNull();
+        assertThat(FastSyslogParser.parseUnstructured(bytes("<6>2016-10-12T14:10:18Z hostname testmsg[20]: Test"))).isNull();
+    }
+
+    @Test
+    public void parseUnstructured() {
+        final FastSyslogParser.ParsedMessage result = FastSyslogParser.parseUnstructured(bytes("<45>Oct 21 12:09:37 c4dc57ba1ebb syslog-ng[7208]: syslog-ng starting up"));
+
+        assertThat(result).isNotNull();
+        assertThat(result.host).isEqualTo("c4dc57ba1ebb");
+        assertThat(result.message).isEqualTo("c4dc57ba1ebb syslog-ng[7208]: syslog-ng starting up");
+        assertThat(result.timestamp).isEqualTo(new DateTime(DateTime.now().getYear(), 10, 21, 12, 9, 37));
+        assertThat(result.facility).isEqualTo(5);
+        assertThat(result.level).isEqualTo(5);
+    }
+
+    private static byte[] bytes(String message) {
+        return message.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -19,6 +19,7 @@ package org.graylog2.inputs.codecs;
 import com.codahale.metrics.Metric;
 import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Size;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import org.graylog2.plugin.InstantMillisProvider;
@@ -42,8 +43,10 @@ import static org.graylog2.inputs.codecs.GelfChunkAggregator.CHUNK_COUNTER;
 import static org.graylog2.inputs.codecs.GelfChunkAggregator.COMPLETE_MESSAGES;
 import static org.graylog2.inputs.codecs.GelfChunkAggregator.ChunkEntry;
 import static org.graylog2.inputs.codecs.GelfChunkAggregator.DUPLICATE_CHUNKS;
+import static org.graylog2.inputs.codecs.GelfChunkAggregator.EVICTED_MESSAGES;
 import static org.graylog2.inputs.codecs.GelfChunkAggregator.EXPIRED_CHUNKS;
 import static org.graylog2.inputs.codecs.GelfChunkAggregator.EXPIRED_MESSAGES;
+import static org.graylog2.inputs.codecs.GelfChunkAggregator.HELD_BYTES;
 import static org.graylog2.inputs.codecs.GelfChunkAggregator.WAITING_MESSAGES;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -258,6 +261,55 @@ public class GelfChunkAggregatorTest {
         assertEquals(1, counterValueNamed(metricRegistry, DUPLICATE_CHUNKS));
     }
 
+    @Test
+    public void releasesHeldBytesOfCompletedMessages() {
+        final ByteBuf[] chunks = createChunkedMessage(4096 + 512, 1024); // creates 5 chunks
+
+        for (int i = 0; i < chunks.length - 1; i++) {
+            aggregator.addChunk(chunks[i]);
+        }
+        assertEquals(4096L, gaugeValueNamed(metricRegistry, HELD_BYTES));
+
+        assertNotNull(aggregator.addChunk(chunks[chunks.length - 1]).getMessage());
+        assertEquals(0L, gaugeValueNamed(metricRegistry, HELD_BYTES));
+    }
+
+    @Test
+    public void evictsOldestMessageWhenSizeLimitIsReached() {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        aggregator = new GelfChunkAggregator(mock(ScheduledThreadPoolExecutor.class), metricRegistry, Size.bytes(3000L));
+
+        final ByteBuf[] msg1 = createChunkedMessage(4096 + 1, 1024, generateMessageId(1));
+        final ByteBuf[] msg2 = createChunkedMessage(2048, 1024, generateMessageId(2));
+
+        assertTrue(aggregator.addChunk(msg1[0]).isValid());
+        assertTrue(aggregator.addChunk(msg1[1]).isValid());
+        assertEquals(2048L, gaugeValueNamed(metricRegistry, HELD_BYTES));
+
+        // doesn't fit anymore, the chunks of the first message are dropped
+        assertTrue(aggregator.addChunk(msg2[0]).isValid());
+        assertEquals(1024L, gaugeValueNamed(metricRegistry, HELD_BYTES));
+        assertEquals(1, counterValueNamed(metricRegistry, EVICTED_MESSAGES));
+        assertEquals(1, counterValueNamed(metricRegistry, WAITING_MESSAGES));
+
+        assertNotNull("message 2 should be complete", aggregator.addChunk(msg2[1]).getMessage());
+        assertEquals(0L, gaugeValueNamed(metricRegistry, HELD_BYTES));
+        assertEquals(0, counterValueNamed(metricRegistry, WAITING_MESSAGES));
+    }
+
+    @Test
+    public void rejectsChunksLargerThanSizeLimit() {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        aggregator = new GelfChunkAggregator(mock(ScheduledThreadPoolExecutor.class), metricRegistry, Size.bytes(512L));
+
+        final ByteBuf[] chunks = createChunkedMessage(2048, 1024);
+
+        assertFalse(aggregator.addChunk(chunks[0]).isValid());
+        assertEquals(0L, gaugeValueNamed(metricRegistry, HELD_BYTES));
+        assertEquals(1, counterValueNamed(metricRegistry, EVICTED_MESSAGES));
+        assertEquals(0, counterValueNamed(metricRegistry, WAITING_MESSAGES));
+    }
+
     @Test
     public void testChunkEntryCompareTo() throws Exception {
         // Test if the ChunkEntry#compareTo() method can handle ChunkEntry objects which have the same timestamp.
@@ -358,6 +410,10 @@ public class GelfChunkAggregatorTest {
         return metricRegistry.getCounters(new SingleNameMatcher(name)).get(name).getCount();
     }
 
+    private static long gaugeValueNamed(MetricRegistry metricRegistry, String name) {
+        return (Long) metricRegistry.getGauges(new SingleNameMatcher(name)).get(name).getValue();
+    }
+
     private static class SingleNameMatcher implements MetricFilter {
         private final String metricName;
 
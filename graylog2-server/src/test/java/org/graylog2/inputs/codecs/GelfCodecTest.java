@@ -34,6 +34,8 @@ import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
 import java.time.DateTimeException;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
@@ -414,4 +416,105 @@ public class GelfCodecTest {
         assertThat(message).isNotNull();
         assertThat(message.getTimestamp()).isEqualTo(DateTime.parse("2017-07-21T14:23:00.661Z"));
     }
+
+    @Test
+    public void streamingDecodeBuildsSameMessageAsTreeDecode() throws Exception {
+        final GelfCodec streamingCodec = new GelfCodec(new Configuration(Collections.singletonMap("streaming_decode", true)), aggregator);
+        final String json = "{"
+                + "\"version\": \"1.1\","
+                + "\"short_message\": \"A short message\","
+                + "\"full_message\": null,"
+                + "\"level\": \"3\","
+                + "\"line\": 42,"
+                + "\"file\": \"foo.c\","
+                + "\"timestamp\": \"1500646980.661\","
+                + "\"_user_id\": 9001,"
+                + "\"_big\": 123456789012345678901234567890,"
+                + "\"_ratio\": 0.5,"
+                + "\"_flag\": true,"
+                + "\"_nothing\": null,"
+                + "\"_object\": {\"a\": [1, 2.5, \"b\"], \"c\": null},"
+                + "\"_list\": [],"
+                + "\"_some_info\": \"foo\","
+                + "\"_some_info\": \"bar\","
+                + "\"host\": \"example.org\","
+                + "}";
+
+        for (byte[] payload : new byte[][]{
+                json.getBytes(StandardCharsets.UTF_8), TestHelper.zlibCompress(json), TestHelper.gzipCompress(json)}) {
+            final Message expected = codec.decode(new RawMessage(payload));
+            final Message message = streamingCodec.decode(new RawMessage(payload));
+
+            assertThat(expected).isNotNull();
+            assertThat(message).isNotNull();
+            assertThat(message.getFieldNames()).isEqualTo(expected.getFieldNames());
+            for (String field : expected.getFieldNames()) {
+                if (!Message.FIELD_ID.equals(field)) {
+                    assertThat(message.getField(field)).as(field).isEqualTo(expected.getField(field));
+                }
+            }
+            assertThat(message.getField("some_info")).isEqualTo("bar");
+            assertThat(message.getField("object")).isEqualTo("{\"a\":[1,2.5,\"b\"],\"c\":null}");
+        }
+    }
+
+    @Test
+    public void streamingDecodeReplacesInvalidUtf8LikeTreeDecode() throws Exception {
+        final GelfCodec streamingCodec = new GelfCodec(new Configuration(Collections.singletonMap("streaming_decode", true)), aggregator);
+        final byte[] prefix = "{\"version\": \"1.1\", \"host\": \"example.org\", \"short_message\": \"caf".getBytes(StandardCharsets.UTF_8);
+        final byte[] suffix = "\", \"_user\": \"foo\"}".getBytes(StandardCharsets.UTF_8);
+        // 0xE9 is an "e" with acute accent in ISO-8859-1 and an invalid byte sequence in UTF-8
+        final byte[] json = new byte[prefix.length + 1 + suffix.length];
+        System.arraycopy(prefix, 0, json, 0, prefix.length);
+        json[prefix.length] = (byte) 0xE9;
+        System.arraycopy(suffix, 0, json, prefix.length + 1, suffix.length);
+
+        for (byte[] payload : new byte[][]{json, TestHelper.zlibCompress(json), TestHelper.gzipCompress(json)}) {
+            final Message expected = codec.decode(new RawMessage(payload));
+            final Message message = streamingCodec.decode(new RawMessage(payload));
+
+            assertThat(expected).isNotNull();
+            assertThat(message).isNotNull();
+            assertThat(message.getMessage()).isEqualTo(expected.getMessage()).isEqualTo("caf\uFFFD");
+            assertThat(message.getField("user")).isEqualTo("foo");
+        }
+    }
+
+    @Test
+    public void streamingDecodeValidatesMessages() throws Exception {
+        final GelfCodec streamingCodec = new GelfCodec(new Configuration(Collections.singletonMap("streaming_decode", true)), aggregator);
+
+        assertThatIllegalArgumentException()
+                .isThrownBy(() -> streamingCodec.decode(new RawMessage("{\"host\": \"example.org\"}".getBytes(StandardCharsets.UTF_8))))
+                .withMessageContaining("is missing mandatory \"short_message\" or \"message\" field.");
+        assertThatIllegalArgumentException()
+                .isThrownBy(() -> streamingCodec.decode(new RawMessage("[\"short_message\"]".getBytes(StandardCharsets.UTF_8))))
+                .withMessageContaining("is missing mandatory \"short_message\" or \"message\" field.");
+        assertThatIllegalArgumentException()
+                .isThrownBy(() -> streamingCodec.decode(new RawMessage("{\"host\": 42, \"message\": \"foo\"}".getBytes(StandardCharsets.UTF_8))))
+                .withMessageContaining("has invalid \"host\": 42");
+    }
+
+    @Test
+    public void streamingDecodeOfLargeCompressedMessageFails() throws Exception {
+        expectedException.expect(IllegalStateException.class);
+        expectedException.expectMessage("JSON is null/could not be parsed (invalid JSON)");
+        expectedException.expectCause(isA(JsonParseException.class));
+
+        final Map<String, Object> config = new HashMap<>();
+        config.put("decompress_size_limit", 100);
+        config.put("streaming_decode", true);
+        final GelfCodec codec = new GelfCodec(new Configuration(config), aggregator);
+        final String json = "{"
+            + "\"version\": \"1.1\","
+            + "\"host\": \"example.org\","
+            + "\"short_message\": \"A short message that helps you identify what is going on\","
+            + "\"full_message\": \"Backtrace here\\n\\nMore stuff\","
+            + "\"_some_bytes1\": \"Lorem ipsum dolor sit amet, consetetur sadipscing elitr, \""
+            + "}";
+
+        final byte[] payload = TestHelper.gzipCompress(json);
+        assumeTrue(payload.length > 100);
+        codec.decode(new RawMessage(payload));
+    }
 }
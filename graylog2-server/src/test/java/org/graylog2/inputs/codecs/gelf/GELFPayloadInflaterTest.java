@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.inputs.codecs.gelf;
+
+import com.google.common.base.Strings;
+import com.google.common.primitives.Bytes;
+import org.graylog2.inputs.TestHelper;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class GELFPayloadInflaterTest {
+    private static final String GELF_JSON = "{\"version\": \"1.1\", \"message\":\"foobar\",\"host\":\"example.com\",\"_lol_utf8\":\"\u00FC\"}";
+
+    private static String inflate(GELFMessage message, long maxBytes) throws Exception {
+        return GELFPayloadInflater.inflate(message, maxBytes,
+                (buffer, offset, length) -> new String(buffer, offset, length, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void inflatesZlibCompressedMessages() throws Exception {
+        for (int level = -1; level <= 9; level++) {
+            final GELFMessage message = new GELFMessage(TestHelper.zlibCompress(GELF_JSON, level));
+            assertThat(inflate(message, 1024)).isEqualTo(GELF_JSON);
+        }
+    }
+
+    @Test
+    public void inflatesGzipCompressedMessages() throws Exception {
+        assertThat(inflate(new GELFMessage(TestHelper.gzipCompress(GELF_JSON)), 1024)).isEqualTo(GELF_JSON);
+    }
+
+    @Test
+    public void inflatesConcatenatedGzipMembers() throws Exception {
+        final byte[] payload = Bytes.concat(TestHelper.gzipCompress("{\"message\":"), TestHelper.gzipCompress("\"foo\"}"));
+
+        assertThat(inflate(new GELFMessage(payload), 1024)).isEqualTo("{\"message\":\"foo\"}");
+    }
+
+    @Test
+    public void passesUncompressedMessages() throws Exception {
+        assertThat(inflate(new GELFMessage(GELF_JSON.getBytes(StandardCharsets.UTF_8)), 10)).isEqualTo(GELF_JSON);
+    }
+
+    @Test
+    public void inflatesMessagesLargerThanTheInitialBuffer() throws Exception {
+        final String json = "{\"message\":\"" + Strings.repeat("foobar", 100_000) + "\"}";
+
+        assertThat(inflate(new GELFMessage(TestHelper.zlibCompress(json)), -1)).isEqualTo(json);
+        assertThat(inflate(new GELFMessage(TestHelper.gzipCompress(json)), -1)).isEqualTo(json);
+        // The buffer must still be usable after a large message
+        assertThat(inflate(new GELFMessage(TestHelper.zlibCompress(GELF_JSON)), -1)).isEqualTo(GELF_JSON);
+    }
+
+    @Test
+    public void truncatesAtMaxBytes() throws Exception {
+        final String json = "{\"message\":\"" + Strings.repeat("foobar", 100) + "\"}";
+
+        assertThat(inflate(new GELFMessage(TestHelper.zlibCompress(json)), 100)).isEqualTo(json.substring(0, 100));
+        assertThat(inflate(new GELFMessage(TestHelper.gzipCompress(json)), 100)).isEqualTo(json.substring(0, 100));
+    }
+
+    @Test
+    public void failsOnCorruptPayloads() throws Exception {
+        final byte[] zlib = TestHelper.zlibCompress(GELF_JSON);
+        final byte[] truncatedZlib = new byte[zlib.length / 2];
+        System.arraycopy(zlib, 0, truncatedZlib, 0, truncatedZlib.length);
+
+        final byte[] gzip = TestHelper.gzipCompress(GELF_JSON);
+        gzip[gzip.length - 5]++;
+
+        assertThatThrownBy(() -> inflate(new GELFMessage(truncatedZlib), 1024))
+                .hasMessageContaining("Unexpected end of ZLIB input stream");
+        assertThatThrownBy(() -> inflate(new GELFMessage(gzip), 1024))
+                .isInstanceOf(ZipException.class)
+                .hasMessage("Corrupt GZIP trailer");
+    }
+
+    @Test
+    public void failsOnChunkedMessages() {
+        final byte[] payload = new byte[20];
+        payload[0] = (byte) 0x1e;
+        payload[1] = (byte) 0x0f;
+
+        assertThatThrownBy(() -> inflate(new GELFMessage(payload), 1024))
+                .isInstanceOf(IllegalStateException.class);
+    }
+}
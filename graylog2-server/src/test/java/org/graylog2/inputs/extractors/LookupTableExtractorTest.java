@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.inputs.extractors;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.graylog2.lookup.LookupTable;
+import org.graylog2.lookup.LookupTableService;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.Tools;
+import org.graylog2.plugin.inputs.Extractor;
+import org.graylog2.plugin.lookup.LookupDataAdapter;
+import org.graylog2.plugin.lookup.LookupResult;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class LookupTableExtractorTest extends AbstractExtractorTest {
+    @Mock
+    private LookupTableService lookupTableService;
+    @Mock
+    private LookupTable lookupTable;
+    @Mock
+    private LookupDataAdapter dataAdapter;
+
+    private LookupTableExtractor extractor;
+
+    @Before
+    public void setUpLookupTable() throws Exception {
+        when(lookupTableService.hasTable("table")).thenReturn(true);
+        when(lookupTableService.newBuilder()).thenReturn(new LookupTableService.Builder(lookupTableService));
+        when(lookupTableService.getTable("table")).thenReturn(lookupTable);
+        when(lookupTable.dataAdapter()).thenReturn(dataAdapter);
+        when(dataAdapter.supportsMultiGet()).thenReturn(true);
+
+        extractor = new LookupTableExtractor(metricRegistry, lookupTableService, "id", "title", 0L,
+                Extractor.CursorStrategy.COPY, "source_field", "target_field",
+                ImmutableMap.of(LookupTableExtractor.CONFIG_LUT_NAME, "table"), "user", noConverters(),
+                Extractor.ConditionType.NONE, null);
+    }
+
+    @Test
+    public void usesPrefetchedResults() throws Exception {
+        final Map<Object, LookupResult> results = new HashMap<>();
+        results.put("a", LookupResult.single("value-a"));
+        results.put("b", LookupResult.single("value-b"));
+        when(lookupTable.lookupAll(anyCollection())).thenReturn(results);
+
+        extractor.prefetch(ImmutableList.of("a", "b"));
+
+        final Message first = message("a");
+        final Message second = message("b");
+        extractor.runExtractor(first);
+        extractor.runExtractor(second);
+
+        assertThat(first.getField("target_field")).isEqualTo("value-a");
+        assertThat(second.getField("target_field")).isEqualTo("value-b");
+        verify(lookupTable, never()).lookup(any());
+    }
+
+    @Test
+    public void looksUpKeysWhichWereNotPrefetched() throws Exception {
+        final Map<Object, LookupResult> results = new HashMap<>();
+        results.put("a", LookupResult.single("value-a"));
+        when(lookupTable.lookupAll(anyCollection())).thenReturn(results);
+        when(lookupTable.lookup("c")).thenReturn(LookupResult.single("value-c"));
+
+        extractor.prefetch(ImmutableList.of("a"));
+
+        final Message message = message("c");
+        extractor.runExtractor(message);
+
+        assertThat(message.getField("target_field")).isEqualTo("value-c");
+        verify(lookupTable).lookup("c");
+    }
+
+    @Test
+    public void doesNotPrefetchWithoutMultiGetSupport() throws Exception {
+        when(dataAdapter.supportsMultiGet()).thenReturn(false);
+        when(lookupTable.lookup("a")).thenReturn(LookupResult.single("value-a"));
+
+        extractor.prefetch(ImmutableList.of("a"));
+
+        final Message message = message("a");
+        extractor.runExtractor(message);
+
+        assertThat(message.getField("target_field")).isEqualTo("value-a");
+        verify(lookupTable, never()).lookupAll(anyCollection());
+        verify(lookupTable).lookup("a");
+    }
+
+    private Message message(String sourceFieldValue) {
+        final Message message = new Message("message", "source", Tools.nowUTC());
+        message.addField("source_field", sourceFieldValue);
+        return message;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.lookup;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.graylog2.lookup.caches.NullCache;
+import org.graylog2.plugin.lookup.LookupDataAdapter;
+import org.graylog2.plugin.lookup.LookupResult;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.Collection;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class LookupTableTest {
+    @Rule
+    public final MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    private LookupDataAdapter dataAdapter;
+
+    private LookupTable lookupTable;
+
+    @Before
+    public void setUp() throws Exception {
+        when(dataAdapter.id()).thenReturn("adapter-id");
+        when(dataAdapter.name()).thenReturn("adapter");
+        when(dataAdapter.supportsMultiGet()).thenReturn(true);
+
+        lookupTable = LookupTable.builder()
+                .id("table-id")
+                .title("Table")
+                .description("")
+                .name("table")
+                .cache(new NullCache("cache-id", "cache", NullCache.Config.builder().type(NullCache.NAME).build(), new MetricRegistry()))
+                .dataAdapter(dataAdapter)
+                .defaultSingleValue(LookupDefaultSingleValue.create("", LookupDefaultSingleValue.Type.NULL))
+                .defaultMultiValue(LookupDefaultMultiValue.create("", LookupDefaultMultiValue.Type.NULL))
+                .build();
+    }
+
+    @Test
+    public void lookupAllLoadsDuplicateKeysOnce() {
+        when(dataAdapter.getAll(anyCollection())).thenAnswer(invocation -> {
+            final Collection<Object> keys = invocation.getArgument(0);
+            assertThat(keys).containsExactlyInAnyOrder("a", "b");
+            return ImmutableMap.of("a", LookupResult.single("1"), "b", LookupResult.single("2"));
+        });
+
+        final Map<Object, LookupResult> results = lookupTable.lookupAll(ImmutableList.of("a", "b", "a"));
+
+        assertThat(results).containsOnlyKeys("a", "b");
+        assertThat(results.get("a").singleValue()).isEqualTo("1");
+        assertThat(results.get("b").singleValue()).isEqualTo("2");
+        verify(dataAdapter, times(1)).getAll(anyCollection());
+        verify(dataAdapter, never()).get(any());
+    }
+
+    @Test
+    public void lookupAllFallsBackToSingleLookupsForMissingKeys() {
+        when(dataAdapter.getAll(anyCollection())).thenReturn(ImmutableMap.of("a", LookupResult.single("1")));
+        when(dataAdapter.get("b")).thenReturn(LookupResult.single("2"));
+
+        final Map<Object, LookupResult> results = lookupTable.lookupAll(ImmutableList.of("a", "b"));
+
+        assertThat(results.get("a").singleValue()).isEqualTo("1");
+        assertThat(results.get("b").singleValue()).isEqualTo("2");
+        verify(dataAdapter, never()).get("a");
+        verify(dataAdapter, times(1)).get("b");
+    }
+
+    @Test
+    public void lookupAllFallsBackToSingleLookupsIfMultiGetFails() {
+        when(dataAdapter.getAll(anyCollection())).thenThrow(new IllegalStateException("Multi-get failed"));
+        when(dataAdapter.get("a")).thenReturn(LookupResult.single("1"));
+        when(dataAdapter.get("b")).thenReturn(LookupResult.withError());
+
+        final Map<Object, LookupResult> results = lookupTable.lookupAll(ImmutableList.of("a", "b"));
+
+        assertThat(results.get("a").singleValue()).isEqualTo("1");
+        assertThat(results.get("b").hasError()).isTrue();
+    }
+
+    @Test
+    public void lookupAllUsesSingleLookupsWithoutMultiGetSupport() {
+        when(dataAdapter.supportsMultiGet()).thenReturn(false);
+        when(dataAdapter.get("a")).thenReturn(LookupResult.single("1"));
+
+        final Map<Object, LookupResult> results = lookupTable.lookupAll(ImmutableList.of("a"));
+
+        assertThat(results.get("a").singleValue()).isEqualTo("1");
+        verify(dataAdapter, never()).getAll(anyCollection());
+    }
+}
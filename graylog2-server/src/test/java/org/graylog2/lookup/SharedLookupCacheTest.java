@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.lookup;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Size;
+import org.graylog2.plugin.lookup.LookupResult;
+import org.graylog2.shared.bindings.providers.ObjectMapperProvider;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SharedLookupCacheTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final TestClock clock = new TestClock();
+
+    private SharedLookupCache createCache(Path directory) {
+        return new SharedLookupCache(true, Size.megabytes(1L), directory, new ObjectMapperProvider().get(), new MetricRegistry(), clock);
+    }
+
+    @Test
+    public void returnsStoredResultsWithRemainingTTL() throws Exception {
+        final SharedLookupCache cache = createCache(temporaryFolder.newFolder().toPath());
+        cache.put("table", "adapter", "foo", LookupResult.builder().single("bar").cacheTTL(60_000L).build());
+
+        clock.advance(10_000L);
+
+        final LookupResult result = cache.get("table", "adapter", "foo");
+        assertThat(result).isNotNull();
+        assertThat(result.singleValue()).isEqualTo("bar");
+        assertThat(result.cacheTTL()).isEqualTo(50_000L);
+
+        assertThat(cache.get("other-table", "adapter", "foo")).isNull();
+        assertThat(cache.get("table", "other-adapter", "foo")).isNull();
+    }
+
+    @Test
+    public void expiredResultsAreNotReturned() throws Exception {
+        final SharedLookupCache cache = createCache(temporaryFolder.newFolder().toPath());
+        cache.put("table", "adapter", "foo", LookupResult.builder().single("bar").cacheTTL(1_000L).build());
+
+        clock.advance(1_000L);
+
+        assertThat(cache.get("table", "adapter", "foo")).isNull();
+    }
+
+    @Test
+    public void errorsAndResultsWithoutPositiveTTLAreNotStored() throws Exception {
+        final SharedLookupCache cache = createCache(temporaryFolder.newFolder().toPath());
+        cache.put("table", "adapter", "error", LookupResult.withError());
+        cache.put("table", "adapter", "zero", LookupResult.builder().single("bar").cacheTTL(0L).build());
+
+        assertThat(cache.get("table", "adapter", "error")).isNull();
+        assertThat(cache.get("table", "adapter", "zero")).isNull();
+        assertThat(cache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void resultsWithoutTTLAreNotStored() throws Exception {
+        final Path directory = temporaryFolder.newFolder().toPath();
+        final SharedLookupCache cache = createCache(directory);
+        cache.put("table", "adapter", "single", LookupResult.single("bar"));
+        cache.put("table", "adapter", "empty", LookupResult.empty());
+
+        assertThat(cache.get("table", "adapter", "single")).isNull();
+        assertThat(cache.get("table", "adapter", "empty")).isNull();
+
+        cache.persist();
+        final SharedLookupCache restarted = createCache(directory);
+        restarted.load();
+        assertThat(restarted.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void purgeRemovesEntriesOfTableAndAdapter() throws Exception {
+        final SharedLookupCache cache = createCache(temporaryFolder.newFolder().toPath());
+        cache.put("table", "adapter", "foo", LookupResult.builder().single("1").cacheTTL(60_000L).build());
+        cache.put("table", "adapter", "bar", LookupResult.builder().single("2").cacheTTL(60_000L).build());
+        cache.put("table2", "adapter", "foo", LookupResult.builder().single("3").cacheTTL(60_000L).build());
+
+        cache.purge("table", "adapter", "foo");
+        assertThat(cache.get("table", "adapter", "foo")).isNull();
+        assertThat(cache.get("table", "adapter", "bar")).isNotNull();
+
+        cache.purge("table", "adapter");
+        assertThat(cache.get("table", "adapter", "bar")).isNull();
+        assertThat(cache.get("table2", "adapter", "foo")).isNotNull();
+    }
+
+    @Test
+    public void persistedEntriesAreLoadedOnStart() throws Exception {
+        final Path directory = temporaryFolder.newFolder().toPath().resolve("lookup-cache");
+        final SharedLookupCache cache = createCache(directory);
+        cache.put("table", "adapter", "foo", LookupResult.builder().single("bar").cacheTTL(60_000L).build());
+        cache.put("table", "adapter", "short", LookupResult.builder().single("baz").cacheTTL(1_000L).build());
+        cache.persist();
+
+        clock.advance(5_000L);
+
+        final SharedLookupCache restarted = createCache(directory);
+        restarted.load();
+
+        assertThat(restarted.size()).isEqualTo(1);
+        final LookupResult result = restarted.get("table", "adapter", "foo");
+        assertThat(result).isNotNull();
+        assertThat(result.singleValue()).isEqualTo("bar");
+        assertThat(result.cacheTTL()).isEqualTo(55_000L);
+        assertThat(restarted.get("table", "adapter", "short")).isNull();
+    }
+
+    @Test
+    public void corruptFileIsIgnored() throws Exception {
+        final Path directory = temporaryFolder.newFolder().toPath();
+        Files.write(directory.resolve("shared-lookup-cache.bin.gz"), new byte[]{1, 2, 3});
+
+        final SharedLookupCache cache = createCache(directory);
+        cache.load();
+
+        assertThat(cache.size()).isEqualTo(0);
+    }
+
+    private static class TestClock extends Clock {
+        private long millis = 1_600_000_000_000L;
+
+        void advance(long delta) {
+            millis += delta;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+    }
+}
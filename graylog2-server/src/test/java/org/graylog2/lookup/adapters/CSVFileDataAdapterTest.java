@@ -24,13 +24,18 @@ import org.graylog2.plugin.lookup.LookupCachePurge;
 import org.graylog2.plugin.lookup.LookupResult;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 
+import java.io.File;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -49,6 +54,9 @@ public class CSVFileDataAdapterTest {
     @Rule
     public MockitoRule rule = MockitoJUnit.rule();
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     private final Path csvFile;
     private CSVFileDataAdapter csvFileDataAdapter;
 
@@ -100,6 +108,48 @@ public class CSVFileDataAdapterTest {
         assertThat(csvFileDataAdapter.doGet("quux")).isEqualTo(LookupResult.empty());
     }
 
+    @Test
+    public void doGet_successfully_returns_values_from_memory_mapped_index() throws Exception {
+        final Path file = temporaryFolder.newFile("lookup.csv").toPath();
+        Files.copy(csvFile, file, StandardCopyOption.REPLACE_EXISTING);
+        final Config config = memoryMappedConfig(file);
+        csvFileDataAdapter = new CSVFileDataAdapter("id", "name", config, new MetricRegistry(), pathChecker);
+        when(pathChecker.fileIsInAllowedPath(isA(Path.class))).thenReturn(true);
+        csvFileDataAdapter.doStart();
+
+        assertThat(csvFileDataAdapter.doGet("foo")).isEqualTo(LookupResult.single("23"));
+        assertThat(csvFileDataAdapter.doGet("bar")).isEqualTo(LookupResult.single("42"));
+        assertThat(csvFileDataAdapter.doGet("quux")).isEqualTo(LookupResult.empty());
+        assertThat(indexFiles()).hasSize(1);
+
+        csvFileDataAdapter.doStop();
+        assertThat(indexFiles()).isEmpty();
+    }
+
+    @Test
+    public void refresh_replaces_memory_mapped_index() throws Exception {
+        final Path file = temporaryFolder.newFile("lookup.csv").toPath();
+        Files.copy(csvFile, file, StandardCopyOption.REPLACE_EXISTING);
+        // Index files left behind by a previous run are removed on start
+        temporaryFolder.newFile(".lookup.csv.id.123.idx");
+        final Config config = memoryMappedConfig(file);
+        csvFileDataAdapter = new CSVFileDataAdapter("id", "name", config, new MetricRegistry(), pathChecker);
+        when(pathChecker.fileIsInAllowedPath(isA(Path.class))).thenReturn(true);
+        csvFileDataAdapter.doStart();
+        assertThat(indexFiles()).hasSize(1);
+        final Path firstIndex = indexFiles()[0].toPath();
+
+        Files.write(file, "key,value\nfoo,1\nquux,2\n".getBytes(StandardCharsets.UTF_8));
+        csvFileDataAdapter.doRefresh(cachePurge);
+
+        assertFalse(csvFileDataAdapter.getError().isPresent());
+        assertThat(csvFileDataAdapter.doGet("foo")).isEqualTo(LookupResult.single("1"));
+        assertThat(csvFileDataAdapter.doGet("bar")).isEqualTo(LookupResult.empty());
+        assertThat(csvFileDataAdapter.doGet("quux")).isEqualTo(LookupResult.single("2"));
+        assertThat(indexFiles()).hasSize(1);
+        assertThat(Files.exists(firstIndex)).isFalse();
+    }
+
     @Test
     public void doGet_failure_filePathInvalid() throws Exception {
         final Config config = baseConfig();
@@ -187,6 +237,24 @@ public class CSVFileDataAdapterTest {
                      String.join("", result.get().asMap().get("path")));
     }
 
+    private File[] indexFiles() {
+        return temporaryFolder.getRoot().listFiles((dir, name) -> name.endsWith(".idx"));
+    }
+
+    private Config memoryMappedConfig(Path file) {
+        return Config.builder()
+                     .type(NAME)
+                     .path(file.toString())
+                     .separator(",")
+                     .quotechar("\"")
+                     .keyColumn("key")
+                     .valueColumn("value")
+                     .checkInterval(60)
+                     .caseInsensitiveLookup(false)
+                     .memoryMappedIndex(true)
+                     .build();
+    }
+
     private Config baseConfig() {
         return Config.builder()
                      .type(NAME)
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.lookup.adapters.csvfile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MappedLookupIndexTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void returnsStoredValues() throws Exception {
+        final Path path = temporaryFolder.newFile().toPath();
+        final MappedLookupIndex index;
+        try (final MappedLookupIndex.Writer writer = MappedLookupIndex.writer(path)) {
+            writer.put("foo", "23");
+            writer.put("bar", "42");
+            writer.put("grüße", "ünïcödé");
+            writer.put("", "empty key");
+            index = writer.finish();
+        }
+
+        assertThat(index.size()).isEqualTo(4);
+        assertThat(index.get("foo")).isEqualTo("23");
+        assertThat(index.get("bar")).isEqualTo("42");
+        assertThat(index.get("grüße")).isEqualTo("ünïcödé");
+        assertThat(index.get("")).isEqualTo("empty key");
+        assertThat(index.get("quux")).isNull();
+        assertThat(index.get("fo")).isNull();
+    }
+
+    @Test
+    public void lastValueOfDuplicateKeyWins() throws Exception {
+        final Path path = temporaryFolder.newFile().toPath();
+        try (final MappedLookupIndex.Writer writer = MappedLookupIndex.writer(path)) {
+            writer.put("foo", "1");
+            writer.put("foo", "2");
+            writer.finish();
+        }
+
+        assertThat(MappedLookupIndex.open(path).get("foo")).isEqualTo("2");
+    }
+
+    @Test
+    public void emptyIndex() throws Exception {
+        final Path path = temporaryFolder.newFile().toPath();
+        try (final MappedLookupIndex.Writer writer = MappedLookupIndex.writer(path)) {
+            final MappedLookupIndex index = writer.finish();
+            assertThat(index.size()).isEqualTo(0);
+            assertThat(index.get("foo")).isNull();
+        }
+    }
+
+    @Test
+    public void manyEntries() throws Exception {
+        final Path path = temporaryFolder.newFile().toPath();
+        final MappedLookupIndex index;
+        try (final MappedLookupIndex.Writer writer = MappedLookupIndex.writer(path)) {
+            for (int i = 0; i < 100_000; i++) {
+                writer.put("key-" + i, "value-" + i);
+            }
+            index = writer.finish();
+        }
+
+        // Reopening the file must yield the same content
+        final MappedLookupIndex reopened = MappedLookupIndex.open(path);
+        for (int i = 0; i < 100_000; i++) {
+            assertThat(index.get("key-" + i)).isEqualTo("value-" + i);
+            assertThat(reopened.get("key-" + i)).isEqualTo("value-" + i);
+        }
+        assertThat(reopened.get("key-100000")).isNull();
+    }
+
+    @Test
+    public void rejectsOtherFiles() throws Exception {
+        final Path path = temporaryFolder.newFile().toPath();
+        Files.write(path, new byte[64]);
+
+        assertThatThrownBy(() -> MappedLookupIndex.open(path))
+                .isInstanceOf(IOException.class)
+                .hasMessageStartingWith("Invalid lookup index file");
+    }
+}
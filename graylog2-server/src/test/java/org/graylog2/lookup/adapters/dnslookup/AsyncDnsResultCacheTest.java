@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.lookup.adapters.dnslookup;
+
+import com.codahale.metrics.Counter;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.graylog2.plugin.lookup.LookupResult;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+public class AsyncDnsResultCacheTest {
+    private final AtomicLong time = new AtomicLong();
+    private final AtomicInteger resolutions = new AtomicInteger();
+
+    private Counter hits;
+    private Counter waitsAvoided;
+    private Counter refreshes;
+    private Counter droppedRequests;
+
+    @Before
+    public void setUp() {
+        hits = new Counter();
+        waitsAvoided = new Counter();
+        refreshes = new Counter();
+        droppedRequests = new Counter();
+    }
+
+    private AsyncDnsResultCache createCache(LookupResult result, long negativeTTLMillis, ExecutorService executor) {
+        return new AsyncDnsResultCache(key -> {
+            resolutions.incrementAndGet();
+            return result;
+        }, negativeTTLMillis, executor, time::get, hits, waitsAvoided, refreshes, droppedRequests);
+    }
+
+    @Test
+    public void missReturnsNullAndResolvesInBackground() {
+        final LookupResult result = LookupResult.builder().single("10.0.0.1").cacheTTL(60_000L).build();
+        final AsyncDnsResultCache cache = createCache(result, -1, MoreExecutors.newDirectExecutorService());
+
+        assertThat(cache.get("example.org")).isNull();
+        assertThat(waitsAvoided.getCount()).isEqualTo(1);
+        assertThat(resolutions.get()).isEqualTo(1);
+
+        final LookupResult cached = cache.get("example.org");
+        assertThat(cached).isNotNull();
+        assertThat(cached.singleValue()).isEqualTo("10.0.0.1");
+        assertThat(hits.getCount()).isEqualTo(1);
+        assertThat(resolutions.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void hitIsCachedUpstreamOnlyUntilTheRefreshPoint() {
+        final LookupResult result = LookupResult.builder().single("10.0.0.1").cacheTTL(10_000L).build();
+        final AsyncDnsResultCache cache = createCache(result, -1, MoreExecutors.newDirectExecutorService());
+
+        cache.get("example.org");
+        time.addAndGet(TimeUnit.SECONDS.toNanos(3));
+
+        final LookupResult cached = cache.get("example.org");
+        assertThat(cached).isNotNull();
+        assertThat(cached.cacheTTL()).isEqualTo(5_000L);
+    }
+
+    @Test
+    public void hotKeysAreRefreshedAheadOfExpiry() {
+        final LookupResult result = LookupResult.builder().single("10.0.0.1").cacheTTL(10_000L).build();
+        final AsyncDnsResultCache cache = createCache(result, -1, MoreExecutors.newDirectExecutorService());
+
+        cache.get("example.org");
+        time.addAndGet(TimeUnit.SECONDS.toNanos(5));
+        cache.get("example.org");
+        assertThat(refreshes.getCount()).isEqualTo(0);
+
+        time.addAndGet(TimeUnit.SECONDS.toNanos(4));
+        assertThat(cache.get("example.org")).isNotNull();
+        assertThat(refreshes.getCount()).isEqualTo(1);
+        assertThat(resolutions.get()).isEqualTo(2);
+
+        // The refreshed entry outlives the original TTL
+        time.addAndGet(TimeUnit.SECONDS.toNanos(5));
+        assertThat(cache.get("example.org")).isNotNull();
+        assertThat(resolutions.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void emptyResultsUseTheNegativeTTL() {
+        final AsyncDnsResultCache cache = createCache(LookupResult.empty(), 2_000L, MoreExecutors.newDirectExecutorService());
+
+        cache.get("unknown.example.org");
+        final LookupResult cached = cache.get("unknown.example.org");
+        assertThat(cached).isNotNull();
+        assertThat(cached.isEmpty()).isTrue();
+
+        time.addAndGet(TimeUnit.SECONDS.toNanos(3));
+        assertThat(cache.get("unknown.example.org")).isNull();
+        assertThat(resolutions.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void resultsWithZeroTTLAreNotCached() {
+        final LookupResult result = LookupResult.builder().single("10.0.0.1").cacheTTL(0L).build();
+        final AsyncDnsResultCache cache = createCache(result, -1, MoreExecutors.newDirectExecutorService());
+
+        assertThat(cache.get("example.org")).isNull();
+        assertThat(cache.get("example.org")).isNull();
+        assertThat(cache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void resultsWithoutTTLExpireAfterDefaultTTL() {
+        final AsyncDnsResultCache cache = createCache(LookupResult.empty(), -1, MoreExecutors.newDirectExecutorService());
+
+        cache.get("unknown.example.org");
+        final LookupResult cached = cache.get("unknown.example.org");
+        assertThat(cached).isNotNull();
+        assertThat(cached.isEmpty()).isTrue();
+        assertThat(cached.cacheTTL()).isLessThanOrEqualTo(TimeUnit.MINUTES.toMillis(1));
+
+        time.addAndGet(TimeUnit.MINUTES.toNanos(2));
+        assertThat(cache.get("unknown.example.org")).isNull();
+        assertThat(resolutions.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void rejectedResolutionsAreCountedAndRetried() {
+        final ExecutorService executor = mock(ExecutorService.class);
+        doThrow(new RejectedExecutionException()).when(executor).execute(any(Runnable.class));
+        final AsyncDnsResultCache cache = createCache(LookupResult.empty(), -1, executor);
+
+        assertThat(cache.get("example.org")).isNull();
+        assertThat(cache.get("example.org")).isNull();
+        assertThat(droppedRequests.getCount()).isEqualTo(2);
+        assertThat(waitsAvoided.getCount()).isEqualTo(2);
+    }
+}
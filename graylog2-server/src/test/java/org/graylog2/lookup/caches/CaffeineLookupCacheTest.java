@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.lookup.caches;
+
+import com.codahale.metrics.MetricRegistry;
+import org.graylog2.plugin.lookup.LookupCacheKey;
+import org.graylog2.plugin.lookup.LookupResult;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CaffeineLookupCacheTest {
+    private static final LookupCacheKey KEY = LookupCacheKey.createFromJSON("adapter", "key");
+
+    private final AtomicLong time = new AtomicLong(0);
+    private final AtomicInteger loads = new AtomicInteger(0);
+    private CaffeineLookupCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        // expires entries 60 seconds after the last access
+        final CaffeineLookupCache.Config config = new CaffeineLookupCache.Descriptor().defaultConfiguration();
+        cache = new CaffeineLookupCache("id", "name", config, new MetricRegistry(), time::get);
+    }
+
+    @Test
+    public void frequentlyReadResultsExpireAfterTheirTTL() {
+        final LookupResult result = LookupResult.builder().single("value").cacheTTL(TimeUnit.SECONDS.toMillis(90)).build();
+
+        for (int seconds = 0; seconds < 90; seconds += 30) {
+            time.set(TimeUnit.SECONDS.toNanos(seconds));
+            assertThat(cache.get(KEY, () -> load(result))).isEqualTo(result);
+        }
+        assertThat(loads.get()).isEqualTo(1);
+
+        time.set(TimeUnit.SECONDS.toNanos(90));
+        assertThat(cache.getIfPresent(KEY).isEmpty()).isTrue();
+        cache.get(KEY, () -> load(result));
+        assertThat(loads.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void resultsWithTTLExpireAfterAccess() {
+        final LookupResult result = LookupResult.builder().single("value").cacheTTL(TimeUnit.MINUTES.toMillis(10)).build();
+
+        cache.get(KEY, () -> load(result));
+        time.set(TimeUnit.SECONDS.toNanos(30));
+        assertThat(cache.getIfPresent(KEY)).isEqualTo(result);
+
+        time.set(TimeUnit.SECONDS.toNanos(91));
+        assertThat(cache.getIfPresent(KEY).isEmpty()).isTrue();
+    }
+
+    @Test
+    public void readsExtendResultsWithoutTTL() {
+        final LookupResult result = LookupResult.withoutTTL().single("value").build();
+
+        for (int seconds = 0; seconds <= 300; seconds += 50) {
+            time.set(TimeUnit.SECONDS.toNanos(seconds));
+            assertThat(cache.get(KEY, () -> load(result))).isEqualTo(result);
+        }
+        assertThat(loads.get()).isEqualTo(1);
+
+        time.set(TimeUnit.SECONDS.toNanos(361));
+        assertThat(cache.getIfPresent(KEY).isEmpty()).isTrue();
+    }
+
+    private LookupResult load(LookupResult result) {
+        loads.incrementAndGet();
+        return result;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.lookup.caches;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class SingleFlightTest {
+    private final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+
+    @Test
+    public void concurrentLoadsOfTheSameKeyShareOneLoaderCall() throws Exception {
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+
+        final CompletableFuture<String> first = CompletableFuture.supplyAsync(() -> singleFlight.load("key", key -> {
+            calls.incrementAndGet();
+            loading.countDown();
+            await(release);
+            return "value";
+        }));
+        assertThat(loading.await(10, TimeUnit.SECONDS)).isTrue();
+
+        final CompletableFuture<String> second = CompletableFuture.supplyAsync(() -> singleFlight.load("key", key -> {
+            calls.incrementAndGet();
+            return "other";
+        }));
+        // the second load must not finish before the first one
+        Thread.sleep(50);
+        assertThat(second.isDone()).isFalse();
+
+        release.countDown();
+
+        assertThat(first.get(10, TimeUnit.SECONDS)).isEqualTo("value");
+        assertThat(second.get(10, TimeUnit.SECONDS)).isEqualTo("value");
+        assertThat(calls.get()).isEqualTo(1);
+        assertThat(singleFlight.inFlightCount()).isZero();
+    }
+
+    @Test
+    public void loadAllOnlyLoadsKeysWhichAreNotInFlight() throws Exception {
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final CompletableFuture<String> inFlight = CompletableFuture.supplyAsync(() -> singleFlight.load("a", key -> {
+            loading.countDown();
+            await(release);
+            return "A";
+        }));
+        assertThat(loading.await(10, TimeUnit.SECONDS)).isTrue();
+
+        final CompletableFuture<Set<String>> loadedKeys = new CompletableFuture<>();
+        final CompletableFuture<Map<String, String>> all = CompletableFuture.supplyAsync(() -> singleFlight.loadAll(ImmutableList.of("a", "b", "c"), keys -> {
+            loadedKeys.complete(ImmutableSet.copyOf(keys));
+            final Map<String, String> values = new HashMap<>();
+            keys.forEach(key -> values.put(key, key.toUpperCase()));
+            return values;
+        }));
+
+        assertThat(loadedKeys.get(10, TimeUnit.SECONDS)).containsOnly("b", "c");
+        release.countDown();
+
+        assertThat(all.get(10, TimeUnit.SECONDS))
+                .containsEntry("a", "A")
+                .containsEntry("b", "B")
+                .containsEntry("c", "C");
+        assertThat(inFlight.get(10, TimeUnit.SECONDS)).isEqualTo("A");
+        assertThat(singleFlight.inFlightCount()).isZero();
+    }
+
+    @Test
+    public void failedLoadsAreNotKeptInFlight() {
+        assertThatThrownBy(() -> singleFlight.load("key", key -> {
+            throw new IllegalStateException("boom");
+        })).isInstanceOf(IllegalStateException.class);
+
+        assertThat(singleFlight.inFlightCount()).isZero();
+        assertThat(singleFlight.load("key", key -> "value")).isEqualTo("value");
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -38,6 +38,7 @@ import java.util.Map;
 
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -61,8 +62,8 @@ public class BlockingBatchedESOutputTest {
         this.journal = new NoopJournal();
         this.config = new Configuration() {
             @Override
-            public int getOutputBatchSize() {
-                return 3;
+            public BatchSizeConfig getOutputBatchSize() {
+                return BatchSizeConfig.forCount(3);
             }
         };
     }
@@ -71,7 +72,7 @@ public class BlockingBatchedESOutputTest {
     public void write() throws Exception {
         final BlockingBatchedESOutput output = new BlockingBatchedESOutput(metricRegistry, messages, config, journal, acknowledger);
 
-        final List<Map.Entry<IndexSet, Message>> messageList = buildMessages(config.getOutputBatchSize());
+        final List<Map.Entry<IndexSet, Message>> messageList = buildMessages(3);
 
         for (Map.Entry<IndexSet, Message> entry : messageList) {
             output.writeMessageEntry(entry);
@@ -84,7 +85,7 @@ public class BlockingBatchedESOutputTest {
     public void forceFlushIfTimedOut() throws Exception {
         final BlockingBatchedESOutput output = new BlockingBatchedESOutput(metricRegistry, messages, config, journal, acknowledger);
 
-        final List<Map.Entry<IndexSet, Message>> messageList = buildMessages(config.getOutputBatchSize() - 1);
+        final List<Map.Entry<IndexSet, Message>> messageList = buildMessages(2);
 
         for (Map.Entry<IndexSet, Message> entry : messageList) {
             output.writeMessageEntry(entry);
@@ -96,6 +97,81 @@ public class BlockingBatchedESOutputTest {
         verify(messages, times(1)).bulkIndex(eq(messageList));
     }
 
+    @Test
+    public void writeWithBatchSizeInBytes() throws Exception {
+        final List<Map.Entry<IndexSet, Message>> messageList = buildMessages(3);
+        final long batchBytes = messageList.stream().mapToLong(entry -> entry.getValue().getSize()).sum();
+        final Configuration bytesConfig = new Configuration() {
+            @Override
+            public BatchSizeConfig getOutputBatchSize() {
+                return BatchSizeConfig.forBytes(batchBytes);
+            }
+        };
+        final BlockingBatchedESOutput output = new BlockingBatchedESOutput(metricRegistry, messages, bytesConfig, journal, acknowledger);
+
+        for (Map.Entry<IndexSet, Message> entry : messageList) {
+            output.writeMessageEntry(entry);
+        }
+
+        verify(messages, times(1)).bulkIndex(eq(messageList));
+    }
+
+    @Test
+    public void writeWithFlushThreads() throws Exception {
+        final Configuration flushThreadsConfig = new Configuration() {
+            @Override
+            public BatchSizeConfig getOutputBatchSize() {
+                return BatchSizeConfig.forCount(3);
+            }
+
+            @Override
+            public int getOutputFlushThreads() {
+                return 2;
+            }
+        };
+        final BlockingBatchedESOutput output = new BlockingBatchedESOutput(metricRegistry, messages, flushThreadsConfig, journal, acknowledger);
+
+        final List<Map.Entry<IndexSet, Message>> messageList = buildMessages(3);
+
+        for (Map.Entry<IndexSet, Message> entry : messageList) {
+            output.writeMessageEntry(entry);
+        }
+
+        verify(messages, timeout(10_000).times(1)).bulkIndex(eq(messageList));
+        output.stop();
+    }
+
+    @Test
+    public void stopFlushesBufferedMessages() throws Exception {
+        final Configuration flushThreadsConfig = new Configuration() {
+            @Override
+            public BatchSizeConfig getOutputBatchSize() {
+                return BatchSizeConfig.forCount(3);
+            }
+
+            @Override
+            public int getOutputFlushThreads() {
+                return 2;
+            }
+        };
+        final BlockingBatchedESOutput output = new BlockingBatchedESOutput(metricRegistry, messages, flushThreadsConfig, journal, acknowledger);
+
+        final List<Map.Entry<IndexSet, Message>> messageList = buildMessages(2);
+        for (Map.Entry<IndexSet, Message> entry : messageList) {
+            output.writeMessageEntry(entry);
+        }
+
+        output.stop();
+        verify(messages, times(1)).bulkIndex(eq(messageList));
+
+        // Messages which arrive after the flusher pool has been shut down are flushed by the calling thread
+        final List<Map.Entry<IndexSet, Message>> lateMessages = buildMessages(3);
+        for (Map.Entry<IndexSet, Message> entry : lateMessages) {
+            output.writeMessageEntry(entry);
+        }
+        verify(messages, times(1)).bulkIndex(eq(lateMessages));
+    }
+
     private List<Map.Entry<IndexSet, Message>> buildMessages(final int count) {
         final ImmutableList.Builder<Map.Entry<IndexSet, Message>> builder = ImmutableList.builder();
         for (int i = 0; i < count; i++) {
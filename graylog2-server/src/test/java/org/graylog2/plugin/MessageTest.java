@@ -19,6 +19,7 @@ package org.graylog2.plugin;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.eaio.uuid.UUID;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
@@ -40,6 +41,7 @@ import org.junit.Test;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 
+import java.io.ByteArrayOutputStream;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
@@ -456,6 +458,28 @@ public class MessageTest {
         assertThat(streams).containsOnly("stream-id");
     }
 
+    @Test
+    public void writeElasticSearchObjectMatchesToElasticSearchObject() throws Exception {
+        message.addField("field1", "wat");
+        message.addField("field2", 42);
+        message.addField("field.3", "dot");
+        message.addField("field.4", "conflict");
+        message.addField("field_4", "underscore");
+        message.addField(Message.FIELD_STREAMS, Collections.singletonList("test-stream"));
+
+        final Map<String, Object> expected = objectMapper.readValue(
+                objectMapper.writeValueAsBytes(message.toElasticSearchObject(objectMapper, invalidTimestampMeter)), Map.class);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            message.writeElasticSearchObject(generator, objectMapper, invalidTimestampMeter);
+        }
+        final Map<String, Object> streamed = objectMapper.readValue(out.toByteArray(), Map.class);
+
+        assertThat(streamed).isEqualTo(expected);
+        assertThat(streamed).containsEntry("field_3", "dot").containsEntry("field_4", "underscore");
+    }
+
     @Test
     public void testToElasticsearchObjectAddsAccountedMessageSize() {
         final Message message = new Message("message", "source", Tools.nowUTC());
@@ -16,14 +16,25 @@
  */
 package org.graylog2.plugin.journal;
 
+import com.eaio.uuid.UUID;
+import com.google.common.collect.ImmutableMap;
+import com.google.protobuf.ByteString;
+import org.graylog2.plugin.ResolvableInetSocketAddress;
 import org.graylog2.plugin.configuration.Configuration;
 import org.graylog2.plugin.system.NodeId;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
@@ -44,4 +55,101 @@ public class RawMessageTest {
         assertArrayEquals("testmessage".getBytes(StandardCharsets.UTF_8), decodedMsg.getPayload());
         assertEquals("raw", decodedMsg.getCodecName());
     }
+
+    @Test
+    public void encodeDecodeAllFields() throws IOException {
+        final UUID id = new UUID();
+        final DateTime timestamp = new DateTime(2021, 3, 1, 12, 0, DateTimeZone.UTC);
+        final ResolvableInetSocketAddress remoteAddress = ResolvableInetSocketAddress.wrap(
+                new InetSocketAddress(InetAddress.getByName("10.0.0.1"), 5140));
+        final Configuration codecConfig = new Configuration(ImmutableMap.of("charset", "UTF-8"));
+        final RawMessage rawMessage = new RawMessage(42L, id, timestamp, remoteAddress, "payload".getBytes(StandardCharsets.UTF_8));
+        rawMessage.addSourceNode("input-1", new NodeId(File.createTempFile("node", "test").getAbsolutePath()));
+        rawMessage.setCodecName("gelf");
+        rawMessage.setCodecConfig(codecConfig);
+
+        final RawMessage decodedMsg = RawMessage.decode(rawMessage.encode(), 23L);
+
+        assertThat(decodedMsg).isNotNull();
+        assertThat(decodedMsg.getVersion()).isEqualTo(RawMessage.CURRENT_VERSION);
+        assertThat(decodedMsg.getId()).isEqualTo(id);
+        assertThat(decodedMsg.getMessageQueueId()).isEqualTo(23L);
+        assertThat(decodedMsg.getTimestamp()).isEqualTo(timestamp);
+        assertThat(decodedMsg.getPayload()).isEqualTo("payload".getBytes(StandardCharsets.UTF_8));
+        assertThat(decodedMsg.getCodecName()).isEqualTo("gelf");
+        assertThat(decodedMsg.getCodecConfig().getString("charset")).isEqualTo("UTF-8");
+        assertThat(decodedMsg.getSourceNodes()).hasSize(1);
+        assertThat(decodedMsg.getSourceNodes().get(0).inputId).isEqualTo("input-1");
+        assertThat(decodedMsg.getSourceNodes().get(0).nodeId).isEqualTo(rawMessage.getSourceNodes().get(0).nodeId);
+        assertThat(decodedMsg.getSourceNodes().get(0).type).isEqualTo(RawMessage.SourceNode.Type.SERVER);
+        assertThat(decodedMsg.getRemoteAddress()).isNotNull();
+        assertThat(decodedMsg.getRemoteAddress().getInetSocketAddress()).isEqualTo(remoteAddress.getInetSocketAddress());
+    }
+
+    @Test
+    public void decodeReadsRecordFromBufferSlice() {
+        final RawMessage rawMessage = new RawMessage("testmessage".getBytes(StandardCharsets.UTF_8));
+        rawMessage.setCodecName("raw");
+        rawMessage.setCodecConfig(Configuration.EMPTY_CONFIGURATION);
+        final byte[] encoded = rawMessage.encode();
+
+        final ByteBuffer buffer = ByteBuffer.allocate(encoded.length + 8);
+        buffer.position(4);
+        buffer.put(encoded);
+        buffer.flip().position(4);
+
+        final RawMessage decodedMsg = RawMessage.decode(buffer, 1L);
+
+        assertThat(decodedMsg).isNotNull();
+        assertThat(decodedMsg.getPayloadBuffer()).isEqualTo(ByteBuffer.wrap("testmessage".getBytes(StandardCharsets.UTF_8)));
+        assertThat(decodedMsg.getPayloadBuffer().array()).isSameAs(buffer.array());
+        assertThat(decodedMsg.getPayload()).isEqualTo("testmessage".getBytes(StandardCharsets.UTF_8));
+        assertThat(decodedMsg.getCodecConfig()).isSameAs(Configuration.EMPTY_CONFIGURATION);
+        assertThat(decodedMsg.getRemoteAddress()).isNull();
+    }
+
+    @Test
+    public void decodeLegacyProtobufEntry() throws IOException {
+        final UUID id = new UUID();
+        final JournalMessages.JournalMessage journalMessage = JournalMessages.JournalMessage.newBuilder()
+                .setVersion(1)
+                .setUuidTime(id.getTime())
+                .setUuidClockseq(id.getClockSeqAndNode())
+                .setTimestamp(1000L)
+                .setCodec(JournalMessages.CodecInfo.newBuilder().setName("raw").build())
+                .addSourceNodes(JournalMessages.SourceNode.newBuilder().setId("node-1").setInputId("input-1").build())
+                .setRemote(JournalMessages.RemoteAddress.newBuilder()
+                        .setAddress(ByteString.copyFrom(InetAddress.getByName("10.0.0.2").getAddress()))
+                        .setPort(514)
+                        .build())
+                .setPayload(ByteString.copyFromUtf8("legacy"))
+                .build();
+
+        final RawMessage decodedMsg = RawMessage.decode(journalMessage.toByteArray(), 5L);
+
+        assertThat(decodedMsg).isNotNull();
+        assertThat(decodedMsg.getVersion()).isEqualTo(1);
+        assertThat(decodedMsg.getId()).isEqualTo(id);
+        assertThat(decodedMsg.getTimestamp().getMillis()).isEqualTo(1000L);
+        assertThat(decodedMsg.getCodecName()).isEqualTo("raw");
+        assertThat(decodedMsg.getPayload()).isEqualTo("legacy".getBytes(StandardCharsets.UTF_8));
+        assertThat(decodedMsg.getSourceNodes()).extracting(node -> node.inputId).containsExactly("input-1");
+        assertThat(decodedMsg.getRemoteAddress().getInetSocketAddress())
+                .isEqualTo(new InetSocketAddress(InetAddress.getByName("10.0.0.2"), 514));
+
+        // Re-encoding a legacy entry writes the compact format
+        final RawMessage reEncoded = RawMessage.decode(decodedMsg.encode(), 6L);
+        assertThat(reEncoded).isNotNull();
+        assertThat(reEncoded.getVersion()).isEqualTo(RawMessage.CURRENT_VERSION);
+        assertThat(reEncoded.getPayload()).isEqualTo("legacy".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void decodeTruncatedRecordReturnsNull() {
+        final RawMessage rawMessage = new RawMessage("testmessage".getBytes(StandardCharsets.UTF_8));
+        rawMessage.setCodecName("raw");
+        final byte[] encoded = rawMessage.encode();
+
+        assertThat(RawMessage.decode(Arrays.copyOf(encoded, encoded.length - 1), 1L)).isNull();
+    }
 }
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.buffers;
+
+import com.codahale.metrics.MetricRegistry;
+import org.graylog2.plugin.journal.RawMessage;
+import org.graylog2.shared.messageq.MessageQueueException;
+import org.graylog2.shared.messageq.MessageQueueWriter;
+import org.graylog2.system.processing.ProcessingStatusRecorder;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+
+public class JournallingMessageHandlerTest {
+    @Rule
+    public final MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    private MessageQueueWriter messageQueueWriter;
+    @Mock
+    private ProcessingStatusRecorder processingStatusRecorder;
+
+    private JournallingMessageHandler handler;
+    private RawMessageEncoderHandler encoder;
+
+    @Before
+    public void setUp() {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        handler = new JournallingMessageHandler(metricRegistry, messageQueueWriter, processingStatusRecorder);
+        encoder = new RawMessageEncoderHandler(metricRegistry);
+    }
+
+    private RawMessageEvent encodedEvent(Runnable writeCallback) throws Exception {
+        final RawMessage rawMessage = new RawMessage("test".getBytes(StandardCharsets.UTF_8));
+        rawMessage.setWriteCallback(writeCallback);
+        final RawMessageEvent event = new RawMessageEvent();
+        event.setRawMessage(rawMessage);
+        encoder.onEvent(event);
+        return event;
+    }
+
+    @Test
+    public void writeCallbacksRunAfterBatchHasBeenWritten() throws Exception {
+        final AtomicInteger written = new AtomicInteger();
+        final AtomicInteger acknowledged = new AtomicInteger();
+        doAnswer(invocation -> {
+            // nothing may be acknowledged before the journal write returned
+            assertThat(acknowledged.get()).isZero();
+            written.incrementAndGet();
+            return null;
+        }).when(messageQueueWriter).write(anyList());
+
+        handler.onEvent(encodedEvent(acknowledged::incrementAndGet), 0, false);
+        handler.onEvent(encodedEvent(acknowledged::incrementAndGet), 1, false);
+        assertThat(acknowledged.get()).isZero();
+
+        handler.onEvent(encodedEvent(acknowledged::incrementAndGet), 2, true);
+        assertThat(written.get()).isEqualTo(1);
+        assertThat(acknowledged.get()).isEqualTo(3);
+    }
+
+    @Test
+    public void writeCallbacksDoNotRunIfWriteFails() throws Exception {
+        final AtomicInteger acknowledged = new AtomicInteger();
+        doThrow(new MessageQueueException("failed")).when(messageQueueWriter).write(anyList());
+
+        try {
+            handler.onEvent(encodedEvent(acknowledged::incrementAndGet), 0, true);
+        } catch (MessageQueueException ignored) {
+        }
+
+        assertThat(acknowledged.get()).isZero();
+    }
+
+    @Test
+    public void eventsWithoutWriteCallbackAreWritten() throws Exception {
+        final AtomicInteger written = new AtomicInteger();
+        doAnswer(invocation -> written.incrementAndGet()).when(messageQueueWriter).write(anyList());
+
+        handler.onEvent(encodedEvent(null), 0, true);
+
+        assertThat(written.get()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.buffers.processors;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.eventbus.EventBus;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.ServerStatus;
+import org.graylog2.plugin.Tools;
+import org.graylog2.plugin.buffers.MessageEvent;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.inputs.codecs.Codec;
+import org.graylog2.plugin.journal.RawMessage;
+import org.graylog2.plugin.system.NodeId;
+import org.graylog2.rest.models.system.inputs.responses.InputDeleted;
+import org.graylog2.rest.models.system.inputs.responses.InputUpdated;
+import org.graylog2.shared.journal.Journal;
+import org.graylog2.shared.messageq.MessageQueueAcknowledger;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.nio.charset.StandardCharsets;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DecodingProcessorTest {
+    @Rule
+    public final MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    private Codec.Factory<Codec> codecFactory;
+    @Mock
+    private ServerStatus serverStatus;
+    @Mock
+    private Journal journal;
+    @Mock
+    private MessageQueueAcknowledger acknowledger;
+    @Mock
+    private NodeId nodeId;
+
+    private MetricRegistry metricRegistry;
+    private EventBus eventBus;
+    private DecodingProcessor decodingProcessor;
+
+    @Before
+    public void setUp() {
+        metricRegistry = new MetricRegistry();
+        eventBus = new EventBus();
+        when(nodeId.toString()).thenReturn("node-id");
+        when(codecFactory.create(any())).thenAnswer(invocation -> {
+            final Codec codec = mock(Codec.class);
+            when(codec.decode(any())).thenAnswer(decode -> new Message("message", "source", Tools.nowUTC()));
+            return codec;
+        });
+
+        decodingProcessor = new DecodingProcessor(ImmutableMap.of("test", codecFactory), serverStatus, metricRegistry,
+                journal, acknowledger, eventBus, new Timer(), new Timer());
+    }
+
+    @Test
+    public void reusesCodecForSameInputAndConfiguration() throws Exception {
+        decode(rawMessage("input-1", Configuration.EMPTY_CONFIGURATION));
+        decode(rawMessage("input-1", Configuration.EMPTY_CONFIGURATION));
+        // Messages read from the journal are identified by their serialized configuration
+        decode(RawMessage.decode(rawMessage("input-1", Configuration.EMPTY_CONFIGURATION).encode(), 1L));
+
+        verify(codecFactory, times(1)).create(any());
+        assertThat(metricRegistry.timer(name(DecodingProcessor.class, "decodeTime", "input-1")).getCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void createsCodecPerInputAndConfiguration() throws Exception {
+        decode(rawMessage("input-1", Configuration.EMPTY_CONFIGURATION));
+        decode(rawMessage("input-2", Configuration.EMPTY_CONFIGURATION));
+        decode(rawMessage("input-1", new Configuration(ImmutableMap.of("charset", "UTF-8"))));
+
+        verify(codecFactory, times(3)).create(any());
+    }
+
+    @Test
+    public void inputEventsInvalidateCachedCodecs() throws Exception {
+        decode(rawMessage("input-1", Configuration.EMPTY_CONFIGURATION));
+        decode(rawMessage("input-2", Configuration.EMPTY_CONFIGURATION));
+
+        eventBus.post(InputUpdated.create("input-1"));
+        decode(rawMessage("input-1", Configuration.EMPTY_CONFIGURATION));
+        decode(rawMessage("input-2", Configuration.EMPTY_CONFIGURATION));
+        verify(codecFactory, times(3)).create(any());
+
+        eventBus.post(InputDeleted.create("input-2"));
+        decode(rawMessage("input-2", Configuration.EMPTY_CONFIGURATION));
+        verify(codecFactory, times(4)).create(any());
+    }
+
+    private RawMessage rawMessage(String inputId, Configuration configuration) {
+        final RawMessage rawMessage = new RawMessage("message".getBytes(StandardCharsets.UTF_8));
+        rawMessage.addSourceNode(inputId, nodeId);
+        rawMessage.setCodecName("test");
+        rawMessage.setCodecConfig(configuration);
+        return rawMessage;
+    }
+
+    private void decode(RawMessage rawMessage) throws Exception {
+        final MessageEvent event = new MessageEvent();
+        event.setRaw(rawMessage);
+        decodingProcessor.onEvent(event, 1L, false);
+        assertThat(event.getMessage()).isNotNull();
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.buffers.processors;
+
+import com.google.common.collect.ImmutableList;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.Tools;
+import org.graylog2.plugin.buffers.MessageEvent;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+
+public class ProcessBufferBatchHandlerTest {
+    @Rule
+    public final MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    private ProcessBufferProcessor processor;
+
+    private List<List<String>> dispatchedBatches;
+
+    @Before
+    public void setUp() throws Exception {
+        dispatchedBatches = new ArrayList<>();
+        doAnswer(invocation -> {
+            final MessageEvent event = invocation.getArgument(0);
+            final List<Message> batch = invocation.getArgument(1);
+            batch.add(event.getMessage());
+            return null;
+        }).when(processor).decodeInto(any(), anyList());
+        doAnswer(invocation -> {
+            final List<Message> batch = invocation.getArgument(0);
+            if (!batch.isEmpty()) {
+                final List<String> messages = new ArrayList<>();
+                batch.forEach(message -> messages.add(message.getMessage()));
+                dispatchedBatches.add(messages);
+            }
+            return null;
+        }).when(processor).dispatchBatch(anyList());
+    }
+
+    @Test
+    public void dispatchesAtEndOfBatch() throws Exception {
+        final ProcessBufferBatchHandler handler = new ProcessBufferBatchHandler(processor, 0, 1, 10);
+
+        handler.onEvent(event("1"), 0L, false);
+        handler.onEvent(event("2"), 1L, false);
+        assertThat(dispatchedBatches).isEmpty();
+
+        handler.onEvent(event("3"), 2L, true);
+        assertThat(dispatchedBatches).containsExactly(ImmutableList.of("1", "2", "3"));
+    }
+
+    @Test
+    public void dispatchesFullBatches() throws Exception {
+        final ProcessBufferBatchHandler handler = new ProcessBufferBatchHandler(processor, 0, 1, 2);
+
+        for (int i = 0; i < 5; i++) {
+            handler.onEvent(event(String.valueOf(i)), i, i == 4);
+        }
+
+        assertThat(dispatchedBatches).containsExactly(ImmutableList.of("0", "1"), ImmutableList.of("2", "3"), ImmutableList.of("4"));
+    }
+
+    @Test
+    public void onlyHandlesEventsOfOwnOrdinal() throws Exception {
+        final ProcessBufferBatchHandler handler = new ProcessBufferBatchHandler(processor, 1, 3, 10);
+
+        for (int i = 0; i < 7; i++) {
+            handler.onEvent(event(String.valueOf(i)), i, false);
+        }
+        // The end of a disruptor batch flushes even if the last event belongs to another handler
+        handler.onEvent(event("7"), 7L, true);
+
+        assertThat(dispatchedBatches).containsExactly(ImmutableList.of("1", "4", "7"));
+    }
+
+    @Test
+    public void dispatchesAtEndOfBatchIfDecodingFails() throws Exception {
+        final ProcessBufferBatchHandler handler = new ProcessBufferBatchHandler(processor, 0, 1, 10);
+        final MessageEvent failingEvent = event("2");
+        doThrow(new IllegalStateException("Decoding failed")).when(processor).decodeInto(eq(failingEvent), anyList());
+
+        handler.onEvent(event("1"), 0L, false);
+        assertThatThrownBy(() -> handler.onEvent(failingEvent, 1L, true)).isInstanceOf(IllegalStateException.class);
+
+        assertThat(dispatchedBatches).containsExactly(ImmutableList.of("1"));
+    }
+
+    private MessageEvent event(String message) {
+        final MessageEvent event = new MessageEvent();
+        event.setMessage(new Message(message, "source", Tools.nowUTC()));
+        return event;
+    }
+}
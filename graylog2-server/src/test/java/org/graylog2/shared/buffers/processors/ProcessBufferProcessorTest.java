@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.buffers.processors;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import de.huxhorn.sulky.ulid.ULID;
+import org.graylog.failure.FailureSubmissionService;
+import org.graylog2.buffers.OutputBuffer;
+import org.graylog2.messageprocessors.OrderedMessageProcessors;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.Tools;
+import org.graylog2.plugin.messageprocessors.MessageProcessor;
+import org.graylog2.plugin.streams.Stream;
+import org.graylog2.system.processing.ProcessingStatusRecorder;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ProcessBufferProcessorTest {
+    @Rule
+    public final MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    private OrderedMessageProcessors orderedMessageProcessors;
+    @Mock
+    private OutputBuffer outputBuffer;
+    @Mock
+    private ProcessingStatusRecorder processingStatusRecorder;
+    @Mock
+    private DecodingProcessor decodingProcessor;
+    @Mock
+    private Stream defaultStream;
+    @Mock
+    private FailureSubmissionService failureSubmissionService;
+
+    private MetricRegistry metricRegistry;
+    private List<String> outputMessages;
+    private List<MessageProcessor> messageProcessors;
+    private ProcessBufferProcessor processor;
+
+    @Before
+    public void setUp() throws Exception {
+        metricRegistry = new MetricRegistry();
+        outputMessages = new ArrayList<>();
+
+        // Fails every call which contains a message with the text "fail"
+        final MessageProcessor messageProcessor = messages -> {
+            for (Message message : messages) {
+                if ("fail".equals(message.getMessage())) {
+                    throw new IllegalStateException("Processing failed");
+                }
+            }
+            return messages;
+        };
+        messageProcessors = new ArrayList<>(ImmutableList.of(messageProcessor));
+        when(orderedMessageProcessors.iterator()).thenAnswer(invocation -> messageProcessors.iterator());
+        when(failureSubmissionService.submitProcessingErrors(any())).thenReturn(true);
+        doAnswer(invocation -> {
+            final Message message = invocation.getArgument(0);
+            outputMessages.add(message.getMessage());
+            return null;
+        }).when(outputBuffer).insertBlocking(any());
+
+        processor = new ProcessBufferProcessor(metricRegistry, orderedMessageProcessors, outputBuffer,
+                processingStatusRecorder, new ULID(), decodingProcessor, () -> defaultStream, failureSubmissionService);
+    }
+
+    @Test
+    public void dispatchBatchWritesAllMessagesToOutputBuffer() {
+        processor.dispatchBatch(ImmutableList.of(message("1"), message("2"), message("3")));
+
+        assertThat(outputMessages).containsExactly("1", "2", "3");
+        verify(failureSubmissionService, never()).submitUnknownProcessingError(any(), anyString());
+        assertThat(metricRegistry.timer(MetricRegistry.name(ProcessBufferProcessor.class, "processTime")).getCount()).isEqualTo(3);
+        assertThat(metricRegistry.timer(MetricRegistry.name(ProcessBufferProcessor.class, "processBatchTime")).getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void dispatchBatchReportsAllMessagesIfProcessingFails() {
+        final Message first = message("1");
+        final Message failing = message("fail");
+        final Message third = message("3");
+
+        processor.dispatchBatch(ImmutableList.of(first, failing, third));
+
+        assertThat(outputMessages).isEmpty();
+        verify(failureSubmissionService, times(3)).submitUnknownProcessingError(any(), anyString());
+        verify(failureSubmissionService).submitUnknownProcessingError(eq(first), anyString());
+        verify(failureSubmissionService).submitUnknownProcessingError(eq(failing), anyString());
+        verify(failureSubmissionService).submitUnknownProcessingError(eq(third), anyString());
+        assertThat(metricRegistry.meter(MetricRegistry.name(ProcessBufferProcessor.class, "incomingMessages")).getCount()).isEqualTo(3);
+        assertThat(metricRegistry.meter(MetricRegistry.name(ProcessBufferProcessor.class, "outgoingMessages")).getCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void dispatchBatchDoesNotProcessMessagesAgainIfLaterProcessorFails() {
+        // Modifies every message like a CUT extractor before the default processor fails on the batch
+        final MessageProcessor modifyingProcessor = messages -> {
+            for (Message message : messages) {
+                final Integer runs = (Integer) message.getField("runs");
+                message.addField("runs", runs == null ? 1 : runs + 1);
+                message.addField(Message.FIELD_MESSAGE, message.getMessage() + "-cut");
+            }
+            return messages;
+        };
+        final MessageProcessor failingProcessor = messages -> {
+            for (Message message : messages) {
+                if ("fail-cut".equals(message.getMessage())) {
+                    throw new IllegalStateException("Processing failed");
+                }
+            }
+            return messages;
+        };
+        messageProcessors.clear();
+        messageProcessors.add(modifyingProcessor);
+        messageProcessors.add(failingProcessor);
+        final Message first = message("1");
+        final Message second = message("2");
+        final Message failing = message("fail");
+
+        processor.dispatchBatch(ImmutableList.of(first, second, failing));
+
+        assertThat(outputMessages).isEmpty();
+        assertThat(first.getField("runs")).isEqualTo(1);
+        assertThat(first.getMessage()).isEqualTo("1-cut");
+        assertThat(second.getField("runs")).isEqualTo(1);
+        assertThat(second.getMessage()).isEqualTo("2-cut");
+        assertThat(failing.getField("runs")).isEqualTo(1);
+        verify(failureSubmissionService, times(3)).submitUnknownProcessingError(any(), anyString());
+    }
+
+    @Test
+    public void dispatchBatchOnlyReportsMessageWhichFailedToFinish() {
+        doAnswer(invocation -> {
+            final Message message = invocation.getArgument(0);
+            if ("2".equals(message.getMessage())) {
+                throw new IllegalStateException("Output failed");
+            }
+            outputMessages.add(message.getMessage());
+            return null;
+        }).when(outputBuffer).insertBlocking(any());
+        final Message failingMessage = message("2");
+
+        processor.dispatchBatch(ImmutableList.of(message("1"), failingMessage, message("3")));
+
+        assertThat(outputMessages).containsExactly("1", "3");
+        verify(failureSubmissionService, times(1)).submitUnknownProcessingError(any(), anyString());
+        verify(failureSubmissionService).submitUnknownProcessingError(eq(failingMessage), anyString());
+    }
+
+    private Message message(String text) {
+        return new Message(text, "source", Tools.nowUTC());
+    }
+}
@@ -59,6 +59,7 @@ import java.util.EnumSet;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -574,4 +575,59 @@ public class LocalKafkaJournalTest {
                 }
         );
     }
+
+    @Test
+    public void mmapReadsAcrossSegments() throws Exception {
+        final LocalKafkaJournal journal = new LocalKafkaJournal(journalDirectory.toPath(),
+                scheduler,
+                Size.kilobytes(1L),
+                Duration.standardHours(1),
+                Size.megabytes(1L),
+                Duration.standardDays(1),
+                1_000_000,
+                Duration.standardMinutes(1),
+                100,
+                true,
+                new MetricRegistry(),
+                serverStatus,
+                LocalKafkaJournal.class.getName());
+
+        final int messageCount = 200;
+        for (int i = 0; i < messageCount; i += 10) {
+            final List<Journal.Entry> entries = Lists.newArrayList();
+            for (int j = i; j < i + 10; j++) {
+                entries.add(journal.createEntry(("id" + j).getBytes(UTF_8), ("message " + j).getBytes(UTF_8)));
+            }
+            journal.write(entries);
+        }
+        assertThat(journal.numberOfSegments()).isGreaterThan(1);
+
+        final List<String> messages = Lists.newArrayList();
+        final List<Long> offsets = Lists.newArrayList();
+        List<Journal.JournalReadEntry> entries = journal.read(7);
+        while (!entries.isEmpty()) {
+            assertThat(entries.size()).isLessThanOrEqualTo(7);
+            for (Journal.JournalReadEntry entry : entries) {
+                messages.add(UTF_8.decode(entry.getPayloadBuffer()).toString());
+                offsets.add(entry.getOffset());
+                assertThat(new String(entry.getPayload(), UTF_8)).isEqualTo(messages.get(messages.size() - 1));
+            }
+            entries = journal.read(7);
+        }
+
+        assertThat(messages).containsExactlyElementsOf(
+                IntStream.range(0, messageCount).mapToObj(i -> "message " + i).collect(Collectors.toList()));
+        assertThat(offsets).containsExactlyElementsOf(
+                IntStream.range(0, messageCount).mapToObj(i -> (long) i).collect(Collectors.toList()));
+
+        // New entries in the active segment are visible to subsequent reads
+        journal.write("id".getBytes(UTF_8), "late message".getBytes(UTF_8));
+        final Journal.JournalReadEntry lateEntry = Iterators.getOnlyElement(journal.read(10).iterator());
+        assertThat(lateEntry.getOffset()).isEqualTo(messageCount);
+        assertThat(new String(lateEntry.getPayload(), UTF_8)).isEqualTo("late message");
+
+        // Reading from an arbitrary offset inside a segment
+        final List<Journal.JournalReadEntry> fromOffset = journal.read(123L, 3L);
+        assertThat(fromOffset).extracting(Journal.JournalReadEntry::getOffset).containsExactly(123L, 124L, 125L);
+    }
 }
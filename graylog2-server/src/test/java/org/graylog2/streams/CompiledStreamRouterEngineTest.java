@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.streams;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.bson.types.ObjectId;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.streams.Stream;
+import org.graylog2.plugin.streams.StreamRuleType;
+import org.graylog2.streams.matchers.StreamRuleMock;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs all {@link StreamRouterEngineTest} tests against the compiled stream rule matching.
+ */
+public class CompiledStreamRouterEngineTest extends StreamRouterEngineTest {
+    @Override
+    protected StreamRouterEngine newEngine(List<Stream> streams) {
+        return newEngine(streams, true);
+    }
+
+    @Test
+    public void testContainsRulesOnSameField() {
+        final StreamMock stream1 = getStreamMock("test1", Stream.MatchingType.AND);
+        final StreamMock stream2 = getStreamMock("test2", Stream.MatchingType.OR);
+
+        stream1.setStreamRules(Lists.newArrayList(
+                ruleMock(stream1, StreamRuleType.CONTAINS, "message", "error"),
+                ruleMock(stream1, StreamRuleType.CONTAINS, "message", "disk")));
+        stream2.setStreamRules(Lists.newArrayList(
+                ruleMock(stream2, StreamRuleType.CONTAINS, "message", "rror"),
+                ruleMock(stream2, StreamRuleType.CONTAINS, "message", "warning")));
+
+        final StreamRouterEngine engine = newEngine(Lists.newArrayList(stream1, stream2));
+
+        final Message message1 = getMessage();
+        message1.addField("message", "error error on disk");
+        assertThat(engine.match(message1)).containsExactlyInAnyOrder(stream1, stream2);
+
+        final Message message2 = getMessage();
+        message2.addField("message", "error on network");
+        assertThat(engine.match(message2)).containsExactly(stream2);
+
+        final Message message3 = getMessage();
+        message3.addField("message", "all good");
+        assertThat(engine.match(message3)).isEmpty();
+    }
+
+    @Test
+    public void testAndStreamWithRegexAfterIndexedRules() {
+        final StreamMock stream = getStreamMock("test", Stream.MatchingType.AND);
+
+        stream.setStreamRules(Lists.newArrayList(
+                ruleMock(stream, StreamRuleType.REGEX, "message", "^foo"),
+                ruleMock(stream, StreamRuleType.EXACT, "source", "example.org"),
+                ruleMock(stream, StreamRuleType.REGEX, "message", "bar$")));
+
+        final StreamRouterEngine engine = newEngine(Lists.newArrayList(stream));
+
+        final Message message1 = getMessage();
+        message1.addField("message", "foo bar");
+        message1.addField("source", " example.org ");
+        assertThat(engine.match(message1)).containsExactly(stream);
+
+        final Message message2 = getMessage();
+        message2.addField("message", "foo baz");
+        message2.addField("source", "example.org");
+        assertThat(engine.match(message2)).isEmpty();
+
+        final Message message3 = getMessage();
+        message3.addField("message", "foo bar");
+        message3.addField("source", "example.com");
+        assertThat(engine.match(message3)).isEmpty();
+    }
+
+    private StreamRuleMock ruleMock(Stream stream, StreamRuleType type, String field, String value) {
+        return new StreamRuleMock(ImmutableMap.of(
+                "_id", new ObjectId(),
+                "field", field,
+                "value", value,
+                "type", type.toInteger(),
+                "stream_id", stream.getId()
+        ));
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.streams;
+
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ContainsAutomatonTest {
+    @Test
+    public void findsAllPatterns() {
+        final ContainsAutomaton automaton = ContainsAutomaton.builder()
+                .add("he", 1)
+                .add("she", 2)
+                .add("his", 3)
+                .add("hers", 4)
+                .build();
+
+        assertThat(search(automaton, "ushers")).containsExactly(1, 2, 4);
+        assertThat(search(automaton, "this")).containsExactly(3);
+        assertThat(search(automaton, "nothing")).isEmpty();
+    }
+
+    @Test
+    public void emptyPatternMatchesEverything() {
+        final ContainsAutomaton automaton = ContainsAutomaton.builder()
+                .add("", 1)
+                .add("foo", 2)
+                .build();
+
+        assertThat(search(automaton, "")).containsExactly(1);
+        assertThat(search(automaton, "a foo")).containsExactly(1, 2);
+    }
+
+    private Set<Integer> search(ContainsAutomaton automaton, String text) {
+        final Set<Integer> result = new TreeSet<>();
+        automaton.search(text, result::add);
+        return result;
+    }
+}
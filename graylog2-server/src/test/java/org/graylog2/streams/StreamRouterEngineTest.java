@@ -69,9 +69,13 @@ public class StreamRouterEngineTest {
         when(streamFaultManager.getStreamProcessingTimeout()).thenReturn(250L);
     }
 
+    protected StreamRouterEngine newEngine(List<Stream> streams) {
+        return newEngine(streams, false);
+    }
+
     @SuppressForbidden("Executors#newSingleThreadExecutor() is okay for tests")
-    private StreamRouterEngine newEngine(List<Stream> streams) {
-        return new StreamRouterEngine(streams, Executors.newSingleThreadExecutor(), streamFaultManager, streamMetrics, defaultStreamProvider);
+    protected StreamRouterEngine newEngine(List<Stream> streams, boolean compiledRules) {
+        return new StreamRouterEngine(streams, Executors.newSingleThreadExecutor(), streamFaultManager, streamMetrics, defaultStreamProvider, compiledRules);
     }
 
     @Test
@@ -764,11 +768,11 @@ public class StreamRouterEngineTest {
                 Lists.newArrayList(stream), engine.match(message2));
     }
 
-    private StreamMock getStreamMock(String title) {
+    protected StreamMock getStreamMock(String title) {
         return getStreamMock(title, Stream.MatchingType.AND);
     }
 
-    private StreamMock getStreamMock(String title, Stream.MatchingType matchingType) {
+    protected StreamMock getStreamMock(String title, Stream.MatchingType matchingType) {
         return new StreamMock(ImmutableMap.of("_id", new ObjectId(), "title", title, "matching_type", matchingType));
     }
 
@@ -782,7 +786,7 @@ public class StreamRouterEngineTest {
         return result;
     }
 
-    private Message getMessage() {
+    protected Message getMessage() {
         return new Message("test message", "localhost", new DateTime(DateTimeZone.UTC));
     }
 }
@@ -104,6 +104,14 @@ class CSVFileAdapterFieldSet extends React.Component {
                onChange={this.props.handleFormEvent}
                help="Enable if the key lookup should be case-insensitive."
                wrapperClassName="col-md-offset-3 col-md-9" />
+        <Input type="checkbox"
+               id="memory_mapped_index"
+               name="memory_mapped_index"
+               label="Use memory-mapped index"
+               checked={config.memory_mapped_index}
+               onChange={this.props.handleFormEvent}
+               help="Enable for very large files. Lookups are served from an index file next to the CSV file instead of memory. The directory of the CSV file must be writable."
+               wrapperClassName="col-md-offset-3 col-md-9" />
       </fieldset>
     );
   }
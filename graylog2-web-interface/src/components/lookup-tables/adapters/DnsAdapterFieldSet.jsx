@@ -62,6 +62,15 @@ class DnsAdapterFieldSet extends React.Component {
     updateConfig(newConfig);
   };
 
+  updateNegativeCacheTTL = (value, unit, enabled) => {
+    const { config, updateConfig } = this.props;
+    const newConfig = ObjectUtils.clone(config);
+
+    newConfig.negative_cache_ttl = enabled && value ? value : null;
+    newConfig.negative_cache_ttl_unit = enabled && value ? unit : null;
+    updateConfig(newConfig);
+  };
+
   render() {
     const {
       config,
@@ -129,6 +138,23 @@ class DnsAdapterFieldSet extends React.Component {
                        enabled={config.cache_ttl_override_enabled}
                        labelClassName="col-sm-3"
                        wrapperClassName="col-sm-9" />
+        <TimeUnitInput label="Negative Cache TTL"
+                       help="If enabled, lookups without a DNS record will be cached for the specified time."
+                       update={this.updateNegativeCacheTTL}
+                       value={config.negative_cache_ttl}
+                       unit={config.negative_cache_ttl_unit || 'MINUTES'}
+                       units={['MILLISECONDS', 'SECONDS', 'MINUTES', 'HOURS', 'DAYS']}
+                       enabled={config.negative_cache_ttl !== null && config.negative_cache_ttl !== undefined}
+                       labelClassName="col-sm-3"
+                       wrapperClassName="col-sm-9" />
+        <Input type="checkbox"
+               id="async_lookups_enabled"
+               name="async_lookups_enabled"
+               label="Asynchronous lookups"
+               checked={config.async_lookups_enabled}
+               onChange={handleFormEvent}
+               help="If enabled, lookups of unresolved keys return the default value right away and are resolved in the background."
+               wrapperClassName="col-md-offset-3 col-md-9" />
       </fieldset>
     );
   }
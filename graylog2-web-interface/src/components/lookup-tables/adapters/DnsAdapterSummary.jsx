@@ -46,6 +46,14 @@ const DnsAdapterSummary = ({ dataAdapter }) => {
       <dd>
         {!config.cache_ttl_override_enabled ? 'n/a' : <TimeUnit value={config.cache_ttl_override} unit={config.cache_ttl_override_unit} />}
       </dd>
+
+      <dt>Negative Cache TTL</dt>
+      <dd>
+        {!config.negative_cache_ttl ? 'n/a' : <TimeUnit value={config.negative_cache_ttl} unit={config.negative_cache_ttl_unit} />}
+      </dd>
+
+      <dt>Asynchronous Lookups</dt>
+      <dd>{config.async_lookups_enabled ? 'yes' : 'no'}</dd>
     </dl>
   );
 };